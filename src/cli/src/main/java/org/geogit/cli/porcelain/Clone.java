@@ -17,11 +17,13 @@ import org.geogit.api.porcelain.InitOp;
 import org.geogit.cli.AbstractCommand;
 import org.geogit.cli.CLICommand;
 import org.geogit.cli.GeogitCLI;
+import org.geogit.remote.SparseFilter;
 import org.geogit.repository.Repository;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 
 /**
  * Clones a repository into a newly created directory, creates remote-tracking branches for each
@@ -32,6 +34,11 @@ import com.google.common.base.Throwables;
  * remote-tracking branches, and a {@code geogit pull} without arguments will in addition merge the
  * remote master branch into the current master branch, if any.
  * <p>
+ * A sparse clone, made with {@code --sparse-path} or {@code --sparse-bbox}, only has the trees and
+ * features within the filter, and can only be updated with {@code geogit fetch}: pull and merge
+ * need the complete trees and refuse to run on it, and diffs fail if the compared commits differ
+ * outside the filter.
+ * <p>
  * This default configuration is achieved by creating references to the remote branch heads under
  * {@code refs/remotes/origin} and by initializing {@code remote.origin.url} and
  * {@code remote.origin.fetch} configuration variables.
@@ -40,7 +47,7 @@ import com.google.common.base.Throwables;
  * <p>
  * Usage:
  * <ul>
- * <li> {@code geogit clone [--branch <name>] <repository> [<directory>]}
+ * <li> {@code geogit clone [--branch <name>] [--depth <depth>] [--sparse-path <path>...] [--sparse-bbox <minx,miny,maxx,maxy>] <repository> [<directory>]}
  * </ul>
  * 
  * @see CloneOp
@@ -51,6 +58,15 @@ public class Clone extends AbstractCommand implements CLICommand {
     @Parameter(names = { "-b", "--branch" }, description = "Branch to checkout when clone is finished.")
     private String branch;
 
+    @Parameter(names = "--depth", description = "Create a shallow clone with a history truncated to the specified number of commits.")
+    private Integer depth;
+
+    @Parameter(names = "--sparse-path", description = "Clone only the trees under the given path(s), making a sparse clone.", variableArity = true)
+    private List<String> sparsePaths = Lists.newArrayList();
+
+    @Parameter(names = "--sparse-bbox", description = "Clone only the features within the given bounding box, as <minx,miny,maxx,maxy>, making a sparse clone.")
+    private String sparseBounds;
+
     @Parameter(description = "<repository> [<directory>]")
     private List<String> args;
 
@@ -115,7 +131,13 @@ public class Clone extends AbstractCommand implements CLICommand {
 
         CloneOp clone = cli.getGeogit().command(CloneOp.class);
         clone.setProgressListener(cli.getProgressListener());
-        clone.setBranch(branch).setRepositoryURL(repoURL);
+        clone.setBranch(branch).setDepth(depth).setRepositoryURL(repoURL);
+        for (String path : sparsePaths) {
+            clone.addSparsePath(path);
+        }
+        if (sparseBounds != null) {
+            clone.setSparseBounds(SparseFilter.parseBounds(sparseBounds));
+        }
 
         clone.call();
 
@@ -48,6 +48,9 @@ public class Fetch extends AbstractCommand implements CLICommand {
     @Parameter(names = { "-p", "--prune" }, description = "After fetching, remove any remote-tracking branches which no longer exist on the remote.")
     private boolean prune = false;
 
+    @Parameter(names = "--depth", description = "Limit fetching to the specified number of commits from the tip of each remote branch.")
+    private Integer depth;
+
     @Parameter(description = "[<repository>...]")
     private List<String> args;
 
@@ -63,7 +66,7 @@ public class Fetch extends AbstractCommand implements CLICommand {
 
         FetchOp fetch = cli.getGeogit().command(FetchOp.class);
         fetch.setProgressListener(cli.getProgressListener());
-        fetch.setAll(all).setPrune(prune);
+        fetch.setAll(all).setPrune(prune).setDepth(depth);
 
         if (args != null) {
             for (String repo : args) {
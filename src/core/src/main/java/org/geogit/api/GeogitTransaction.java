@@ -14,6 +14,11 @@ import com.google.common.base.Preconditions;
 
 /**
  * Provides a method of performing concurrent operations on a single Geogit repository.
+ * <p>
+ * A transaction is lightweight: its refs live in an in-memory {@link TransactionRefDatabase}
+ * overlay, and its {@link WorkingTree} and {@link StagingArea} share the repository's staging
+ * database, where objects are content addressed and hence can't clash between transactions. Only
+ * ending the transaction updates the repository refs.
  * 
  * @see org.geogit.api.plumbing.TransactionBegin
  * @see org.geogit.api.plumbing.TransactionEnd
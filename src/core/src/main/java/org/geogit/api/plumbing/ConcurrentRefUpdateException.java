@@ -0,0 +1,62 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import javax.annotation.Nullable;
+
+/**
+ * Indicates a ref could not be updated by {@link UpdateRef} because its current value doesn't
+ * match the expected old value, usually because it was changed concurrently by another writer.
+ * <p>
+ * Callers may re-read the ref and retry the operation based on its current value.
+ */
+public class ConcurrentRefUpdateException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String refName;
+
+    private final String expectedValue;
+
+    private final String actualValue;
+
+    /**
+     * Constructs a new {@code ConcurrentRefUpdateException}.
+     *
+     * @param refName the name of the ref that couldn't be updated
+     * @param expectedValue the value the ref was expected to have
+     * @param actualValue the value the ref had, or {@code null} if it didn't exist
+     */
+    public ConcurrentRefUpdateException(String refName, String expectedValue,
+            @Nullable String actualValue) {
+        super("Old value (" + actualValue + ") of " + refName + " doesn't match expected value '"
+                + expectedValue + "'");
+        this.refName = refName;
+        this.expectedValue = expectedValue;
+        this.actualValue = actualValue;
+    }
+
+    /**
+     * @return the name of the ref that couldn't be updated
+     */
+    public String getRefName() {
+        return refName;
+    }
+
+    /**
+     * @return the value the ref was expected to have
+     */
+    public String getExpectedValue() {
+        return expectedValue;
+    }
+
+    /**
+     * @return the value the ref had, or {@code null} if it didn't exist
+     */
+    @Nullable
+    public String getActualValue() {
+        return actualValue;
+    }
+}
@@ -0,0 +1,284 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Finds the commits reachable from a {@link #setWant(ObjectId) wanted} commit that are not
+ * reachable from any of the {@link #addHave(ObjectId) commits another repository has}, that is,
+ * the commits that repository is missing to get the wanted one.
+ * <p>
+ * This is the server side of a fetch negotiation: the fetching repository sends the tips of its
+ * branches as haves, and gets back the exact list of commits to download, instead of discovering
+ * the boundary by asking whether each commit exists. Haves this repository doesn't know about are
+ * ignored.
+ * <p>
+ * Commits are walked newest first by committer timestamp, painting the history reachable from the
+ * haves as uninteresting as it's found, and the walk stops as soon as all the commits left to visit
+ * are uninteresting, so it doesn't go past the common history.
+ * <p>
+ * If a {@link #setDepth(Integer) depth} is given, only the commits at most that many commits away
+ * from the wanted one (counting it as 1) are returned, for a shallow fetch. Parents missing from
+ * this repository, as in a shallow repository, are treated as the end of history.
+ */
+public class FindMissingCommits extends AbstractGeoGitOp<List<ObjectId>> {
+
+    private ObjectId want;
+
+    private Set<ObjectId> haves = Sets.newHashSet();
+
+    @Nullable
+    private Integer depth;
+
+    private Repository repository;
+
+    /**
+     * Construct a new {@code FindMissingCommits} using the specified {@link Repository}.
+     *
+     * @param repository the repository
+     */
+    @Inject
+    public FindMissingCommits(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @param want the id of the commit to find the missing history of
+     * @return {@code this}
+     */
+    public FindMissingCommits setWant(ObjectId want) {
+        this.want = want;
+        return this;
+    }
+
+    /**
+     * @param have the id of a commit, usually a branch tip, whose history is already present
+     * @return {@code this}
+     */
+    public FindMissingCommits addHave(ObjectId have) {
+        Preconditions.checkNotNull(have);
+        this.haves.add(have);
+        return this;
+    }
+
+    /**
+     * @param depth the maximum number of commits to walk from the wanted one, or {@code null} for
+     *        no limit
+     * @return {@code this}
+     */
+    public FindMissingCommits setDepth(@Nullable Integer depth) {
+        Preconditions.checkArgument(depth == null || depth.intValue() > 0,
+                "depth shall be positive: %s", depth);
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Walk state of a commit
+     */
+    private static class Entry {
+
+        final RevCommit commit;
+
+        boolean uninteresting;
+
+        /** whether the commit is still queued, that is, its parents are not yet known */
+        boolean queued = true;
+
+        /** distance to the wanted commit, counting it as 1 */
+        int depth;
+
+        Entry(RevCommit commit, boolean uninteresting, int depth) {
+            this.commit = commit;
+            this.uninteresting = uninteresting;
+            this.depth = depth;
+        }
+    }
+
+    private static long timestamp(Entry entry) {
+        return entry.commit.getCommitter().getTimestamp();
+    }
+
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            long t1 = timestamp(e1);
+            long t2 = timestamp(e2);
+            return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+        }
+    };
+
+    private final Map<ObjectId, Entry> entries = Maps.newHashMap();
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(64, NEWEST_FIRST);
+
+    /** number of queued commits that are not uninteresting */
+    private int interesting;
+
+    /**
+     * @return the ids of the missing commits, each one before its parents, or an empty list if the
+     *         wanted commit is reachable from the haves
+     */
+    @Override
+    public List<ObjectId> call() {
+        Preconditions.checkState(want != null, "Wanted commit has not been set.");
+        final ObjectDatabase db = repository.getObjectDatabase();
+
+        entries.clear();
+        queue.clear();
+        interesting = 0;
+
+        RevCommit wanted = db.getIfPresent(want, RevCommit.class);
+        Preconditions.checkArgument(wanted != null, "Commit %s does not exist", want);
+        enqueue(wanted, false, 1);
+        for (ObjectId have : haves) {
+            Entry entry = entries.get(have);
+            if (entry != null) {
+                markUninteresting(entry);
+            } else {
+                RevObject object = db.getIfPresent(have);
+                if (object instanceof RevCommit) {
+                    enqueue((RevCommit) object, true, 0);
+                }
+            }
+        }
+
+        List<Entry> visited = Lists.newArrayList();
+        long oldestVisited = Long.MAX_VALUE;
+        // keep going past the last interesting commit while there are uninteresting ones as new as
+        // the visited commits, as they may still reach them if commit times are equal
+        while (interesting > 0
+                || (!queue.isEmpty() && timestamp(queue.peek()) >= oldestVisited)) {
+            final Entry entry = queue.remove();
+            entry.queued = false;
+            if (!entry.uninteresting) {
+                interesting--;
+                visited.add(entry);
+                oldestVisited = Math.min(oldestVisited, timestamp(entry));
+                if (depth != null && entry.depth >= depth.intValue()) {
+                    continue;
+                }
+            }
+            for (ObjectId parentId : entry.commit.getParentIds()) {
+                Entry parent = entries.get(parentId);
+                if (parent == null) {
+                    RevCommit commit = db.getIfPresent(parentId, RevCommit.class);
+                    if (commit != null) {
+                        enqueue(commit, entry.uninteresting, entry.depth + 1);
+                    }
+                } else if (entry.uninteresting) {
+                    markUninteresting(parent);
+                } else if (parent.queued) {
+                    parent.depth = Math.min(parent.depth, entry.depth + 1);
+                }
+            }
+        }
+
+        return sortTopologically(visited);
+    }
+
+    private void enqueue(RevCommit commit, boolean uninteresting, int depth) {
+        Entry entry = new Entry(commit, uninteresting, depth);
+        entries.put(commit.getId(), entry);
+        queue.add(entry);
+        if (!uninteresting) {
+            interesting++;
+        }
+    }
+
+    /**
+     * Marks the commit as uninteresting, along with the already visited history behind it, in
+     * case a commit with a skewed timestamp made the walk visit it before one of its children
+     */
+    private void markUninteresting(Entry entry) {
+        List<Entry> stack = Lists.newArrayList(entry);
+        while (!stack.isEmpty()) {
+            Entry e = stack.remove(stack.size() - 1);
+            if (e.uninteresting) {
+                continue;
+            }
+            e.uninteresting = true;
+            if (e.queued) {
+                interesting--;
+            } else {
+                for (ObjectId parentId : e.commit.getParentIds()) {
+                    Entry parent = entries.get(parentId);
+                    if (parent != null) {
+                        stack.add(parent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Orders the interesting visited commits so that each one comes before its parents, keeping
+     * the visit order otherwise
+     */
+    private List<ObjectId> sortTopologically(List<Entry> visited) {
+        Map<ObjectId, Integer> childCount = Maps.newHashMap();
+        for (Entry entry : visited) {
+            if (entry.uninteresting) {
+                continue;
+            }
+            if (!childCount.containsKey(entry.commit.getId())) {
+                childCount.put(entry.commit.getId(), 0);
+            }
+            for (ObjectId parentId : entry.commit.getParentIds()) {
+                Entry parent = entries.get(parentId);
+                if (parent != null && !parent.uninteresting && !parent.queued) {
+                    Integer count = childCount.get(parentId);
+                    childCount.put(parentId, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        ImmutableList.Builder<ObjectId> sorted = ImmutableList.builder();
+        Queue<Entry> ready = new LinkedList<Entry>();
+        for (Entry entry : visited) {
+            if (!entry.uninteresting && childCount.get(entry.commit.getId()) == 0) {
+                ready.add(entry);
+            }
+        }
+        while (!ready.isEmpty()) {
+            Entry entry = ready.remove();
+            sorted.add(entry.commit.getId());
+            for (ObjectId parentId : entry.commit.getParentIds()) {
+                Integer count = childCount.get(parentId);
+                if (count != null) {
+                    childCount.put(parentId, count - 1);
+                    if (count == 1) {
+                        ready.add(entries.get(parentId));
+                    }
+                }
+            }
+        }
+        return sorted.build();
+    }
+}
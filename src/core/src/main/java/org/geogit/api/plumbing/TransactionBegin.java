@@ -6,14 +6,12 @@
 package org.geogit.api.plumbing;
 
 import java.util.UUID;
-import java.util.concurrent.TimeoutException;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.repository.Repository;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import com.google.inject.Inject;
 
 /**
@@ -48,19 +46,10 @@ public class TransactionBegin extends AbstractGeoGitOp<GeogitTransaction> {
 
         GeogitTransaction t = new GeogitTransaction(commandLocator, repository, UUID.randomUUID());
 
-        // Lock the repository
-        try {
-            getRefDatabase().lock();
-        } catch (TimeoutException e) {
-            Throwables.propagate(e);
-        }
-        try {
-            // Copy original refs
-            t.create();
-        } finally {
-            // Unlock the repository
-            getRefDatabase().unlock();
-        }
+        // Copy original refs. This only takes an in-memory snapshot of the current refs, so there's
+        // no need to lock the repository
+        t.create();
+
         // Return the transaction
         return t;
     }
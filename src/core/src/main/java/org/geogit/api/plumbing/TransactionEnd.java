@@ -11,6 +11,7 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.RebaseOp;
@@ -30,11 +31,22 @@ import com.google.inject.Inject;
  * <p>
  * If the repository ref was updated while the transaction occurred, a rebase operation will be
  * performed on that ref and the repository's ref will be updated to the newly rebased commit.
+ * <p>
+ * Repository refs are updated with atomic compare-and-set operations rather than by locking the
+ * whole repository, so transactions on different refs can end concurrently, and a transaction whose
+ * ref is modified while it's being ended rebases again instead of overwriting the other change.
+ * {@code WORK_HEAD} and {@code STAGE_HEAD} only follow the current branch if they still match its
+ * previous value, so uncommitted changes and newer transactions are never overwritten.
  * 
  * @see GeogitTransaction
  */
 public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
 
+    /**
+     * Maximum number of times the update of a ref is attempted when it's concurrently modified
+     */
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
     private boolean cancel = false;
 
     private GeogitTransaction transaction = null;
@@ -90,59 +102,43 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
 
         if (!cancel) {
             ImmutableSet<Ref> changedRefs = getChangedRefs();
-            // Lock the repository
-            try {
-                getRefDatabase().lock();
-            } catch (TimeoutException e) {
-                Throwables.propagate(e);
+            if (sync) {
+                // sync mode rebases on the repository's own working tree, so it can't run
+                // concurrently with other transactions
+                try {
+                    getRefDatabase().lock();
+                } catch (TimeoutException e) {
+                    Throwables.propagate(e);
+                }
             }
-
             try {
                 // Update refs
                 for (Ref ref : changedRefs) {
-                    Ref updatedRef = ref;
-
-                    Optional<Ref> repoRef = command(RefParse.class).setName(ref.getName()).call();
-                    if (repoRef.isPresent() && repositoryChanged(repoRef.get())) {
-                        // Try to rebase
-                        if (sync) {
-                            ObjectId updatedRefId = ref.getObjectId();
-                            command(CheckoutOp.class).setSource(repoRef.get().getName())
-                                    .setForce(true).call();
-                            command(RebaseOp.class).setUpstream(Suppliers.ofInstance(updatedRefId))
-                                    .call();
-                            updatedRef = command(RefParse.class).setName(ref.getName()).call()
-                                    .get();
-
-                        } else {
-                            transaction.command(CheckoutOp.class).setSource(ref.getName())
-                                    .setForce(true).call();
-                            transaction.command(RebaseOp.class)
-                                    .setUpstream(Suppliers.ofInstance(repoRef.get().getObjectId()))
-                                    .call();
-                            updatedRef = transaction.command(RefParse.class).setName(ref.getName())
-                                    .call().get();
-                        }
-                    }
-                    command(UpdateRef.class).setName(ref.getName())
-                            .setNewValue(updatedRef.getObjectId()).call();
+                    UpdatedRef updated = updateRef(ref);
 
                     if (currentBranch.equals(ref.getName())) {
                         // Update HEAD, WORK_HEAD and STAGE_HEAD
                         command(UpdateSymRef.class).setName(Ref.HEAD).setNewValue(ref.getName())
                                 .call();
-                        command(UpdateRef.class).setName(Ref.WORK_HEAD)
-                                .setNewValue(updatedRef.getObjectId()).call();
-                        command(UpdateRef.class).setName(Ref.STAGE_HEAD)
-                                .setNewValue(updatedRef.getObjectId()).call();
+                        final ObjectId newValue = updated.ref.getObjectId();
+                        if (sync) {
+                            command(UpdateRef.class).setName(Ref.WORK_HEAD).setNewValue(newValue)
+                                    .call();
+                            command(UpdateRef.class).setName(Ref.STAGE_HEAD).setNewValue(newValue)
+                                    .call();
+                        } else {
+                            updateHead(Ref.WORK_HEAD, ref.getName(), updated.previous, newValue);
+                            updateHead(Ref.STAGE_HEAD, ref.getName(), updated.previous, newValue);
+                        }
                     }
                 }
 
                 // TODO: What happens if there are unstaged or staged changes in the repository when
                 // a transaction is committed?
             } finally {
-                // Unlock the repository
-                getRefDatabase().unlock();
+                if (sync) {
+                    getRefDatabase().unlock();
+                }
             }
 
         }
@@ -154,6 +150,119 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
         return true;
     }
 
+    /**
+     * Updates the repository ref to the value of the transaction ref, rebasing the transaction
+     * changes on top of the repository ref if it changed since the transaction began.
+     * <p>
+     * The repository ref is updated with an atomic compare-and-set against the value the rebase
+     * was based on, so a concurrent commit to the same ref is never lost: if another writer
+     * updated it in the meantime the rebase is performed again on top of the new value, up to
+     * {@link #MAX_UPDATE_ATTEMPTS} times.
+     * 
+     * @return the value the repository ref was set to, and the one it had before
+     */
+    private UpdatedRef updateRef(final Ref ref) {
+        for (int attempt = 1;; attempt++) {
+            Ref updatedRef = ref;
+
+            Optional<Ref> repoRef = command(RefParse.class).setName(ref.getName()).call();
+            if (repoRef.isPresent() && (attempt > 1 || repositoryChanged(repoRef.get()))) {
+                // Try to rebase
+                if (sync) {
+                    ObjectId updatedRefId = ref.getObjectId();
+                    command(CheckoutOp.class).setSource(repoRef.get().getName()).setForce(true)
+                            .call();
+                    command(RebaseOp.class).setUpstream(Suppliers.ofInstance(updatedRefId))
+                            .call();
+                    updatedRef = command(RefParse.class).setName(ref.getName()).call().get();
+                    // the rebase already moved the repository ref
+                    return new UpdatedRef(repoRef.get().getObjectId(), updatedRef);
+                } else {
+                    transaction.command(CheckoutOp.class).setSource(ref.getName())
+                            .setForce(true).call();
+                    transaction.command(RebaseOp.class)
+                            .setUpstream(Suppliers.ofInstance(repoRef.get().getObjectId()))
+                            .call();
+                    updatedRef = transaction.command(RefParse.class).setName(ref.getName())
+                            .call().get();
+                }
+            }
+            UpdateRef update = command(UpdateRef.class).setName(ref.getName()).setNewValue(
+                    updatedRef.getObjectId());
+            // a ref that doesn't exist yet is expected to still be absent, so that two
+            // transactions creating the same branch can't both succeed
+            final ObjectId previous = repoRef.isPresent() ? repoRef.get().getObjectId()
+                    : ObjectId.NULL;
+            update.setOldValue(previous);
+            try {
+                update.call();
+                return new UpdatedRef(previous, updatedRef);
+            } catch (ConcurrentRefUpdateException e) {
+                if (attempt == MAX_UPDATE_ATTEMPTS) {
+                    throw new IllegalStateException("Unable to update " + ref.getName()
+                            + ", it's being concurrently modified", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves {@code headName} ({@code WORK_HEAD} or {@code STAGE_HEAD}) to the new value of the
+     * current branch, with a compare-and-set against the branch's previous value. If the head
+     * doesn't match it, either there are uncommitted changes or a concurrent transaction already
+     * moved it further, and it's left alone.
+     * <p>
+     * A concurrent transaction that moved the branch further while the head still didn't match its
+     * previous value left the head behind, so once the head is moved it's moved again to the
+     * current value of the branch if that changed.
+     */
+    private void updateHead(final String headName, final String branch, ObjectId oldValue,
+            ObjectId newValue) {
+        for (int attempt = 1; attempt <= MAX_UPDATE_ATTEMPTS; attempt++) {
+            Optional<Ref> head = command(RefParse.class).setName(headName).call();
+            final ObjectId current = head.isPresent() ? head.get().getObjectId() : ObjectId.NULL;
+            if (!current.equals(oldValue) && !resolveTree(current).equals(resolveTree(oldValue))) {
+                return;
+            }
+            try {
+                command(UpdateRef.class).setName(headName).setOldValue(current)
+                        .setNewValue(newValue).call();
+            } catch (ConcurrentRefUpdateException e) {
+                continue;
+            }
+            Optional<Ref> branchRef = command(RefParse.class).setName(branch).call();
+            if (!branchRef.isPresent() || branchRef.get().getObjectId().equals(newValue)) {
+                return;
+            }
+            oldValue = newValue;
+            newValue = branchRef.get().getObjectId();
+        }
+    }
+
+    private ObjectId resolveTree(ObjectId treeish) {
+        if (treeish.isNull()) {
+            return RevTree.EMPTY.getId();
+        }
+        Optional<ObjectId> treeId = command(ResolveTreeish.class).setTreeish(treeish).call();
+        return treeId.isPresent() ? treeId.get() : RevTree.EMPTY.getId();
+    }
+
+    /**
+     * The new value of a repository ref updated by a transaction, along with the value it had
+     * before
+     */
+    private static class UpdatedRef {
+
+        final ObjectId previous;
+
+        final Ref ref;
+
+        UpdatedRef(ObjectId previous, Ref ref) {
+            this.previous = previous;
+            this.ref = ref;
+        }
+    }
+
     private ImmutableSet<Ref> getChangedRefs() {
         return transaction.command(ForEachRef.class).setPrefixFilter(Ref.HEADS_PREFIX).call();
     }
@@ -8,6 +8,7 @@ package org.geogit.api.plumbing;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.storage.RefDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -59,7 +60,10 @@ public class UpdateRef extends AbstractGeoGitOp<Optional<Ref>> {
 
     /**
      * @param oldValue if provided, the operation will fail if the current ref value doesn't match
-     *        {@code oldValue}
+     *        {@code oldValue}. The check and the update are performed atomically through
+     *        {@link RefDatabase#compareAndSet(String, String, String)}, and a
+     *        {@link ConcurrentRefUpdateException} is thrown if the ref was changed concurrently.
+     *        {@link ObjectId#NULL} also matches a ref that doesn't exist yet.
      * @return {@code this}
      */
     public UpdateRef setOldValue(ObjectId oldValue) {
@@ -95,20 +99,29 @@ public class UpdateRef extends AbstractGeoGitOp<Optional<Ref>> {
      * Executes the operation.
      * 
      * @return the new value of the ref
+     * @throws ConcurrentRefUpdateException if an {@link #setOldValue(ObjectId) old value} was
+     *         provided and the ref doesn't match it
      */
     @Override
     public Optional<Ref> call() {
         Preconditions.checkState(name != null, "name has not been set");
         Preconditions.checkState(delete || newValue != null, "value has not been set");
 
-        if (oldValue != null) {
-            String storedValue;
-            try {
-                storedValue = getRefDatabase().getRef(name);
-            } catch (IllegalArgumentException e) {
-                // may be updating what used to be a symred to be a direct ref
-                storedValue = getRefDatabase().getSymRef(name);
+        if (oldValue != null && !delete && isObjectId(oldValue)) {
+            // atomically check the old value and set the new one, so that concurrent updates of
+            // the same ref can't be lost
+            final String expected = ObjectId.NULL.toString().equals(oldValue)
+                    && getStoredValue() == null ? null : oldValue;
+            boolean updated = getRefDatabase().compareAndSet(name, expected,
+                    newValue.toString());
+            if (!updated) {
+                throw new ConcurrentRefUpdateException(name, oldValue, getStoredValue());
             }
+            return command(RefParse.class).setName(name).call();
+        }
+
+        if (oldValue != null) {
+            String storedValue = getStoredValue();
             Preconditions.checkState(oldValue.toString().equals(storedValue), "Old value ("
                     + storedValue + ") doesn't match expected value '" + oldValue + "'");
         }
@@ -125,4 +138,23 @@ public class UpdateRef extends AbstractGeoGitOp<Optional<Ref>> {
         return command(RefParse.class).setName(name).call();
     }
 
+    private String getStoredValue() {
+        String storedValue;
+        try {
+            storedValue = getRefDatabase().getRef(name);
+        } catch (IllegalArgumentException e) {
+            // may be updating what used to be a symred to be a direct ref
+            storedValue = getRefDatabase().getSymRef(name);
+        }
+        return storedValue;
+    }
+
+    private static boolean isObjectId(String value) {
+        try {
+            ObjectId.valueOf(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
 }
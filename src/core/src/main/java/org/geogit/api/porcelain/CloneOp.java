@@ -4,6 +4,8 @@
  */
 package org.geogit.api.porcelain;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
@@ -15,12 +17,16 @@ import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.porcelain.ConfigOp.ConfigAction;
 import org.geogit.api.porcelain.ConfigOp.ConfigScope;
+import org.geogit.remote.SparseFilter;
+import org.geogit.repository.Repository;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Clones a remote repository to a given directory.
@@ -32,11 +38,22 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
 
     private String repositoryURL;
 
+    @Nullable
+    private Integer depth;
+
+    private List<String> sparsePaths = Lists.newArrayList();
+
+    @Nullable
+    private Envelope sparseBounds;
+
+    private Repository repository;
+
     /**
      * Constructs a new {@code CloneOp}.
      */
     @Inject
-    public CloneOp() {
+    public CloneOp(Repository repository) {
+        this.repository = repository;
     }
 
     /**
@@ -57,6 +74,44 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
         return this;
     }
 
+    /**
+     * @param depth the number of commits of history to clone from each branch tip, or
+     *        {@code null} to clone the whole history
+     * @return {@code this}
+     */
+    public CloneOp setDepth(@Nullable Integer depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Restricts the clone to the trees under the given path, making it a sparse clone. May be
+     * called several times to clone several trees.
+     * 
+     * @param path the path of a tree to clone, like a feature type tree
+     * @return {@code this}
+     * @see SparseFilter
+     */
+    public CloneOp addSparsePath(String path) {
+        Preconditions.checkNotNull(path);
+        this.sparsePaths.add(path);
+        return this;
+    }
+
+    /**
+     * Restricts the clone to the features within the given bounding box, making it a sparse
+     * clone.
+     * 
+     * @param bounds the bounding box of the features to clone, or {@code null} to clone all of
+     *        them
+     * @return {@code this}
+     * @see SparseFilter
+     */
+    public CloneOp setSparseBounds(@Nullable Envelope bounds) {
+        this.sparseBounds = bounds;
+        return this;
+    }
+
     /**
      * Executes the clone operation.
      * 
@@ -73,8 +128,14 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
         // Set up origin
         Remote remote = command(RemoteAddOp.class).setName("origin").setURL(repositoryURL).call();
 
+        // Record the sparse filter, if any, so that this and later fetches honor it
+        SparseFilter sparseFilter = new SparseFilter(sparsePaths, sparseBounds);
+        if (!sparseFilter.isEmpty()) {
+            sparseFilter.save(repository);
+        }
+
         // Fetch remote data
-        command(FetchOp.class).setProgressListener(subProgress(90.f)).call();
+        command(FetchOp.class).setDepth(depth).setProgressListener(subProgress(90.f)).call();
 
         // Set up remote tracking branches
         final ImmutableSet<Ref> remoteRefs = command(LsRemote.class).setRemote(
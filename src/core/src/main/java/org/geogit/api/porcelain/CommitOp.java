@@ -23,6 +23,7 @@ import org.geogit.api.RevCommit;
 import org.geogit.api.RevPerson;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.ConcurrentRefUpdateException;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
@@ -222,6 +223,8 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
      * @see org.geogit.api.AbstractGeoGitOp#call()
      * @throws NothingToCommitException if there are no staged changes by comparing the index
      *         staging tree and the repository HEAD tree.
+     * @throws ConcurrentRefUpdateException if the current branch was updated by another writer
+     *         while the commit was being created
      */
     public RevCommit call() throws RuntimeException {
         final String committer = resolveCommitter();
@@ -313,9 +316,10 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
             commit = cb.build();
             objectDb.put(commit);
         }
-        // set the HEAD pointing to the new commit
+        // set the HEAD pointing to the new commit, failing if the branch was moved by someone
+        // else since it was resolved above
         final Optional<Ref> branchHead = command(UpdateRef.class).setName(currentBranch)
-                .setNewValue(commit.getId()).call();
+                .setOldValue(currHeadCommitId).setNewValue(commit.getId()).call();
         checkState(commit.getId().equals(branchHead.get().getObjectId()));
 
         final Optional<Ref> newHead = command(UpdateSymRef.class).setName(Ref.HEAD)
@@ -17,6 +17,11 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.DiffWorkTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.di.CanRunDuringConflict;
+import org.geogit.remote.SparseFilter;
+import org.geogit.repository.Repository;
+
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.inject.Inject;
 
 /**
  * Perform a diff between trees pointed out by two commits
@@ -58,6 +63,18 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean reportTrees;
 
+    private Repository repository;
+
+    /**
+     * Constructs a new {@code DiffOp}.
+     * 
+     * @param repository the repository to compare the versions of
+     */
+    @Inject
+    public DiffOp(Repository repository) {
+        this.repository = repository;
+    }
+
     /**
      * @param compareIndex if true, the index will be used in the comparison
      */
@@ -110,12 +127,27 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     /**
      * Executes the diff operation.
+     * <p>
+     * In a sparse clone, the diff runs as long as it only needs the trees and features that were
+     * fetched, which is the case for the commits made locally and for diffs filtered by a sparse
+     * path, and fails with an {@link IllegalStateException} otherwise.
      * 
      * @return an iterator to a set of differences between the two trees
      * @see DiffEntry
      */
     @Override
     public Iterator<DiffEntry> call() {
+        if (SparseFilter.load(repository).isEmpty()) {
+            return diff();
+        }
+        try {
+            return new SparseDiff(diff());
+        } catch (IllegalArgumentException e) {
+            throw SparseDiff.incomplete(e);
+        }
+    }
+
+    private Iterator<DiffEntry> diff() {
         checkArgument(cached && oldRefSpec == null || !cached, String.format(
                 "compare index allows only one revision to check against, got %s / %s", oldRefSpec,
                 newRefSpec));
@@ -157,4 +189,39 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         return this;
     }
 
+    /**
+     * Tells apart the diffs that ran into an object missing from a sparse clone, which the object
+     * database reports as an {@link IllegalArgumentException} while the diff is walked
+     */
+    private static class SparseDiff extends UnmodifiableIterator<DiffEntry> {
+
+        private final Iterator<DiffEntry> diff;
+
+        SparseDiff(Iterator<DiffEntry> diff) {
+            this.diff = diff;
+        }
+
+        static IllegalStateException incomplete(IllegalArgumentException e) {
+            return new IllegalStateException("Diff is not supported in a sparse clone when the "
+                    + "compared trees differ outside its filter: " + e.getMessage(), e);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return diff.hasNext();
+            } catch (IllegalArgumentException e) {
+                throw incomplete(e);
+            }
+        }
+
+        @Override
+        public DiffEntry next() {
+            try {
+                return diff.next();
+            } catch (IllegalArgumentException e) {
+                throw incomplete(e);
+            }
+        }
+    }
 }
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.GlobalInjectorBuilder;
 import org.geogit.api.Ref;
@@ -44,6 +46,8 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
 
     private boolean prune;
 
+    private Optional<Integer> depth = Optional.absent();
+
     private List<Remote> remotes = new ArrayList<Remote>();
 
     private Repository localRepository;
@@ -75,6 +79,18 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
         return this;
     }
 
+    /**
+     * @param depth the maximum number of commits to fetch from each remote ref tip, leaving a
+     *        shallow history, or {@code null} to fetch the whole history
+     * @return {@code this}
+     */
+    public FetchOp setDepth(@Nullable final Integer depth) {
+        Preconditions.checkArgument(depth == null || depth.intValue() > 0,
+                "depth shall be positive: %s", depth);
+        this.depth = Optional.fromNullable(depth);
+        return this;
+    }
+
     /**
      * @param remoteName the name or URL of a remote repository to fetch from
      * @return {@code this}
@@ -170,7 +186,7 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
                     refCount++;
                     subProgress.progress((refCount * 100.f) / needUpdate.size());
                     // Fetch updated data from this ref
-                    remoteRepo.get().fetchNewData(localRepository, ref.getNewRef());
+                    remoteRepo.get().fetchNewData(localRepository, ref.getNewRef(), depth);
 
                     // Update the ref
                     updateLocalRef(ref.getNewRef(), remote, localRemoteRefs);
@@ -204,6 +204,8 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         private final Repository repo;
 
+        private boolean started;
+
         /**
          * Constructs a new {@code LinearHistoryIterator} with the given parameters.
          * 
@@ -219,15 +221,22 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         /**
          * Calculates the next commit in the history.
+         * <p>
+         * The history ends at the first parent missing from the repository, which is where the
+         * history of a shallow clone is cut.
          * 
          * @return the next {@link RevCommit commit} in the history
          */
         @Override
         protected RevCommit computeNext() {
             if (nextCommitId.isPresent()) {
-                final RevCommit commit = repo.getCommit(nextCommitId.get());
-                nextCommitId = commit.parentN(0);
-                return commit;
+                final RevCommit commit = started ? repo.getObjectDatabase().getIfPresent(
+                        nextCommitId.get(), RevCommit.class) : repo.getCommit(nextCommitId.get());
+                if (commit != null) {
+                    started = true;
+                    nextCommitId = commit.parentN(0);
+                    return commit;
+                }
             }
             return endOfData();
         }
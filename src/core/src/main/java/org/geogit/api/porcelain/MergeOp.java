@@ -27,6 +27,7 @@ import org.geogit.api.plumbing.merge.ConflictsWriteOp;
 import org.geogit.api.plumbing.merge.MergeConflictsException;
 import org.geogit.api.plumbing.merge.ReportMergeConflictsOp;
 import org.geogit.api.plumbing.merge.SaveMergeCommitMessageOp;
+import org.geogit.remote.SparseFilter;
 import org.geogit.repository.Repository;
 import org.geotools.util.SubProgressListener;
 import org.opengis.util.ProgressListener;
@@ -126,6 +127,7 @@ public class MergeOp extends AbstractGeoGitOp<RevCommit> {
      */
     @Override
     public RevCommit call() throws RuntimeException {
+        SparseFilter.checkNotSparse(repository, "Merge");
 
         Preconditions.checkArgument(commits.size() > 0, "No commits specified for merge.");
         Preconditions.checkArgument(!(ours && theirs), "Cannot use both --ours and --theirs.");
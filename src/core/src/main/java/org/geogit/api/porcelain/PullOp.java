@@ -14,6 +14,8 @@ import org.geogit.api.Remote;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.remote.SparseFilter;
+import org.geogit.repository.Repository;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -35,11 +37,16 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
 
     private List<String> refSpecs = new ArrayList<String>();
 
+    private Repository repository;
+
     /**
      * Constructs a new {@code PullOp}.
+     * 
+     * @param repository the repository to pull into
      */
     @Inject
-    public PullOp() {
+    public PullOp(Repository repository) {
+        this.repository = repository;
     }
 
     /**
@@ -96,6 +103,7 @@ public class PullOp extends AbstractGeoGitOp<PullResult> {
      * @see org.geogit.api.AbstractGeoGitOp#call()
      */
     public PullResult call() {
+        SparseFilter.checkNotSparse(repository, "Pull");
 
         if (remote == null) {
             setRemote("origin");
@@ -182,11 +182,14 @@ public class GeogitModule extends AbstractModule {
         final Method putRevObject;
         final Method putObjectIdInputStream;
         final Method putAll;
+        final Method putCompressed;
         try {
             putRevObject = ObjectDatabase.class.getMethod("put", RevObject.class);
             putObjectIdInputStream = ObjectDatabase.class.getMethod("put", ObjectId.class,
                     InputStream.class);
             putAll = ObjectDatabase.class.getMethod("putAll", Iterator.class);
+            putCompressed = ObjectDatabase.class.getMethod("putCompressed", ObjectId.class,
+                    InputStream.class);
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -204,6 +207,10 @@ public class GeogitModule extends AbstractModule {
                     if (Arrays.equals(putAll.getParameterTypes(), t.getParameterTypes())) {
                         return true;
                     }
+                } else if ("putCompressed".equals(t.getName())) {
+                    if (Arrays.equals(putCompressed.getParameterTypes(), t.getParameterTypes())) {
+                        return true;
+                    }
                 }
                 return false;
             }
@@ -5,14 +5,23 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 import javax.xml.stream.XMLInputFactory;
@@ -31,17 +40,32 @@ import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
-import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.porcelain.PushException;
 import org.geogit.api.porcelain.PushException.StatusCode;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.StagingDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Injector;
 
 /**
  * An implementation of a remote repository that exists on a remote machine and made public via an
@@ -51,18 +75,66 @@ import com.google.common.io.Closeables;
  */
 public class HttpRemoteRepo implements IRemoteRepo {
 
+    /**
+     * Default number of requests to have in flight at a time while fetching or pushing objects.
+     * Note the JDK keeps at most {@code http.maxConnections} (5 by default) idle connections per
+     * host alive, so higher values need that system property to be raised accordingly.
+     */
+    public static final int DEFAULT_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Number of fetched objects written to the local object database at a time
+     */
+    private static final int WRITE_BATCH_SIZE = 1000;
+
+    /**
+     * Media type of objects transferred in their stored form, that is, serialized and LZF
+     * compressed, as opposed to the plain serialized form sent as {@code application/octet-stream}
+     * . Servers only send objects in this form when the client lists it in its {@code Accept}
+     * header, and advertise they accept pushed objects in this form in the {@code beginpush}
+     * response, so older clients and servers keep working uncompressed.
+     */
+    public static final String COMPRESSED_OBJECT_MEDIA_TYPE = "application/x-geogit-lzf";
+
+    /**
+     * Line of the {@code beginpush} response advertising the server accepts pushed objects in the
+     * {@link #COMPRESSED_OBJECT_MEDIA_TYPE compressed form}
+     */
+    public static final String ACCEPTS_COMPRESSED_OBJECTS = "Accepts: "
+            + COMPRESSED_OBJECT_MEDIA_TYPE;
+
+    /**
+     * Prefix of the line of the {@code beginpush} response carrying the id of the push session,
+     * which is then sent as the {@code sessionId} parameter of the rest of the push requests
+     */
+    public static final String PUSH_SESSION = "Session: ";
+
     private URL repositoryURL;
 
-    private Queue<ObjectId> commitQueue;
+    private Injector injector;
 
-    private List<ObjectId> fetchedIds;
+    private int concurrentRequests = DEFAULT_CONCURRENT_REQUESTS;
+
+    /**
+     * Whether the remote accepts pushed objects in compressed form, as advertised in the response
+     * to {@link #beginPush()}
+     */
+    private volatile boolean pushCompressed;
+
+    /**
+     * The push session id returned by {@link #beginPush()}, if the remote supports sessions
+     */
+    @Nullable
+    private volatile String pushSessionId;
 
     /**
      * Constructs a new {@code HttpRemoteRepo} with the given parameters.
      * 
+     * @param injector the Guice injector for the local repository
      * @param repositoryURL the url of the remote repository
      */
-    public HttpRemoteRepo(URL repositoryURL) {
+    public HttpRemoteRepo(Injector injector, URL repositoryURL) {
+        this.injector = injector;
         String url = repositoryURL.toString();
         if (url.endsWith("/")) {
             url = url.substring(0, url.lastIndexOf('/'));
@@ -72,7 +144,16 @@ public class HttpRemoteRepo implements IRemoteRepo {
         } catch (MalformedURLException e) {
             this.repositoryURL = repositoryURL;
         }
-        commitQueue = new LinkedList<ObjectId>();
+    }
+
+    /**
+     * @param concurrentRequests the maximum number of requests to have in flight at a time while
+     *        fetching or pushing objects, defaults to {@link #DEFAULT_CONCURRENT_REQUESTS}
+     */
+    public void setConcurrentRequests(int concurrentRequests) {
+        Preconditions.checkArgument(concurrentRequests > 0,
+                "concurrent requests shall be positive: %s", concurrentRequests);
+        this.concurrentRequests = concurrentRequests;
     }
 
     /**
@@ -181,7 +262,11 @@ public class HttpRemoteRepo implements IRemoteRepo {
     }
 
     /**
-     * @param connection
+     * Consumes the error stream of the connection, if any.
+     * <p>
+     * The connection is not {@link HttpURLConnection#disconnect() disconnected}, so that once its
+     * streams have been fully read and closed the JDK can reuse the underlying socket for the next
+     * request to the same host (HTTP keep-alive).
      */
     private void consumeErrStreamAndCloseConnection(@Nullable HttpURLConnection connection) {
         if (connection == null) {
@@ -192,8 +277,6 @@ public class HttpRemoteRepo implements IRemoteRepo {
             consumeAndCloseStream(es);
         } catch (IOException ex) {
             throw Throwables.propagate(ex);
-        } finally {
-            connection.disconnect();
         }
     }
 
@@ -235,27 +318,87 @@ public class HttpRemoteRepo implements IRemoteRepo {
 
     /**
      * Fetch all new objects from the specified {@link Ref} from the remote.
+     * <p>
+     * The commits to fetch are negotiated with the remote by sending it the tips of the local refs
+     * as the commits we have, so that only the objects of the commits it returns need to be
+     * checked and downloaded. Remotes that don't support the negotiation are walked from the ref
+     * tip until commits that exist locally are found.
      * 
      * @param localRepository the repository to add new objects to
      * @param ref the remote ref that points to new commit data
+     * @param depth the maximum number of commits to fetch from the ref tip, or
+     *        {@link Optional#absent()} to fetch the whole history
      */
     @Override
-    public void fetchNewData(Repository localRepository, Ref ref) {
-        fetchedIds = new LinkedList<ObjectId>();
-        commitQueue.clear();
-        commitQueue.add(ref.getObjectId());
+    public void fetchNewData(Repository localRepository, Ref ref, Optional<Integer> depth) {
+        Optional<List<ObjectId>> missingCommits = findMissingCommits(localRepository,
+                ref.getObjectId(), depth);
+        if (missingCommits.isPresent()) {
+            new FetchWalk(localRepository, true, depth).run(missingCommits.get());
+        } else {
+            new FetchWalk(localRepository, false, depth).run(ref.getObjectId());
+        }
+    }
+
+    /**
+     * Asks the remote for the commits reachable from {@code want} that are not reachable from the
+     * local refs.
+     * 
+     * @return the ids of the missing commits, or {@link Optional#absent()} if the remote doesn't
+     *         support the negotiation
+     */
+    private Optional<List<ObjectId>> findMissingCommits(Repository localRepository,
+            ObjectId want, Optional<Integer> depth) {
+        HttpURLConnection connection = null;
         try {
-            while (!commitQueue.isEmpty()) {
-                walkCommit(commitQueue.remove(), localRepository, false);
+            String expanded = repositoryURL.toString() + "/repo/missingcommits";
+            connection = (HttpURLConnection) new URL(expanded).openConnection();
+            connection.setRequestMethod("POST");
+
+            connection.setUseCaches(false);
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "text/plain");
+
+            Writer wr = new OutputStreamWriter(connection.getOutputStream(), Charsets.UTF_8);
+            try {
+                wr.write("want " + want + "\n");
+                for (Ref have : localRepository.command(ForEachRef.class).call()) {
+                    if (!(have instanceof SymRef)) {
+                        wr.write("have " + have.getObjectId() + "\n");
+                    }
+                }
+                if (depth.isPresent()) {
+                    wr.write("depth " + depth.get() + "\n");
+                }
+                wr.flush();
+            } finally {
+                wr.close();
             }
-        } catch (Exception e) {
-            for (ObjectId oid : fetchedIds) {
-                localRepository.getObjectDatabase().delete(oid);
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return Optional.absent();
             }
-            Throwables.propagate(e);
+
+            // Get Response
+            List<ObjectId> missing = Lists.newArrayList();
+            InputStream is = connection.getInputStream();
+            try {
+                BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+                String line;
+                while ((line = rd.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        missing.add(ObjectId.valueOf(line));
+                    }
+                }
+            } finally {
+                consumeAndCloseStream(is);
+            }
+            return Optional.of(missing);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
         } finally {
-            fetchedIds.clear();
-            fetchedIds = null;
+            consumeErrStreamAndCloseConnection(connection);
         }
     }
 
@@ -282,30 +425,7 @@ public class HttpRemoteRepo implements IRemoteRepo {
             throws PushException {
         Optional<Ref> remoteRef = checkPush(localRepository, ref, refspec);
         beginPush();
-        commitQueue.clear();
-        commitQueue.add(ref.getObjectId());
-        while (!commitQueue.isEmpty()) {
-            ObjectId commitId = commitQueue.remove();
-            if (walkCommit(commitId, localRepository, true)) {
-                RevCommit oldCommit = localRepository.getCommit(commitId);
-                ObjectId parentId = oldCommit.getParentIds().get(0);
-                RevCommit parentCommit = localRepository.getCommit(parentId);
-                Iterator<DiffEntry> diff = localRepository.command(DiffTree.class)
-                        .setOldTree(parentCommit.getId()).setNewTree(oldCommit.getId()).call();
-                // Send the features that changed.
-                while (diff.hasNext()) {
-                    DiffEntry entry = diff.next();
-                    if (entry.getNewObject() != null) {
-                        NodeRef nodeRef = entry.getNewObject();
-                        moveObject(nodeRef.getNode().getObjectId(), localRepository, true);
-                        ObjectId metadataId = nodeRef.getMetadataId();
-                        if (!metadataId.isNull()) {
-                            moveObject(metadataId, localRepository, true);
-                        }
-                    }
-                }
-            }
-        }
+        new PushWalk(localRepository).run(ref.getObjectId());
         ObjectId originalRemoteRefValue = ObjectId.NULL;
         if (remoteRef.isPresent()) {
             originalRemoteRefValue = remoteRef.get().getObjectId();
@@ -366,8 +486,22 @@ public class HttpRemoteRepo implements IRemoteRepo {
             connection.setUseCaches(false);
             connection.setDoOutput(true);
 
+            pushCompressed = false;
+            pushSessionId = null;
             InputStream stream = connection.getInputStream();
-            consumeAndCloseStream(stream);
+            try {
+                BufferedReader rd = new BufferedReader(new InputStreamReader(stream));
+                String line;
+                while ((line = rd.readLine()) != null) {
+                    if (line.startsWith(ACCEPTS_COMPRESSED_OBJECTS)) {
+                        pushCompressed = true;
+                    } else if (line.startsWith(PUSH_SESSION)) {
+                        pushSessionId = line.substring(PUSH_SESSION.length()).trim();
+                    }
+                }
+            } finally {
+                consumeAndCloseStream(stream);
+            }
 
         } catch (Exception e) {
             Throwables.propagate(e);
@@ -376,13 +510,22 @@ public class HttpRemoteRepo implements IRemoteRepo {
         }
     }
 
+    /**
+     * @return the {@code sessionId} query parameter for the current push session, or an empty
+     *         string if the remote doesn't support push sessions
+     */
+    private String sessionParam() {
+        String sessionId = pushSessionId;
+        return sessionId == null ? "" : "&sessionId=" + sessionId;
+    }
+
     private void endPush(String refspec, String oid, String originalRefValue) {
         HttpURLConnection connection = null;
         try {
             String internalIp = InetAddress.getLocalHost().getHostName();
             String expanded = repositoryURL.toString() + "/repo/endpush?refspec=" + refspec
                     + "&objectId=" + oid + "&internalIp=" + internalIp + "&originalRefValue="
-                    + originalRefValue;
+                    + originalRefValue + sessionParam();
 
             connection = (HttpURLConnection) new URL(expanded).openConnection();
             connection.setRequestMethod("GET");
@@ -390,7 +533,7 @@ public class HttpRemoteRepo implements IRemoteRepo {
             connection.setUseCaches(false);
             connection.setDoOutput(true);
 
-            connection.getInputStream();
+            consumeAndCloseStream(connection.getInputStream());
 
         } catch (Exception e) {
             Throwables.propagate(e);
@@ -521,97 +664,13 @@ public class HttpRemoteRepo implements IRemoteRepo {
         }
     }
 
-    private boolean walkCommit(ObjectId commitId, Repository localRepo, boolean sendObject) {
-        // See if we already have it
-        if (sendObject) {
-            if (networkObjectExists(commitId, localRepo)) {
-                return false;
-            }
-        } else if (localRepo.getObjectDatabase().exists(commitId)) {
-            return false;
-        }
-
-        Optional<RevObject> object = sendObject ? sendNetworkObject(commitId, localRepo)
-                : getNetworkObject(commitId, localRepo);
-        if (object.isPresent() && object.get().getType().equals(TYPE.COMMIT)) {
-            RevCommit commit = (RevCommit) object.get();
-            walkTree(commit.getTreeId(), localRepo, sendObject);
-
-            for (ObjectId parentCommit : commit.getParentIds()) {
-                commitQueue.add(parentCommit);
-            }
-        }
-        return true;
-    }
-
-    private void walkTree(ObjectId treeId, Repository localRepo, boolean sendObject) {
-        // See if we already have it
-        if (sendObject) {
-            if (networkObjectExists(treeId, localRepo)) {
-                return;
-            }
-        } else if (localRepo.getObjectDatabase().exists(treeId)) {
-            return;
-        }
-
-        Optional<RevObject> object = sendObject ? sendNetworkObject(treeId, localRepo)
-                : getNetworkObject(treeId, localRepo);
-        if (object.isPresent() && object.get().getType().equals(TYPE.TREE)) {
-            RevTree tree = (RevTree) object.get();
-
-            walkLocalTree(tree, localRepo, sendObject);
-        }
-    }
-
-    private void walkLocalTree(RevTree tree, Repository localRepo, boolean sendObject) {
-        // walk subtrees
-        if (tree.buckets().isPresent()) {
-            for (Bucket bucket : tree.buckets().get().values()) {
-                ObjectId bucketId = bucket.id();
-                walkTree(bucketId, localRepo, sendObject);
-            }
-        } else {
-            // get new objects
-            for (Iterator<Node> children = tree.children(); children.hasNext();) {
-                Node ref = children.next();
-                if (ref.getType() == RevObject.TYPE.TREE || !sendObject) {
-                    moveObject(ref.getObjectId(), localRepo, sendObject);
-                    ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
-                    if (!metadataId.isNull()) {
-                        moveObject(metadataId, localRepo, sendObject);
-                    }
-                }
-            }
-        }
-    }
-
-    private void moveObject(ObjectId objectId, Repository localRepo, boolean sendObject) {
-        // See if we already have it
-        if (sendObject) {
-            if (networkObjectExists(objectId, localRepo)) {
-                return;
-            }
-        } else if (localRepo.getObjectDatabase().exists(objectId)) {
-            return;
-        }
-
-        Optional<RevObject> childObject = sendObject ? sendNetworkObject(objectId, localRepo)
-                : getNetworkObject(objectId, localRepo);
-        if (childObject.isPresent()) {
-            RevObject revObject = childObject.get();
-            if (TYPE.TREE.equals(revObject.getType())) {
-                walkLocalTree((RevTree) revObject, localRepo, sendObject);
-            }
-        }
-    }
-
     private boolean networkObjectExists(ObjectId objectId, Repository localRepo) {
         HttpURLConnection connection = null;
         boolean exists = false;
         try {
             String internalIp = InetAddress.getLocalHost().getHostName();
             String expanded = repositoryURL.toString() + "/repo/exists?oid=" + objectId.toString()
-                    + "&internalIp=" + internalIp;
+                    + "&internalIp=" + internalIp + sessionParam();
 
             connection = (HttpURLConnection) new URL(expanded).openConnection();
             connection.setRequestMethod("GET");
@@ -639,7 +698,10 @@ public class HttpRemoteRepo implements IRemoteRepo {
         return exists;
     }
 
-    private Optional<RevObject> getNetworkObject(ObjectId objectId, Repository localRepo) {
+    /**
+     * Downloads the object with the given id into {@code target}
+     */
+    private void getNetworkObject(ObjectId objectId, ObjectDatabase target) {
         HttpURLConnection connection = null;
         try {
             String expanded = repositoryURL.toString() + "/repo/objects/" + objectId.toString();
@@ -648,11 +710,19 @@ public class HttpRemoteRepo implements IRemoteRepo {
 
             connection.setUseCaches(false);
             connection.setDoOutput(true);
+            connection.setRequestProperty("Accept", COMPRESSED_OBJECT_MEDIA_TYPE + ", "
+                    + "application/octet-stream;q=0.5");
 
             // Get Response
             InputStream is = connection.getInputStream();
             try {
-                localRepo.getObjectDatabase().put(objectId, is);
+                String contentType = connection.getContentType();
+                if (contentType != null && contentType.startsWith(COMPRESSED_OBJECT_MEDIA_TYPE)) {
+                    // stored as received, no need to inflate and deflate it again
+                    target.putCompressed(objectId, is);
+                } else {
+                    target.put(objectId, is);
+                }
             } finally {
                 consumeAndCloseStream(is);
             }
@@ -661,35 +731,40 @@ public class HttpRemoteRepo implements IRemoteRepo {
         } finally {
             consumeErrStreamAndCloseConnection(connection);
         }
-
-        return localRepo.command(RevObjectParse.class).setObjectId(objectId).call();
-
     }
 
-    private Optional<RevObject> sendNetworkObject(ObjectId objectId, Repository localRepo) {
-        Optional<RevObject> object = localRepo.command(RevObjectParse.class).setObjectId(objectId)
-                .call();
-
+    /**
+     * Uploads the object with the given id from {@code localRepo}
+     * 
+     * @return {@code false} if the remote already had the object
+     */
+    private boolean sendNetworkObject(ObjectId objectId, Repository localRepo) {
         HttpURLConnection connection = null;
         try {
             String internalIp = InetAddress.getLocalHost().getHostName();
             String expanded = repositoryURL.toString() + "/repo/sendobject?internalIp="
-                    + internalIp;
+                    + internalIp + sessionParam();
             connection = (HttpURLConnection) new URL(expanded).openConnection();
             connection.setRequestMethod("POST");
 
             connection.setUseCaches(false);
             connection.setDoInput(true);
             connection.setDoOutput(true);
+            final boolean compressed = pushCompressed;
+            if (compressed) {
+                connection.setRequestProperty("Content-Type", COMPRESSED_OBJECT_MEDIA_TYPE);
+            }
 
             DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
             try {
                 wr.write(objectId.getRawValue());
-                InputStream rawObject = localRepo.getIndex().getDatabase().getRaw(objectId);
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = rawObject.read(buffer)) != -1) {
-                    wr.write(buffer, 0, bytesRead);
+                StagingDatabase database = localRepo.getIndex().getDatabase();
+                InputStream rawObject = compressed ? database.getCompressed(objectId) : database
+                        .getRaw(objectId);
+                try {
+                    ByteStreams.copy(rawObject, wr);
+                } finally {
+                    rawObject.close();
                 }
                 wr.flush();
             } finally {
@@ -704,10 +779,9 @@ public class HttpRemoteRepo implements IRemoteRepo {
 
                 while ((line = rd.readLine()) != null) {
                     if (line.contains("Object already existed")) {
-                        return Optional.absent();
+                        return false;
                     }
                 }
-                rd.close();
             } finally {
                 consumeAndCloseStream(is);
             }
@@ -716,6 +790,448 @@ public class HttpRemoteRepo implements IRemoteRepo {
         } finally {
             consumeErrStreamAndCloseConnection(connection);
         }
-        return object;
+        return true;
+    }
+
+    /**
+     * Walks the object graph reachable from a commit visiting up to
+     * {@link HttpRemoteRepo#setConcurrentRequests(int) concurrentRequests} objects at a time.
+     * <p>
+     * {@link #visit(ObjectId, TYPE) Visiting} an object usually involves a network round trip, and
+     * may {@link #schedule(ObjectId, TYPE) schedule} the objects it references to be visited in
+     * turn. Each object is visited at most once.
+     */
+    private abstract class ConcurrentWalk {
+
+        private static final long WAIT_MILLIS = 100;
+
+        private final ExecutorService executor;
+
+        private final Set<ObjectId> scheduled = Collections
+                .newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+
+        private final Object monitor = new Object();
+
+        /** number of scheduled objects not yet visited, guarded by monitor */
+        private int pending;
+
+        /** first error found visiting an object, guarded by monitor */
+        private Throwable failure;
+
+        ConcurrentWalk() {
+            executor = Executors.newFixedThreadPool(concurrentRequests, new ThreadFactoryBuilder()
+                    .setNameFormat("geogit-http-%d").setDaemon(true).build());
+        }
+
+        /**
+         * Visits the object, in one of the walk threads
+         */
+        protected abstract void visit(ObjectId id, TYPE type);
+
+        /**
+         * Called periodically on the thread that started the walk, and once more with
+         * {@code done == true} after all the objects have been visited.
+         */
+        protected void flush(boolean done) {
+            // nothing to do by default
+        }
+
+        protected final void schedule(final ObjectId id, final TYPE type) {
+            if (id.isNull() || !scheduled.add(id)) {
+                return;
+            }
+            synchronized (monitor) {
+                if (failure != null) {
+                    return;
+                }
+                pending++;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        visit(id, type);
+                    } catch (Throwable e) {
+                        synchronized (monitor) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    } finally {
+                        synchronized (monitor) {
+                            pending--;
+                            monitor.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Walks the graph starting at the given commit and blocks until all the reachable objects
+         * have been visited
+         */
+        public void run(ObjectId commitId) {
+            run(Collections.singleton(commitId));
+        }
+
+        /**
+         * Walks the graph starting at the given commits and blocks until all the reachable objects
+         * have been visited
+         */
+        public void run(Iterable<ObjectId> commitIds) {
+            try {
+                for (ObjectId commitId : commitIds) {
+                    schedule(commitId, TYPE.COMMIT);
+                }
+                while (true) {
+                    synchronized (monitor) {
+                        if (failure != null) {
+                            throw Throwables.propagate(failure);
+                        }
+                        if (pending == 0) {
+                            break;
+                        }
+                        monitor.wait(WAIT_MILLIS);
+                    }
+                    flush(false);
+                }
+                flush(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Downloads the objects the local repository is missing.
+     * <p>
+     * Downloaded objects are kept in an in-memory buffer and written to the local repository in
+     * batches by the thread running the walk. Features and feature types are written as they
+     * arrive, and each tree as soon as all the objects it references have been written, so that a
+     * tree existing in the local repository implies its whole subtree does. This makes the fetch
+     * resumable: if it's interrupted, the completed subtrees are already in the local repository,
+     * and fetching again only walks down the trees on the frontier, skipping the subtrees that
+     * exist locally. Commits are only written once the whole walk succeeded, oldest first, since
+     * a commit existing locally is where the walk of history stops.
+     * <p>
+     * The walk either follows the parents of the fetched commits until commits that exist locally
+     * or the depth limit are reached, or, if the commits to fetch were negotiated with the remote
+     * already, fetches only the objects of the commits it's started with.
+     * <p>
+     * The subtrees and features not accepted by the local repository's {@link SparseFilter sparse
+     * filter}, if any, are not fetched.
+     */
+    private class FetchWalk extends ConcurrentWalk {
+
+        private final ObjectDatabase localDb;
+
+        private final HeapObjectDatabse buffer;
+
+        /** whether the walk is started with the full list of commits to fetch */
+        private final boolean negotiated;
+
+        private final Optional<Integer> depth;
+
+        private final SparseFilter filter;
+
+        /** paths of the trees scheduled to be fetched, only tracked for sparse fetches */
+        private final ConcurrentMap<ObjectId, String> treePaths = Maps.newConcurrentMap();
+
+        /**
+         * Distance of the commits to the walk start, counting it as 1, as found by the first path
+         * that reached them
+         */
+        private final ConcurrentMap<ObjectId, Integer> commitDepths = Maps.newConcurrentMap();
+
+        private final Queue<ObjectId> fetchedLeaves = new ConcurrentLinkedQueue<ObjectId>();
+
+        private final ConcurrentMap<ObjectId, RevCommit> fetchedCommits = Maps.newConcurrentMap();
+
+        /** guards the tracking of completed objects */
+        private final Object completion = new Object();
+
+        /** ids of the objects in the local repository along with their whole closure */
+        private final Set<ObjectId> completed = Sets.newHashSet();
+
+        /** number of referenced objects not yet completed, for each fetched tree */
+        private final Map<ObjectId, Integer> pendingChildren = Maps.newHashMap();
+
+        /** trees waiting for each object to be completed */
+        private final ListMultimap<ObjectId, ObjectId> waitingTrees = ArrayListMultimap.create();
+
+        /** fetched trees whose children are all completed, ready to be written */
+        private final Queue<ObjectId> readyTrees = new ConcurrentLinkedQueue<ObjectId>();
+
+        FetchWalk(Repository localRepository, boolean negotiated, Optional<Integer> depth) {
+            this.localDb = localRepository.getObjectDatabase();
+            this.buffer = new HeapObjectDatabse(injector.getInstance(ObjectSerializingFactory.class));
+            this.negotiated = negotiated;
+            this.depth = depth;
+            this.filter = SparseFilter.load(localRepository);
+        }
+
+        @Override
+        public void run(Iterable<ObjectId> commitIds) {
+            buffer.open();
+            try {
+                super.run(commitIds);
+            } finally {
+                buffer.close();
+            }
+        }
+
+        @Override
+        protected void visit(final ObjectId id, final TYPE type) {
+            if (localDb.exists(id)) {
+                if (!TYPE.COMMIT.equals(type)) {
+                    completed(id);
+                }
+                return;
+            }
+            getNetworkObject(id, buffer);
+            switch (type) {
+            case COMMIT: {
+                RevCommit commit = buffer.getCommit(id);
+                fetchedCommits.put(id, commit);
+                scheduleTree(commit.getTreeId(), NodeRef.ROOT);
+                if (negotiated) {
+                    break;
+                }
+                Integer commitDepth = commitDepths.get(id);
+                final int parentDepth = (commitDepth == null ? 1 : commitDepth.intValue()) + 1;
+                if (depth.isPresent() && parentDepth > depth.get().intValue()) {
+                    break;
+                }
+                for (ObjectId parentId : commit.getParentIds()) {
+                    commitDepths.putIfAbsent(parentId, parentDepth);
+                    schedule(parentId, TYPE.COMMIT);
+                }
+                break;
+            }
+            case TREE: {
+                RevTree tree = buffer.getTree(id);
+                final String path = filter.isEmpty() ? NodeRef.ROOT : treePaths.get(id);
+                // children to fetch, with the path of the subtrees
+                Map<ObjectId, String> subtrees = Maps.newHashMap();
+                Map<ObjectId, TYPE> leaves = Maps.newHashMap();
+                if (tree.buckets().isPresent()) {
+                    for (Bucket bucket : tree.buckets().get().values()) {
+                        if (filter.accepts(path, bucket)) {
+                            subtrees.put(bucket.id(), path);
+                        }
+                    }
+                } else {
+                    for (Iterator<Node> children = tree.children(); children.hasNext();) {
+                        Node node = children.next();
+                        if (!filter.accepts(path, node)) {
+                            continue;
+                        }
+                        if (TYPE.TREE.equals(node.getType())) {
+                            subtrees.put(node.getObjectId(),
+                                    NodeRef.appendChild(path, node.getName()));
+                        } else {
+                            leaves.put(node.getObjectId(), node.getType());
+                        }
+                        ObjectId metadataId = node.getMetadataId().or(ObjectId.NULL);
+                        if (!metadataId.isNull()) {
+                            leaves.put(metadataId, TYPE.FEATURETYPE);
+                        }
+                    }
+                }
+                waitFor(id, Iterables.concat(subtrees.keySet(), leaves.keySet()));
+                for (Map.Entry<ObjectId, String> subtree : subtrees.entrySet()) {
+                    scheduleTree(subtree.getKey(), subtree.getValue());
+                }
+                for (Map.Entry<ObjectId, TYPE> leaf : leaves.entrySet()) {
+                    schedule(leaf.getKey(), leaf.getValue());
+                }
+                break;
+            }
+            default:
+                fetchedLeaves.add(id);
+            }
+        }
+
+        private void scheduleTree(ObjectId treeId, String path) {
+            if (!filter.isEmpty()) {
+                treePaths.putIfAbsent(treeId, path);
+            }
+            schedule(treeId, TYPE.TREE);
+        }
+
+        /**
+         * Makes the fetched tree wait for the given objects to be completed before being written
+         */
+        private void waitFor(ObjectId treeId, Iterable<ObjectId> children) {
+            synchronized (completion) {
+                int pending = 0;
+                for (ObjectId child : children) {
+                    if (!completed.contains(child)) {
+                        waitingTrees.put(child, treeId);
+                        pending++;
+                    }
+                }
+                if (pending == 0) {
+                    readyTrees.add(treeId);
+                } else {
+                    pendingChildren.put(treeId, pending);
+                }
+            }
+        }
+
+        /**
+         * Records the object and its closure are in the local repository, releasing the trees
+         * waiting for it
+         */
+        private void completed(ObjectId id) {
+            synchronized (completion) {
+                if (!completed.add(id)) {
+                    return;
+                }
+                for (ObjectId treeId : waitingTrees.removeAll(id)) {
+                    int pending = pendingChildren.get(treeId) - 1;
+                    if (pending == 0) {
+                        pendingChildren.remove(treeId);
+                        readyTrees.add(treeId);
+                    } else {
+                        pendingChildren.put(treeId, pending);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void flush(final boolean done) {
+            while (fetchedLeaves.size() >= WRITE_BATCH_SIZE || (done && !fetchedLeaves.isEmpty())) {
+                List<ObjectId> batch = Lists.newArrayListWithCapacity(WRITE_BATCH_SIZE);
+                for (ObjectId id; batch.size() < WRITE_BATCH_SIZE
+                        && (id = fetchedLeaves.poll()) != null;) {
+                    batch.add(id);
+                }
+                buffer.copyTo(batch.iterator(), localDb);
+                for (ObjectId id : batch) {
+                    buffer.delete(id);
+                    completed(id);
+                }
+            }
+            // write the completed trees, which may in turn complete the trees referencing them
+            for (ObjectId treeId; (treeId = readyTrees.poll()) != null;) {
+                buffer.copyTo(Iterators.singletonIterator(treeId), localDb);
+                buffer.delete(treeId);
+                completed(treeId);
+            }
+            if (done) {
+                synchronized (completion) {
+                    Preconditions.checkState(pendingChildren.isEmpty(),
+                            "%s trees could not be completed", pendingChildren.size());
+                }
+                // put rather than copied, so that they reach the commit graph
+                for (RevCommit commit : parentsFirst(fetchedCommits)) {
+                    localDb.put(commit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Orders the given commits so that each one comes after its parents
+     */
+    private static List<RevCommit> parentsFirst(Map<ObjectId, RevCommit> commits) {
+        Map<ObjectId, Integer> childCount = Maps.newHashMap();
+        for (RevCommit commit : commits.values()) {
+            for (ObjectId parentId : commit.getParentIds()) {
+                if (commits.containsKey(parentId)) {
+                    Integer count = childCount.get(parentId);
+                    childCount.put(parentId, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<RevCommit> childrenFirst = Lists.newArrayListWithCapacity(commits.size());
+        for (RevCommit commit : commits.values()) {
+            if (!childCount.containsKey(commit.getId())) {
+                childrenFirst.add(commit);
+            }
+        }
+        for (int i = 0; i < childrenFirst.size(); i++) {
+            for (ObjectId parentId : childrenFirst.get(i).getParentIds()) {
+                Integer count = childCount.get(parentId);
+                if (count != null) {
+                    childCount.put(parentId, count - 1);
+                    if (count == 1) {
+                        childrenFirst.add(commits.get(parentId));
+                    }
+                }
+            }
+        }
+        return Lists.reverse(childrenFirst);
+    }
+
+    /**
+     * Uploads the objects the remote repository is missing.
+     * <p>
+     * Commits and trees are uploaded unless the remote already has them, and the features changed
+     * by each uploaded commit with respect to its first parent.
+     */
+    private class PushWalk extends ConcurrentWalk {
+
+        private final Repository localRepo;
+
+        PushWalk(Repository localRepo) {
+            this.localRepo = localRepo;
+        }
+
+        @Override
+        protected void visit(final ObjectId id, final TYPE type) {
+            if (networkObjectExists(id, localRepo)) {
+                return;
+            }
+            sendNetworkObject(id, localRepo);
+            switch (type) {
+            case COMMIT: {
+                RevCommit commit = localRepo.getCommit(id);
+                schedule(commit.getTreeId(), TYPE.TREE);
+                for (ObjectId parentId : commit.getParentIds()) {
+                    schedule(parentId, TYPE.COMMIT);
+                }
+                ObjectId parentId = commit.getParentIds().isEmpty() ? ObjectId.NULL : commit
+                        .getParentIds().get(0);
+                // Send the features that changed.
+                Iterator<DiffEntry> diff = localRepo.command(DiffTree.class).setOldTree(parentId)
+                        .setNewTree(id).call();
+                while (diff.hasNext()) {
+                    DiffEntry entry = diff.next();
+                    if (entry.getNewObject() != null) {
+                        NodeRef nodeRef = entry.getNewObject();
+                        schedule(nodeRef.getNode().getObjectId(), nodeRef.getType());
+                        schedule(nodeRef.getMetadataId(), TYPE.FEATURETYPE);
+                    }
+                }
+                break;
+            }
+            case TREE: {
+                RevTree tree = localRepo.getTree(id);
+                if (tree.buckets().isPresent()) {
+                    for (Bucket bucket : tree.buckets().get().values()) {
+                        schedule(bucket.id(), TYPE.TREE);
+                    }
+                } else {
+                    for (Iterator<Node> children = tree.children(); children.hasNext();) {
+                        Node node = children.next();
+                        if (TYPE.TREE.equals(node.getType())) {
+                            schedule(node.getObjectId(), TYPE.TREE);
+                            schedule(node.getMetadataId().or(ObjectId.NULL), TYPE.FEATURETYPE);
+                        }
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+            }
+        }
     }
 }
@@ -11,6 +11,7 @@ import org.geogit.api.Ref;
 import org.geogit.api.porcelain.PushException;
 import org.geogit.repository.Repository;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 
 /**
@@ -48,11 +49,17 @@ public interface IRemoteRepo {
 
     /**
      * Fetch all new objects from the specified {@link Ref} from the remote.
+     * <p>
+     * Only the commits not reachable from the refs of the local repository are fetched. If a
+     * {@code depth} is given, the history is fetched only up to that many commits from the tip,
+     * leaving a shallow history whose oldest commits' parents are missing.
      * 
      * @param localRepository the repository to add new objects to
      * @param ref the remote ref that points to new commit data
+     * @param depth the maximum number of commits to fetch from the ref tip, counting it as 1, or
+     *        {@link Optional#absent()} to fetch the whole history
      */
-    public void fetchNewData(Repository localRepository, Ref ref);
+    public void fetchNewData(Repository localRepository, Ref ref, Optional<Integer> depth);
 
     /**
      * Push all new objects from the specified {@link Ref} to the remote.
@@ -7,13 +7,13 @@ package org.geogit.remote;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.Set;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
@@ -22,21 +22,24 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.FindCommonAncestor;
+import org.geogit.api.plumbing.FindMissingCommits;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
-import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.porcelain.PushException;
 import org.geogit.api.porcelain.PushException.StatusCode;
 import org.geogit.repository.Repository;
-import org.geogit.storage.ObjectInserter;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Injector;
 
 /**
@@ -52,10 +55,6 @@ public class LocalRemoteRepo implements IRemoteRepo {
 
     private File workingDirectory;
 
-    private Queue<ObjectId> commitQueue;
-
-    private List<ObjectId> touchedIds;
-
     /**
      * Constructs a new {@code LocalRemoteRepo} with the given parameters.
      * 
@@ -65,7 +64,6 @@ public class LocalRemoteRepo implements IRemoteRepo {
     public LocalRemoteRepo(Injector injector, File workingDirectory) {
         this.injector = injector;
         this.workingDirectory = workingDirectory;
-        this.commitQueue = new LinkedList<ObjectId>();
     }
 
     /**
@@ -141,27 +139,13 @@ public class LocalRemoteRepo implements IRemoteRepo {
      * 
      * @param localRepository the repository to add new objects to
      * @param ref the remote ref that points to new commit data
+     * @param depth the maximum number of commits to fetch from the ref tip, or
+     *        {@link Optional#absent()} to fetch the whole history
      */
     @Override
-    public void fetchNewData(Repository localRepository, Ref ref) {
-        touchedIds = new LinkedList<ObjectId>();
-        ObjectInserter objectInserter = localRepository.newObjectInserter();
-        commitQueue.clear();
-        commitQueue.add(ref.getObjectId());
-        try {
-            while (!commitQueue.isEmpty()) {
-                walkCommit(commitQueue.remove(), remoteGeoGit.getRepository(), localRepository,
-                        objectInserter);
-            }
-        } catch (Exception e) {
-            for (ObjectId oid : touchedIds) {
-                localRepository.getObjectDatabase().delete(oid);
-            }
-            Throwables.propagate(e);
-        } finally {
-            touchedIds.clear();
-            touchedIds = null;
-        }
+    public void fetchNewData(Repository localRepository, Ref ref, Optional<Integer> depth) {
+        copyNewObjects(ref.getObjectId(), remoteGeoGit.getRepository(), localRepository, depth,
+                SparseFilter.load(localRepository));
     }
 
     /**
@@ -186,15 +170,9 @@ public class LocalRemoteRepo implements IRemoteRepo {
     public void pushNewData(Repository localRepository, Ref ref, String refspec)
             throws PushException {
         checkPush(localRepository, ref, refspec);
-        touchedIds = new LinkedList<ObjectId>();
-        ObjectInserter objectInserter = remoteGeoGit.getRepository().newObjectInserter();
-        commitQueue.clear();
-        commitQueue.add(ref.getObjectId());
         try {
-            while (!commitQueue.isEmpty()) {
-                walkCommit(commitQueue.remove(), localRepository, remoteGeoGit.getRepository(),
-                        objectInserter);
-            }
+            copyNewObjects(ref.getObjectId(), localRepository, remoteGeoGit.getRepository(),
+                    Optional.<Integer> absent(), SparseFilter.NONE);
             Ref updatedRef = remoteGeoGit.command(UpdateRef.class).setName(refspec)
                     .setNewValue(ref.getObjectId()).call().get();
 
@@ -210,13 +188,7 @@ public class LocalRemoteRepo implements IRemoteRepo {
                 }
             }
         } catch (Exception e) {
-            for (ObjectId oid : touchedIds) {
-                remoteGeoGit.getRepository().getObjectDatabase().delete(oid);
-            }
             Throwables.propagate(e);
-        } finally {
-            touchedIds.clear();
-            touchedIds = null;
         }
     }
 
@@ -260,75 +232,143 @@ public class LocalRemoteRepo implements IRemoteRepo {
         remoteGeoGit.command(UpdateRef.class).setName(refspec).setDelete(true).call();
     }
 
-    private void walkCommit(ObjectId commitId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(commitId)) {
-            return;
+    /**
+     * Copies all the objects reachable from {@code tip} that {@code to} doesn't have yet.
+     * <p>
+     * The missing commits are found by {@link FindMissingCommits} on the {@code from} side, using
+     * the tips of the {@code to} refs as the known history, and their missing objects with a single
+     * walk that doesn't descend into trees already present in {@code to}. Objects are copied in
+     * bulk, in their stored form, through {@link ObjectDatabase#copyTo(Iterator, ObjectDatabase)},
+     * after all the objects they reference, and commits oldest first, so that an object being
+     * present in the target database implies its whole closure is, even if the copy is
+     * interrupted. Commits are stored through {@link ObjectDatabase#put(RevObject)} instead, so that
+     * they're added to the target {@link GraphDatabase} as they're stored.
+     * <p>
+     * The trees and features not accepted by the {@link SparseFilter sparse filter} are not
+     * copied.
+     */
+    private void copyNewObjects(final ObjectId tip, final Repository from, final Repository to,
+            final Optional<Integer> depth, final SparseFilter filter) {
+        final ObjectDatabase fromDb = from.getObjectDatabase();
+        final ObjectDatabase toDb = to.getObjectDatabase();
+
+        FindMissingCommits findMissing = from.command(FindMissingCommits.class).setWant(tip)
+                .setDepth(depth.orNull());
+        for (Ref have : to.command(ForEachRef.class).call()) {
+            if (!(have instanceof SymRef)) {
+                findMissing.addHave(have.getObjectId());
+            }
+        }
+        // newest first. Commits already present were copied by an interrupted fetch, along with
+        // everything they point to, as objects are copied children first
+        List<RevCommit> missingCommits = Lists.newArrayList();
+        for (ObjectId commitId : findMissing.call()) {
+            missingCommits.add(fromDb.getCommit(commitId));
         }
 
-        Optional<RevObject> object = from.command(RevObjectParse.class).setObjectId(commitId)
-                .call();
-        if (object.isPresent() && object.get().getType().equals(TYPE.COMMIT)) {
-            RevCommit commit = (RevCommit) object.get();
-            walkTree(commit.getTreeId(), from, to, objectInserter);
-
-            objectInserter.insert(commit);
-            touchedIds.add(commitId);
-            for (ObjectId parentCommit : commit.getParentIds()) {
-                commitQueue.add(parentCommit);
+        ObjectCopier copier = new ObjectCopier(fromDb, toDb, filter);
+        for (RevCommit commit : Lists.reverse(missingCommits)) {
+            if (!toDb.exists(commit.getId())) {
+                copier.walkTree(commit.getTreeId(), NodeRef.ROOT);
+                copier.addCommit(commit);
             }
         }
+        copier.flush();
     }
 
-    private void walkTree(ObjectId treeId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(treeId)) {
-            return;
-        }
+    /**
+     * Collects the ids of the objects missing in the target database and copies them in batches.
+     * <p>
+     * The commits of a batch are put on the target database once the rest of the batch is copied,
+     * so the bookkeeping {@link ObjectDatabase#put(RevObject)} does for commits isn't skipped and
+     * they're still stored after everything they point to.
+     */
+    private static class ObjectCopier {
 
-        Optional<RevObject> object = from.command(RevObjectParse.class).setObjectId(treeId).call();
-        if (object.isPresent() && object.get().getType().equals(TYPE.TREE)) {
-            RevTree tree = (RevTree) object.get();
+        private static final int BATCH_SIZE = 10000;
 
-            objectInserter.insert(tree);
-            touchedIds.add(treeId);
-            // walk subtrees
+        private final ObjectDatabase fromDb;
+
+        private final ObjectDatabase toDb;
+
+        private final List<ObjectId> pending = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+        private final List<RevCommit> pendingCommits = Lists.newArrayList();
+
+        /**
+         * Ids of objects known to be in the target database or pending to be copied, other than
+         * features, which are rarely shared
+         */
+        private final Set<ObjectId> known = Sets.newHashSet();
+
+        private final SparseFilter filter;
+
+        ObjectCopier(ObjectDatabase fromDb, ObjectDatabase toDb, SparseFilter filter) {
+            this.fromDb = fromDb;
+            this.toDb = toDb;
+            this.filter = filter;
+        }
+
+        void walkTree(final ObjectId treeId, final String path) {
+            if (known.contains(treeId) || toDb.exists(treeId)) {
+                // the whole subtree is already there
+                return;
+            }
+            RevTree tree = fromDb.getIfPresent(treeId, RevTree.class);
+            if (tree == null) {
+                return;
+            }
             if (tree.buckets().isPresent()) {
                 for (Bucket bucket : tree.buckets().get().values()) {
-                    walkTree(bucket.id(), from, to, objectInserter);
+                    if (filter.accepts(path, bucket)) {
+                        walkTree(bucket.id(), path);
+                    }
                 }
             } else {
-                // get new objects
                 for (Iterator<Node> children = tree.children(); children.hasNext();) {
-                    Node ref = children.next();
-                    moveObject(ref.getObjectId(), from, to, objectInserter);
-                    ObjectId metadataId = ref.getMetadataId().or(ObjectId.NULL);
-                    if (!metadataId.isNull()) {
-                        moveObject(metadataId, from, to, objectInserter);
+                    Node node = children.next();
+                    if (!filter.accepts(path, node)) {
+                        continue;
+                    }
+                    if (TYPE.TREE.equals(node.getType())) {
+                        walkTree(node.getObjectId(), NodeRef.appendChild(path, node.getName()));
+                    } else if (!toDb.exists(node.getObjectId())) {
+                        add(node.getObjectId());
+                    }
+                    ObjectId metadataId = node.getMetadataId().or(ObjectId.NULL);
+                    if (!metadataId.isNull() && !known.contains(metadataId)) {
+                        known.add(metadataId);
+                        if (!toDb.exists(metadataId)) {
+                            add(metadataId);
+                        }
                     }
                 }
             }
+            known.add(treeId);
+            add(treeId);
         }
-    }
 
-    private void moveObject(ObjectId objectId, Repository from, Repository to,
-            ObjectInserter objectInserter) {
-        // See if we already have it
-        if (to.getObjectDatabase().exists(objectId)) {
-            return;
+        void add(ObjectId id) {
+            pending.add(id);
+            if (pending.size() + pendingCommits.size() >= BATCH_SIZE) {
+                flush();
+            }
         }
 
-        Optional<RevObject> childObject = from.command(RevObjectParse.class).setObjectId(objectId)
-                .call();
-        if (childObject.isPresent()) {
-            RevObject revObject = childObject.get();
-            if (TYPE.TREE.equals(revObject.getType())) {
-                walkTree(objectId, from, to, objectInserter);
+        void addCommit(RevCommit commit) {
+            pendingCommits.add(commit);
+            if (pending.size() + pendingCommits.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            fromDb.copyTo(pending.iterator(), toDb);
+            pending.clear();
+            for (RevCommit commit : pendingCommits) {
+                toDb.put(commit);
             }
-            objectInserter.insert(revObject);
-            touchedIds.add(objectId);
+            pendingCommits.clear();
         }
     }
 }
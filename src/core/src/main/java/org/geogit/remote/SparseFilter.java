@@ -0,0 +1,250 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Bounded;
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ConfigDatabase;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Restricts the objects fetched from a remote to the trees under a set of paths and, optionally,
+ * to the features within a bounding box, for sparse clones.
+ * <p>
+ * Commits and the trees on the way to the filtered paths are always fetched, so the history and
+ * tree ids are the same than the remote's, but the subtrees and features outside the filter are
+ * not, leaving those trees incomplete in the local repository. Whole subtrees are skipped based on
+ * the bounds of the {@link Bucket buckets} and {@link Node nodes} that point to them, without
+ * fetching them. Nodes without bounds, like non spatial features, are never filtered out by the
+ * bounding box.
+ * <p>
+ * The filter of a sparse clone is {@link #save(Repository) recorded} in the local repository
+ * configuration, and {@link #load(Repository) read} back by every fetch, so that fetches stay
+ * sparse. Pull and merge need the complete trees, so they
+ * {@link #checkNotSparse(Repository, String) fail} right away on a sparse clone, while diffs only
+ * fail if the compared trees differ outside the filter.
+ */
+public class SparseFilter {
+
+    public static final String PATHS_KEY = "sparse.paths";
+
+    public static final String BOUNDS_KEY = "sparse.bbox";
+
+    /**
+     * A filter that accepts everything
+     */
+    public static final SparseFilter NONE = new SparseFilter(ImmutableList.<String> of(), null);
+
+    private final ImmutableList<String> paths;
+
+    @Nullable
+    private final Envelope bounds;
+
+    /**
+     * @param paths the paths of the trees to fetch, or an empty list for all of them
+     * @param bounds the bounding box of the features to fetch, or {@code null} for all of them
+     */
+    public SparseFilter(List<String> paths, @Nullable Envelope bounds) {
+        Preconditions.checkNotNull(paths);
+        List<String> normalized = Lists.newArrayListWithCapacity(paths.size());
+        for (String path : paths) {
+            String p = trimSlashes(path);
+            Preconditions.checkArgument(!p.isEmpty(), "Invalid sparse path: '%s'", path);
+            normalized.add(p);
+        }
+        this.paths = ImmutableList.copyOf(normalized);
+        this.bounds = bounds == null || bounds.isNull() ? null : new Envelope(bounds);
+    }
+
+    /**
+     * @return whether this filter accepts everything
+     */
+    public boolean isEmpty() {
+        return paths.isEmpty() && bounds == null;
+    }
+
+    public ImmutableList<String> getPaths() {
+        return paths;
+    }
+
+    public Optional<Envelope> getBounds() {
+        return Optional.fromNullable(bounds == null ? null : new Envelope(bounds));
+    }
+
+    /**
+     * @param path the path of a tree
+     * @return whether the tree is on the way to, or under, one of the filtered paths
+     */
+    public boolean acceptsTree(String path) {
+        if (paths.isEmpty() || path.isEmpty()) {
+            return true;
+        }
+        for (String p : paths) {
+            if (isSameOrChild(path, p) || isSameOrChild(p, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param path the path of a tree
+     * @return whether all the contents of the tree are accepted by path, in which case they're
+     *         only filtered by bounds
+     */
+    private boolean includes(String path) {
+        if (paths.isEmpty()) {
+            return true;
+        }
+        for (String p : paths) {
+            if (isSameOrChild(path, p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param parentPath the path of the tree containing the node
+     * @param node a tree or feature node
+     * @return whether the object the node points to shall be fetched
+     */
+    public boolean accepts(String parentPath, Node node) {
+        final String path = NodeRef.appendChild(parentPath, node.getName());
+        switch (node.getType()) {
+        case TREE:
+            if (!acceptsTree(path)) {
+                return false;
+            }
+            return !includes(path) || withinBounds(node);
+        default:
+            return includes(parentPath) && withinBounds(node);
+        }
+    }
+
+    /**
+     * @param treePath the path of the tree the bucket belongs to
+     * @param bucket a bucket of the tree
+     * @return whether the bucket subtree shall be fetched
+     */
+    public boolean accepts(String treePath, Bucket bucket) {
+        // buckets of trees on the way to the filtered paths may mix trees inside and outside the
+        // bounding box, so only the ones of fully included trees can be filtered by bounds
+        return !includes(treePath) || withinBounds(bucket);
+    }
+
+    private boolean withinBounds(Bounded bounded) {
+        if (bounds == null) {
+            return true;
+        }
+        Envelope env = new Envelope();
+        bounded.expand(env);
+        return env.isNull() || bounds.intersects(env);
+    }
+
+    private static boolean isSameOrChild(String path, String parent) {
+        return path.equals(parent)
+                || (path.startsWith(parent) && path.charAt(parent.length()) == '/');
+    }
+
+    private static String trimSlashes(String path) {
+        String p = path.trim();
+        while (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        while (p.endsWith("/")) {
+            p = p.substring(0, p.length() - 1);
+        }
+        return p;
+    }
+
+    /**
+     * Records this filter in the repository configuration, or removes the recorded one if this
+     * filter is empty
+     */
+    public void save(Repository repository) {
+        ConfigDatabase config = repository.getConfigDatabase();
+        if (paths.isEmpty()) {
+            if (config.get(PATHS_KEY).isPresent()) {
+                config.remove(PATHS_KEY);
+            }
+        } else {
+            config.put(PATHS_KEY, Joiner.on(',').join(paths));
+        }
+        if (bounds == null) {
+            if (config.get(BOUNDS_KEY).isPresent()) {
+                config.remove(BOUNDS_KEY);
+            }
+        } else {
+            config.put(BOUNDS_KEY, bounds.getMinX() + "," + bounds.getMinY() + ","
+                    + bounds.getMaxX() + "," + bounds.getMaxY());
+        }
+    }
+
+    /**
+     * @return the filter recorded in the repository configuration, or {@link #NONE} if the
+     *         repository is not a sparse clone
+     */
+    public static SparseFilter load(Repository repository) {
+        ConfigDatabase config = repository.getConfigDatabase();
+        Optional<String> paths = config.get(PATHS_KEY);
+        Optional<String> bounds = config.get(BOUNDS_KEY);
+        if (!paths.isPresent() && !bounds.isPresent()) {
+            return NONE;
+        }
+        List<String> pathList = paths.isPresent() ? Lists.newArrayList(Splitter.on(',')
+                .omitEmptyStrings().trimResults().split(paths.get())) : ImmutableList
+                .<String> of();
+        Envelope env = bounds.isPresent() ? parseBounds(bounds.get()) : null;
+        return new SparseFilter(pathList, env);
+    }
+
+    /**
+     * Fails if the repository is a sparse clone, for the operations that need complete trees
+     * 
+     * @param operation the name of the operation, for the error message
+     * @throws IllegalStateException if the repository is a sparse clone
+     */
+    public static void checkNotSparse(Repository repository, String operation) {
+        Preconditions.checkState(load(repository).isEmpty(),
+                "%s is not supported in a sparse clone, its trees are incomplete", operation);
+    }
+
+    /**
+     * @param bbox a bounding box as {@code minx,miny,maxx,maxy}
+     */
+    public static Envelope parseBounds(String bbox) {
+        List<String> values = Lists.newArrayList(Splitter.on(',').trimResults().split(bbox));
+        Preconditions.checkArgument(values.size() == 4,
+                "Invalid bounding box, expected minx,miny,maxx,maxy: '%s'", bbox);
+        try {
+            return new Envelope(Double.parseDouble(values.get(0)),
+                    Double.parseDouble(values.get(2)), Double.parseDouble(values.get(1)),
+                    Double.parseDouble(values.get(3)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid bounding box: '" + bbox + "'", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append("[paths=").append(paths)
+                .append(", bounds=").append(bounds).append(']').toString();
+    }
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A feature to be inserted in the {@link WorkingTree} given by its raw attribute values, so that
+ * importers don't need to build a GeoTools {@code Feature} just for it to be taken apart again.
+ * <p>
+ * The values must be in the order of the {@link RevFeatureType#sortedDescriptors() sorted
+ * descriptors} of the feature type, with {@code null} for missing values. The array is not copied,
+ * so it shall not be modified once handed over.
+ *
+ * @see WorkingTree#insertValues
+ */
+public class FeatureValues {
+
+    private final String id;
+
+    private final Object[] values;
+
+    private final Envelope bounds;
+
+    private final ObjectId metadataId;
+
+    /**
+     * Creates a feature of the default feature type of the tree it is inserted into.
+     *
+     * @param id the feature id
+     * @param values the attribute values, sorted as the feature type descriptors
+     * @param bounds the feature bounds, or {@code null} if it has no geometry
+     */
+    public FeatureValues(final String id, final Object[] values, @Nullable final Envelope bounds) {
+        this(id, values, bounds, ObjectId.NULL);
+    }
+
+    /**
+     * @param id the feature id
+     * @param values the attribute values, sorted as the feature type descriptors
+     * @param bounds the feature bounds, or {@code null} if it has no geometry
+     * @param metadataId the id of the feature type, or {@link ObjectId#NULL} for the default
+     *        feature type of the tree the feature is inserted into
+     */
+    public FeatureValues(final String id, final Object[] values, @Nullable final Envelope bounds,
+            final ObjectId metadataId) {
+        checkNotNull(id);
+        checkNotNull(values);
+        checkNotNull(metadataId);
+        this.id = id;
+        this.values = values;
+        this.bounds = bounds;
+        this.metadataId = metadataId;
+    }
+
+    /**
+     * @return the feature id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the attribute values, sorted as the feature type descriptors
+     */
+    public Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the feature bounds, or {@code null} if it has no geometry
+     */
+    @Nullable
+    public Envelope getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return the id of the feature type, or {@link ObjectId#NULL} for the default one of the tree
+     */
+    public ObjectId getMetadataId() {
+        return metadataId;
+    }
+
+    /**
+     * Builds the {@link RevFeature} holding the values, checking that they match the descriptors
+     * of the feature type: one value per descriptor, each either {@code null} or an instance of the
+     * binding of its descriptor.
+     *
+     * @param featureType the feature type of the feature
+     * @return the {@link RevFeature} holding the values
+     * @throws IllegalArgumentException if the values don't match the feature type
+     */
+    public RevFeature toRevFeature(final RevFeatureType featureType)
+            throws IllegalArgumentException {
+        final List<PropertyDescriptor> descriptors = featureType.sortedDescriptors();
+        checkArgument(values.length == descriptors.size(),
+                "Feature %s has %s values but its feature type has %s attributes", id,
+                values.length, descriptors.size());
+
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (int i = 0; i < values.length; i++) {
+            final Object value = values[i];
+            if (value != null) {
+                final PropertyDescriptor descriptor = descriptors.get(i);
+                final Class<?> binding = descriptor.getType().getBinding();
+                checkArgument(binding.isInstance(value),
+                        "Value of attribute %s of feature %s is a %s, expected a %s",
+                        descriptor.getName().getLocalPart(), id, value.getClass().getName(),
+                        binding.getName());
+            }
+            builder.add(Optional.fromNullable(value));
+        }
+        return RevFeature.build(builder.build());
+    }
+}
@@ -100,6 +100,13 @@ public class Repository implements CommandLocator {
         return objectDatabase;
     }
 
+    /**
+     * @return the {@link GraphDatabase} for this repository
+     */
+    public GraphDatabase getGraphDatabase() {
+        return graphDatabase;
+    }
+
     /**
      * @return the {@link StagingArea} for this repository
      */
@@ -145,6 +152,15 @@ public class Repository implements CommandLocator {
         return getObjectDatabase().getRaw(oid);
     }
 
+    /**
+     * @param oid the {@link ObjectId} of the object to get
+     * @return the object data as stored in the object database, that is, LZF compressed
+     * @see ObjectDatabase#getCompressed(ObjectId)
+     */
+    public InputStream getCompressedObject(final ObjectId oid) {
+        return getObjectDatabase().getCompressed(oid);
+    }
+
     /**
      * Test if a blob exists in the object database
      * 
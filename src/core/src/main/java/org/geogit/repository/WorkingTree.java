@@ -40,8 +40,11 @@ import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
+import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.filter.Filter;
 import org.opengis.util.ProgressListener;
 
@@ -49,11 +52,13 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
 import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * A working tree is the collection of Features for a single FeatureType in GeoServer that has a
@@ -460,6 +465,115 @@ public class WorkingTree {
         updateWorkHead(newTree);
     }
 
+    /**
+     * Inserts a collection of features given by their attribute values into the working tree and
+     * updates the WORK_HEAD ref. Unlike {@link #insert(String, Iterator, ProgressListener, List,
+     * Integer)}, no GeoTools feature is needed.
+     * <p>
+     * The values of each feature are checked against the descriptors of its feature type, which is
+     * the one of the tree unless the feature gives the id of another one already in the index
+     * database.
+     * 
+     * @param treePath the path of the tree to insert the features into
+     * @param featureType the feature type to create the tree with if it doesn't exist
+     * @param features the features to insert, with their values sorted as the
+     *        {@link RevFeatureType#sortedDescriptors() descriptors} of their feature type
+     * @param listener a {@link ProgressListener} for the current process
+     * @param insertedTarget if provided, inserted features will be added to this list
+     * @param collectionSize number of features to add
+     * @throws IllegalArgumentException if the values of a feature don't match its feature type
+     */
+    public void insertValues(final String treePath, final RevFeatureType featureType,
+            final Iterator<FeatureValues> features, final ProgressListener listener,
+            @Nullable final List<Node> insertedTarget, @Nullable final Integer collectionSize)
+            throws IllegalArgumentException {
+
+        checkNotNull(featureType);
+        checkArgument(collectionSize == null || collectionSize.intValue() > -1);
+
+        Optional<NodeRef> typeTreeRef = commandLocator.command(FindTreeChild.class).setIndex(true)
+                .setParent(getTree()).setChildPath(treePath).call();
+
+        final NodeRef treeRef;
+        if (typeTreeRef.isPresent()) {
+            treeRef = typeTreeRef.get();
+        } else {
+            treeRef = createTypeTree(treePath, featureType.type());
+        }
+
+        final Integer size = collectionSize == null || collectionSize.intValue() < 1 ? null
+                : collectionSize.intValue();
+
+        RevTreeBuilder parentTree = commandLocator.command(FindOrCreateSubtree.class)
+                .setIndex(true).setParent(Suppliers.ofInstance(Optional.of(getTree())))
+                .setChildPath(treePath).call().builder(indexDatabase);
+
+        final Map<ObjectId, RevFeatureType> featureTypes = Maps.newHashMap();
+        featureTypes.put(featureType.getId(), featureType);
+        putValuesInDatabase(features, listener, size, insertedTarget, parentTree,
+                treeRef.getMetadataId(), featureTypes);
+
+        RevTree newTypeTree = parentTree.build();
+        ObjectId newTree = commandLocator.command(WriteBack.class).setAncestor(getTreeSupplier())
+                .setChildPath(treePath).setMetadataId(treeRef.getMetadataId()).setToIndex(true)
+                .setTree(newTypeTree).call();
+
+        updateWorkHead(newTree);
+    }
+
+    /**
+     * Builds a new tree out of a collection of features and stores it, along with the features and
+     * their feature type, in the index database, without modifying the working tree. Use
+     * {@link #updateTypeTrees(List)} to make the trees part of the working tree.
+     * <p>
+     * As it doesn't update the WORK_HEAD ref, several trees can be built concurrently.
+     *
+     * @param treePath the path the tree is meant to have in the working tree
+     * @param featureType the default feature type of the tree
+     * @param features the features to add to the tree
+     * @param listener a {@link ProgressListener} for the current process
+     * @return a reference to the new tree, with {@code featureType} as its metadata id
+     */
+    public NodeRef buildTypeTree(final String treePath, final FeatureType featureType,
+            final Iterator<? extends Feature> features, final ProgressListener listener) {
+
+        final RevFeatureType revType = RevFeatureType.build(featureType);
+        indexDatabase.put(revType);
+
+        final ObjectId metadataId = revType.getId();
+        RevTreeBuilder treeBuilder = new RevTreeBuilder(indexDatabase);
+        putInDatabase(treePath, features, listener, null, null, treeBuilder, metadataId);
+
+        final RevTree newTree = treeBuilder.build();
+        indexDatabase.put(newTree);
+
+        Node treeNode = Node.create(NodeRef.nodeFromPath(treePath), newTree.getId(), metadataId,
+                TYPE.TREE);
+        return new NodeRef(treeNode, NodeRef.parentPath(treePath), ObjectId.NULL);
+    }
+
+    /**
+     * Replaces the trees at the paths of the given references, or adds them if they don't exist,
+     * and updates the WORK_HEAD ref once for all of them.
+     *
+     * @param typeTrees the trees to put in the working tree, as returned by
+     *        {@link #buildTypeTree(String, FeatureType, Iterator, ProgressListener)}
+     */
+    public void updateTypeTrees(final List<NodeRef> typeTrees) {
+        if (typeTrees.isEmpty()) {
+            return;
+        }
+        RevTreeBuilder root = getTree().builder(indexDatabase);
+        ObjectId newTree = null;
+        for (NodeRef typeTree : typeTrees) {
+            RevTree tree = indexDatabase.getTree(typeTree.objectId());
+            newTree = commandLocator.command(WriteBack.class).setToIndex(true)
+                    .setAncestor(root).setChildPath(typeTree.path())
+                    .setMetadataId(typeTree.getMetadataId()).setTree(tree).call();
+        }
+        updateWorkHead(newTree);
+    }
+
     /**
      * Updates a collection of features in the working tree and updates the WORK_HEAD ref.
      * 
@@ -557,6 +671,9 @@ public class WorkingTree {
 
     /**
      * Adds a collection of features to the staging database.
+     * <p>
+     * The attribute order of simple features is worked out once per feature type, so their values
+     * are taken by index instead of sorting the properties of every feature.
      * 
      * @param parentTreepath path of features
      * @param objects the features to insert
@@ -573,14 +690,13 @@ public class WorkingTree {
         checkNotNull(objects);
         checkNotNull(progress);
         checkNotNull(parentTree);
+        checkNotNull(defaultMetadataId);
 
-        Feature feature;
+        final Map<Name, int[]> attributeOrders = Maps.newHashMap();
         int count = 0;
 
         progress.started();
 
-        Map<Name, ObjectId> revFeatureTypes = Maps.newHashMap();
-
         while (objects.hasNext()) {
             count++;
             if (progress.isCanceled()) {
@@ -590,21 +706,113 @@ public class WorkingTree {
                 progress.progress((float) (count * 100) / size.intValue());
             }
 
-            feature = objects.next();
-
+            final Feature feature = objects.next();
             final FeatureType featureType = feature.getType();
-            ObjectId revFeatureTypeId = revFeatureTypes.get(featureType.getName());
-
-            if (null == revFeatureTypeId) {
+            final Name typeName = featureType.getName();
+            if (!attributeOrders.containsKey(typeName)) {
                 RevFeatureType newFeatureType = RevFeatureType.build(featureType);
+                indexDatabase.put(newFeatureType);
+                attributeOrders.put(typeName, attributeOrder(newFeatureType));
+            }
+            final int[] attributeOrder = attributeOrders.get(typeName);
 
-                revFeatureTypeId = newFeatureType.getId();
+            final Node objectRef;
+            if (attributeOrder == null || !(feature instanceof SimpleFeature)) {
+                objectRef = putInDatabase(feature, defaultMetadataId);
+            } else {
+                objectRef = putInDatabase((SimpleFeature) feature, attributeOrder,
+                        defaultMetadataId);
+            }
+            parentTree.put(objectRef);
+            if (target != null) {
+                target.add(objectRef);
+            }
+        }
 
-                indexDatabase.put(newFeatureType);
-                revFeatureTypes.put(featureType.getName(), revFeatureTypeId);
+        progress.complete();
+    }
+
+    /**
+     * Adds a simple feature to the staging database, taking its attribute values in the given
+     * order and its bounds out of its geometry values.
+     * 
+     * @param feature the feature to add
+     * @param attributeOrder the {@link #attributeOrder(RevFeatureType) attribute order} of its
+     *        feature type
+     * @param metadataId
+     * @return the Node for the inserted feature
+     */
+    private Node putInDatabase(final SimpleFeature feature, final int[] attributeOrder,
+            final ObjectId metadataId) {
+
+        ImmutableList.Builder<Optional<Object>> values = ImmutableList.builder();
+        Envelope bounds = null;
+        for (int index : attributeOrder) {
+            final Object value = feature.getAttribute(index);
+            values.add(Optional.fromNullable(value));
+            if (value instanceof Geometry) {
+                Envelope envelope = ((Geometry) value).getEnvelopeInternal();
+                if (bounds == null) {
+                    bounds = new Envelope(envelope);
+                } else {
+                    bounds.expandToInclude(envelope);
+                }
             }
+        }
+        final RevFeature newFeature = RevFeature.build(values.build());
+        indexDatabase.put(newFeature);
+
+        return Node.create(feature.getIdentifier().getID(), newFeature.getId(), metadataId,
+                TYPE.FEATURE, bounds);
+    }
 
-            final Node objectRef = putInDatabase(feature, defaultMetadataId);
+    /**
+     * Adds a collection of features given by their attribute values to the staging database.
+     * 
+     * @param features the features to insert
+     * @param progress the {@link ProgressListener} for this process
+     * @param size number of features to add
+     * @param target if specified, created {@link Node}s will be added to the list
+     * @param defaultMetadataId the metadata id of the nodes of the features that don't set one
+     * @param featureTypes the feature types known so far by id, looked up in the index database
+     *        and added to as other ones are found
+     */
+    private void putValuesInDatabase(final Iterator<FeatureValues> features,
+            final ProgressListener progress, final @Nullable Integer size,
+            @Nullable final List<Node> target, final RevTreeBuilder parentTree,
+            final ObjectId defaultMetadataId, final Map<ObjectId, RevFeatureType> featureTypes) {
+
+        checkNotNull(features);
+        checkNotNull(progress);
+        checkNotNull(parentTree);
+        checkNotNull(defaultMetadataId);
+
+        int count = 0;
+
+        progress.started();
+
+        while (features.hasNext()) {
+            count++;
+            if (progress.isCanceled()) {
+                return;
+            }
+            if (size != null) {
+                progress.progress((float) (count * 100) / size.intValue());
+            }
+
+            final FeatureValues feature = features.next();
+            final ObjectId metadataId = feature.getMetadataId().isNull() ? defaultMetadataId
+                    : feature.getMetadataId();
+            RevFeatureType featureType = featureTypes.get(metadataId);
+            if (featureType == null) {
+                featureType = indexDatabase.getFeatureType(metadataId);
+                featureTypes.put(metadataId, featureType);
+            }
+            final RevFeature revFeature = feature.toRevFeature(featureType);
+            indexDatabase.put(revFeature);
+
+            final Node objectRef = Node.create(feature.getId(), revFeature.getId(), metadataId,
+                    TYPE.FEATURE, feature.getBounds());
             parentTree.put(objectRef);
             if (target != null) {
                 target.add(objectRef);
@@ -614,6 +822,25 @@ public class WorkingTree {
         progress.complete();
     }
 
+    /**
+     * @return for each of the {@link RevFeatureType#sortedDescriptors() sorted descriptors} of the
+     *         feature type, the index of the attribute in the simple feature type, or {@code null}
+     *         if it is not a simple feature type
+     */
+    @Nullable
+    private static int[] attributeOrder(final RevFeatureType featureType) {
+        if (!(featureType.type() instanceof SimpleFeatureType)) {
+            return null;
+        }
+        final SimpleFeatureType type = (SimpleFeatureType) featureType.type();
+        final List<PropertyDescriptor> descriptors = featureType.sortedDescriptors();
+        final int[] order = new int[descriptors.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = type.indexOf(descriptors.get(i).getName());
+        }
+        return order;
+    }
+
     /**
      * @return a list of all the feature type names in the working tree
      * @see FindFeatureTypeTrees
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
@@ -24,6 +25,9 @@ import org.geogit.api.RevTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
@@ -36,6 +40,11 @@ import com.ning.compress.lzf.LZFOutputStream;
  */
 public abstract class AbstractObjectDatabase implements ObjectDatabase {
 
+    /**
+     * Number of objects read into memory at a time by {@link #copyTo(Iterator, ObjectDatabase)}
+     */
+    private static final int COPY_BATCH_SIZE = 1000;
+
     protected ObjectSerializingFactory serializationFactory;
 
     public AbstractObjectDatabase(final ObjectSerializingFactory serializationFactory) {
@@ -213,6 +222,30 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         return inserted;
     }
 
+    @Override
+    public InputStream getCompressed(final ObjectId id) throws IllegalArgumentException {
+        Preconditions.checkNotNull(id, "id");
+        return getRawInternal(id, true);
+    }
+
+    @Override
+    public boolean putCompressed(final ObjectId objectId, final InputStream compressed) {
+        Preconditions.checkNotNull(objectId);
+        Preconditions.checkNotNull(compressed);
+        Preconditions.checkArgument(!objectId.isNull(), "ObjectId is NULL");
+
+        final byte[] rawData;
+        try {
+            rawData = ByteStreams.toByteArray(compressed);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        // LZF chunks start with the 'Z' 'V' signature
+        Preconditions.checkArgument(rawData.length > 1 && rawData[0] == 'Z' && rawData[1] == 'V',
+                "Data for object %s is not LZF compressed", objectId);
+        return putInternal(objectId, rawData);
+    }
+
     @Override
     public <T extends RevObject> boolean put(final T object) {
         Preconditions.checkNotNull(object);
@@ -246,6 +279,79 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         }
     }
 
+    /**
+     * Copies the objects in their compressed, stored form when {@code target} is also an
+     * {@code AbstractObjectDatabase} using the same kind of serialization, and in batches of
+     * {@link #COPY_BATCH_SIZE} objects through {@link #putAllInternal(List)}; otherwise falls back
+     * to parsing each object and {@link ObjectDatabase#put(RevObject) putting} it on the target.
+     */
+    @Override
+    public long copyTo(final Iterator<ObjectId> ids, final ObjectDatabase target) {
+        Preconditions.checkNotNull(ids);
+        Preconditions.checkNotNull(target);
+        long inserted = 0;
+        if (!(target instanceof AbstractObjectDatabase)
+                || !serializationFactory.getClass().equals(
+                        ((AbstractObjectDatabase) target).serializationFactory.getClass())) {
+            while (ids.hasNext()) {
+                if (target.put(get(ids.next()))) {
+                    inserted++;
+                }
+            }
+            return inserted;
+        }
+
+        final AbstractObjectDatabase rawTarget = (AbstractObjectDatabase) target;
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids, COPY_BATCH_SIZE);
+        while (batches.hasNext()) {
+            List<Entry<ObjectId, byte[]>> batch = Lists.newArrayListWithCapacity(COPY_BATCH_SIZE);
+            for (ObjectId id : batches.next()) {
+                batch.add(Maps.immutableEntry(id, getCompressedBytes(id)));
+            }
+            inserted += rawTarget.putAllInternal(batch);
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the object's data as stored, that is, serialized and compressed
+     */
+    private byte[] getCompressedBytes(final ObjectId id) {
+        InputStream in = getRawInternal(id, false);
+        if (in == null) {
+            // subclasses may find the object elsewhere, serialize it the same way it's stored
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeObject(get(id), out);
+            return out.toByteArray();
+        }
+        try {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores the given objects, given in their compressed form, skipping the ones that already
+     * exist.
+     * <p>
+     * This default implementation calls {@link #putInternal(ObjectId, byte[])} for each object;
+     * subclasses may override if they can do a more efficient batch insert.
+     * 
+     * @return the number of objects actually inserted
+     */
+    protected int putAllInternal(final List<Entry<ObjectId, byte[]>> objects) {
+        int inserted = 0;
+        for (Entry<ObjectId, byte[]> object : objects) {
+            if (putInternal(object.getKey(), object.getValue())) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
     protected void writeObject(RevObject object, OutputStream target) {
 
         ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
@@ -151,9 +151,46 @@ public interface ObjectDatabase {
      */
     public boolean put(ObjectId objectId, InputStream raw);
 
+    /**
+     * Returns the object data as stored, that is, serialized and LZF compressed, so that it can be
+     * transferred to another database with {@link #putCompressed(ObjectId, InputStream)} without
+     * being inflated and deflated again.
+     * 
+     * @param id the id of the object to get
+     * @return the compressed object data
+     * @throws IllegalArgumentException if the object doesn't exist
+     */
+    public InputStream getCompressed(ObjectId id) throws IllegalArgumentException;
+
+    /**
+     * Adds an object given in its stored, compressed, form as returned by
+     * {@link #getCompressed(ObjectId)}. If an object with the same id already exists, it will not
+     * be inserted.
+     * 
+     * @param objectId the id of the object
+     * @param compressed the serialized and LZF compressed object data
+     * @return true if the object was inserted, false otherwise
+     */
+    public boolean putCompressed(ObjectId objectId, InputStream compressed);
+
     /**
      * @param iterator
      */
     public void putAll(Iterator<? extends RevObject> objects);
 
+    /**
+     * Copies the objects with the given ids from this database to {@code target}, skipping the
+     * ones that already exist in {@code target}.
+     * <p>
+     * Objects are inserted in the iteration order, and implementations may copy them in their
+     * stored form, without parsing them, when {@code target} uses the same storage format. Objects
+     * copied that way don't go through {@link #put(RevObject)} on {@code target}, so commits are
+     * not added to its commit graph; callers shall {@link #put(RevObject) put} commits instead.
+     * 
+     * @param ids the ids of the objects to copy, all of them must exist in this database
+     * @param target the database to copy the objects to
+     * @return the number of objects actually inserted into {@code target}
+     */
+    public long copyTo(Iterator<ObjectId> ids, ObjectDatabase target);
+
 }
\ No newline at end of file
@@ -24,6 +24,10 @@ import com.google.inject.Provider;
 /**
  * Method interceptor for {@link ObjectDatabase#put(RevObject)} that adds new commits to the graph
  * database.
+ * <p>
+ * Also intercepts {@link ObjectDatabase#putAll(Iterator)}, and {@link ObjectDatabase#put(ObjectId,
+ * java.io.InputStream)} and {@link ObjectDatabase#putCompressed(ObjectId, java.io.InputStream)},
+ * for which the object is read back to find out whether it's a commit.
  */
 public class ObjectDatabasePutInterceptor implements MethodInterceptor {
 
@@ -49,6 +53,8 @@ public class ObjectDatabasePutInterceptor implements MethodInterceptor {
 
         } else if (methodName.equals("putAll")) {
             return putAllInterceptor(invocation);
+        } else if (methodName.equals("putCompressed")) {
+            return putCompressedInterceptor(invocation);
         }
         return invocation.proceed();
     }
@@ -100,6 +106,19 @@ public class ObjectDatabasePutInterceptor implements MethodInterceptor {
         return result;
     }
 
+    private Object putCompressedInterceptor(MethodInvocation invocation) throws Throwable {
+        final ObjectId objectId = (ObjectId) invocation.getArguments()[0];
+        Object result = invocation.proceed();
+
+        // objects that already existed were added to the graph when they were first stored
+        if (Boolean.TRUE.equals(result) && repository.get().commitExists(objectId)) {
+            RevCommit commit = repository.get().getCommit(objectId);
+            graphDb.get().put(commit.getId(), commit.getParentIds());
+        }
+
+        return result;
+    }
+
     private Object putRevObjectInterceptor(MethodInvocation invocation) throws Throwable {
         final RevObject revObject = (RevObject) invocation.getArguments()[0];
 
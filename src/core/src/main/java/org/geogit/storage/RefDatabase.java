@@ -7,6 +7,8 @@ package org.geogit.storage;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 /**
  * Provides an interface for GeoGit reference databases.
  * 
@@ -59,6 +61,24 @@ public interface RefDatabase {
      */
     public abstract void putSymRef(String name, String val);
 
+    /**
+     * Atomically sets the value of a ref to {@code newValue} if and only if its current value is
+     * {@code expectedValue}.
+     * <p>
+     * This allows concurrent writers to update the same ref using optimistic concurrency instead
+     * of serializing through {@link #lock()}: a writer that fails to set the ref shall re-read its
+     * current value and decide whether to retry or give up.
+     * 
+     * @param refName the name of the ref
+     * @param expectedValue the value the ref is expected to have as returned by
+     *        {@link #getRef(String)}, or {@code null} if the ref is expected not to exist
+     * @param newValue the new value of the ref
+     * @return {@code true} if the ref was updated, {@code false} if its current value didn't match
+     *         {@code expectedValue}
+     */
+    public abstract boolean compareAndSet(String refName, @Nullable String expectedValue,
+            String newValue);
+
     /**
      * @param refName the name of the ref to remove (e.g. {@code "HEAD"},
      *        {@code "refs/remotes/origin"}, etc).
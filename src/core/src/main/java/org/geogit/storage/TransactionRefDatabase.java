@@ -5,62 +5,89 @@
 
 package org.geogit.storage;
 
-import static org.geogit.api.Ref.append;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.CommandLocator;
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.plumbing.TransactionEnd;
 import org.geogit.repository.Index;
 import org.geogit.repository.WorkingTree;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * A {@link RefDatabase} decorator for a specific {@link GeogitTransaction transaction}.
  * <p>
- * This decorator creates a transaction specific namespace under the
- * {@code transactions/<transaction id>} path, and maps all query and storage methods to that
- * namespace.
+ * This decorator keeps an in-memory, copy-on-write view of the repository refs for the duration of
+ * the transaction: {@link #create()} takes a snapshot of the original {@code HEAD},
+ * {@code WORK_HEAD}, {@code STAGE_HEAD} and branch refs, and all changes made through this
+ * decorator are recorded in an overlay on top of that snapshot. Nothing is written to the decorated
+ * {@code RefDatabase}, which is only updated by {@link TransactionEnd} when the transaction is
+ * committed, so beginning and ending a transaction incur no file system access other than reading
+ * the original refs.
  * <p>
  * This is so that every command created through the {@link GeogitTransaction transaction} used as a
  * {@link CommandLocator}, as well as the transaction specific {@link Index} and {@link WorkingTree}
  * , are given this instance of {@code RefDatabase} and can do its work without ever noticing its
  * "running inside a transaction". For the command nothing changes.
  * <p>
+ * The original value of a ref as of the beginning of the transaction can be obtained by prefixing
+ * its name with {@code orig/} (e.g. {@code orig/refs/heads/master}), and its value in the overlay
+ * by prefixing it with {@code changed/}.
+ * <p>
  * {@link TransactionRefDatabase#create() create()} shall be called before this decorator gets used
- * in order for the transaction refs namespace to be created and all original references copied in
- * there, and {@link TransactionRefDatabase#close() close()} for the transaction refs namespace to
- * be deleted.
- * 
+ * in order for the original references to be copied, and {@link TransactionRefDatabase#close()
+ * close()} to release them.
+ *
  * @see GeogitTransaction
  * @see TransactionBegin
  * @see TransactionEnd
  */
 public class TransactionRefDatabase implements RefDatabase {
 
-    private static final String TRANSACTIONS_NAMESPACE = "transactions";
+    private static final String CHANGED_PREFIX = "changed/";
+
+    private static final String ORIG_PREFIX = "orig/";
+
+    private static final String SYMREF_PREFIX = "ref: ";
 
     private RefDatabase refDb;
 
-    private final String txRootNamespace;
+    private final UUID transactionId;
 
-    private final String txNamespace;
+    /**
+     * Raw values of the original refs, as of the time the transaction was created
+     */
+    private final NavigableMap<String, String> origRefs = Maps.newTreeMap();
+
+    /**
+     * Raw values of the refs changed in this transaction
+     */
+    private final NavigableMap<String, String> changedRefs = Maps.newTreeMap();
 
-    private final String txOrigNamespace;
+    /**
+     * Names of the original refs removed in this transaction
+     */
+    private final Set<String> removedRefs = Sets.newHashSet();
 
     public TransactionRefDatabase(final RefDatabase refDb, final UUID transactionId) {
         this.refDb = refDb;
-        this.txRootNamespace = append(TRANSACTIONS_NAMESPACE, transactionId.toString());
-        this.txNamespace = append(txRootNamespace, "changed");
-        this.txOrigNamespace = append(txRootNamespace, "orig");
+        this.transactionId = transactionId;
     }
 
     @Override
@@ -74,205 +101,182 @@ public class TransactionRefDatabase implements RefDatabase {
     }
 
     @Override
-    public void create() {
-        refDb.create();
-
+    public synchronized void create() {
         // copy HEADS
         String headValue = readRef(Ref.HEAD);
         if (headValue != null) {
-            insertRef(toInternal(Ref.HEAD), headValue);
+            changedRefs.put(Ref.HEAD, headValue);
         }
 
         String workHeadValue = readRef(Ref.WORK_HEAD);
         if (workHeadValue != null) {
-            insertRef(toInternal(Ref.WORK_HEAD), workHeadValue);
+            changedRefs.put(Ref.WORK_HEAD, workHeadValue);
         }
 
         String stageHeadValue = readRef(Ref.STAGE_HEAD);
         if (stageHeadValue != null) {
-            insertRef(toInternal(Ref.STAGE_HEAD), stageHeadValue);
+            changedRefs.put(Ref.STAGE_HEAD, stageHeadValue);
         }
 
-        Map<String, String> origRefs = refDb.getAll(Ref.HEADS_PREFIX);
-        Map<String, String> thisTxRefs = toOrigInternal(origRefs);
-
-        for (Entry<String, String> entry : thisTxRefs.entrySet()) {
-            insertRef(entry.getKey(), entry.getValue());
-        }
+        origRefs.putAll(refDb.getAll(Ref.HEADS_PREFIX));
     }
 
+    /**
+     * @return the raw value of a ref in the decorated database, with the {@code "ref: "} prefix if
+     *         it's a symbolic ref
+     */
     private String readRef(String name) {
         String value = null;
         try {
             value = refDb.getRef(name);
         } catch (IllegalArgumentException e) {
             value = refDb.getSymRef(name);
+            if (value != null) {
+                value = SYMREF_PREFIX + value;
+            }
         }
         return value;
     }
 
-    private void insertRef(String name, String value) {
-        if (value.contains("/")) {
-            refDb.putSymRef(name, value);
-        } else {
-            refDb.putRef(name, value);
-        }
-    }
-
     /**
      * Releases all the references for this transaction, but does not close the original
      * {@link RefDatabase}
      */
     @Override
-    public void close() {
-        refDb.removeAll(this.txRootNamespace);
+    public synchronized void close() {
+        origRefs.clear();
+        changedRefs.clear();
+        removedRefs.clear();
     }
 
     /**
-     * Gets the requested ref value from {@code transactions/<tx id>/<name>}
+     * @return the raw value of the ref in this transaction, or {@code null} if it doesn't exist
      */
-    @Override
-    public String getRef(final String name) {
-        String internalName;
-        String value;
-        if (name.startsWith("changed") || name.startsWith("orig")) {
-            internalName = append(txRootNamespace, name);
-            value = refDb.getRef(internalName);
-        } else {
-            internalName = toInternal(name);
-            value = refDb.getRef(internalName);
-            if (value == null) {
-                internalName = toOrigInternal(name);
-                value = refDb.getRef(internalName);
-            }
+    @Nullable
+    private synchronized String lookUp(final String name) {
+        if (name.startsWith(CHANGED_PREFIX)) {
+            return changedRefs.get(name.substring(CHANGED_PREFIX.length()));
+        }
+        if (name.startsWith(ORIG_PREFIX)) {
+            return origRefs.get(name.substring(ORIG_PREFIX.length()));
+        }
+        String value = changedRefs.get(name);
+        if (value == null && !removedRefs.contains(name)) {
+            value = origRefs.get(name);
         }
         return value;
     }
 
+    /**
+     * Gets the requested ref value as seen by this transaction
+     */
     @Override
-    public String getSymRef(final String name) {
-        String internalName;
-        String value;
-        if (name.startsWith("changed") || name.startsWith("orig")) {
-            internalName = append(txRootNamespace, name);
-            value = refDb.getRef(internalName);
-        } else {
-            internalName = toInternal(name);
-            value = refDb.getSymRef(internalName);
-            if (value == null) {
-                internalName = toOrigInternal(name);
-                value = refDb.getSymRef(internalName);
-            }
+    public String getRef(final String name) {
+        checkNotNull(name);
+        String value = lookUp(name);
+        if (value != null && value.startsWith(SYMREF_PREFIX)) {
+            throw new IllegalArgumentException(name + " is not a ref: '" + value + "'");
         }
         return value;
     }
 
     @Override
-    public void putRef(final String refName, final String refValue) {
-        String internalName = toInternal(refName);
-        refDb.putRef(internalName, refValue);
+    public String getSymRef(final String name) {
+        checkNotNull(name);
+        String value = lookUp(name);
+        if (value == null) {
+            return null;
+        }
+        if (!value.startsWith(SYMREF_PREFIX)) {
+            throw new IllegalArgumentException(name + " is not a symbolic ref: '" + value + "'");
+        }
+        return value.substring(SYMREF_PREFIX.length());
     }
 
     @Override
-    public void putSymRef(final String name, final String val) {
-        String internalName = toInternal(name);
-        refDb.putSymRef(internalName, val);
+    public synchronized void putRef(final String refName, final String refValue) {
+        checkNotNull(refName);
+        checkNotNull(refValue);
+        ObjectId.valueOf(refValue);
+        changedRefs.put(refName, refValue);
     }
 
     @Override
-    public String remove(final String refName) {
-        return refDb.remove(toInternal(refName));
+    public synchronized void putSymRef(final String name, final String val) {
+        checkNotNull(name);
+        checkNotNull(val);
+        changedRefs.put(name, SYMREF_PREFIX + val);
     }
 
+    /**
+     * Compares {@code expectedValue} against the transaction's view of the ref, that is, its
+     * changed value if the ref was changed in this transaction, or its original value otherwise.
+     */
     @Override
-    public Map<String, String> getAll() {
-        return getAll("");
+    public synchronized boolean compareAndSet(final String refName,
+            @Nullable final String expectedValue, final String newValue) {
+        checkNotNull(refName);
+        checkNotNull(newValue);
+        ObjectId.valueOf(newValue);
+        if (!Objects.equal(expectedValue, lookUp(refName))) {
+            return false;
+        }
+        changedRefs.put(refName, newValue);
+        return true;
     }
 
     @Override
-    public Map<String, String> getAll(final String prefix) {
-        Map<String, String> originals = refDb.getAll(append(this.txOrigNamespace, prefix));
-        Map<String, String> changed = refDb.getAll(append(this.txNamespace, prefix));
-
-        Map<String, String> externalOriginals = toExternal(originals);
-        Map<String, String> externalChanged = toExternal(changed);
-
-        Map<String, String> composite = Maps.newHashMap(externalOriginals);
-        // Overwrite originals
-        composite.putAll(externalChanged);
-        return composite;
-
+    public synchronized String remove(final String refName) {
+        checkNotNull(refName);
+        String oldValue = lookUp(refName);
+        changedRefs.remove(refName);
+        if (origRefs.containsKey(refName)) {
+            removedRefs.add(refName);
+        }
+        return oldValue;
     }
 
     @Override
-    public Map<String, String> removeAll(String namespace) {
-        final String txMappedNamespace = toInternal(namespace);
-        Map<String, String> removed = refDb.removeAll(txMappedNamespace);
-        Map<String, String> external = toExternal(removed);
-        return external;
+    public Map<String, String> getAll() {
+        return getAll("");
     }
 
-    private Map<String, String> toExternal(final Map<String, String> transactionEntries) {
-
-        Map<String, String> transformed = Maps.newHashMap();
-        for (Entry<String, String> entry : transactionEntries.entrySet()) {
-
-            String txName = entry.getKey();
-            String txValue = entry.getValue();
-
-            String transformedName = toExternal(txName);
-            String transformedValue = toExternalValue(txValue);
-            transformed.put(transformedName, transformedValue);
+    @Override
+    public synchronized Map<String, String> getAll(final String prefix) {
+        Map<String, String> composite = Maps.newHashMap();
+        for (Entry<String, String> orig : subMap(origRefs, prefix).entrySet()) {
+            if (!removedRefs.contains(orig.getKey())) {
+                composite.put(orig.getKey(), orig.getValue());
+            }
         }
-        return ImmutableMap.copyOf(transformed);
-    }
-
-    private String toInternal(String name) {
-        return append(txNamespace, name);
+        // Overwrite originals
+        composite.putAll(subMap(changedRefs, prefix));
+        return ImmutableMap.copyOf(composite);
     }
 
-    private String toExternal(String name) {
-        if (name.startsWith(this.txNamespace)) {
-            return Ref.child(this.txNamespace, name);
-        } else if (name.startsWith(this.txOrigNamespace)) {
-            return Ref.child(this.txOrigNamespace, name);
+    @Override
+    public synchronized Map<String, String> removeAll(final String namespace) {
+        Map<String, String> removed = getAll(namespace);
+        for (String refName : removed.keySet()) {
+            remove(refName);
         }
-        return name;
-    }
-
-    private String toOrigInternal(String name) {
-        return append(txOrigNamespace, name);
+        return removed;
     }
 
-    private Map<String, String> toOrigInternal(final Map<String, String> orig) {
-
-        Map<String, String> transformed = Maps.newHashMap();
-        for (Entry<String, String> entry : orig.entrySet()) {
-
-            String origName = entry.getKey();
-            String origValue = entry.getValue();
-
-            String transformedName = toOrigInternal(origName);
-            String transformedValue = origValue;
-            transformed.put(transformedName, transformedValue);
+    private static NavigableMap<String, String> subMap(final NavigableMap<String, String> refs,
+            final String prefix) {
+        if (prefix.isEmpty()) {
+            return refs;
         }
-        return ImmutableMap.copyOf(transformed);
+        // all the names starting with prefix sort before prefix with its last char incremented
+        String to = prefix.substring(0, prefix.length() - 1)
+                + (char) (prefix.charAt(prefix.length() - 1) + 1);
+        return refs.subMap(prefix, true, to, false);
     }
 
-    private String toExternalValue(String origValue) {
-        String txValue = origValue;
-        boolean isSymRef = origValue.startsWith("ref: ");
-        if (isSymRef) {
-            String val = origValue.substring("ref: ".length());
-            if (val.startsWith(this.txNamespace)) {
-                val = val.substring(this.txNamespace.length());
-                if (val.startsWith("/")) {
-                    val = val.substring(1);
-                }
-            }
-            txValue = "ref: " + val;
-        }
-        return txValue;
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append('[').append(transactionId)
+                .append(']').toString();
     }
-
 }
@@ -10,19 +10,30 @@ import static com.google.common.base.Preconditions.checkState;
 import static org.geogit.api.Ref.append;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
 import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.storage.AbstractRefDatabase;
+import org.geogit.storage.RefDatabase;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
@@ -30,16 +41,55 @@ import com.google.inject.Inject;
 /**
  * Provides an implementation of a GeoGit ref database that utilizes the file system for the storage
  * of refs.
+ * <p>
+ * Refs are stored either as "loose" refs, one file per ref under the repository directory, or in a
+ * single {@code packed-refs} file holding one {@code <object id> <ref name>} entry per line. A loose
+ * ref always overrides a packed ref with the same name. Symbolic refs are never packed.
+ * <p>
+ * The contents of both loose ref files and the packed refs file are cached in memory and validated
+ * against the file's modification time and length, so resolving an unchanged ref costs a single
+ * {@code stat} call instead of reading the file. Since file system time stamps have a limited
+ * resolution, a file is only trusted to be unchanged once its time stamp is older than
+ * {@link #RACY_INTERVAL_MILLIS} at the time it was read; until then it's read again on each access.
+ * <p>
+ * Updates are made atomic by first creating a {@code .<name>.lock} file next to the ref file with
+ * {@link File#createNewFile()}, writing the new value to it, and renaming it over the ref file. This
+ * protects against concurrent writers both inside this process and from other processes, and allows
+ * for {@link #compareAndSet(String, String, String) compare-and-set} updates.
  */
 public class FileRefDatabase extends AbstractRefDatabase {
 
     private static final Charset CHARSET = Charset.forName("UTF-8");
 
+    /**
+     * Name of the file holding the packed refs, relative to the repository directory
+     */
+    static final String PACKED_REFS = "packed-refs";
+
+    private static final String PACKED_REFS_HEADER = "# geogit packed-refs";
+
+    /**
+     * Minimum age of a file's time stamp at the time it was read for its cached contents to be
+     * trusted while its time stamp and length don't change
+     */
+    private static final long RACY_INTERVAL_MILLIS = 2500;
+
+    /**
+     * Maximum time to wait for a ref lock file held by another writer to be released
+     */
+    private static final long LOCK_TIMEOUT_MILLIS = 10000;
+
     private Platform platform;
 
+    private volatile File repoDir;
+
+    private final ConcurrentMap<String, LooseRef> looseRefs = new ConcurrentHashMap<String, LooseRef>();
+
+    private volatile PackedRefs packedRefs = PackedRefs.EMPTY;
+
     /**
      * Constructs a new {@code FileRefDatabase} with the given platform.
-     * 
+     *
      * @param platform the platform to use
      */
     @Inject
@@ -72,6 +122,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
             throw new IllegalStateException("Cannot create refs directory '"
                     + refs.getAbsolutePath() + "'");
         }
+        this.repoDir = repoDir;
     }
 
     /**
@@ -79,7 +130,9 @@ public class FileRefDatabase extends AbstractRefDatabase {
      */
     @Override
     public void close() {
-        // nothing to close
+        repoDir = null;
+        looseRefs.clear();
+        packedRefs = PackedRefs.EMPTY;
     }
 
     /**
@@ -89,11 +142,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
     @Override
     public String getRef(String name) {
         checkNotNull(name);
-        File refFile = toFile(name);
-        if (!refFile.exists()) {
-            return null;
-        }
-        String value = readRef(refFile);
+        String value = readRef(name);
         if (value == null) {
             return null;
         }
@@ -112,11 +161,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
     @Override
     public String getSymRef(String name) {
         checkNotNull(name);
-        File refFile = toFile(name);
-        if (!refFile.exists()) {
-            return null;
-        }
-        String value = readRef(refFile);
+        String value = readRef(name);
         if (value == null) {
             return null;
         }
@@ -140,7 +185,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
         } catch (IllegalArgumentException e) {
             throw e;
         }
-        store(refName, refValue);
+        store(refName, refValue, false, null);
     }
 
     /**
@@ -153,7 +198,21 @@ public class FileRefDatabase extends AbstractRefDatabase {
         checkNotNull(name);
         checkNotNull(val);
         val = "ref: " + val;
-        store(name, val);
+        store(name, val, false, null);
+    }
+
+    /**
+     * Atomically sets the value of the given ref to {@code newValue} if and only if its current
+     * value is {@code expectedValue}, while holding the ref's lock file.
+     * 
+     * @see RefDatabase#compareAndSet(String, String, String)
+     */
+    @Override
+    public boolean compareAndSet(String refName, @Nullable String expectedValue, String newValue) {
+        checkNotNull(refName);
+        checkNotNull(newValue);
+        ObjectId.valueOf(newValue);
+        return store(refName, newValue, true, expectedValue);
     }
 
     /**
@@ -164,18 +223,71 @@ public class FileRefDatabase extends AbstractRefDatabase {
     @Override
     public String remove(String refName) {
         checkNotNull(refName);
-        File refFile = toFile(refName);
-        String oldRef;
-        if (refFile.exists()) {
-            oldRef = readRef(refFile);
-            if (!refFile.delete()) {
+        final File refFile = toFile(refName);
+        final File lockFile = lockFile(refFile);
+        lock(lockFile, refName);
+        try {
+            String oldRef = readRef(refName);
+            if (refFile.isFile() && !refFile.delete()) {
                 throw new RuntimeException("Unable to delete ref file '"
                         + refFile.getAbsolutePath() + "'");
             }
-        } else {
-            oldRef = null;
+            looseRefs.remove(refName);
+            if (packed().refs.containsKey(refName)) {
+                removePacked(refName, false);
+            }
+            return oldRef;
+        } finally {
+            lockFile.delete();
+        }
+    }
+
+    /**
+     * Moves all the non symbolic loose refs under the {@code refs} namespace to the
+     * {@code packed-refs} file, reducing the number of files to be checked when resolving refs.
+     * <p>
+     * Refs that are modified while being packed are left as loose refs.
+     */
+    public void pack() {
+        Map<String, String> loose = Maps.newTreeMap();
+        addAll(refsDir("refs"), "refs", loose);
+
+        final File packedFile = packedRefsFile();
+        final File packedLock = lockFile(packedFile);
+        lock(packedLock, PACKED_REFS);
+        boolean written = false;
+        try {
+            SortedMap<String, String> packed = Maps.newTreeMap(readPacked().refs);
+            for (Entry<String, String> e : loose.entrySet()) {
+                if (!e.getValue().startsWith("ref: ")) {
+                    packed.put(e.getKey(), e.getValue());
+                }
+            }
+            writePacked(packed, packedLock, packedFile);
+            written = true;
+        } finally {
+            unlock(packedLock, written);
+        }
+
+        for (Entry<String, String> e : loose.entrySet()) {
+            final String refName = e.getKey();
+            final String value = e.getValue();
+            if (value.startsWith("ref: ")) {
+                continue;
+            }
+            final File refFile = toFile(refName);
+            final File lockFile = lockFile(refFile);
+            lock(lockFile, refName);
+            try {
+                LooseRef current = scanLoose(refName, refFile);
+                if (current != null && value.equals(current.value)) {
+                    refFile.delete();
+                    looseRefs.remove(refName);
+                }
+            } finally {
+                lockFile.delete();
+            }
         }
-        return oldRef;
     }
 
     /**
@@ -183,46 +295,245 @@ public class FileRefDatabase extends AbstractRefDatabase {
      * @return
      */
     private File toFile(String refPath) {
-        URL envHome = new ResolveGeogitDir(platform).call();
-
         String[] path = refPath.split("/");
 
-        try {
-            File file = new File(envHome.toURI());
-            for (String subpath : path) {
-                file = new File(file, subpath);
+        File file = repoDir();
+        for (String subpath : path) {
+            file = new File(file, subpath);
+        }
+        return file;
+    }
+
+    private File repoDir() {
+        File dir = this.repoDir;
+        if (dir == null) {
+            URL envHome = new ResolveGeogitDir(platform).call();
+            checkState(envHome != null, "Not inside a geogit directory");
+            try {
+                dir = new File(envHome.toURI());
+            } catch (URISyntaxException e) {
+                throw Throwables.propagate(e);
             }
-            return file;
-        } catch (Exception e) {
+            this.repoDir = dir;
+        }
+        return dir;
+    }
+
+    private File packedRefsFile() {
+        return new File(repoDir(), PACKED_REFS);
+    }
+
+    private static File lockFile(File refFile) {
+        return new File(refFile.getParentFile(), "." + refFile.getName() + ".lock");
+    }
+
+    /**
+     * @return the raw value of the given ref, as stored in its loose ref file or the packed refs
+     *         file, or {@code null} if it doesn't exist
+     */
+    @Nullable
+    private String readRef(String refName) {
+        LooseRef loose = scanLoose(refName, toFile(refName));
+        if (loose != null) {
+            return loose.value;
+        }
+        return packed().refs.get(refName);
+    }
+
+    /**
+     * Returns the loose ref stored in {@code refFile}, from the cache if the file didn't change
+     * since it was last read.
+     */
+    @Nullable
+    private LooseRef scanLoose(final String refName, final File refFile) {
+        final long lastModified = refFile.lastModified();
+        if (lastModified == 0L) {
+            looseRefs.remove(refName);
+            return null;
+        }
+        final long length = refFile.length();
+        LooseRef cached = looseRefs.get(refName);
+        if (cached != null && cached.isUnmodified(lastModified, length)) {
+            return cached;
+        }
+        if (refFile.isDirectory()) {
+            return null;
+        }
+        final long readTime = System.currentTimeMillis();
+        String value;
+        try {
+            value = Files.readFirstLine(refFile, CHARSET);
+        } catch (FileNotFoundException deletedConcurrently) {
+            looseRefs.remove(refName);
+            return null;
+        } catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        if (value == null) {
+            return null;
+        }
+        LooseRef ref = new LooseRef(value, lastModified, length, readTime);
+        looseRefs.put(refName, ref);
+        return ref;
+    }
+
+    private PackedRefs packed() {
+        final File packedFile = packedRefsFile();
+        final long lastModified = packedFile.lastModified();
+        PackedRefs cached = this.packedRefs;
+        if (lastModified == 0L) {
+            if (cached != PackedRefs.EMPTY) {
+                this.packedRefs = PackedRefs.EMPTY;
+            }
+            return PackedRefs.EMPTY;
+        }
+        if (cached.isUnmodified(lastModified, packedFile.length())) {
+            return cached;
+        }
+        return readPacked();
     }
 
-    private String readRef(File refFile) {
+    private PackedRefs readPacked() {
+        final File packedFile = packedRefsFile();
+        final long lastModified = packedFile.lastModified();
+        final long length = packedFile.length();
+        final long readTime = System.currentTimeMillis();
+        List<String> lines;
         try {
-            synchronized (refFile.getCanonicalPath().intern()) {
-                return Files.readFirstLine(refFile, CHARSET);
+            lines = Files.readLines(packedFile, CHARSET);
+        } catch (FileNotFoundException e) {
+            this.packedRefs = PackedRefs.EMPTY;
+            return PackedRefs.EMPTY;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        ImmutableSortedMap.Builder<String, String> refs = ImmutableSortedMap.naturalOrder();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
             }
+            int sep = line.indexOf(' ');
+            checkState(sep > 0, "Invalid packed ref entry: '%s'", line);
+            refs.put(line.substring(sep + 1), line.substring(0, sep));
+        }
+        PackedRefs packed = new PackedRefs(refs.build(), lastModified, length, readTime);
+        this.packedRefs = packed;
+        return packed;
+    }
+
+    private void writePacked(final SortedMap<String, String> refs, final File packedLock,
+            final File packedFile) {
+        StringBuilder sb = new StringBuilder(PACKED_REFS_HEADER).append('\n');
+        for (Entry<String, String> e : refs.entrySet()) {
+            sb.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+        try {
+            Files.write(sb.toString(), packedLock, CHARSET);
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        rename(packedLock, packedFile, PACKED_REFS);
+        this.packedRefs = PackedRefs.EMPTY;
     }
 
-    private void store(String refName, String refValue) {
+    /**
+     * Removes the given ref, or all the refs in the given namespace, from the packed refs file
+     *
+     * @return the removed packed refs
+     */
+    private Map<String, String> removePacked(final String name, final boolean namespace) {
+        final File packedFile = packedRefsFile();
+        final File packedLock = lockFile(packedFile);
+        lock(packedLock, PACKED_REFS);
+        boolean written = false;
+        try {
+            SortedMap<String, String> packed = Maps.newTreeMap(readPacked().refs);
+            Map<String, String> removed;
+            if (namespace) {
+                removed = ImmutableMap.copyOf(subMap(packed, name));
+                packed.keySet().removeAll(removed.keySet());
+            } else {
+                String value = packed.remove(name);
+                removed = value == null ? ImmutableMap.<String, String> of() : ImmutableMap.of(
+                        name, value);
+            }
+            if (!removed.isEmpty()) {
+                writePacked(packed, packedLock, packedFile);
+                written = true;
+            }
+            return removed;
+        } finally {
+            unlock(packedLock, written);
+        }
+    }
+
+    /**
+     * Stores the given raw ref value, optionally only if the current value of the ref matches
+     * {@code expectedValue}
+     *
+     * @return {@code true} if the ref was stored
+     */
+    private boolean store(final String refName, final String refValue, final boolean compare,
+            @Nullable final String expectedValue) {
         final File refFile = toFile(refName);
-        final File tmpFile = new File(refFile.getParentFile(), "." + refFile.getName() + ".tmp");
+        final File lockFile = lockFile(refFile);
+        lock(lockFile, refName);
+        boolean renamed = false;
+        try {
+            if (compare && !Objects.equal(expectedValue, readRef(refName))) {
+                return false;
+            }
+            Files.write(refValue + "\n", lockFile, CHARSET);
+            rename(lockFile, refFile, refName);
+            renamed = true;
+            looseRefs.remove(refName);
+            return true;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            unlock(lockFile, renamed);
+        }
+    }
 
+    /**
+     * Acquires the given lock file, waiting up to {@link #LOCK_TIMEOUT_MILLIS} for a concurrent
+     * writer to release it.
+     */
+    private void lock(final File lockFile, final String refName) {
+        final long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
         try {
-            Files.createParentDirs(tmpFile);
-            Files.write(refValue + "\n", tmpFile, CHARSET);
-            boolean renamed;
-            synchronized (refFile.getCanonicalPath().intern()) {
-                refFile.delete();
-                renamed = tmpFile.renameTo(refFile);
+            Files.createParentDirs(lockFile);
+            while (!lockFile.createNewFile()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Timed out waiting for the lock on ref "
+                            + refName + ". If no other process is updating it, remove "
+                            + lockFile.getAbsolutePath());
+                }
+                Thread.sleep(1);
             }
-            checkState(renamed, "unable to save ref " + refName);
         } catch (IOException e) {
             throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Releases the given lock file, unless it was already renamed over the file it protects, in
+     * which case the lock file found now, if any, belongs to another writer
+     */
+    private static void unlock(final File lockFile, final boolean renamed) {
+        if (!renamed) {
+            lockFile.delete();
+        }
+    }
+
+    private void rename(final File from, final File to, final String refName) {
+        if (!from.renameTo(to)) {
+            // some platforms can't rename over an existing file
+            to.delete();
+            checkState(from.renameTo(to), "unable to save ref " + refName);
         }
     }
 
@@ -240,55 +551,86 @@ public class FileRefDatabase extends AbstractRefDatabase {
      */
     @Override
     public Map<String, String> getAll(String namespace) {
-        File refsRoot;
-        try {
-            URL envHome = new ResolveGeogitDir(platform).call();
-            refsRoot = new File(envHome.toURI());
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
         if (namespace.endsWith("/")) {
             namespace = namespace.substring(0, namespace.length() - 1);
         }
         Map<String, String> refs = Maps.newTreeMap();
-        findRefs(refsRoot, namespace, refs);
+        refs.putAll(subMap(packed().refs, namespace));
+        File nsDir = refsDir(namespace);
+        if (nsDir != null) {
+            addAll(nsDir, namespace, refs);
+        }
         return ImmutableMap.copyOf(refs);
     }
 
-    private void findRefs(final File refsRoot, final String namespace,
-            final Map<String, String> target) {
+    private static SortedMap<String, String> subMap(SortedMap<String, String> refs,
+            String namespace) {
+        if (namespace.isEmpty()) {
+            return refs;
+        }
+        // '0' is the character following '/'
+        return refs.subMap(namespace + "/", namespace + "0");
+    }
+
+    /**
+     * @return the directory for the given namespace, or {@code null} if it doesn't exist
+     */
+    @Nullable
+    private File refsDir(final String namespace) {
         String[] subdirs = namespace.split("/");
-        File nsDir = refsRoot;
+        File nsDir = repoDir();
         for (String subdir : subdirs) {
             nsDir = new File(nsDir, subdir);
-            if (!nsDir.exists() || !nsDir.isDirectory()) {
-                return;
+            if (!nsDir.isDirectory()) {
+                return null;
             }
         }
-        addAll(nsDir, namespace, target);
+        return nsDir;
     }
 
-    private void addAll(File nsDir, String prefix, Map<String, String> target) {
-        File[] children = nsDir.listFiles();
+    private void addAll(@Nullable File nsDir, String prefix, Map<String, String> target) {
+        File[] children = nsDir == null ? null : nsDir.listFiles();
+        if (children == null) {
+            // namespace removed concurrently
+            return;
+        }
         for (File f : children) {
             if (f.isDirectory()) {
                 String namespace = append(prefix, f.getName());
                 addAll(f, namespace, target);
-            } else if (!f.getName().startsWith(".")) {
+            } else if (!f.getName().startsWith(".") && !PACKED_REFS.equals(f.getName())) {
                 String refName = append(prefix, f.getName());
-                String refValue = readRef(f);
-                target.put(refName, refValue);
+                LooseRef ref = scanLoose(refName, f);
+                if (ref != null) {
+                    target.put(refName, ref.value);
+                }
             }
         }
     }
 
     @Override
     public Map<String, String> removeAll(String namespace) {
+        if (namespace.endsWith("/")) {
+            namespace = namespace.substring(0, namespace.length() - 1);
+        }
+        Map<String, String> removed = Maps.newTreeMap();
         final File file = toFile(namespace);
         if (file.exists() && file.isDirectory()) {
+            addAll(file, namespace, removed);
             deleteDir(file);
         }
-        return null;
+        for (String refName : removed.keySet()) {
+            looseRefs.remove(refName);
+        }
+        if (!subMap(packed().refs, namespace).isEmpty()) {
+            Map<String, String> removedPacked = removePacked(namespace, true);
+            for (Entry<String, String> e : removedPacked.entrySet()) {
+                if (!removed.containsKey(e.getKey())) {
+                    removed.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return ImmutableMap.copyOf(removed);
     }
 
     /**
@@ -314,4 +656,50 @@ public class FileRefDatabase extends AbstractRefDatabase {
         }
     }
 
+    /**
+     * Contents of a file as of the time it was read, along with the file's time stamp and length
+     */
+    private static abstract class FileSnapshot {
+
+        final long lastModified;
+
+        final long length;
+
+        final long readTime;
+
+        FileSnapshot(long lastModified, long length, long readTime) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.readTime = readTime;
+        }
+
+        boolean isUnmodified(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length
+                    && readTime - lastModified > RACY_INTERVAL_MILLIS;
+        }
+    }
+
+    private static class LooseRef extends FileSnapshot {
+
+        final String value;
+
+        LooseRef(String value, long lastModified, long length, long readTime) {
+            super(lastModified, length, readTime);
+            this.value = value;
+        }
+    }
+
+    private static class PackedRefs extends FileSnapshot {
+
+        static final PackedRefs EMPTY = new PackedRefs(
+                ImmutableSortedMap.<String, String> of(), 0L, 0L, 0L);
+
+        final ImmutableSortedMap<String, String> refs;
+
+        PackedRefs(ImmutableSortedMap<String, String> refs, long lastModified, long length,
+                long readTime) {
+            super(lastModified, length, readTime);
+            this.refs = refs;
+        }
+    }
 }
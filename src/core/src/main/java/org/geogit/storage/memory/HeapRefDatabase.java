@@ -7,9 +7,14 @@ package org.geogit.storage.memory;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.storage.AbstractRefDatabase;
+import org.geogit.storage.RefDatabase;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
@@ -21,7 +26,7 @@ import com.google.common.collect.Maps;
  */
 public class HeapRefDatabase extends AbstractRefDatabase {
 
-    private Map<String, String> refs;
+    private ConcurrentMap<String, String> refs;
 
     /**
      * Creates the reference database.
@@ -29,7 +34,7 @@ public class HeapRefDatabase extends AbstractRefDatabase {
     @Override
     public void create() {
         if (refs == null) {
-            refs = Maps.newTreeMap();
+            refs = new ConcurrentSkipListMap<String, String>();
         }
     }
 
@@ -75,6 +80,23 @@ public class HeapRefDatabase extends AbstractRefDatabase {
         refs.put(name, value);
     }
 
+    /**
+     * Atomically sets the value of the given ref to {@code newValue} if and only if its current
+     * value is {@code expectedValue}.
+     * 
+     * @see RefDatabase#compareAndSet(String, String, String)
+     */
+    @Override
+    public boolean compareAndSet(String refName, @Nullable String expectedValue, String newValue) {
+        checkNotNull(refName);
+        checkNotNull(newValue);
+        ObjectId.valueOf(newValue);
+        if (expectedValue == null) {
+            return refs.putIfAbsent(refName, newValue) == null;
+        }
+        return refs.replace(refName, expectedValue, newValue);
+    }
+
     /**
      * @param refName the name of the ref to remove (e.g. {@code "HEAD"},
      *        {@code "refs/remotes/origin"}, etc).
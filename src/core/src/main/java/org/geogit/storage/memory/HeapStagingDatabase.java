@@ -101,6 +101,15 @@ public class HeapStagingDatabase extends HeapObjectDatabse implements StagingDat
         return repositoryDb.getRaw(id);
     }
 
+    @Override
+    public InputStream getCompressed(final ObjectId id) throws IllegalArgumentException {
+        InputStream in = getRawInternal(id, false);
+        if (in != null) {
+            return in;
+        }
+        return repositoryDb.getCompressed(id);
+    }
+
     @Override
     protected InputStream getRawInternal(final ObjectId id, final boolean failIfNotFound)
             throws IllegalArgumentException {
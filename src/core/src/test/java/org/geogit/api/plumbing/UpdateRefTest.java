@@ -78,4 +78,16 @@ public class UpdateRefTest extends RepositoryTestCase {
         Optional<Ref> ref = geogit.command(UpdateRef.class).setDelete(true).setName("NoRef").call();
         assertFalse(ref.isPresent());
     }
+
+    @Test
+    public void testOldValueMismatch() throws Exception {
+        insertAndAdd(points1);
+        RevCommit commit1 = geogit.command(CommitOp.class).call();
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+
+        exception.expect(ConcurrentRefUpdateException.class);
+        geogit.command(UpdateRef.class).setName(Ref.MASTER).setOldValue(commit1.getId())
+                .setNewValue(commit1.getId()).call();
+    }
 }
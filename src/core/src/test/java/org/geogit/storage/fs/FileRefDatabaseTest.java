@@ -0,0 +1,142 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.Ref;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileRefDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File repoDir;
+
+    private FileRefDatabase refDb;
+
+    @Before
+    public void setUp() {
+        final File workingDir = tempFolder.newFolder("mockWorkingDir");
+        repoDir = tempFolder.newFolder("mockWorkingDir/.geogit");
+
+        final Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        refDb = new FileRefDatabase(platform);
+        refDb.create();
+    }
+
+    private ObjectId id(int b) {
+        byte[] raw = new byte[20];
+        Arrays.fill(raw, (byte) b);
+        return new ObjectId(raw);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        assertNull(refDb.getRef(Ref.MASTER));
+        refDb.putRef(Ref.MASTER, id(1).toString());
+        assertEquals(id(1).toString(), refDb.getRef(Ref.MASTER));
+
+        refDb.putRef(Ref.MASTER, id(2).toString());
+        assertEquals(id(2).toString(), refDb.getRef(Ref.MASTER));
+
+        refDb.putSymRef(Ref.HEAD, Ref.MASTER);
+        assertEquals(Ref.MASTER, refDb.getSymRef(Ref.HEAD));
+
+        assertEquals(id(2).toString(), refDb.remove(Ref.MASTER));
+        assertNull(refDb.getRef(Ref.MASTER));
+        assertFalse(new File(repoDir, "refs/heads/master").exists());
+    }
+
+    @Test
+    public void testPack() {
+        refDb.putSymRef(Ref.HEAD, Ref.MASTER);
+        refDb.putRef(Ref.MASTER, id(1).toString());
+        refDb.putRef("refs/heads/branch1", id(2).toString());
+
+        refDb.pack();
+
+        assertTrue(new File(repoDir, FileRefDatabase.PACKED_REFS).exists());
+        assertFalse(new File(repoDir, "refs/heads/master").exists());
+        assertFalse(new File(repoDir, "refs/heads/branch1").exists());
+        // symbolic refs are never packed
+        assertTrue(new File(repoDir, "HEAD").exists());
+
+        assertEquals(Ref.MASTER, refDb.getSymRef(Ref.HEAD));
+        assertEquals(id(1).toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(id(2).toString(), refDb.getRef("refs/heads/branch1"));
+
+        Map<String, String> all = refDb.getAll();
+        assertEquals(2, all.size());
+        assertEquals(id(1).toString(), all.get(Ref.MASTER));
+    }
+
+    @Test
+    public void testLooseOverridesPacked() {
+        refDb.putRef(Ref.MASTER, id(1).toString());
+        refDb.pack();
+        refDb.putRef(Ref.MASTER, id(2).toString());
+
+        assertEquals(id(2).toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(id(2).toString(), refDb.getAll().get(Ref.MASTER));
+
+        assertEquals(id(2).toString(), refDb.remove(Ref.MASTER));
+        // removing a ref removes both its loose and packed versions
+        assertNull(refDb.getRef(Ref.MASTER));
+        assertTrue(refDb.getAll().isEmpty());
+    }
+
+    @Test
+    public void testRemoveAllPackedAndLoose() {
+        refDb.putRef("transactions/tx1/changed/refs/heads/master", id(1).toString());
+        refDb.putRef("transactions/tx1/orig/refs/heads/master", id(2).toString());
+        refDb.putRef("transactions/tx2/changed/refs/heads/master", id(3).toString());
+        refDb.putRef(Ref.MASTER, id(4).toString());
+        refDb.pack();
+        refDb.putRef("transactions/tx1/changed/refs/heads/branch", id(5).toString());
+
+        assertEquals(3, refDb.getAll("transactions/tx1").size());
+
+        Map<String, String> removed = refDb.removeAll("transactions/tx1");
+        assertEquals(3, removed.size());
+        assertTrue(refDb.getAll("transactions/tx1").isEmpty());
+        assertEquals(1, refDb.getAll("transactions/tx2").size());
+        assertEquals(id(4).toString(), refDb.getRef(Ref.MASTER));
+    }
+
+    @Test
+    public void testCompareAndSet() {
+        assertFalse(refDb.compareAndSet(Ref.MASTER, id(1).toString(), id(2).toString()));
+        assertNull(refDb.getRef(Ref.MASTER));
+
+        assertTrue(refDb.compareAndSet(Ref.MASTER, null, id(1).toString()));
+        assertEquals(id(1).toString(), refDb.getRef(Ref.MASTER));
+
+        assertFalse(refDb.compareAndSet(Ref.MASTER, null, id(2).toString()));
+        assertFalse(refDb.compareAndSet(Ref.MASTER, id(3).toString(), id(2).toString()));
+        assertEquals(id(1).toString(), refDb.getRef(Ref.MASTER));
+
+        assertTrue(refDb.compareAndSet(Ref.MASTER, id(1).toString(), id(2).toString()));
+        assertEquals(id(2).toString(), refDb.getRef(Ref.MASTER));
+        assertFalse(new File(repoDir, "refs/heads/.master.lock").exists());
+    }
+}
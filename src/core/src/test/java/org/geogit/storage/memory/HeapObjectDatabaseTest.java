@@ -0,0 +1,95 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeapObjectDatabaseTest extends Assert {
+
+    private HeapObjectDatabse db1;
+
+    private HeapObjectDatabse db2;
+
+    @Before
+    public void setUp() {
+        db1 = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db1.open();
+        db2 = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db2.open();
+    }
+
+    @After
+    public void tearDown() {
+        db1.close();
+        db2.close();
+    }
+
+    private RevCommit commit(String message) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("tree"));
+        builder.setAuthor("groldan");
+        builder.setMessage(message);
+        return builder.build();
+    }
+
+    @Test
+    public void testCopyTo() {
+        RevCommit c1 = commit("c1");
+        RevCommit c2 = commit("c2");
+        RevCommit c3 = commit("c3");
+        db1.put(c1);
+        db1.put(c2);
+        db1.put(c3);
+        db2.put(c2);
+
+        long inserted = db1.copyTo(Arrays.asList(c1.getId(), c2.getId(), c3.getId()).iterator(),
+                db2);
+        assertEquals(2, inserted);
+        assertEquals(c1, db2.getCommit(c1.getId()));
+        assertEquals(c2, db2.getCommit(c2.getId()));
+        assertEquals(c3, db2.getCommit(c3.getId()));
+    }
+
+    @Test
+    public void testCopyToMissingObject() {
+        try {
+            db1.copyTo(Arrays.asList(ObjectId.forString("missing")).iterator(), db2);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertFalse(db2.exists(ObjectId.forString("missing")));
+        }
+    }
+
+    @Test
+    public void testPutCompressed() {
+        RevCommit c1 = commit("c1");
+        db1.put(c1);
+
+        assertTrue(db2.putCompressed(c1.getId(), db1.getCompressed(c1.getId())));
+        assertFalse(db2.putCompressed(c1.getId(), db1.getCompressed(c1.getId())));
+        assertEquals(c1, db2.getCommit(c1.getId()));
+    }
+
+    @Test
+    public void testPutCompressedNotCompressed() {
+        try {
+            db1.putCompressed(ObjectId.forString("id"), new ByteArrayInputStream(new byte[] { 1,
+                    2, 3 }));
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertFalse(db1.exists(ObjectId.forString("id")));
+        }
+    }
+}
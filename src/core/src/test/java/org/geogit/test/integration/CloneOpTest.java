@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,17 +16,25 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.api.porcelain.BranchCreateOp;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CloneOp;
 import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.DiffOp;
 import org.geogit.api.porcelain.LogOp;
+import org.geogit.api.porcelain.MergeOp;
+import org.geogit.remote.SparseFilter;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.opengis.feature.Feature;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 
 public class CloneOpTest extends RemoteRepositoryTestCase {
     @Rule
@@ -162,6 +171,104 @@ public class CloneOpTest extends RemoteRepositoryTestCase {
         assertEquals(expectedMaster, logged);
     }
 
+    @Test
+    public void testSparseClone() throws Exception {
+        ObjectId points1Id = insertAndAdd(remoteGeogit.geogit, points1);
+        ObjectId lines1Id = insertAndAdd(remoteGeogit.geogit, lines1);
+        RevCommit commit = remoteGeogit.geogit.command(CommitOp.class).call();
+
+        // clone only the Points tree
+        CloneOp clone = clone();
+        clone.addSparsePath(pointsName).setRepositoryURL(
+                remoteGeogit.envHome.getCanonicalPath()).call();
+
+        assertTrue(localGeogit.repo.commitExists(commit.getId()));
+        assertTrue(localGeogit.repo.treeExists(commit.getTreeId()));
+        assertTrue(localGeogit.repo.blobExists(points1Id));
+        assertFalse(localGeogit.repo.blobExists(lines1Id));
+
+        // the sparse filter is recorded so later fetches stay sparse
+        assertEquals(Optional.of(pointsName),
+                localGeogit.repo.getConfigDatabase().get(SparseFilter.PATHS_KEY));
+
+        ObjectId points2Id = insertAndAdd(remoteGeogit.geogit, points2);
+        ObjectId lines2Id = insertAndAdd(remoteGeogit.geogit, lines2);
+        commit = remoteGeogit.geogit.command(CommitOp.class).call();
+
+        fetch().call();
+
+        assertTrue(localGeogit.repo.commitExists(commit.getId()));
+        assertTrue(localGeogit.repo.blobExists(points2Id));
+        assertFalse(localGeogit.repo.blobExists(lines2Id));
+    }
+
+    @Test
+    public void testSparseCloneUnsupportedOperations() throws Exception {
+        insertAndAdd(remoteGeogit.geogit, points1);
+        insertAndAdd(remoteGeogit.geogit, lines1);
+        RevCommit commit = remoteGeogit.geogit.command(CommitOp.class).call();
+
+        CloneOp clone = clone();
+        clone.addSparsePath(pointsName).setRepositoryURL(
+                remoteGeogit.envHome.getCanonicalPath()).call();
+
+        // these need complete trees, and fail with a clear message rather than on a missing
+        // object
+        try {
+            pull().call();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Pull is not supported"));
+        }
+        try {
+            localGeogit.geogit.command(MergeOp.class)
+                    .addCommit(Suppliers.ofInstance(commit.getId())).call();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Merge is not supported"));
+        }
+        try {
+            // the Lines tree was not fetched
+            Iterators.size(localGeogit.geogit.command(DiffOp.class).setOldVersion(ObjectId.NULL)
+                    .setNewVersion(commit.getId()).call());
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Diff is not supported"));
+        }
+
+        // and leave the repository untouched
+        assertEquals(commit, localGeogit.geogit.command(LogOp.class).call().next());
+    }
+
+    /**
+     * Commits made in a sparse clone, and the diffs and logs limited to its paths, only need the
+     * objects that were fetched
+     */
+    @Test
+    public void testSparseCloneCommitAndLog() throws Exception {
+        insertAndAdd(remoteGeogit.geogit, points1);
+        insertAndAdd(remoteGeogit.geogit, lines1);
+        RevCommit remoteCommit = remoteGeogit.geogit.command(CommitOp.class).call();
+
+        CloneOp clone = clone();
+        clone.addSparsePath(pointsName).setRepositoryURL(
+                remoteGeogit.envHome.getCanonicalPath()).call();
+
+        insertAndAdd(localGeogit.geogit, points2);
+        RevCommit localCommit = localGeogit.geogit.command(CommitOp.class).call();
+
+        // what the commit command reports once the commit is made
+        Iterator<DiffEntry> diff = localGeogit.geogit.command(DiffOp.class)
+                .setOldVersion(remoteCommit.getId()).setNewVersion(localCommit.getId()).call();
+        assertTrue(diff.hasNext());
+        assertEquals(ChangeType.ADDED, diff.next().changeType());
+        assertFalse(diff.hasNext());
+
+        Iterator<RevCommit> log = localGeogit.geogit.command(LogOp.class).addPath(pointsName)
+                .call();
+        assertEquals(Arrays.asList(localCommit, remoteCommit), Lists.newArrayList(log));
+    }
+
     @Test
     public void testCloneEmptyRepo() throws Exception {
         CloneOp clone = clone();
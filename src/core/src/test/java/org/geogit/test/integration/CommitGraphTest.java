@@ -0,0 +1,73 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.util.Arrays;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Checks that commits reach the commit graph whichever way they're stored in the object database
+ */
+public class CommitGraphTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    private RevCommit commit(String message, ObjectId... parents) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("tree"));
+        builder.setParentIds(Arrays.asList(parents));
+        builder.setAuthor("groldan");
+        builder.setMessage(message);
+        return builder.build();
+    }
+
+    private void assertInGraph(RevCommit commit) {
+        GraphDatabase graphDb = repo.getGraphDatabase();
+        assertTrue(graphDb.exists(commit.getId()));
+        assertEquals(commit.getParentIds(), graphDb.getParents(commit.getId()));
+    }
+
+    @Test
+    public void testPut() {
+        RevCommit c1 = commit("c1");
+        RevCommit c2 = commit("c2", c1.getId());
+        repo.getObjectDatabase().put(c1);
+        repo.getObjectDatabase().putAll(ImmutableList.of(c2).iterator());
+        assertInGraph(c1);
+        assertInGraph(c2);
+    }
+
+    @Test
+    public void testPutCompressed() {
+        ObjectDatabase source = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        source.open();
+        try {
+            RevCommit c1 = commit("c1");
+            RevCommit c2 = commit("c2", c1.getId());
+            source.put(c1);
+            source.put(c2);
+
+            ObjectDatabase target = repo.getObjectDatabase();
+            assertTrue(target.putCompressed(c1.getId(), source.getCompressed(c1.getId())));
+            assertTrue(target.putCompressed(c2.getId(), source.getCompressed(c2.getId())));
+            assertInGraph(c1);
+            assertInGraph(c2);
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -4,26 +4,62 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.GeoGIT;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.BranchListOp;
 import org.geogit.api.porcelain.BranchDeleteOp;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CloneOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.FetchOp;
 import org.geogit.api.porcelain.LogOp;
+import org.geogit.remote.HttpRemoteRepo;
+import org.geogit.remote.LocalRemoteRepo;
+import org.geogit.repository.Repository;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 public class FetchOpTest extends RemoteRepositoryTestCase {
     @Rule
@@ -116,6 +152,20 @@ public class FetchOpTest extends RemoteRepositoryTestCase {
         }
 
         assertEquals(expectedBranch, logged);
+
+        verifyGraph(expectedMaster);
+        verifyGraph(expectedBranch);
+    }
+
+    /**
+     * Verifies that the fetched commits made it to the commit graph, which merges rely on
+     */
+    private void verifyGraph(List<RevCommit> commits) {
+        GraphDatabase graphDb = localGeogit.repo.getGraphDatabase();
+        for (RevCommit commit : commits) {
+            assertTrue(graphDb.exists(commit.getId()));
+            assertEquals(commit.getParentIds(), graphDb.getParents(commit.getId()));
+        }
     }
 
     private void verifyPrune() throws Exception {
@@ -182,6 +232,221 @@ public class FetchOpTest extends RemoteRepositoryTestCase {
         verifyFetch();
     }
 
+    @Test
+    public void testFetchWithDepth() throws Exception {
+        prepareForFetch();
+
+        // fetch only the tips of the remote branches
+        FetchOp fetch = fetch();
+        fetch.setDepth(1).call();
+
+        localGeogit.geogit.command(CheckoutOp.class).setSource("refs/remotes/origin/master").call();
+        Iterator<RevCommit> logs = localGeogit.geogit.command(LogOp.class).call();
+        List<RevCommit> logged = new ArrayList<RevCommit>();
+        for (; logs.hasNext();) {
+            logged.add(logs.next());
+        }
+        assertEquals(expectedMaster.subList(0, 1), logged);
+        assertFalse(localGeogit.repo.commitExists(expectedMaster.get(1).getId()));
+
+        localGeogit.geogit.command(CheckoutOp.class).setSource("refs/remotes/origin/Branch1")
+                .call();
+        logs = localGeogit.geogit.command(LogOp.class).call();
+        logged = new ArrayList<RevCommit>();
+        for (; logs.hasNext();) {
+            logged.add(logs.next());
+        }
+        assertEquals(expectedBranch.subList(0, 1), logged);
+    }
+
+    @Test
+    public void testResumeInterruptedFetch() throws Exception {
+        prepareForFetch();
+
+        // make the remote lose the connection after a random number of objects is transferred
+        final ObjectDatabase remoteDb = remoteGeogit.repo.getObjectDatabase();
+        final AtomicInteger budget = new AtomicInteger();
+        final Set<ObjectId> transferred = Sets.newHashSet();
+        ObjectDatabase failingDb = mock(ObjectDatabase.class, new Answer<Object>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                if (!invocation.getMethod().getName().equals("copyTo")) {
+                    try {
+                        return invocation.getMethod().invoke(remoteDb, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+                Iterator<ObjectId> ids = (Iterator<ObjectId>) args[0];
+                ObjectDatabase target = (ObjectDatabase) args[1];
+                long count = 0;
+                while (ids.hasNext()) {
+                    ObjectId id = ids.next();
+                    if (budget.decrementAndGet() < 0) {
+                        throw new RuntimeException("Connection lost");
+                    }
+                    assertTrue("object transferred twice: " + id, transferred.add(id));
+                    target.put(remoteDb.get(id));
+                    count++;
+                }
+                return Long.valueOf(count);
+            }
+        });
+        Repository failingRepo = spy(remoteGeogit.repo);
+        doReturn(failingDb).when(failingRepo).getObjectDatabase();
+        GeoGIT failingGeogit = spy(remoteGeogit.geogit);
+        doReturn(failingRepo).when(failingGeogit).getRepository();
+        ((LocalRemoteRepo) remoteRepo).setGeoGit(failingGeogit);
+
+        fetchUntilComplete(budget);
+        verifyFetch();
+    }
+
+    /**
+     * Same as {@link #testResumeInterruptedFetch()}, but through {@link HttpRemoteRepo} against a
+     * minimal server for the end points it fetches from, that fails the object requests once a
+     * random number of them is served
+     */
+    @Test
+    public void testResumeInterruptedHttpFetch() throws Exception {
+        prepareForFetch();
+
+        final GeoGIT remote = remoteGeogit.geogit;
+        final ObjectDatabase remoteDb = remoteGeogit.repo.getObjectDatabase();
+        final ObjectDatabase localDb = localGeogit.repo.getObjectDatabase();
+        final AtomicInteger budget = new AtomicInteger();
+        final AtomicInteger served = new AtomicInteger();
+        final List<ObjectId> downloadedAgain = Collections.synchronizedList(Lists
+                .<ObjectId> newArrayList());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/geogit/repo/manifest", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Ref head = remote.command(RefParse.class).setName(Ref.HEAD).call().get();
+                StringBuilder manifest = new StringBuilder(head.getName()).append(' ');
+                if (head instanceof SymRef) {
+                    manifest.append(((SymRef) head).getTarget());
+                }
+                manifest.append(' ').append(head.getObjectId()).append('\n');
+                for (Ref ref : remote.command(BranchListOp.class).call()) {
+                    manifest.append(ref.getName()).append(' ').append(ref.getObjectId())
+                            .append('\n');
+                }
+                respond(exchange, 200, "text/plain", manifest.toString().getBytes(Charsets.UTF_8));
+            }
+        });
+        // there's no /repo/missingcommits, so the walk follows the history until local commits
+        server.createContext("/geogit/repo/objects/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                ObjectId id = ObjectId.valueOf(path.substring(path.lastIndexOf('/') + 1));
+                if (budget.decrementAndGet() < 0) {
+                    respond(exchange, 500, "text/plain",
+                            "Connection lost".getBytes(Charsets.UTF_8));
+                    return;
+                }
+                if (localDb.exists(id)) {
+                    // only objects missing locally, hence outside the completed subtrees, shall be
+                    // requested
+                    downloadedAgain.add(id);
+                }
+                served.incrementAndGet();
+                InputStream compressed = remoteDb.getCompressed(id);
+                try {
+                    respond(exchange, 200, HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE,
+                            ByteStreams.toByteArray(compressed));
+                } finally {
+                    compressed.close();
+                }
+            }
+        });
+        server.start();
+        try {
+            remoteRepo = new HttpRemoteRepo(localGeogit.injector, new URL("http://localhost:"
+                    + server.getAddress().getPort() + "/geogit"));
+            fetchUntilComplete(budget);
+        } finally {
+            server.stop(0);
+        }
+        assertTrue(served.get() > 0);
+        assertTrue("objects downloaded again: " + downloadedAgain, downloadedAgain.isEmpty());
+        verifyFetch();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType,
+            byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Fetches again and again, giving each attempt a random budget of objects to transfer, until
+     * a fetch completes, checking that whatever an interrupted fetch leaves behind is complete
+     */
+    private void fetchUntilComplete(AtomicInteger budget) throws Exception {
+        List<RevCommit> commits = new ArrayList<RevCommit>(expectedMaster);
+        commits.addAll(expectedBranch);
+
+        Random random = new Random(1);
+        int interrupted = 0;
+        while (true) {
+            budget.set(random.nextInt(8));
+            try {
+                fetch().call();
+                break;
+            } catch (RuntimeException e) {
+                interrupted++;
+                assertTrue("fetch is not making progress", interrupted < 100);
+            }
+            // whatever made it to the local repository is complete
+            for (RevCommit commit : commits) {
+                if (localGeogit.repo.commitExists(commit.getId())) {
+                    assertTrue(localGeogit.repo.treeExists(commit.getTreeId()));
+                }
+                verifyComplete(commit.getTreeId());
+            }
+        }
+        assertTrue(interrupted > 0);
+    }
+
+    /**
+     * Verifies that, if the tree is in the local repository, so is everything it points to
+     */
+    private void verifyComplete(ObjectId treeId) {
+        ObjectDatabase localDb = localGeogit.repo.getObjectDatabase();
+        RevTree tree = localDb.getIfPresent(treeId, RevTree.class);
+        if (tree == null) {
+            return;
+        }
+        if (tree.buckets().isPresent()) {
+            for (Bucket bucket : tree.buckets().get().values()) {
+                assertTrue(localDb.exists(bucket.id()));
+                verifyComplete(bucket.id());
+            }
+            return;
+        }
+        for (Iterator<Node> children = tree.children(); children.hasNext();) {
+            Node node = children.next();
+            assertTrue(localDb.exists(node.getObjectId()));
+            if (node.getMetadataId().isPresent()) {
+                assertTrue(localDb.exists(node.getMetadataId().get()));
+            }
+            if (TYPE.TREE.equals(node.getType())) {
+                verifyComplete(node.getObjectId());
+            }
+        }
+    }
+
     @Test
     public void testFetchNoRemotes() throws Exception {
         FetchOp fetch = fetch();
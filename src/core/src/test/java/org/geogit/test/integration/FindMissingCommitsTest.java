@@ -0,0 +1,119 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.FindMissingCommits;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.collect.ImmutableList;
+
+public class FindMissingCommitsTest extends RepositoryTestCase {
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    private RevCommit c1;
+
+    private RevCommit c2;
+
+    private RevCommit c3;
+
+    private RevCommit c4;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.name")
+                .setValue("groldan").call();
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.email")
+                .setValue("groldan@opengeo.org").call();
+
+        // Create the following revision graph
+        // o - c1 - Points 1 added
+        // |\
+        // | o - c2 - branch1 - Points 2 added
+        // |
+        // o - c3 - Points 3 added
+        // |
+        // o - c4 - master - HEAD - Lines 1 added
+        insertAndAdd(points1);
+        c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        insertAndAdd(points2);
+        c2 = geogit.command(CommitOp.class).setMessage("commit for " + idP2).call();
+
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        insertAndAdd(points3);
+        c3 = geogit.command(CommitOp.class).setMessage("commit for " + idP3).call();
+        insertAndAdd(lines1);
+        c4 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+    }
+
+    @Test
+    public void testNoHaves() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .call();
+        assertEquals(ImmutableList.of(c4.getId(), c3.getId(), c1.getId()), missing);
+    }
+
+    @Test
+    public void testHaveAncestor() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .addHave(c1.getId()).call();
+        assertEquals(ImmutableList.of(c4.getId(), c3.getId()), missing);
+    }
+
+    @Test
+    public void testHaveOtherBranch() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .addHave(c2.getId()).call();
+        assertEquals(ImmutableList.of(c4.getId(), c3.getId()), missing);
+
+        missing = geogit.command(FindMissingCommits.class).setWant(c2.getId())
+                .addHave(c4.getId()).call();
+        assertEquals(ImmutableList.of(c2.getId()), missing);
+    }
+
+    @Test
+    public void testWantReachableFromHaves() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c3.getId())
+                .addHave(c2.getId()).addHave(c4.getId()).call();
+        assertTrue(missing.isEmpty());
+    }
+
+    @Test
+    public void testUnknownHavesIgnored() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .addHave(ObjectId.forString("unknown")).addHave(c4.getTreeId()).call();
+        assertEquals(ImmutableList.of(c4.getId(), c3.getId(), c1.getId()), missing);
+    }
+
+    @Test
+    public void testDepth() throws Exception {
+        List<ObjectId> missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .setDepth(2).call();
+        assertEquals(ImmutableList.of(c4.getId(), c3.getId()), missing);
+
+        missing = geogit.command(FindMissingCommits.class).setWant(c4.getId())
+                .addHave(c1.getId()).setDepth(1).call();
+        assertEquals(ImmutableList.of(c4.getId()), missing);
+    }
+
+    @Test
+    public void testNoWant() throws Exception {
+        exception.expect(IllegalStateException.class);
+        geogit.command(FindMissingCommits.class).call();
+    }
+}
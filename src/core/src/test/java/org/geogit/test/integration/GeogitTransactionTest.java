@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.plumbing.TransactionEnd;
@@ -13,6 +14,7 @@ import org.geogit.api.porcelain.BranchCreateOp;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.RefDatabase;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -211,6 +213,28 @@ public class GeogitTransactionTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testWorkHeadFollowsBranch() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).setMessage("Commit1").call();
+
+        GeogitTransaction transaction1 = geogit.command(TransactionBegin.class).call();
+        insertAndAdd(transaction1, points2);
+        transaction1.command(CommitOp.class).setMessage("Commit2").call();
+
+        GeogitTransaction transaction2 = geogit.command(TransactionBegin.class).call();
+        insertAndAdd(transaction2, points3);
+        transaction2.command(CommitOp.class).setMessage("Commit3").call();
+
+        geogit.command(TransactionEnd.class).setTransaction(transaction1).call();
+        geogit.command(TransactionEnd.class).setTransaction(transaction2).call();
+
+        // both transactions' changes are in the working tree and the index
+        RevCommit head = geogit.command(LogOp.class).call().next();
+        assertEquals(head.getTreeId(), repo.getWorkingTree().getTree().getId());
+        assertEquals(head.getTreeId(), repo.getIndex().getTree().getId());
+    }
+
     @Test
     public void testBranchCreateCollision() throws Exception {
 
@@ -334,6 +358,27 @@ public class GeogitTransactionTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testTransactionRefsNotWritten() throws Exception {
+        insertAndAdd(points1);
+        RevCommit commit = geogit.command(CommitOp.class).call();
+
+        GeogitTransaction t = geogit.command(TransactionBegin.class).call();
+        insertAndAdd(t, points2);
+        RevCommit txCommit = t.command(CommitOp.class).call();
+
+        // the transaction refs are not stored in the repository until the transaction ends
+        RefDatabase refDb = geogit.getRepository().getRefDatabase();
+        assertTrue(refDb.getAll("transactions").isEmpty());
+        assertEquals(commit.getId().toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(txCommit.getId().toString(), t.getRefDatabase().getRef(Ref.MASTER));
+        assertEquals(commit.getId().toString(), t.getRefDatabase().getRef("orig/" + Ref.MASTER));
+
+        geogit.command(TransactionEnd.class).setTransaction(t).call();
+        assertEquals(txCommit.getId().toString(), refDb.getRef(Ref.MASTER));
+        assertTrue(refDb.getAll("transactions").isEmpty());
+    }
+
     @Test
     public void testEndNoTransaction() throws Exception {
         exception.expect(IllegalArgumentException.class);
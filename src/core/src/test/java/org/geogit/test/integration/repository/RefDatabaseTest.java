@@ -51,4 +51,26 @@ public class RefDatabaseTest extends RepositoryTestCase {
 
         assertEquals(branch, refDb.getSymRef(Ref.HEAD));
     }
+
+    @Test
+    public void testCompareAndSet() {
+        byte[] raw = new byte[20];
+        Arrays.fill(raw, (byte) 1);
+        ObjectId oid = new ObjectId(raw);
+        Arrays.fill(raw, (byte) 2);
+        ObjectId oid2 = new ObjectId(raw);
+
+        assertFalse(refDb.compareAndSet(Ref.MASTER, oid.toString(), oid2.toString()));
+        assertEquals(ObjectId.NULL.toString(), refDb.getRef(Ref.MASTER));
+
+        assertTrue(refDb.compareAndSet(Ref.MASTER, ObjectId.NULL.toString(), oid.toString()));
+        assertEquals(oid.toString(), refDb.getRef(Ref.MASTER));
+
+        String branch = "refs/heads/branch";
+        assertFalse(refDb.compareAndSet(branch, oid.toString(), oid2.toString()));
+        assertNull(refDb.getRef(branch));
+        assertTrue(refDb.compareAndSet(branch, null, oid2.toString()));
+        assertFalse(refDb.compareAndSet(branch, null, oid.toString()));
+        assertEquals(oid2.toString(), refDb.getRef(branch));
+    }
 }
@@ -14,10 +14,12 @@ import java.util.List;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.repository.FeatureValues;
 import org.geogit.repository.WorkingTree;
 import org.geogit.test.integration.RepositoryTestCase;
 import org.geotools.util.NullProgressListener;
@@ -25,9 +27,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.Name;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  *
@@ -81,6 +87,95 @@ public class WorkingTreeTest extends RepositoryTestCase {
                 .getObjectId());
     }
 
+    @Test
+    public void testInsertCollectionMatchesRevFeatureBuilder() throws Exception {
+        List<Feature> featureList = new LinkedList<Feature>();
+        featureList.add(points1);
+        featureList.add(points2);
+
+        List<Node> targetList = new LinkedList<Node>();
+        workTree.insert(pointsName, featureList.iterator(), LISTENER, targetList, 2);
+
+        assertEquals(new RevFeatureBuilder().build(points1).getId(), targetList.get(0)
+                .getObjectId());
+        assertEquals(new RevFeatureBuilder().build(points2).getId(), targetList.get(1)
+                .getObjectId());
+        Envelope bounds = new Envelope();
+        targetList.get(0).expand(bounds);
+        assertEquals(new Envelope(1, 1, 1, 1), bounds);
+    }
+
+    @Test
+    public void testInsertValues() throws Exception {
+        final RevFeatureType featureType = RevFeatureType.build(pointsType);
+        // sorted descriptors: ip, pp, sp
+        Geometry p1 = (Geometry) ((SimpleFeature) points1).getAttribute("pp");
+        Geometry p2 = (Geometry) ((SimpleFeature) points2).getAttribute("pp");
+        List<FeatureValues> values = ImmutableList.of(
+                new FeatureValues(idP1, new Object[] { 1000, p1, "StringProp1_1" }, p1
+                        .getEnvelopeInternal(), featureType.getId()),
+                new FeatureValues(idP2, new Object[] { 2000, p2, "StringProp1_2" }, p2
+                        .getEnvelopeInternal()));
+
+        List<Node> targetList = new LinkedList<Node>();
+        workTree.insertValues(pointsName, featureType, values.iterator(), LISTENER, targetList,
+                2);
+
+        assertEquals(2, targetList.size());
+        assertEquals(new RevFeatureBuilder().build(points1).getId(), targetList.get(0)
+                .getObjectId());
+        assertEquals(new RevFeatureBuilder().build(points2).getId(), targetList.get(1)
+                .getObjectId());
+        assertEquals(targetList.get(0).getObjectId(),
+                workTree.findUnstaged(appendChild(pointsName, idP1)).get().getObjectId());
+        assertEquals(targetList.get(1).getObjectId(),
+                workTree.findUnstaged(appendChild(pointsName, idP2)).get().getObjectId());
+        Envelope bounds = new Envelope();
+        targetList.get(0).expand(bounds);
+        assertEquals(p1.getEnvelopeInternal(), bounds);
+
+        Optional<NodeRef> treeRef = repo.command(FindTreeChild.class).setChildPath(pointsName)
+                .setIndex(true).setParent(workTree.getTree()).call();
+        assertEquals(featureType.getId(), treeRef.get().getMetadataId());
+    }
+
+    @Test
+    public void testInsertValuesWrongCount() throws Exception {
+        final RevFeatureType featureType = RevFeatureType.build(pointsType);
+        Geometry p1 = (Geometry) ((SimpleFeature) points1).getAttribute("pp");
+        List<FeatureValues> values = ImmutableList.of(new FeatureValues(idP1, new Object[] {
+                1000, p1 }, p1.getEnvelopeInternal()));
+
+        exception.expect(IllegalArgumentException.class);
+        workTree.insertValues(pointsName, featureType, values.iterator(), LISTENER, null, 1);
+    }
+
+    @Test
+    public void testInsertValuesWrongBinding() throws Exception {
+        final RevFeatureType featureType = RevFeatureType.build(pointsType);
+        Geometry p1 = (Geometry) ((SimpleFeature) points1).getAttribute("pp");
+        // the string and integer values swapped
+        List<FeatureValues> values = ImmutableList.of(new FeatureValues(idP1, new Object[] {
+                "StringProp1_1", p1, 1000 }, p1.getEnvelopeInternal()));
+
+        exception.expect(IllegalArgumentException.class);
+        workTree.insertValues(pointsName, featureType, values.iterator(), LISTENER, null, 1);
+    }
+
+    @Test
+    public void testInsertValuesNullValue() throws Exception {
+        final RevFeatureType featureType = RevFeatureType.build(pointsType);
+        List<FeatureValues> values = ImmutableList.of(new FeatureValues(idP1, new Object[] {
+                1000, null, "StringProp1_1" }, null));
+
+        List<Node> targetList = new LinkedList<Node>();
+        workTree.insertValues(pointsName, featureType, values.iterator(), LISTENER, targetList,
+                1);
+
+        assertEquals(targetList.get(0).getObjectId(),
+                workTree.findUnstaged(appendChild(pointsName, idP1)).get().getObjectId());
+    }
+
     @Test
     public void testInsertCollectionNullCollectionSize() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
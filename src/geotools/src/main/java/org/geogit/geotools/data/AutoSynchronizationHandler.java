@@ -37,6 +37,14 @@ public class AutoSynchronizationHandler {
         }
     }
 
+    /**
+     * Stops synchronizing the given repository periodically
+     */
+    public void removeRepo(GeoGIT geogit) {
+        checkNotNull(geogit);
+        repositories.remove(geogit);
+    }
+
     public static AutoSynchronizationHandler get() {
         return instance;
     }
@@ -70,6 +70,10 @@ import com.google.common.collect.Lists;
  * actual repository. If any other change was made to the repository meanwhile, a rebase will be
  * attempted, and the transaction commit will fail if the rebase operation finds any conflict. This
  * provides for optimistic locking and reduces thread contention.
+ * <p>
+ * For workloads made of many small concurrent transactions {@link #setGroupCommit(long, int) group
+ * commit} may be enabled, so that transactions committed close in time are merged onto the branch
+ * with a single repository write.
  * 
  */
 public class GeoGitDataStore extends ContentDataStore implements DataStore {
@@ -79,6 +83,10 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     /** @see #setBranch(String) */
     private String branch;
 
+    /** @see #setGroupCommit(long, int) */
+    @Nullable
+    private GroupCommitter groupCommitter;
+
     public GeoGitDataStore(GeoGIT geogit) {
         super();
         Preconditions.checkNotNull(geogit);
@@ -117,6 +125,44 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
         this.branch = branchName;
     }
 
+    /**
+     * Enables or disables group commit of the transactions committed through this data store.
+     * <p>
+     * When enabled, transactions committed within {@code windowMillis} of each other, up to
+     * {@code maxBatchSize} of them, are merged onto the branch in a single repository write. Each
+     * transaction still results in its own commit, and the commits are applied in the order the
+     * transactions were committed, but committing a transaction blocks for up to
+     * {@code windowMillis} waiting for others to join the batch.
+     * 
+     * @param windowMillis how long to wait for more transactions after the first one of a batch is
+     *        committed
+     * @param maxBatchSize the maximum number of transactions to commit at once, a value of
+     *        {@code 1} disables group commit
+     */
+    public void setGroupCommit(final long windowMillis, final int maxBatchSize) {
+        Preconditions.checkArgument(windowMillis >= 0, "window can't be negative: %s",
+                windowMillis);
+        Preconditions.checkArgument(maxBatchSize > 0, "batch size shall be positive: %s",
+                maxBatchSize);
+        if (maxBatchSize == 1) {
+            this.groupCommitter = null;
+        } else {
+            this.groupCommitter = new GroupCommitter(this, windowMillis, maxBatchSize);
+        }
+    }
+
+    /**
+     * @return whether group commit is enabled
+     * @see #setGroupCommit(long, int)
+     */
+    public boolean isGroupCommit() {
+        return groupCommitter != null;
+    }
+
+    Optional<GroupCommitter> getGroupCommitter() {
+        return Optional.fromNullable(groupCommitter);
+    }
+
     public String getOrFigureOutBranch() {
         String branch = getConfiguredBranch();
         if (branch != null) {
@@ -229,6 +275,8 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     @Override
     public void dispose() {
         super.dispose();
+        // pending changes are still synchronized, but the repository is no longer polled
+        AutoSynchronizationHandler.get().removeRepo(geogit);
     }
 
     @Override
@@ -59,6 +59,15 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
             "Optional namespace for feature types that do not declare a Namespace themselves",
             false);
 
+    public static final Param GROUP_COMMIT_WINDOW = new Param("group_commit_window",
+            Integer.class,
+            "Optional time in milliseconds to wait for concurrent transactions to be committed together",
+            false, Integer.valueOf(50));
+
+    public static final Param GROUP_COMMIT_SIZE = new Param("group_commit_size", Integer.class,
+            "Optional maximum number of transactions committed together, group commit is disabled if unset",
+            false);
+
     @Override
     public String getDisplayName() {
         return DISPLAY_NAME;
@@ -71,7 +80,8 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
 
     @Override
     public Param[] getParametersInfo() {
-        return new Param[] { REPOSITORY, BRANCH, DEFAULT_NAMESPACE };
+        return new Param[] { REPOSITORY, BRANCH, DEFAULT_NAMESPACE, GROUP_COMMIT_WINDOW,
+                GROUP_COMMIT_SIZE };
     }
 
     @Override
@@ -129,9 +139,27 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         if (branch != null) {
             store.setBranch(branch);
         }
+        setGroupCommit(store, params);
         return store;
     }
 
+    private void setGroupCommit(GeoGitDataStore store, Map<String, Serializable> params)
+            throws IOException {
+        @Nullable
+        final Integer batchSize = (Integer) GROUP_COMMIT_SIZE.lookUp(params);
+        if (batchSize != null) {
+            Integer window = (Integer) GROUP_COMMIT_WINDOW.lookUp(params);
+            if (window == null) {
+                window = (Integer) GROUP_COMMIT_WINDOW.sample;
+            }
+            try {
+                store.setGroupCommit(window.longValue(), batchSize.intValue());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @see org.geotools.data.DataStoreFactorySpi#createNewDataStore(java.util.Map)
      */
@@ -160,6 +188,7 @@ public class GeoGitDataStoreFactory implements DataStoreFactorySpi {
         if (defaultNamespace != null) {
             store.setNamespaceURI(defaultNamespace);
         }
+        setGroupCommit(store, params);
         return store;
     }
 
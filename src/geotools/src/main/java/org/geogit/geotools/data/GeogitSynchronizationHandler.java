@@ -1,144 +1,410 @@
 package org.geogit.geotools.data;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
 import org.geogit.api.Remote;
+import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.ForEachRef;
+import org.geogit.api.plumbing.LsRemote;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.PullOp;
 import org.geogit.api.porcelain.PushException;
 import org.geogit.api.porcelain.PushOp;
 import org.geogit.api.porcelain.RemoteListOp;
+import org.geotools.util.logging.Logging;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Synchronizes repositories with their remotes after they've been changed.
+ * <p>
+ * Repositories are {@link #setDirty(GeoGIT, String) marked dirty} when changed; the dirty events
+ * for a repository are coalesced until a worker picks it up, so a repository is never synchronized
+ * by more than one worker at a time and bursts of changes result in a single synchronization.
+ * Different repositories are synchronized in parallel by a bounded pool of workers.
+ * <p>
+ * Before pulling from or pushing to a remote, its refs are compared against the ones known
+ * locally, and the pull or push is skipped if there's nothing to transfer. A repository that fails
+ * to synchronize is retried with an exponential backoff.
+ * <p>
+ * The state of a repository is only kept while it has pending changes or a synchronization in
+ * progress, and is dropped once it's synchronized or {@link #remove(GeoGIT) removed}.
+ */
 public class GeogitSynchronizationHandler {
 
-    private ScheduledExecutorService executor = null;
+    private static final Logger LOGGER = Logging.getLogger(GeogitSynchronizationHandler.class);
+
+    private static final int MAX_WORKERS = Math.max(2,
+            Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
 
     private static GeogitSynchronizationHandler instance = new GeogitSynchronizationHandler();
 
-    private final Queue<Pair<GeoGIT, Optional<String>>> repositories;
+    private final ScheduledExecutorService executor;
+
+    private final ConcurrentMap<GeoGIT, RepositorySync> repositories;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
 
     private GeogitSynchronizationHandler() {
-        repositories = new ConcurrentLinkedQueue<Pair<GeoGIT, Optional<String>>>();
+        this(Executors.newScheduledThreadPool(MAX_WORKERS, new ThreadFactoryBuilder()
+                .setNameFormat("geogit-sync-%d").setDaemon(true).build()));
+    }
 
-        executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(new GeoGitSynchronizer(), 0, 1, TimeUnit.SECONDS);
+    GeogitSynchronizationHandler(ScheduledExecutorService executor) {
+        this.repositories = Maps.newConcurrentMap();
+        this.executor = executor;
     }
 
+    public static GeogitSynchronizationHandler get() {
+        return instance;
+    }
+
+    /**
+     * Marks the repository as changed so that it gets synchronized with its remotes.
+     * <p>
+     * This method does no work on the calling thread other than queuing the repository, if it's
+     * not already queued.
+     *
+     * @param geogit the changed repository
+     * @param branch the changed branch, or {@code null} to synchronize all branches
+     */
     public void setDirty(GeoGIT geogit, @Nullable String branch) {
-        ImmutableList<Remote> remotes = geogit.command(RemoteListOp.class).call();
-        if (remotes.size() > 0) {
-            Pair<GeoGIT, Optional<String>> entry = new Pair<GeoGIT, Optional<String>>(geogit,
-                    Optional.fromNullable(branch));
-            if (!repositories.contains(entry)) {
-                repositories.add(entry);
+        final String localName = branch == null ? null : Ref.localName(branch);
+        while (true) {
+            RepositorySync sync = repositories.get(geogit);
+            if (sync == null) {
+                RepositorySync newSync = new RepositorySync(geogit);
+                sync = repositories.putIfAbsent(geogit, newSync);
+                if (sync == null) {
+                    sync = newSync;
+                }
+            }
+            if (sync.markDirty(localName)) {
+                return;
             }
+            // the state was dropped concurrently, start over with a new one
         }
     }
 
-    public static GeogitSynchronizationHandler get() {
-        return instance;
+    /**
+     * Forgets about the given repository, discarding its pending changes. A synchronization
+     * already in progress is not interrupted.
+     *
+     * @param geogit the repository that's no longer in use
+     */
+    public void remove(GeoGIT geogit) {
+        RepositorySync sync = repositories.remove(geogit);
+        if (sync != null) {
+            sync.evict();
+        }
     }
 
-    private class GeoGitSynchronizer implements Runnable {
-        public void run() {
-            if (repositories.peek() != null) {
-                Pair<GeoGIT, Optional<String>> repo = repositories.poll();
+    /**
+     * @return the number of repositories with pending changes or being synchronized
+     */
+    public int getRepositoryCount() {
+        return repositories.size();
+    }
 
-                final String workingBranch = repo.getSecond().orNull();
+    /**
+     * @return the number of repositories waiting to be synchronized
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
 
-                ImmutableList<Remote> remotes = repo.first.command(RemoteListOp.class).call();
-                Iterator<Remote> remoteIter = remotes.iterator();
-                while (remoteIter.hasNext()) {
-                    GeogitTransaction geogitTx = repo.getFirst().command(TransactionBegin.class)
-                            .call();
-                    try {
-                        if (workingBranch != null) {
-                            geogitTx.command(CheckoutOp.class).setForce(true)
-                                    .setSource(workingBranch).call();
-                        }
-                        Optional<Remote> remote = Optional.of(remoteIter.next());
-                        PullOp pull = geogitTx.command(PullOp.class).setRemote(
-                                Suppliers.ofInstance(remote));
-                        if (workingBranch != null) {
-                            pull.addRefSpec(workingBranch);
-                        } else {
-                            pull.setAll(true);
-                        }
-                        pull.call();
-
-                        PushOp push = geogitTx.command(PushOp.class).setRemote(
-                                Suppliers.ofInstance(remote));
-                        if (workingBranch != null) {
-                            push.addRefSpec(workingBranch);
-                        } else {
-                            push.setAll(true);
-                        }
-                        try {
-                            push.call();
-                        } catch (PushException e) {
-                            // Do nothing
-                        }
+    /**
+     * @return the number of successful synchronizations
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
 
-                        geogitTx.commitSyncTransaction();
-                        geogitTx = null;
-                    } catch (RuntimeException e) {
-                        // Do not stop trying to sync.
-                        geogitTx.abort();
-                        repositories.add(repo);
-                    }
-                }
-            }
+    /**
+     * @return the number of failed synchronizations
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return the average time elapsed between a repository being marked dirty and being
+     *         successfully synchronized, in milliseconds
+     */
+    public long getAverageSyncLatencyMillis() {
+        long count = syncCount.get();
+        return count == 0 ? 0 : totalLatencyMillis.get() / count;
+    }
+
+    /**
+     * @return the maximum time elapsed between a repository being marked dirty and being
+     *         successfully synchronized, in milliseconds
+     */
+    public long getMaxSyncLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    private void recordLatency(long latency) {
+        syncCount.incrementAndGet();
+        totalLatencyMillis.addAndGet(latency);
+        long max;
+        while ((max = maxLatencyMillis.get()) < latency
+                && !maxLatencyMillis.compareAndSet(max, latency)) {
+            // retry
         }
     }
 
-    private class Pair<F, S> {
+    /**
+     * The synchronization state of a single repository
+     */
+    private class RepositorySync implements Runnable {
+
+        private final GeoGIT geogit;
+
+        /** branches changed since the last synchronization, guarded by {@code this} */
+        private final Set<String> dirtyBranches = Sets.newHashSet();
+
+        /** whether all branches shall be synchronized, guarded by {@code this} */
+        private boolean allBranches;
+
+        /** when the repository was first marked dirty since the last synchronization */
+        private long dirtySince;
+
+        /** whether the repository is queued or being synchronized */
+        private boolean scheduled;
 
-        private final F first;
+        /** whether this state was dropped from the handler, so it's not to be scheduled again */
+        private boolean evicted;
 
-        private final S second;
+        private int failures;
 
-        public Pair(F first, S second) {
-            this.first = first;
-            this.second = second;
+        private long nextAttempt;
+
+        RepositorySync(GeoGIT geogit) {
+            this.geogit = geogit;
         }
 
-        public F getFirst() {
-            return first;
+        /**
+         * @return {@code false} if this state was already dropped and can't be marked dirty
+         */
+        synchronized boolean markDirty(@Nullable String branch) {
+            if (evicted) {
+                return false;
+            }
+            if (branch == null) {
+                allBranches = true;
+            } else {
+                dirtyBranches.add(branch);
+            }
+            if (dirtySince == 0) {
+                dirtySince = System.currentTimeMillis();
+            }
+            scheduleIfNeeded();
+            return true;
         }
 
-        public S getSecond() {
-            return second;
+        synchronized void evict() {
+            evicted = true;
+            allBranches = false;
+            dirtyBranches.clear();
+            dirtySince = 0;
         }
 
-        @Override
-        public int hashCode() {
-            return first.hashCode() ^ second.hashCode();
+        /**
+         * Queues this repository for synchronization unless it's queued or running already, in
+         * which case the pending changes will be picked up by the running synchronization or the
+         * next one
+         */
+        private void scheduleIfNeeded() {
+            if (evicted || scheduled || (!allBranches && dirtyBranches.isEmpty())) {
+                return;
+            }
+            scheduled = true;
+            queueDepth.incrementAndGet();
+            long delay = Math.max(0, nextAttempt - System.currentTimeMillis());
+            executor.schedule(this, delay, TimeUnit.MILLISECONDS);
         }
 
-        @SuppressWarnings("unchecked")
         @Override
-        public boolean equals(Object o) {
-            if (o == null)
-                return false;
-            if (!(o instanceof Pair))
-                return false;
-            Pair<F, S> pair = (Pair<F, S>) o;
-            return this.first.equals(pair.getFirst()) && this.second.equals(pair.getSecond());
+        public void run() {
+            final boolean all;
+            final Set<String> branches;
+            final long since;
+            synchronized (this) {
+                queueDepth.decrementAndGet();
+                if (evicted) {
+                    scheduled = false;
+                    return;
+                }
+                all = allBranches;
+                branches = ImmutableSet.copyOf(dirtyBranches);
+                since = dirtySince;
+                allBranches = false;
+                dirtyBranches.clear();
+                dirtySince = 0;
+            }
+
+            boolean success = false;
+            try {
+                synchronize(all, branches);
+                success = true;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error synchronizing repository "
+                        + geogit.getPlatform().pwd() + ", will retry", e);
+            } finally {
+                synchronized (this) {
+                    scheduled = false;
+                    if (success) {
+                        failures = 0;
+                        nextAttempt = 0;
+                        long latency = System.currentTimeMillis() - since;
+                        recordLatency(latency);
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("Synchronized " + geogit.getPlatform().pwd() + " in "
+                                    + latency + "ms, queue depth: " + queueDepth.get()
+                                    + ", average latency: " + getAverageSyncLatencyMillis() + "ms");
+                        }
+                    } else if (!evicted) {
+                        failureCount.incrementAndGet();
+                        failures++;
+                        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS
+                                << Math.min(failures - 1, 20));
+                        nextAttempt = System.currentTimeMillis() + backoff;
+                        allBranches |= all;
+                        dirtyBranches.addAll(branches);
+                        dirtySince = dirtySince == 0 ? since : Math.min(since, dirtySince);
+                    }
+                    scheduleIfNeeded();
+                    if (!scheduled && !evicted) {
+                        // nothing left to do, don't hold on to the repository
+                        evicted = true;
+                        repositories.remove(geogit, this);
+                    }
+                }
+            }
+        }
+
+        private void synchronize(final boolean all, final Set<String> branches) {
+            ImmutableList<Remote> remotes = geogit.command(RemoteListOp.class).call();
+            for (Remote remote : remotes) {
+                if (all) {
+                    synchronize(remote, null);
+                } else {
+                    for (String branch : branches) {
+                        synchronize(remote, branch);
+                    }
+                }
+            }
         }
 
+        /**
+         * Pulls from and pushes to {@code remote} the given branch, or all branches if
+         * {@code branch == null}, skipping the pull if the remote branches didn't change since the
+         * last fetch and the push if the local branches are the same than the remote ones.
+         */
+        private void synchronize(final Remote remote, @Nullable final String branch) {
+            final Optional<Remote> remoteOpt = Optional.of(remote);
+            final Map<String, ObjectId> remoteRefs = byLocalName(geogit.command(LsRemote.class)
+                    .setRemote(Suppliers.ofInstance(remoteOpt)).retrieveTgs(false).call(), branch);
+            final Map<String, ObjectId> trackingRefs = byLocalName(
+                    geogit.command(LsRemote.class).setRemote(Suppliers.ofInstance(remoteOpt))
+                            .retrieveLocalRefs(true).call(), branch);
+            final boolean remoteChanged = !remoteRefs.equals(trackingRefs);
+
+            Map<String, ObjectId> localRefs = byLocalName(geogit.command(ForEachRef.class)
+                    .setPrefixFilter(Ref.HEADS_PREFIX).call(), branch);
+            if (!remoteChanged && remoteRefs.equals(localRefs)) {
+                // nothing to pull nor to push
+                return;
+            }
+
+            GeogitTransaction geogitTx = geogit.command(TransactionBegin.class).call();
+            try {
+                if (branch != null) {
+                    geogitTx.command(CheckoutOp.class).setForce(true).setSource(branch).call();
+                }
+                if (remoteChanged) {
+                    PullOp pull = geogitTx.command(PullOp.class).setRemote(
+                            Suppliers.ofInstance(remoteOpt));
+                    if (branch != null) {
+                        pull.addRefSpec(branch);
+                    } else {
+                        pull.setAll(true);
+                    }
+                    pull.call();
+                    localRefs = byLocalName(
+                            geogitTx.command(ForEachRef.class).setPrefixFilter(Ref.HEADS_PREFIX)
+                                    .call(), branch);
+                }
+
+                if (!remoteRefs.equals(localRefs)) {
+                    PushOp push = geogitTx.command(PushOp.class).setRemote(
+                            Suppliers.ofInstance(remoteOpt));
+                    if (branch != null) {
+                        push.addRefSpec(branch);
+                    } else {
+                        push.setAll(true);
+                    }
+                    try {
+                        push.call();
+                    } catch (PushException e) {
+                        // Do nothing
+                    }
+                }
+
+                geogitTx.commitSyncTransaction();
+            } catch (RuntimeException e) {
+                geogitTx.abort();
+                throw e;
+            }
+        }
+
+        private Map<String, ObjectId> byLocalName(Set<Ref> refs, @Nullable String branch) {
+            Map<String, ObjectId> map = Maps.newHashMap();
+            for (Ref ref : refs) {
+                if (ref instanceof SymRef) {
+                    continue;
+                }
+                String name = ref.localName();
+                if (branch == null || branch.equals(name)) {
+                    map.put(name, ref.getObjectId());
+                }
+            }
+            return map;
+        }
     }
 }
@@ -116,10 +116,16 @@ class GeogitTransactionState implements State {
             // ok
         }
 
-        this.geogitTx.commit();
         GeoGitDataStore dataStore = (GeoGitDataStore) entry.getDataStore();
-        GeogitSynchronizationHandler.get().setDirty(dataStore.getGeogit(),
-                dataStore.getOrFigureOutBranch());
+        Optional<GroupCommitter> groupCommitter = dataStore.getGroupCommitter();
+        if (groupCommitter.isPresent()) {
+            // the group committer marks the repository dirty once per batch
+            groupCommitter.get().commit(this.geogitTx);
+        } else {
+            this.geogitTx.commit();
+            GeogitSynchronizationHandler.get().setDirty(dataStore.getGeogit(),
+                    dataStore.getOrFigureOutBranch());
+        }
 
         this.geogitTx = null;
     }
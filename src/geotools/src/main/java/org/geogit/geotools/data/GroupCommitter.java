@@ -0,0 +1,255 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.geotools.data;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.GeogitTransaction;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.TransactionBegin;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.RebaseOp;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Merges the {@link GeogitTransaction transactions} committed through a {@link GeoGitDataStore}
+ * within a short time window into a single repository write.
+ * <p>
+ * Each geotools transaction still produces its own geogit commit inside its own geogit
+ * transaction. Instead of ending each geogit transaction separately, though, the transactions
+ * arriving within {@link #getWindowMillis() the window}, or until {@link #getMaxBatchSize() the
+ * maximum batch size} is reached, are chained one after the other in arrival order on a single
+ * batch transaction, which is then committed with one update of the data store branch.
+ * <p>
+ * The first thread to call {@link #commit(GeogitTransaction)} becomes the leader and applies the
+ * batch, while the threads arriving meanwhile wait for it to finish. A transaction that can't be
+ * applied makes only its own commit fail, the rest of the batch is committed regardless.
+ *
+ * @see GeoGitDataStore#setGroupCommit(long, int)
+ */
+class GroupCommitter {
+
+    private final GeoGitDataStore dataStore;
+
+    private final long windowMillis;
+
+    private final int maxBatchSize;
+
+    /**
+     * Transactions waiting to be committed, in arrival order
+     */
+    private final List<PendingCommit> queue = new LinkedList<PendingCommit>();
+
+    /**
+     * Held by the thread applying a batch
+     */
+    private final ReentrantLock leaderLock = new ReentrantLock();
+
+    /**
+     * @param dataStore the data store whose transactions are to be group committed
+     * @param windowMillis how long to wait for more transactions after the first one arrives
+     * @param maxBatchSize how many transactions to commit at most in a single batch
+     */
+    public GroupCommitter(GeoGitDataStore dataStore, long windowMillis, int maxBatchSize) {
+        Preconditions.checkNotNull(dataStore);
+        Preconditions.checkArgument(windowMillis >= 0, "window can't be negative: %s",
+                windowMillis);
+        Preconditions.checkArgument(maxBatchSize > 0, "batch size shall be positive: %s",
+                maxBatchSize);
+        this.dataStore = dataStore;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Commits the given transaction as part of the next batch, blocking until the batch has been
+     * committed.
+     * <p>
+     * The transaction is expected to have the data store branch checked out and its changes
+     * already committed on it, as done by {@link GeogitTransactionState#commit()}. It's closed once
+     * committed.
+     *
+     * @param transaction the transaction to commit
+     * @throws RuntimeException if the transaction couldn't be committed, in which case the
+     *         transaction is left open for the caller to abort
+     */
+    public void commit(final GeogitTransaction transaction) {
+        Preconditions.checkNotNull(transaction);
+        final PendingCommit pending = new PendingCommit(transaction);
+        synchronized (queue) {
+            queue.add(pending);
+            queue.notifyAll();
+        }
+        leaderLock.lock();
+        try {
+            // if the transaction was not part of the batch applied by the previous leader, become
+            // the leader and apply the next one
+            while (!pending.isDone()) {
+                apply(nextBatch());
+            }
+        } finally {
+            leaderLock.unlock();
+        }
+        if (pending.failure != null) {
+            throw Throwables.propagate(pending.failure);
+        }
+    }
+
+    /**
+     * Waits until either the window has elapsed or enough transactions arrived, and takes them out
+     * of the queue
+     */
+    private List<PendingCommit> nextBatch() {
+        synchronized (queue) {
+            final long deadline = System.currentTimeMillis() + windowMillis;
+            long remaining = windowMillis;
+            while (queue.size() < maxBatchSize && remaining > 0) {
+                try {
+                    queue.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            List<PendingCommit> batch = Lists.newArrayList();
+            while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+                batch.add(queue.remove(0));
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Chains the commits of each transaction in the batch, in order, on a batch transaction and
+     * commits it to the repository with a single update of the data store branch.
+     */
+    private void apply(final List<PendingCommit> batch) {
+        final String branch = dataStore.getOrFigureOutBranch();
+        GeogitTransaction batchTx = dataStore.getCommandLocator(null)
+                .command(TransactionBegin.class).call();
+        List<PendingCommit> applied = Lists.newArrayList();
+        try {
+            batchTx.command(CheckoutOp.class).setForce(true).setSource(branch).call();
+            final Ref branchRef = batchTx.command(RefParse.class).setName(branch).call().get();
+            final String refName = branchRef.getName();
+
+            ObjectId tip = branchRef.getObjectId();
+            for (PendingCommit pending : batch) {
+                try {
+                    tip = chain(pending.transaction, refName, tip);
+                    applied.add(pending);
+                } catch (RuntimeException e) {
+                    pending.failed(e);
+                }
+            }
+            if (!tip.equals(branchRef.getObjectId())) {
+                batchTx.command(UpdateRef.class).setName(refName).setNewValue(tip).call();
+            }
+            batchTx.commit();
+        } catch (RuntimeException e) {
+            batchTx.abort();
+            for (PendingCommit pending : batch) {
+                if (!pending.isDone()) {
+                    pending.failed(e);
+                }
+            }
+            return;
+        }
+
+        for (PendingCommit pending : applied) {
+            pending.transaction.close();
+            pending.succeeded();
+        }
+        GeogitSynchronizationHandler.get().setDirty(dataStore.getGeogit(), branch);
+    }
+
+    /**
+     * Rebases the commits made in {@code transaction} on top of {@code tip}, unless they're
+     * already based on it.
+     *
+     * @return the new tip of the branch, including the transaction commits
+     */
+    private ObjectId chain(final GeogitTransaction transaction, final String refName,
+            final ObjectId tip) {
+        Optional<Ref> txRef = transaction.command(RefParse.class).setName(refName).call();
+        Optional<Ref> origRef = transaction.command(RefParse.class)
+                .setName(refName.replace("refs/", "orig/refs/")).call();
+        if (!txRef.isPresent()) {
+            return tip;
+        }
+        final ObjectId txTip = txRef.get().getObjectId();
+        final ObjectId txBase = origRef.isPresent() ? origRef.get().getObjectId() : ObjectId.NULL;
+        if (txTip.equals(txBase)) {
+            // nothing committed
+            return tip;
+        }
+        if (txBase.equals(tip)) {
+            // committed on top of the current tip already
+            return txTip;
+        }
+        transaction.command(CheckoutOp.class).setSource(refName).setForce(true).call();
+        transaction.command(RebaseOp.class).setUpstream(Suppliers.ofInstance(tip)).call();
+        return transaction.command(RefParse.class).setName(refName).call().get().getObjectId();
+    }
+
+    /**
+     * A transaction waiting in the queue, and the outcome of its commit once its batch was applied
+     */
+    private static class PendingCommit {
+
+        private final GeogitTransaction transaction;
+
+        private volatile boolean done;
+
+        @Nullable
+        private volatile RuntimeException failure;
+
+        PendingCommit(GeogitTransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        void succeeded() {
+            this.done = true;
+        }
+
+        void failed(RuntimeException e) {
+            this.failure = e;
+            this.done = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append("[window=")
+                .append(windowMillis).append("ms, maxBatchSize=").append(maxBatchSize).append(']')
+                .toString();
+    }
+}
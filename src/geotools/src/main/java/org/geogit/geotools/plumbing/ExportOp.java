@@ -6,6 +6,16 @@
 package org.geogit.geotools.plumbing;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.FeatureBuilder;
@@ -26,27 +36,43 @@ import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.Transaction;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.factory.Hints;
-import org.geotools.feature.DefaultFeatureCollection;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.type.FeatureType;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 /**
- * Internal operation for creating a FeatureCollection from a tree content.
+ * Internal operation for exporting the features of a tree to a feature store.
+ * <p>
+ * Features are streamed from the tree to the feature store: they're decoded ahead on a few worker
+ * threads and written in {@link #setBatchSize(int) batches}, so the memory used doesn't depend on
+ * the number of features exported. By default all of them are added in a single transaction, but
+ * it can be {@link #setTransactionSize(int) committed in chunks}.
  * 
  */
 public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
 
+    private static final int DECODE_THREADS = Math.max(2,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final int DECODE_BATCH_SIZE = 256;
+
     private String featureTypeName;
 
     private Supplier<SimpleFeatureStore> featureStore;
@@ -55,6 +81,10 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
 
     private Function<Feature, Feature> function = Functions.identity();
 
+    private int batchSize = 1000;
+
+    private int transactionSize = 0;
+
     /**
      * Constructs a new export operation.
      */
@@ -66,9 +96,8 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
     /**
      * Executes the export operation using the parameters that have been specified.
      * 
-     * @return a FeatureCollection with the specified features
+     * @return the feature store the features were exported to
      */
-    @SuppressWarnings("deprecation")
     @Override
     public SimpleFeatureStore call() {
 
@@ -117,64 +146,152 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
         Preconditions.checkArgument(revObject.get().getType() == TYPE.TREE,
                 "%s did not resolve to a tree", refspec);
 
-        DepthTreeIterator iter = new DepthTreeIterator(treePath, parentMetadataId,
-                (RevTree) revObject.get(), database, Strategy.FEATURES_ONLY);
-
-        // Create a FeatureCollection
+        final RevTree typeTree = (RevTree) revObject.get();
+        DepthTreeIterator iter = new DepthTreeIterator(treePath, parentMetadataId, typeTree,
+                database, Strategy.FEATURES_ONLY);
 
         getProgressListener().started();
         getProgressListener().setDescription("Exporting " + featureTypeName + "... ");
-        DefaultFeatureCollection features = new DefaultFeatureCollection();
-
-        FeatureBuilder featureBuilder = null;
-        FeatureType featureType = null;
-        int i = 1;
-        while (iter.hasNext()) {
-            NodeRef nodeRef = iter.next();
-            if (nodeRef.getType() == TYPE.FEATURE) {
-                if (featureBuilder == null) {
-                    RevFeatureType revFeatureType = command(RevObjectParse.class)
-                            .setObjectId(nodeRef.getMetadataId()).call(RevFeatureType.class).get();
-                    featureType = revFeatureType.type();
-                    featureBuilder = new FeatureBuilder(revFeatureType);
-                }
-                RevFeature revFeature = command(RevObjectParse.class)
-                        .setObjectId(nodeRef.objectId()).call(RevFeature.class).get();
-                Feature feature = featureBuilder.build(nodeRef.getNode().getName(), revFeature);
-                feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
-                Feature validFeature = function.apply(feature);
-                features.add((SimpleFeature) validFeature);
-                getProgressListener().progress((i * 100.f) / revTree.get().size());
-                i++;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(DECODE_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("geogit-export-%d").setDaemon(true)
+                        .build());
+        try {
+            Iterator<Feature> features = new DecodingIterator(iter, executor);
+            if (!features.hasNext()) {
+                throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
             }
+            write(features, fs, typeTree.size());
+        } finally {
+            executor.shutdownNow();
         }
 
-        if (featureType == null) {
-            throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
-        }
+        getProgressListener().complete();
+
+        return fs;
+
+    }
 
-        // add the feature collection to the feature store
+    /**
+     * Adds the features to the feature store in batches of {@link #setBatchSize(int) batchSize}
+     * features, committing the transaction every {@link #setTransactionSize(int) transactionSize}
+     * features, or only at the end if it's zero
+     */
+    private void write(Iterator<Feature> features, SimpleFeatureStore fs, long total) {
         final Transaction transaction = new DefaultTransaction("create");
         try {
             fs.setTransaction(transaction);
             try {
-                fs.addFeatures(features);
+                List<SimpleFeature> batch = Lists.newArrayListWithCapacity(batchSize);
+                long written = 0;
+                long uncommitted = 0;
+                while (features.hasNext()) {
+                    batch.add((SimpleFeature) function.apply(features.next()));
+                    if (batch.size() < batchSize && features.hasNext()) {
+                        continue;
+                    }
+                    fs.addFeatures(new ListFeatureCollection(batch.get(0).getFeatureType(),
+                            batch));
+                    written += batch.size();
+                    uncommitted += batch.size();
+                    batch = Lists.newArrayListWithCapacity(batchSize);
+                    if (transactionSize > 0 && uncommitted >= transactionSize) {
+                        transaction.commit();
+                        uncommitted = 0;
+                    }
+                    getProgressListener().progress((written * 100.f) / Math.max(1, total));
+                }
                 transaction.commit();
             } catch (final Exception e) {
                 transaction.rollback();
-                throw new GeoToolsOpException(StatusCode.UNABLE_TO_ADD);
+                throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_ADD);
             } finally {
-                features = null;
                 transaction.close();
             }
         } catch (IOException e) {
-            throw new GeoToolsOpException(StatusCode.UNABLE_TO_ADD);
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_ADD);
         }
+    }
 
-        getProgressListener().complete();
+    /**
+     * Builds the features the node refs point to, in the same order, decoding them ahead of the
+     * consumer in batches on the executor threads, so that reading and decoding the objects
+     * overlaps with writing the features to the target store.
+     * <p>
+     * At most {@code 2 * DECODE_THREADS} batches are decoded ahead, which keeps the memory used
+     * bounded regardless of the number of features exported.
+     */
+    private class DecodingIterator extends AbstractIterator<Feature> {
 
-        return fs;
+        private final Iterator<NodeRef> refs;
+
+        private final ExecutorService executor;
+
+        private final Queue<Future<List<Feature>>> decoding = Lists.newLinkedList();
 
+        private final ConcurrentMap<ObjectId, FeatureBuilder> builders = Maps.newConcurrentMap();
+
+        private Iterator<Feature> current = Collections.<Feature> emptyList().iterator();
+
+        DecodingIterator(Iterator<NodeRef> refs, ExecutorService executor) {
+            this.refs = Iterators.filter(refs, new Predicate<NodeRef>() {
+                @Override
+                public boolean apply(NodeRef ref) {
+                    return TYPE.FEATURE.equals(ref.getType());
+                }
+            });
+            this.executor = executor;
+        }
+
+        @Override
+        protected Feature computeNext() {
+            while (!current.hasNext()) {
+                while (decoding.size() < 2 * DECODE_THREADS && refs.hasNext()) {
+                    final List<NodeRef> batch = Lists.newArrayList(Iterators.limit(refs,
+                            DECODE_BATCH_SIZE));
+                    decoding.add(executor.submit(new Callable<List<Feature>>() {
+                        @Override
+                        public List<Feature> call() {
+                            return decode(batch);
+                        }
+                    }));
+                }
+                if (decoding.isEmpty()) {
+                    return endOfData();
+                }
+                try {
+                    current = decoding.remove().get().iterator();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                } catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+            return current.next();
+        }
+
+        private List<Feature> decode(List<NodeRef> batch) {
+            List<Feature> features = Lists.newArrayListWithCapacity(batch.size());
+            for (NodeRef ref : batch) {
+                RevFeature revFeature = database.getFeature(ref.objectId());
+                Feature feature = builder(ref.getMetadataId()).build(ref.getNode().getName(),
+                        revFeature);
+                feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+                features.add(feature);
+            }
+            return features;
+        }
+
+        private FeatureBuilder builder(ObjectId metadataId) {
+            FeatureBuilder builder = builders.get(metadataId);
+            if (builder == null) {
+                RevFeatureType revFeatureType = database.getFeatureType(metadataId);
+                builder = new FeatureBuilder(revFeatureType);
+                builders.putIfAbsent(metadataId, builder);
+            }
+            return builder;
+        }
     }
 
     /**
@@ -207,6 +324,35 @@ public class ExportOp extends AbstractGeoGitOp<SimpleFeatureStore> {
         return this;
     }
 
+    /**
+     * @param batchSize the number of features to add to the feature store at once, defaults to
+     *        {@code 1000}
+     * @return {@code this}
+     */
+    public ExportOp setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize shall be positive: %s", batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of features to add to the feature store before committing the transaction.
+     * The default, zero, adds all the features in a single transaction, so the export either
+     * succeeds or leaves the feature store untouched, but some stores hold the whole transaction
+     * in memory or in their logs, so large exports may need to be committed in chunks, at the
+     * expense of leaving the exported features of the committed chunks in place if it fails.
+     * 
+     * @param transactionSize the number of features to commit at once, or zero for all of them
+     * @return {@code this}
+     */
+    public ExportOp setTransactionSize(int transactionSize) {
+        Preconditions.checkArgument(transactionSize >= 0,
+                "transactionSize shall be positive, or zero for a single transaction: %s",
+                transactionSize);
+        this.transactionSize = transactionSize;
+        return this;
+    }
+
     /**
      * Sets the function to use for creating a valid Feature that has the FeatureType of the output
      * FeatureStore, based on the actual FeatureType of the Features to export.
@@ -5,22 +5,63 @@
 
 package org.geogit.geotools.plumbing;
 
+import java.io.IOException;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.LsTreeOp;
+import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.api.porcelain.ConfigGet;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.ConfigOp.ConfigScope;
 import org.geogit.geotools.plumbing.GeoToolsOpException.StatusCode;
 import org.geotools.data.DataStore;
+import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.util.Converters;
+import org.geotools.util.NullProgressListener;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
 import org.opengis.util.ProgressListener;
 
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 /**
@@ -36,6 +77,14 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
     private DataStore dataStore;
 
+    private boolean differential = false;
+
+    private int threads = 1;
+
+    private boolean incremental = false;
+
+    private String incrementalColumn = null;
+
     /**
      * Constructs a new {@code ImportOp} operation.
      */
@@ -76,6 +125,7 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
         getProgressListener().started();
         int tableCount = 0;
+        List<Name> parallelNames = Lists.newArrayList();
         for (Name typeName : typeNames) {
             tableCount++;
             if (!all && !table.equals(typeName.toString()))
@@ -83,6 +133,11 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
             foundTable = true;
 
+            if (threads > 1 && !incremental && !isImportedDifferentially(typeName)) {
+                parallelNames.add(typeName);
+                continue;
+            }
+
             String tableName = String.format("%-16s", typeName.getLocalPart());
             if (typeName.getLocalPart().length() > 16) {
                 tableName = tableName.substring(0, 13) + "...";
@@ -104,6 +159,12 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
 
             String treePath = revType.getName().getLocalPart();
 
+            if (incremental) {
+                importIncrementally(featureSource, revType,
+                        subProgress(100.f / (all ? typeNames.size() : 1f)));
+                continue;
+            }
+
             final SimpleFeatureIterator featureIterator = features.features();
 
             Iterator<Feature> iterator = new AbstractIterator<Feature>() {
@@ -117,9 +178,16 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
             };
 
             try {
-                if (iterator.hasNext()) {
-                    ProgressListener taskProgress = subProgress(100.f / (all ? typeNames.size()
-                            : 1f));
+                ProgressListener taskProgress = subProgress(100.f / (all ? typeNames.size() : 1f));
+                Optional<NodeRef> typeTreeRef = Optional.absent();
+                if (differential) {
+                    typeTreeRef = command(FindTreeChild.class).setIndex(true)
+                            .setParent(getWorkTree().getTree()).setChildPath(treePath).call();
+                }
+                if (typeTreeRef.isPresent()
+                        && revType.getId().equals(typeTreeRef.get().getMetadataId())) {
+                    importDifferences(treePath, iterator, taskProgress);
+                } else if (iterator.hasNext()) {
                     Integer collectionSize = features.size();
                     getWorkTree().delete(revType.getName());
                     getWorkTree().insert(treePath, iterator, taskProgress, null, collectionSize);
@@ -141,11 +209,355 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
                 throw new GeoToolsOpException(StatusCode.TABLE_NOT_FOUND);
             }
         }
+        if (!parallelNames.isEmpty()) {
+            getProgressListener().setDescription(
+                    "Importing " + parallelNames.size() + " tables in parallel... ");
+            importInParallel(parallelNames, 100.f / (all ? typeNames.size() : 1f));
+        }
         getProgressListener().progress(100.f);
         getProgressListener().complete();
         return getWorkTree().getTree();
     }
 
+    /**
+     * @return whether the table would be imported {@link #setDifferential(boolean)
+     *         differentially}, that is, it was already imported with the same feature type
+     */
+    private boolean isImportedDifferentially(Name typeName) {
+        if (!differential) {
+            return false;
+        }
+        RevFeatureType revType;
+        try {
+            revType = RevFeatureType.build(dataStore.getSchema(typeName));
+        } catch (Exception e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_GET_FEATURES);
+        }
+        Optional<NodeRef> typeTreeRef = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree())
+                .setChildPath(revType.getName().getLocalPart()).call();
+        return typeTreeRef.isPresent()
+                && revType.getId().equals(typeTreeRef.get().getMetadataId());
+    }
+
+    /**
+     * Reads the tables concurrently, building the tree of each one on its own thread, and then
+     * replaces all of them in the working tree at once
+     */
+    private void importInParallel(List<Name> typeNames, float progressPerTable) {
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, typeNames.size()), new ThreadFactoryBuilder()
+                        .setNameFormat("geogit-import-%d").setDaemon(true).build());
+        try {
+            List<Future<NodeRef>> futures = Lists.newArrayListWithCapacity(typeNames.size());
+            for (final Name typeName : typeNames) {
+                futures.add(executor.submit(new Callable<NodeRef>() {
+                    @Override
+                    public NodeRef call() {
+                        return buildTypeTree(typeName);
+                    }
+                }));
+            }
+            final float progress = getProgressListener().getProgress();
+            List<NodeRef> typeTrees = Lists.newArrayListWithCapacity(typeNames.size());
+            for (Future<NodeRef> future : futures) {
+                typeTrees.add(future.get());
+                getProgressListener().progress(progress + typeTrees.size() * progressPerTable);
+            }
+            getWorkTree().updateTypeTrees(typeTrees);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeoToolsOpException) {
+                throw (GeoToolsOpException) e.getCause();
+            }
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private NodeRef buildTypeTree(Name typeName) {
+        SimpleFeatureSource featureSource;
+        SimpleFeatureCollection features;
+        try {
+            featureSource = dataStore.getFeatureSource(typeName);
+            features = featureSource.getFeatures();
+        } catch (Exception e) {
+            throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
+        }
+
+        final SimpleFeatureType featureType = featureSource.getSchema();
+        final String treePath = featureType.getName().getLocalPart();
+        final SimpleFeatureIterator featureIterator = features.features();
+        Iterator<Feature> iterator = new AbstractIterator<Feature>() {
+            @Override
+            protected Feature computeNext() {
+                if (!featureIterator.hasNext()) {
+                    return super.endOfData();
+                }
+                return featureIterator.next();
+            }
+        };
+        try {
+            return getWorkTree().buildTypeTree(treePath, featureType, iterator,
+                    new NullProgressListener());
+        } catch (Exception e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        } finally {
+            featureIterator.close();
+        }
+    }
+
+    /**
+     * Brings the existing tree at {@code treePath} up to date with the features, writing only the
+     * ones that were added or modified, and deleting the ones no longer present.
+     * <p>
+     * The ids of the features currently in the tree are held in memory, by feature id, and each
+     * imported feature is hashed and compared with them, so neither the unchanged features nor
+     * the tree are written, and the source doesn't need to be counted.
+     */
+    private void importDifferences(final String treePath, Iterator<Feature> features,
+            ProgressListener taskProgress) {
+
+        final Map<String, ObjectId> current = Maps.newHashMap();
+        Iterator<NodeRef> refs = command(LsTreeOp.class)
+                .setReference(Ref.WORK_HEAD + ":" + treePath)
+                .setStrategy(Strategy.DEPTHFIRST_ONLY_FEATURES).call();
+        while (refs.hasNext()) {
+            NodeRef ref = refs.next();
+            current.put(ref.name(), ref.objectId());
+        }
+
+        final RevFeatureBuilder featureBuilder = new RevFeatureBuilder();
+        Iterator<Feature> changed = Iterators.filter(features, new Predicate<Feature>() {
+            @Override
+            public boolean apply(Feature feature) {
+                ObjectId currentId = current.remove(feature.getIdentifier().getID());
+                return currentId == null
+                        || !currentId.equals(featureBuilder.build(feature).getId());
+            }
+        });
+        getWorkTree().insert(treePath, changed, taskProgress, null, null);
+
+        // what's left is no longer in the source
+        if (!current.isEmpty()) {
+            Function<String, String> toPath = new Function<String, String>() {
+                @Override
+                public String apply(String featureId) {
+                    return NodeRef.appendChild(treePath, featureId);
+                }
+            };
+            getWorkTree().delete(Iterators.transform(current.keySet().iterator(), toPath));
+        }
+    }
+
+    /**
+     * Imports the rows of the table whose {@link #setIncrementalColumn(String) incremental column}
+     * is greater than or equal to the high-water mark recorded by the previous import of the
+     * table, and deletes from the tree the features whose rows no longer exist, so that the cost
+     * of the import follows the size of the changes instead of the size of the table.
+     * <p>
+     * The rows at the mark are imported again, which is harmless as inserting an unchanged feature
+     * leaves the tree as is, so that rows given the same value as the mark but committed after the
+     * previous import read the table are not missed. Rows committed later with a value lower than
+     * the mark, as a sequence handed out before a transaction that commits late, are still missed
+     * and need a full import to be picked up.
+     * <p>
+     * The mark is the greatest value of the column taken before reading the rows, so rows changed
+     * while they're read are imported again by the next run rather than missed.
+     * <p>
+     * The column, the mark and the id of the tree the import left are kept in the repository
+     * config, as {@code import.<tree>.column}, {@code import.<tree>.mark} and
+     * {@code import.<tree>.tree}. The table is fully imported when there is no mark for it, or
+     * when its feature type or the column changed, or when the tree is no longer the one the
+     * previous import left, as after a reset or a checkout, since the mark doesn't tell what the
+     * tree misses then.
+     */
+    private void importIncrementally(final SimpleFeatureSource featureSource,
+            final RevFeatureType revType, final ProgressListener taskProgress) {
+
+        final SimpleFeatureType schema = featureSource.getSchema();
+        final String treePath = revType.getName().getLocalPart();
+
+        final String column;
+        if (incrementalColumn != null) {
+            column = incrementalColumn;
+        } else {
+            Optional<String> configured = command(ConfigGet.class).setName(
+                    incrementalConfigKey(treePath, "column")).call();
+            if (!configured.isPresent()) {
+                throw new GeoToolsOpException(StatusCode.INCREMENTAL_COLUMN_NOT_DEFINED);
+            }
+            column = configured.get();
+        }
+        final AttributeDescriptor descriptor = schema.getDescriptor(column);
+        if (descriptor == null) {
+            throw new GeoToolsOpException(StatusCode.INCREMENTAL_COLUMN_NOT_FOUND);
+        }
+        final Class<?> binding = descriptor.getType().getBinding();
+
+        Optional<String> mark = Optional.absent();
+        Optional<NodeRef> typeTreeRef = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(treePath).call();
+        if (typeTreeRef.isPresent()
+                && revType.getId().equals(typeTreeRef.get().getMetadataId())
+                && column.equals(command(ConfigGet.class)
+                        .setName(incrementalConfigKey(treePath, "column")).call().orNull())
+                && typeTreeRef.get().objectId().toString().equals(command(ConfigGet.class)
+                        .setName(incrementalConfigKey(treePath, "tree")).call().orNull())) {
+            mark = command(ConfigGet.class).setName(incrementalConfigKey(treePath, "mark"))
+                    .call();
+        }
+
+        final HighWaterMark newMark = new HighWaterMark();
+        try {
+            if (mark.isPresent()) {
+                final Object lastValue = decodeMark(mark.get(), binding);
+                newMark.update(lastValue);
+                deleteRemoved(featureSource, treePath);
+
+                FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+                Filter newer = ff.greaterOrEqual(ff.property(column), ff.literal(lastValue));
+                SimpleFeatureCollection features = featureSource.getFeatures(newer);
+                newMark.update(max(features, column));
+
+                SimpleFeatureIterator featureIterator = features.features();
+                try {
+                    getWorkTree().insert(treePath, featureIterator, taskProgress, null, null);
+                } finally {
+                    featureIterator.close();
+                }
+            } else {
+                SimpleFeatureCollection features = featureSource.getFeatures();
+                newMark.update(max(features, column));
+
+                getWorkTree().delete(revType.getName());
+                SimpleFeatureIterator featureIterator = features.features();
+                try {
+                    if (featureIterator.hasNext()) {
+                        getWorkTree().insert(treePath, featureIterator, taskProgress, null,
+                                features.size());
+                    } else {
+                        getWorkTree().createTypeTree(treePath, revType.type());
+                    }
+                } finally {
+                    featureIterator.close();
+                }
+            }
+        } catch (GeoToolsOpException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_GET_FEATURES);
+        } catch (Exception e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        }
+
+        setConfig(incrementalConfigKey(treePath, "column"), column);
+        if (newMark.value != null) {
+            setConfig(incrementalConfigKey(treePath, "mark"), encodeMark(newMark.value));
+        }
+        Optional<NodeRef> newTreeRef = command(FindTreeChild.class).setIndex(true)
+                .setParent(getWorkTree().getTree()).setChildPath(treePath).call();
+        if (newTreeRef.isPresent()) {
+            setConfig(incrementalConfigKey(treePath, "tree"), newTreeRef.get().objectId()
+                    .toString());
+        }
+    }
+
+    /**
+     * @return the greatest value of the column among the features, taken before reading them
+     */
+    @Nullable
+    private static Object max(SimpleFeatureCollection features, String column) throws IOException {
+        MaxVisitor max = new MaxVisitor(column);
+        features.accepts(max, null);
+        return max.getResult() == null ? null : max.getResult().getValue();
+    }
+
+    /**
+     * Deletes from the tree the features whose rows are gone, reading just the ids of the rows
+     */
+    private void deleteRemoved(final SimpleFeatureSource featureSource, final String treePath)
+            throws IOException {
+
+        final Set<String> ids = Sets.newHashSet();
+        Query idsOnly = new Query(featureSource.getSchema().getTypeName(), Filter.INCLUDE,
+                Query.NO_NAMES);
+        SimpleFeatureIterator featureIterator = featureSource.getFeatures(idsOnly).features();
+        try {
+            while (featureIterator.hasNext()) {
+                ids.add(featureIterator.next().getID());
+            }
+        } finally {
+            featureIterator.close();
+        }
+
+        Iterator<NodeRef> refs = command(LsTreeOp.class)
+                .setReference(Ref.WORK_HEAD + ":" + treePath)
+                .setStrategy(Strategy.DEPTHFIRST_ONLY_FEATURES).call();
+        List<String> removed = Lists.newArrayList();
+        while (refs.hasNext()) {
+            NodeRef ref = refs.next();
+            if (!ids.contains(ref.name())) {
+                removed.add(ref.path());
+            }
+        }
+        if (!removed.isEmpty()) {
+            getWorkTree().delete(removed.iterator());
+        }
+    }
+
+    private static String incrementalConfigKey(String treePath, String option) {
+        return "import." + treePath + "." + option;
+    }
+
+    private void setConfig(String key, String value) {
+        command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setScope(ConfigScope.LOCAL)
+                .setName(key).setValue(value).call();
+    }
+
+    /**
+     * Dates are recorded as milliseconds, so they read back exactly whatever their string format
+     */
+    private static String encodeMark(Object value) {
+        if (value instanceof Date) {
+            return String.valueOf(((Date) value).getTime());
+        }
+        return value.toString();
+    }
+
+    private static Object decodeMark(String mark, Class<?> binding) {
+        if (Date.class.isAssignableFrom(binding)) {
+            long millis = Long.parseLong(mark);
+            if (java.sql.Timestamp.class.isAssignableFrom(binding)) {
+                return new java.sql.Timestamp(millis);
+            } else if (java.sql.Date.class.isAssignableFrom(binding)) {
+                return new java.sql.Date(millis);
+            }
+            return new Date(millis);
+        }
+        Object value = Converters.convert(mark, binding);
+        return value == null ? mark : value;
+    }
+
+    /**
+     * Keeps the greatest of the values of the incremental column it's given
+     */
+    private static class HighWaterMark {
+
+        private Comparable<Object> value;
+
+        @SuppressWarnings("unchecked")
+        void update(@Nullable Object candidate) {
+            if (candidate instanceof Comparable
+                    && (value == null || value.compareTo(candidate) < 0)) {
+                value = (Comparable<Object>) candidate;
+            }
+        }
+    }
+
     /**
      * @param all if this is set, all tables from the data store will be imported
      * @return {@code this}
@@ -164,6 +576,56 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
         return this;
     }
 
+    /**
+     * @param differential if this is set, tables already imported with the same feature type are
+     *        brought up to date by writing only the features that were added, modified or deleted
+     *        since, instead of replacing the whole tree
+     * @return {@code this}
+     */
+    public ImportOp setDifferential(boolean differential) {
+        this.differential = differential;
+        return this;
+    }
+
+    /**
+     * Sets the number of tables to import concurrently. With more than one thread, the tables are
+     * read at the same time, the features of each one are hashed and stored by its own thread, and
+     * the working tree is updated once with all of them. Tables imported
+     * {@link #setDifferential(boolean) differentially} are still imported one after another.
+     * 
+     * @param threads the number of tables to import at once, {@code 1} by default
+     * @return {@code this}
+     */
+    public ImportOp setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads shall be positive: %s", threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param incremental if this is set, each table is brought up to date by importing only the
+     *        rows whose {@link #setIncrementalColumn(String) incremental column} reached or
+     *        passed the greatest value seen by the last import, and deleting the features whose
+     *        rows are gone. Rows committed late with a lower value are missed. Tables are then
+     *        imported one after another.
+     * @return {@code this}
+     */
+    public ImportOp setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * @param column a timestamp or sequence column that grows whenever a row is inserted or
+     *        updated, used by {@link #setIncremental(boolean) incremental} imports. If not set, the
+     *        column recorded by the previous incremental import of the table is used.
+     * @return {@code this}
+     */
+    public ImportOp setIncrementalColumn(String column) {
+        this.incrementalColumn = column;
+        return this;
+    }
+
     /**
      * @param dataStore the data store to use for the import process
      * @return {@code this}
@@ -0,0 +1,423 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.geotools.plumbing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevTree;
+import org.geogit.geotools.plumbing.GeoToolsOpException.StatusCode;
+import org.geotools.data.DataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.util.NullProgressListener;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Internal operation for importing all the tables of several GeoTools {@link DataStore}s at once,
+ * like a large set of shapefiles.
+ * <p>
+ * Tables are routed to the tree named after them, so tables with the same name in different data
+ * stores, like the tiles of a layer split in several shapefiles, end up in the same tree and shall
+ * have the same feature type. Up to {@link #setThreads(int) threads} trees are built at once. A
+ * tree made of a single table is built straight out of it, while the tables of a tree made of
+ * several are each read by a producer, up to {@link #setThreads(int) threads} of them at once,
+ * which feeds the features to the builder of the tree through a bounded queue. All the trees are
+ * then written to the working tree at once, replacing the existing ones.
+ * <p>
+ * The features of tables sharing a tree get their ids prefixed with the name of their data store,
+ * as given to {@link #addDataStore(String, DataStore)}, since tiles usually number their features
+ * the same way. The ids of data stores added without a name are kept, and the import fails if they
+ * collide.
+ *
+ * @see ImportOp
+ */
+public class ParallelImportOp extends AbstractGeoGitOp<RevTree> {
+
+    /**
+     * Number of features a producer can get ahead of the builder of its tree
+     */
+    private static final int QUEUE_SIZE = 1000;
+
+    private List<DataStore> dataStores = Lists.newArrayList();
+
+    private List<String> dataStoreNames = Lists.newArrayList();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong featureCount = new AtomicLong();
+
+    /**
+     * Constructs a new {@code ParallelImportOp} operation.
+     */
+    @Inject
+    public ParallelImportOp() {
+    }
+
+    /**
+     * Executes the import operation.
+     *
+     * @return RevTree the new working tree
+     */
+    @Override
+    public RevTree call() {
+        if (dataStores.isEmpty()) {
+            throw new GeoToolsOpException(StatusCode.DATASTORE_NOT_DEFINED);
+        }
+        featureCount.set(0);
+
+        // the tables of each target tree, in the order of the data stores
+        final Map<String, List<Table>> sources = Maps.newLinkedHashMap();
+        int sourceCount = 0;
+        for (int i = 0; i < dataStores.size(); i++) {
+            final DataStore dataStore = dataStores.get(i);
+            List<Name> typeNames;
+            try {
+                typeNames = dataStore.getNames();
+            } catch (Exception e) {
+                throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_NAMES);
+            }
+            for (Name typeName : typeNames) {
+                SimpleFeatureSource featureSource;
+                try {
+                    featureSource = dataStore.getFeatureSource(typeName);
+                } catch (Exception e) {
+                    throw new GeoToolsOpException(StatusCode.UNABLE_TO_GET_FEATURES);
+                }
+                final String treePath = typeName.getLocalPart();
+                List<Table> treeSources = sources.get(treePath);
+                if (treeSources == null) {
+                    treeSources = Lists.newArrayList();
+                    sources.put(treePath, treeSources);
+                }
+                treeSources.add(new Table(dataStoreNames.get(i), featureSource));
+                sourceCount++;
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new GeoToolsOpException(StatusCode.NO_FEATURES_FOUND);
+        }
+        int producerCount = 0;
+        for (Map.Entry<String, List<Table>> e : sources.entrySet()) {
+            checkSameFeatureType(e.getKey(), e.getValue());
+            if (e.getValue().size() > 1) {
+                checkDistinctNames(e.getKey(), e.getValue());
+                producerCount += e.getValue().size();
+            }
+        }
+
+        getProgressListener().started();
+        getProgressListener().setDescription(
+                "Importing " + sourceCount + " tables into " + sources.size()
+                        + " trees in parallel... ");
+
+        final ExecutorService builders = Executors.newFixedThreadPool(
+                Math.min(threads, sources.size()), new ThreadFactoryBuilder()
+                        .setNameFormat("geogit-import-tree-%d").setDaemon(true).build());
+        final ExecutorService producers = producerCount == 0 ? null : Executors
+                .newFixedThreadPool(Math.min(threads, producerCount), new ThreadFactoryBuilder()
+                        .setNameFormat("geogit-import-%d").setDaemon(true).build());
+        // producers and builders complete to the same queue, so the first failure of any of
+        // them is seen right away, and both pools are then shut down to release the others
+        final BlockingQueue<Future<Object>> completed = new LinkedBlockingQueue<Future<Object>>();
+        final CompletionService<Object> builderService = new ExecutorCompletionService<Object>(
+                builders, completed);
+        final CompletionService<Object> producerService = producers == null ? null
+                : new ExecutorCompletionService<Object>(producers, completed);
+        try {
+            List<Future<Object>> typeTrees = Lists.newArrayListWithCapacity(sources.size());
+            for (final Map.Entry<String, List<Table>> e : sources.entrySet()) {
+                typeTrees.add(builderService.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return buildTypeTree(e.getKey(), e.getValue(), producerService);
+                    }
+                }));
+            }
+
+            final int tasks = sources.size() + producerCount;
+            for (int done = 1; done <= tasks; done++) {
+                completed.take().get();
+                getProgressListener().progress(done * 100.f / tasks);
+            }
+
+            List<NodeRef> refs = Lists.newArrayListWithCapacity(typeTrees.size());
+            for (Future<Object> typeTree : typeTrees) {
+                refs.add((NodeRef) typeTree.get());
+            }
+            getWorkTree().updateTypeTrees(refs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeoToolsOpException) {
+                throw (GeoToolsOpException) e.getCause();
+            }
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        } finally {
+            if (producers != null) {
+                producers.shutdownNow();
+            }
+            builders.shutdownNow();
+        }
+
+        getProgressListener().progress(100.f);
+        getProgressListener().complete();
+        return getWorkTree().getTree();
+    }
+
+    private static void checkSameFeatureType(final String treePath, final List<Table> sources) {
+        final RevFeatureType revType = RevFeatureType.build(sources.get(0).source.getSchema());
+        for (Table table : sources) {
+            if (!revType.getId().equals(RevFeatureType.build(table.source.getSchema()).getId())) {
+                throw new GeoToolsOpException(new IllegalArgumentException(
+                        "All the tables imported into " + treePath
+                                + " shall have the same feature type"),
+                        StatusCode.UNABLE_TO_INSERT);
+            }
+        }
+    }
+
+    private static void checkDistinctNames(final String treePath, final List<Table> sources) {
+        Set<String> names = Sets.newHashSet();
+        for (Table table : sources) {
+            if (table.name != null && !names.add(table.name)) {
+                throw new GeoToolsOpException(new IllegalArgumentException(
+                        "The data stores of the tables imported into " + treePath
+                                + " shall have distinct names, " + table.name
+                                + " is used more than once"), StatusCode.UNABLE_TO_INSERT);
+            }
+        }
+    }
+
+    /**
+     * Builds the tree out of the features of all its tables, straight out of the table if there
+     * is only one, or else through the producers of its tables, which are only started now so
+     * that they never wait on a builder that isn't running
+     */
+    private NodeRef buildTypeTree(final String treePath, final List<Table> sources,
+            final CompletionService<Object> producerService) {
+
+        final SimpleFeatureType featureType = sources.get(0).source.getSchema();
+        try {
+            if (sources.size() == 1) {
+                SimpleFeatureIterator features = openFeatures(sources.get(0).source);
+                try {
+                    return getWorkTree().buildTypeTree(treePath, featureType,
+                            new CountedFeatures(features), new NullProgressListener());
+                } finally {
+                    features.close();
+                }
+            }
+
+            final BlockingQueue<Optional<Feature>> queue = new ArrayBlockingQueue<Optional<Feature>>(
+                    QUEUE_SIZE);
+            for (final Table table : sources) {
+                producerService.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws InterruptedException {
+                        produce(table, queue);
+                        return null;
+                    }
+                });
+            }
+            final QueuedFeatures features = new QueuedFeatures(queue, sources.size());
+            NodeRef typeTree = getWorkTree().buildTypeTree(treePath, featureType, features,
+                    new NullProgressListener());
+            if (getIndex().getDatabase().getTree(typeTree.objectId()).size() != features.count) {
+                throw new GeoToolsOpException(new IllegalArgumentException(
+                        "The tables imported into " + treePath
+                                + " have features with the same ids,"
+                                + " name their data stores to tell them apart"),
+                        StatusCode.UNABLE_TO_INSERT);
+            }
+            return typeTree;
+        } catch (GeoToolsOpException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+        }
+    }
+
+    private static SimpleFeatureIterator openFeatures(final SimpleFeatureSource source) {
+        try {
+            return source.getFeatures().features();
+        } catch (Exception e) {
+            throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_GET_FEATURES);
+        }
+    }
+
+    /**
+     * Reads all the features of the table into the queue of its tree, with their ids prefixed by
+     * the name of their data store if it has one, followed by an absent value to tell the builder
+     * the table is exhausted
+     */
+    private void produce(final Table table, final BlockingQueue<Optional<Feature>> queue)
+            throws InterruptedException {
+        final String prefix = table.name == null ? null : table.name + ".";
+        SimpleFeatureIterator features = openFeatures(table.source);
+        try {
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                if (prefix != null) {
+                    feature = SimpleFeatureBuilder.build(feature.getFeatureType(),
+                            feature.getAttributes(), prefix + feature.getID());
+                }
+                queue.put(Optional.<Feature> of(feature));
+                featureCount.incrementAndGet();
+            }
+        } finally {
+            features.close();
+        }
+        queue.put(Optional.<Feature> absent());
+    }
+
+    /**
+     * A table to import, along with the name of its data store
+     */
+    private static class Table {
+
+        @Nullable
+        final String name;
+
+        final SimpleFeatureSource source;
+
+        Table(@Nullable String name, SimpleFeatureSource source) {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    /**
+     * The features of a single table, counted as they are read
+     */
+    private class CountedFeatures extends AbstractIterator<Feature> {
+
+        private final SimpleFeatureIterator features;
+
+        CountedFeatures(SimpleFeatureIterator features) {
+            this.features = features;
+        }
+
+        @Override
+        protected Feature computeNext() {
+            if (!features.hasNext()) {
+                return super.endOfData();
+            }
+            featureCount.incrementAndGet();
+            return features.next();
+        }
+    }
+
+    /**
+     * The features the producers of a tree put in its queue, until all of them are exhausted
+     */
+    private static class QueuedFeatures extends AbstractIterator<Feature> {
+
+        private final BlockingQueue<Optional<Feature>> queue;
+
+        private int pendingSources;
+
+        private long count;
+
+        QueuedFeatures(BlockingQueue<Optional<Feature>> queue, int sources) {
+            this.queue = queue;
+            this.pendingSources = sources;
+        }
+
+        @Override
+        protected Feature computeNext() {
+            while (pendingSources > 0) {
+                Optional<Feature> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new GeoToolsOpException(e, StatusCode.UNABLE_TO_INSERT);
+                }
+                if (next.isPresent()) {
+                    count++;
+                    return next.get();
+                }
+                pendingSources--;
+            }
+            return super.endOfData();
+        }
+    }
+
+    /**
+     * @param dataStore a data store whose tables are to be imported
+     * @return {@code this}
+     */
+    public ParallelImportOp addDataStore(DataStore dataStore) {
+        Preconditions.checkNotNull(dataStore);
+        this.dataStores.add(dataStore);
+        this.dataStoreNames.add(null);
+        return this;
+    }
+
+    /**
+     * @param name the name to prefix the ids of the features of the data store with when its
+     *        tables share their trees with tables of other data stores
+     * @param dataStore a data store whose tables are to be imported
+     * @return {@code this}
+     */
+    public ParallelImportOp addDataStore(String name, DataStore dataStore) {
+        Preconditions.checkNotNull(name);
+        Preconditions.checkNotNull(dataStore);
+        this.dataStores.add(dataStore);
+        this.dataStoreNames.add(name);
+        return this;
+    }
+
+    /**
+     * @param threads the number of trees to build and of tables to read at once, the number of
+     *        available processors by default
+     * @return {@code this}
+     */
+    public ParallelImportOp setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads shall be positive: %s", threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @return the number of features read by the last call, or by the running one so far
+     */
+    public long getFeatureCount() {
+        return featureCount.get();
+    }
+}
@@ -79,9 +79,25 @@ public abstract class AbstractShpCommand implements CLICommand {
      * @see DataStore
      */
     protected DataStore getDataStore(String shapefile) throws Exception {
+        return getDataStore(shapefile, false);
+    }
+
+    /**
+     * Constructs a new shapefile data store using the specified shapefile.
+     * 
+     * @param shapefile the url of the shapefile to use in creating the data store
+     * @param memoryMapped whether to read the shapefile through memory mapped buffers
+     * @return the constructed data store
+     * @throws Exception
+     * @see DataStore
+     */
+    protected DataStore getDataStore(String shapefile, boolean memoryMapped) throws Exception {
         Map<String, Serializable> params = Maps.newHashMap();
         params.put(ShapefileDataStoreFactory.URLP.key, shapefile);
         params.put(ShapefileDataStoreFactory.NAMESPACEP.key, "http://www.opengis.net/gml");
+        if (memoryMapped) {
+            params.put(ShapefileDataStoreFactory.MEMORY_MAPPED.key, Boolean.TRUE);
+        }
 
         if (!dataStoreFactory.canProcess(params)) {
             throw new FileNotFoundException();
@@ -39,6 +39,31 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
     @Parameter(names = "--all", description = "Import all tables.")
     public boolean all = false;
 
+    /**
+     * If this is set, tables already imported are updated with the changed features only.
+     */
+    @Parameter(names = "--differential", description = "Only write the features that changed since the last import of the table.")
+    public boolean differential = false;
+
+    /**
+     * If this is set, tables are imported concurrently, as many at once as available processors.
+     */
+    @Parameter(names = "--parallel", description = "Import several tables at once, using all the available processors.")
+    public boolean parallel = false;
+
+    /**
+     * If this is set, tables already imported are updated with the rows changed since the last
+     * import only, as told by the incremental column.
+     */
+    @Parameter(names = "--incremental", description = "Only import the rows whose incremental column is at or above the greatest value seen by the last import of the table, and delete the features of the removed rows. Rows committed late with a lower value are missed until a full import. The table is fully imported again if the tree changed since the last import, as after a reset or a checkout.")
+    public boolean incremental = false;
+
+    /**
+     * The timestamp or sequence column used by incremental imports.
+     */
+    @Parameter(names = "--incremental-column", description = "Timestamp or sequence column that grows whenever a row changes. Defaults to the column used by the last incremental import of the table.")
+    public String incrementalColumn;
+
     /**
      * Executes the import command using the provided options.
      * 
@@ -66,7 +91,11 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
 
             ProgressListener progressListener = cli.getProgressListener();
             cli.getGeogit().command(ImportOp.class).setAll(all).setTable(table)
-                    .setDataStore(dataStore).setProgressListener(progressListener).call();
+                    .setDifferential(differential).setIncremental(incremental)
+                    .setIncrementalColumn(incrementalColumn)
+                    .setThreads(parallel ? Runtime.getRuntime().availableProcessors() : 1)
+                    .setDataStore(dataStore)
+                    .setProgressListener(progressListener).call();
 
             cli.getConsole().println("Import successful.");
 
@@ -94,6 +123,13 @@ public class PGImport extends AbstractPGCommand implements CLICommand {
             case UNABLE_TO_INSERT:
                 cli.getConsole().println("Unable to insert features into the working tree.");
                 break;
+            case INCREMENTAL_COLUMN_NOT_DEFINED:
+                cli.getConsole().println(
+                        "No incremental column specified. Specify --incremental-column <column>.");
+                break;
+            case INCREMENTAL_COLUMN_NOT_FOUND:
+                cli.getConsole().println("Could not find the incremental column in the table.");
+                break;
             default:
                 cli.getConsole().println("Import failed with exception: " + e.statusCode.name());
             }
@@ -5,23 +5,29 @@
 
 package org.geogit.geotools.porcelain;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import org.geogit.cli.CLICommand;
 import org.geogit.cli.GeogitCLI;
 import org.geogit.geotools.plumbing.GeoToolsOpException;
 import org.geogit.geotools.plumbing.ImportOp;
+import org.geogit.geotools.plumbing.ParallelImportOp;
 import org.geotools.data.DataStore;
 import org.opengis.util.ProgressListener;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 
 /**
  * Imports features from one or more shapefiles.
  * 
- * PostGIS CLI proxy for {@link ImportOp}
+ * Shapefile CLI proxy for {@link ImportOp}
  * 
  * @see ImportOp
  */
@@ -31,9 +37,29 @@ public class ShpImport extends AbstractShpCommand implements CLICommand {
     /**
      * Shapefiles to import.
      */
-    @Parameter(description = "<shapefile> [<shapefile>]...")
+    @Parameter(description = "<shapefile|directory> [<shapefile|directory>]...")
     List<String> shapeFile;
 
+    /**
+     * If this is set, the shapefiles in the subdirectories of the given directories are imported
+     * too.
+     */
+    @Parameter(names = { "--recursive", "-r" }, description = "Import the shapefiles in the subdirectories of the given directories too.")
+    public boolean recursive = false;
+
+    /**
+     * If this is set, shapefiles are read concurrently and the trees they go to are written at
+     * once.
+     */
+    @Parameter(names = "--parallel", description = "Read several shapefiles at once, using all the available processors. Shapefiles with the same name go to the same tree, with the ids of their features prefixed by the name of their directory.")
+    public boolean parallel = false;
+
+    /**
+     * If this is set, shapefiles are read through memory mapped buffers.
+     */
+    @Parameter(names = "--memory-mapped", description = "Read the shapefiles through memory mapped buffers.")
+    public boolean memoryMapped = false;
+
     /**
      * Executes the import command using the provided options.
      * 
@@ -51,11 +77,17 @@ public class ShpImport extends AbstractShpCommand implements CLICommand {
             return;
         }
 
-        for (String shp : shapeFile) {
+        final List<String> shapefiles = expandDirectories(shapeFile);
+        if (parallel) {
+            importInParallel(cli, shapefiles);
+            return;
+        }
+
+        for (String shp : shapefiles) {
 
             DataStore dataStore = null;
             try {
-                dataStore = getDataStore(shp);
+                dataStore = getDataStore(shp, memoryMapped);
             } catch (FileNotFoundException e) {
                 cli.getConsole().println(
                         "The shapefile '" + shp + "' could not be found, skipping...");
@@ -96,4 +128,124 @@ public class ShpImport extends AbstractShpCommand implements CLICommand {
             }
         }
     }
+
+    /**
+     * Imports all the shapefiles at once through {@link ParallelImportOp}, and reports the
+     * throughput at the end
+     */
+    private void importInParallel(GeogitCLI cli, List<String> shapefiles) throws Exception {
+        List<DataStore> dataStores = Lists.newArrayList();
+        List<String> names = Lists.newArrayList();
+        try {
+            for (String shp : shapefiles) {
+                try {
+                    dataStores.add(getDataStore(shp, memoryMapped));
+                    names.add(tileName(shp));
+                } catch (FileNotFoundException e) {
+                    cli.getConsole().println(
+                            "The shapefile '" + shp + "' could not be found, skipping...");
+                }
+            }
+            if (dataStores.isEmpty()) {
+                return;
+            }
+
+            cli.getConsole().println("Importing from " + dataStores.size() + " shapefiles");
+
+            Stopwatch sw = new Stopwatch().start();
+            ParallelImportOp op = cli.getGeogit().command(ParallelImportOp.class);
+            op.setThreads(Runtime.getRuntime().availableProcessors());
+            for (int i = 0; i < dataStores.size(); i++) {
+                op.addDataStore(names.get(i), dataStores.get(i));
+            }
+            op.setProgressListener(cli.getProgressListener()).call();
+            sw.stop();
+
+            long millis = Math.max(1, sw.elapsedMillis());
+            cli.getConsole().println(
+                    String.format(Locale.ENGLISH,
+                            "Imported %,d features from %,d shapefiles in %s (%,d features/s).",
+                            op.getFeatureCount(), dataStores.size(), sw,
+                            op.getFeatureCount() * 1000 / millis));
+
+        } catch (GeoToolsOpException e) {
+            switch (e.statusCode) {
+            case NO_FEATURES_FOUND:
+                cli.getConsole().println("No features were found in the shapefiles.");
+                break;
+            case UNABLE_TO_GET_NAMES:
+                cli.getConsole().println("Unable to get feature types from the shapefiles.");
+                break;
+            case UNABLE_TO_GET_FEATURES:
+                cli.getConsole().println("Unable to get features from the shapefiles.");
+                break;
+            case UNABLE_TO_INSERT:
+                cli.getConsole().println(
+                        "Unable to insert features into the working tree"
+                                + (e.getCause() == null ? "." : ": " + e.getCause().getMessage()));
+                break;
+            default:
+                cli.getConsole().println("Import failed with exception: " + e.statusCode.name());
+            }
+        } finally {
+            for (DataStore dataStore : dataStores) {
+                dataStore.dispose();
+            }
+            cli.getConsole().flush();
+        }
+    }
+
+    /**
+     * @return the name of the directory of the shapefile, or the name of the shapefile without its
+     *         extension if it isn't in one, which tells apart the features of shapefiles with the
+     *         same name when they are imported into the same tree
+     */
+    static String tileName(String shapefile) {
+        String path = shapefile.replace('\\', '/');
+        int slash = path.lastIndexOf('/');
+        String directory = slash < 0 ? "" : path.substring(0, slash);
+        String name = directory.substring(directory.lastIndexOf('/') + 1);
+        if (name.isEmpty() || name.endsWith(":")) {
+            name = path.substring(slash + 1);
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Replaces the directories in the list by the shapefiles they contain, looking into their
+     * subdirectories too if {@link #recursive} is set
+     */
+    List<String> expandDirectories(List<String> paths) {
+        List<String> shapefiles = Lists.newArrayList();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                addShapefiles(file, shapefiles);
+            } else {
+                shapefiles.add(path);
+            }
+        }
+        return shapefiles;
+    }
+
+    private void addShapefiles(File directory, List<String> shapefiles) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (recursive) {
+                    addShapefiles(file, shapefiles);
+                }
+            } else if (file.getName().toLowerCase().endsWith(".shp")) {
+                shapefiles.add(file.toURI().toString());
+            }
+        }
+    }
 }
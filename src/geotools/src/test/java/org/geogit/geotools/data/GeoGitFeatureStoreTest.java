@@ -19,6 +19,10 @@ package org.geogit.geotools.data;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
@@ -33,6 +37,7 @@ import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
 import org.junit.Test;
+import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.FilterFactory2;
@@ -40,6 +45,8 @@ import org.opengis.filter.Id;
 import org.opengis.filter.identity.FeatureId;
 import org.opengis.filter.identity.ResourceId;
 
+import com.google.common.collect.Lists;
+
 public class GeoGitFeatureStoreTest extends RepositoryTestCase {
 
     private static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
@@ -311,4 +318,48 @@ public class GeoGitFeatureStoreTest extends RepositoryTestCase {
         assertEquals("John Doe", commits.get(0).getAuthor().getName().get());
         assertEquals("test message", commits.get(0).getMessage());
     }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        dataStore.setGroupCommit(1000, 3);
+        final int initialCommits = toList(geogit.command(LogOp.class).call()).size();
+
+        List<Callable<Void>> commits = Lists.newArrayList();
+        for (final Feature feature : Arrays.asList(points1, points2, points3)) {
+            commits.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    GeogitFeatureStore store = (GeogitFeatureStore) dataStore
+                            .getFeatureSource(pointsTypeName);
+                    DefaultTransaction tx = new DefaultTransaction();
+                    store.setTransaction(tx);
+                    try {
+                        store.addFeatures(DataUtilities.collection((SimpleFeature) feature));
+                        tx.putProperty(GeogitTransactionState.VERSIONING_COMMIT_MESSAGE,
+                                feature.getIdentifier().getID());
+                        tx.commit();
+                    } catch (Exception e) {
+                        tx.rollback();
+                        throw e;
+                    } finally {
+                        tx.close();
+                    }
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (Future<Void> result : executor.invokeAll(commits)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(3, dataStore.getFeatureSource(pointsTypeName).getFeatures().size());
+        // each transaction keeps its own commit
+        List<RevCommit> log = toList(geogit.command(LogOp.class).call());
+        assertEquals(initialCommits + 3, log.size());
+    }
 }
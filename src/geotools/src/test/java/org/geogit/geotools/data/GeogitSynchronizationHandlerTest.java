@@ -0,0 +1,180 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.geotools.data;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.Remote;
+import org.geogit.api.porcelain.RemoteListOp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests the scheduling of {@link GeogitSynchronizationHandler}, with repositories that have no
+ * remotes, so a synchronization is just the call to list them
+ */
+public class GeogitSynchronizationHandlerTest extends Assert {
+
+    private ScheduledExecutorService executor;
+
+    private GeogitSynchronizationHandler handler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(4);
+        handler = new GeogitSynchronizationHandler(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return a repository whose synchronizations are counted in {@code syncs} and run
+     *         {@code blocker} before finishing
+     */
+    private GeoGIT repository(final AtomicInteger syncs, final Runnable blocker) {
+        RemoteListOp remoteList = mock(RemoteListOp.class);
+        when(remoteList.call()).thenAnswer(new Answer<ImmutableList<Remote>>() {
+            @Override
+            public ImmutableList<Remote> answer(InvocationOnMock invocation) {
+                syncs.incrementAndGet();
+                blocker.run();
+                return ImmutableList.of();
+            }
+        });
+        GeoGIT geogit = mock(GeoGIT.class);
+        when(geogit.command(RemoteListOp.class)).thenReturn(remoteList);
+        return geogit;
+    }
+
+    private static Runnable await(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private void waitForSyncs(long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (handler.getSyncCount() < count || handler.getQueueDepth() > 0
+                || handler.getRepositoryCount() > 0) {
+            assertTrue("timed out waiting for " + count + " synchronizations",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testCoalesceEvents() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger syncs = new AtomicInteger();
+        GeoGIT geogit = repository(syncs, await(started, release));
+
+        handler.setDirty(geogit, "master");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // changes made while synchronizing result in a single further synchronization
+        for (int i = 0; i < 10; i++) {
+            handler.setDirty(geogit, "master");
+            handler.setDirty(geogit, "refs/heads/branch1");
+            handler.setDirty(geogit, null);
+        }
+        assertEquals(1, handler.getRepositoryCount());
+        assertEquals(0, handler.getQueueDepth());
+
+        release.countDown();
+        waitForSyncs(2);
+        assertEquals(2, syncs.get());
+        assertEquals(0, handler.getFailureCount());
+    }
+
+    @Test
+    public void testParallelSync() throws Exception {
+        // each synchronization waits for the other one, so they only finish if run in parallel
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        final AtomicInteger syncs = new AtomicInteger();
+        handler.setDirty(repository(syncs, blocker), null);
+        handler.setDirty(repository(syncs, blocker), null);
+
+        waitForSyncs(2);
+        assertEquals(2, syncs.get());
+        assertEquals(0, handler.getFailureCount());
+    }
+
+    @Test
+    public void testEvictSynchronized() throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        GeoGIT geogit = repository(syncs, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        handler.setDirty(geogit, "master");
+        waitForSyncs(1);
+        assertEquals(0, handler.getRepositoryCount());
+
+        // and it's picked up again once changed
+        handler.setDirty(geogit, "master");
+        waitForSyncs(2);
+        assertEquals(2, syncs.get());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger syncs = new AtomicInteger();
+        GeoGIT geogit = repository(syncs, await(started, release));
+
+        handler.setDirty(geogit, "master");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        handler.setDirty(geogit, "master");
+
+        handler.remove(geogit);
+        assertEquals(0, handler.getRepositoryCount());
+
+        // the running synchronization finishes, the pending one is dropped
+        release.countDown();
+        waitForSyncs(1);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, syncs.get());
+    }
+}
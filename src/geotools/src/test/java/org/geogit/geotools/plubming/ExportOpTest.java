@@ -72,6 +72,39 @@ public class ExportOpTest extends RepositoryTestCase {
         assertTrue(collectionsAreEqual(features, points));
     }
 
+    @Test
+    public void testExportInBatches() throws Exception {
+        Feature[] points = new Feature[] { points1, points2, points3 };
+        for (Feature feature : points) {
+            insert(feature);
+        }
+        MemoryDataStore dataStore = new MemoryDataStore(pointsType);
+        final String typeName = dataStore.getTypeNames()[0];
+        SimpleFeatureSource featureSource = dataStore.getFeatureSource(typeName);
+        SimpleFeatureStore featureStore = (SimpleFeatureStore) featureSource;
+        geogit.command(ExportOp.class).setFeatureStore(featureStore).setFeatureTypeName(pointsName)
+                .setBatchSize(2).setTransactionSize(2).call();
+        featureSource = dataStore.getFeatureSource(typeName);
+        featureStore = (SimpleFeatureStore) featureSource;
+        SimpleFeatureCollection featureCollection = featureStore.getFeatures();
+        assertEquals(featureCollection.size(), points.length);
+        SimpleFeatureIterator features = featureCollection.features();
+        assertTrue(collectionsAreEqual(features, points));
+    }
+
+    @Test
+    public void testTransactionSize() throws Exception {
+        ExportOp export = geogit.command(ExportOp.class);
+        // zero commits all the features at once
+        export.setTransactionSize(0);
+        try {
+            export.setTransactionSize(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("transactionSize shall be positive"));
+        }
+    }
+
     @Test
     public void testExportingUsingFunction() throws Exception {
         // Testing export of points feature type into a simplified feature type that
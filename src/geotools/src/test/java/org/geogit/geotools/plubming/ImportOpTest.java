@@ -1,5 +1,7 @@
 package org.geogit.geotools.plubming;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
@@ -14,21 +16,31 @@ import jline.console.ConsoleReader;
 import org.geogit.api.CommandLocator;
 import org.geogit.api.NodeRef;
 import org.geogit.api.Platform;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.porcelain.ConfigGet;
 import org.geogit.cli.GeogitCLI;
 import org.geogit.geotools.plumbing.GeoToolsOpException;
 import org.geogit.geotools.plumbing.ImportOp;
 import org.geogit.geotools.porcelain.TestHelper;
 import org.geogit.repository.WorkingTree;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
 
 import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 import cucumber.annotation.After;
 
@@ -179,6 +191,176 @@ public class ImportOpTest {
         assertTrue(ref.isPresent());
     }
 
+    @Test
+    public void testImportAllInParallel() throws Exception {
+        DataStore dataStore = TestHelper.createTestFactory().createDataStore(null);
+        RevTree sequential = cli.getGeogit().command(ImportOp.class).setDataStore(dataStore)
+                .setAll(true).call();
+
+        // start from an empty working tree, so the parallel import has to write all the trees
+        WorkingTree workTree = cli.getGeogit().getRepository().getWorkingTree();
+        workTree.delete("table1");
+        workTree.delete("table2");
+        assertTrue(workTree.getTree().isEmpty());
+
+        RevTree parallel = cli.getGeogit().command(ImportOp.class).setDataStore(dataStore)
+                .setAll(true).setThreads(4).call();
+        assertEquals(sequential.getId(), parallel.getId());
+
+        Optional<NodeRef> ref = cli.getGeogit().command(FindTreeChild.class).setParent(parallel)
+                .setChildPath("table1/table1.1").setIndex(true).call();
+        assertTrue(ref.isPresent());
+
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(parallel)
+                .setChildPath("table1/table1.2").setIndex(true).call();
+        assertTrue(ref.isPresent());
+
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(parallel)
+                .setChildPath("table2/table2.1").setIndex(true).call();
+        assertTrue(ref.isPresent());
+    }
+
+    @Test
+    public void testDifferentialImport() throws Exception {
+        DataStore dataStore = TestHelper.createTestFactory().createDataStore(null);
+        RevTree workTree = cli.getGeogit().command(ImportOp.class).setDataStore(dataStore)
+                .setAll(true).call();
+        NodeRef feature1 = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table1/table1.1").setIndex(true).call().get();
+        NodeRef feature3 = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table2/table2.1").setIndex(true).call().get();
+
+        // modify table1.1, delete table1.2 and add table1.3
+        SimpleFeatureType type = dataStore.getSchema("table1");
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore changed = new MemoryDataStore();
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(5, 8)), "feature1 modified" },
+                "table1.1"));
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(1, 1)), "feature4" }, "table1.3"));
+
+        workTree = cli.getGeogit().command(ImportOp.class).setDataStore(changed)
+                .setTable("table1").setDifferential(true).call();
+
+        Optional<NodeRef> ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table1/table1.1").setIndex(true).call();
+        assertTrue(ref.isPresent());
+        assertFalse(feature1.objectId().equals(ref.get().objectId()));
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table1/table1.2").setIndex(true).call();
+        assertFalse(ref.isPresent());
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table1/table1.3").setIndex(true).call();
+        assertTrue(ref.isPresent());
+        // other tables are left alone
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("table2/table2.1").setIndex(true).call();
+        assertEquals(feature3.objectId(), ref.get().objectId());
+
+        // importing the same data again changes nothing
+        RevTree again = cli.getGeogit().command(ImportOp.class).setDataStore(changed)
+                .setTable("table1").setDifferential(true).call();
+        assertEquals(workTree.getId(), again.getId());
+    }
+
+    @Test
+    public void testIncrementalImport() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("versioned",
+                "geom:Point,label:String,version:Integer");
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(1, 1)), "one", 1 }, "versioned.1"));
+        dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(2, 2)), "two", 2 }, "versioned.2"));
+        dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(3, 3)), "three", 3 }, "versioned.3"));
+
+        // no mark yet, the whole table is imported
+        RevTree workTree = cli.getGeogit().command(ImportOp.class).setDataStore(dataStore)
+                .setTable("versioned").setIncremental(true).setIncrementalColumn("version")
+                .call();
+        NodeRef feature1 = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.1").setIndex(true).call().get();
+        assertEquals("3", cli.getGeogit().command(ConfigGet.class)
+                .setName("import.versioned.mark").call().get());
+
+        // versioned.1 changes without its version growing, so it is not picked up; versioned.2
+        // is updated, versioned.3 deleted and versioned.4 inserted, and versioned.5 shows up with
+        // the version of the mark, as a row committed after the previous import read the table
+        MemoryDataStore changed = new MemoryDataStore();
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(1, 1)), "one modified", 1 },
+                "versioned.1"));
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(2, 2)), "two modified", 4 },
+                "versioned.2"));
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(4, 4)), "four", 5 }, "versioned.4"));
+        changed.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(5, 5)), "five", 3 }, "versioned.5"));
+
+        // the column is remembered from the previous import
+        workTree = cli.getGeogit().command(ImportOp.class).setDataStore(changed)
+                .setTable("versioned").setIncremental(true).call();
+
+        Optional<NodeRef> ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.1").setIndex(true).call();
+        assertEquals(feature1.objectId(), ref.get().objectId());
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.2").setIndex(true).call();
+        SimpleFeature expected = SimpleFeatureBuilder.build(type, new Object[] {
+                gf.createPoint(new Coordinate(2, 2)), "two modified", 4 }, "versioned.2");
+        assertEquals(new RevFeatureBuilder().build(expected).getId(), ref.get().objectId());
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.3").setIndex(true).call();
+        assertFalse(ref.isPresent());
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.4").setIndex(true).call();
+        assertTrue(ref.isPresent());
+        ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.5").setIndex(true).call();
+        assertTrue(ref.isPresent());
+        assertEquals("5", cli.getGeogit().command(ConfigGet.class)
+                .setName("import.versioned.mark").call().get());
+    }
+
+    @Test
+    public void testIncrementalImportAfterReset() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("versioned",
+                "geom:Point,label:String,version:Integer");
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(1, 1)), "one", 1 }, "versioned.1"));
+        dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPoint(new Coordinate(2, 2)), "two", 2 }, "versioned.2"));
+        cli.getGeogit().command(ImportOp.class).setDataStore(dataStore).setTable("versioned")
+                .setIncremental(true).setIncrementalColumn("version").call();
+
+        // the tree is no longer the one the import left, as after a reset, so the mark can't
+        // tell what it misses and the whole table is imported again
+        cli.getGeogit().getRepository().getWorkingTree().delete("versioned", "versioned.1");
+        RevTree workTree = cli.getGeogit().command(ImportOp.class).setDataStore(dataStore)
+                .setTable("versioned").setIncremental(true).call();
+
+        Optional<NodeRef> ref = cli.getGeogit().command(FindTreeChild.class).setParent(workTree)
+                .setChildPath("versioned/versioned.1").setIndex(true).call();
+        assertTrue(ref.isPresent());
+        assertEquals("2", cli.getGeogit().command(ConfigGet.class)
+                .setName("import.versioned.mark").call().get());
+    }
+
+    @Test
+    public void testIncrementalImportNoColumn() throws Exception {
+        ImportOp importOp = cli.getGeogit().command(ImportOp.class);
+        importOp.setDataStore(TestHelper.createTestFactory().createDataStore(null));
+        importOp.setTable("table1").setIncremental(true);
+        exception.expect(GeoToolsOpException.class);
+        importOp.call();
+    }
+
     @Test
     public void testDeleteException() throws Exception {
         WorkingTree workTree = mock(WorkingTree.class);
@@ -5,18 +5,35 @@
 
 package org.geogit.geotools.porcelain;
 
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 import jline.UnsupportedTerminal;
 import jline.console.ConsoleReader;
 
+import org.geogit.api.GeoGIT;
+import org.geogit.api.NodeRef;
 import org.geogit.api.Platform;
+import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.cli.GeogitCLI;
+import org.geogit.geotools.plumbing.GeoToolsOpException;
+import org.geogit.geotools.plumbing.ParallelImportOp;
+import org.geotools.data.AbstractDataStoreFactory;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -25,6 +42,15 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.exceptions.base.MockitoException;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 /**
  *
@@ -39,9 +65,12 @@ public class ShpImportTest extends Assert {
 
     private GeogitCLI cli;
 
+    private ByteArrayOutputStream output;
+
     @Before
     public void setUp() throws Exception {
-        ConsoleReader consoleReader = new ConsoleReader(System.in, System.out,
+        output = new ByteArrayOutputStream();
+        ConsoleReader consoleReader = new ConsoleReader(System.in, output,
                 new UnsupportedTerminal());
         cli = new GeogitCLI(consoleReader);
 
@@ -62,6 +91,138 @@ public class ShpImportTest extends Assert {
         importCommand.run(cli);
     }
 
+    /**
+     * The tiles of a layer split in two shapefiles go to the same tree, with the ids of their
+     * features prefixed by the name of the tile
+     */
+    @Test
+    public void testParallelImport() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("tiles", "geom:Point,label:String");
+        AbstractDataStoreFactory factory = mock(AbstractDataStoreFactory.class);
+        when(factory.canProcess(anyMapOf(String.class, Serializable.class))).thenReturn(true);
+        when(factory.createDataStore(anyMapOf(String.class, Serializable.class))).thenReturn(
+                tile(type, 3), tile(type, 2));
+
+        ShpImport importCommand = new ShpImport();
+        importCommand.shapeFile = new ArrayList<String>();
+        importCommand.shapeFile.add("file://tile1.shp");
+        importCommand.shapeFile.add("file://tile2.shp");
+        importCommand.parallel = true;
+        importCommand.memoryMapped = true;
+        importCommand.dataStoreFactory = factory;
+        importCommand.run(cli);
+
+        assertEquals(5, treeSize("tiles"));
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(find("tiles/tile1.tiles." + i).isPresent());
+        }
+        for (int i = 1; i <= 2; i++) {
+            assertTrue(find("tiles/tile2.tiles." + i).isPresent());
+        }
+        assertTrue(new String(output.toByteArray(), Charsets.UTF_8).contains(
+                "Imported 5 features from 2 shapefiles"));
+    }
+
+    /**
+     * Shapefiles with the same name number their features the same way, so their ids are told
+     * apart by the name of their directory
+     */
+    @Test
+    public void testParallelImportShapefiles() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("roads", "the_geom:Point,label:String");
+        File tile1 = shapefile("tile1", type, 3);
+        File tile2 = shapefile("tile2", type, 2);
+
+        ShpImport importCommand = new ShpImport();
+        importCommand.shapeFile = new ArrayList<String>();
+        importCommand.shapeFile.add(tile1.toURI().toString());
+        importCommand.shapeFile.add(tile2.toURI().toString());
+        importCommand.parallel = true;
+        importCommand.run(cli);
+
+        assertEquals(5, treeSize("roads"));
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(find("roads/tile1.roads." + i).isPresent());
+        }
+        for (int i = 1; i <= 2; i++) {
+            assertTrue(find("roads/tile2.roads." + i).isPresent());
+        }
+    }
+
+    /**
+     * Data stores added without a name keep the ids of their features, so colliding ids fail the
+     * import rather than overwrite each other
+     */
+    @Test
+    public void testParallelImportCollidingIds() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("tiles", "geom:Point,label:String");
+        ParallelImportOp op = cli.getGeogit().command(ParallelImportOp.class);
+        op.addDataStore(tile(type, 3)).addDataStore(tile(type, 2));
+        exception.expect(GeoToolsOpException.class);
+        op.call();
+    }
+
+    /**
+     * @return a data store with {@code count} features of the given type, numbered from 1
+     */
+    private static MemoryDataStore tile(SimpleFeatureType type, int count) {
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore dataStore = new MemoryDataStore();
+        for (int i = 1; i <= count; i++) {
+            dataStore.addFeature(SimpleFeatureBuilder.build(type,
+                    new Object[] { gf.createPoint(new Coordinate(i, i)), "feature" + i },
+                    "tiles." + i));
+        }
+        return dataStore;
+    }
+
+    @Test
+    public void testParallelImportGetNamesException() throws Exception {
+        ShpImport importCommand = new ShpImport();
+        importCommand.shapeFile = new ArrayList<String>();
+        importCommand.shapeFile.add("file://test.shp");
+        importCommand.parallel = true;
+        importCommand.dataStoreFactory = TestHelper.createFactoryWithGetNamesException();
+        importCommand.run(cli);
+    }
+
+    @Test
+    public void testImportDirectory() throws Exception {
+        File directory = tempFolder.newFolder("shapefiles");
+        new File(directory, "test.shp").createNewFile();
+        new File(directory, "test.dbf").createNewFile();
+        new File(directory, "a.shp").createNewFile();
+        new File(directory, "tiles").mkdir();
+        new File(directory, "tiles/test.SHP").createNewFile();
+        new File(directory, "tiles/test.shx").createNewFile();
+
+        ShpImport importCommand = new ShpImport();
+        importCommand.shapeFile = new ArrayList<String>();
+        importCommand.shapeFile.add(directory.getPath());
+        importCommand.shapeFile.add("file://other.shp");
+
+        // shapefiles are sorted by name, whatever the case of their extension, and the given
+        // files are kept as they are
+        assertEquals(ImmutableList.of(new File(directory, "a.shp").toURI().toString(),
+                new File(directory, "test.shp").toURI().toString(), "file://other.shp"),
+                importCommand.expandDirectories(importCommand.shapeFile));
+        importCommand.recursive = true;
+        assertEquals(ImmutableList.of(new File(directory, "a.shp").toURI().toString(),
+                new File(directory, "test.shp").toURI().toString(),
+                new File(directory, "tiles/test.SHP").toURI().toString(), "file://other.shp"),
+                importCommand.expandDirectories(importCommand.shapeFile));
+
+        importCommand.dataStoreFactory = TestHelper.createTestFactory();
+        importCommand.run(cli);
+
+        verify(importCommand.dataStoreFactory, times(4)).createDataStore(
+                anyMapOf(String.class, Serializable.class));
+        assertEquals(2, treeSize("table1"));
+        assertTrue(find("table1/table1.1").isPresent());
+        assertTrue(find("table1/table1.2").isPresent());
+        assertEquals(1, treeSize("table2"));
+    }
+
     @Test
     public void testImportFileNotExist() throws Exception {
         ShpImport importCommand = new ShpImport();
@@ -145,6 +306,43 @@ public class ShpImportTest extends Assert {
         importCommand.run(cli);
     }
 
+    /**
+     * @return a shapefile named after the feature type, in a new directory, with {@code count}
+     *         features
+     */
+    private File shapefile(String directory, SimpleFeatureType type, int count) throws Exception {
+        File file = new File(tempFolder.newFolder(directory), type.getTypeName() + ".shp");
+        ShapefileDataStore dataStore = new ShapefileDataStore(file.toURI().toURL());
+        try {
+            dataStore.createSchema(type);
+            GeometryFactory gf = new GeometryFactory();
+            List<SimpleFeature> features = Lists.newArrayList();
+            for (int i = 1; i <= count; i++) {
+                features.add(SimpleFeatureBuilder.build(dataStore.getSchema(), new Object[] {
+                        gf.createPoint(new Coordinate(i, i)), "feature" + i }, null));
+            }
+            ((SimpleFeatureStore) dataStore.getFeatureSource()).addFeatures(DataUtilities
+                    .collection(features));
+        } finally {
+            dataStore.dispose();
+        }
+        return file;
+    }
+
+    private Optional<NodeRef> find(String path) {
+        GeoGIT geogit = cli.getGeogit();
+        return geogit.command(FindTreeChild.class).setIndex(true)
+                .setParent(geogit.getRepository().getWorkingTree().getTree())
+                .setChildPath(path).call();
+    }
+
+    private long treeSize(String path) {
+        Optional<NodeRef> tree = find(path);
+        assertTrue(tree.isPresent());
+        return cli.getGeogit().getRepository().getIndex().getDatabase()
+                .getTree(tree.get().objectId()).size();
+    }
+
     private void setUpGeogit(GeogitCLI cli) throws Exception {
         final File userhome = tempFolder.newFolder("mockUserHomeDir");
         final File workingDir = tempFolder.newFolder("mockWorkingDir");
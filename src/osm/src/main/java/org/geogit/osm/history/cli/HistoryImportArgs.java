@@ -37,6 +37,9 @@ public class HistoryImportArgs {
     @Parameter(names = { "--numthreads", "-t" }, description = "Number of threads to use to fetch changesets. Must be between 1 and 6")
     public int numThreads = 4;
 
+    @Parameter(names = "--dump", description = "OSM full history dump file (.osh, .osh.gz, .osh.bz2 or .osh.pbf) to import instead of downloading the changesets from the API. --from and --to are ignored.")
+    public File dumpFile;
+
     @Parameter(names = "--dev", description = "Use the development test api endpoint <http://api06.dev.openstreetmap.org/api/0.6>. NOTE: this is not the real osm history, but just for testing purposes. ")
     public boolean useTestApiEndpoint = false;
 
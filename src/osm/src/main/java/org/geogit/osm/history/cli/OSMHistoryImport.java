@@ -13,15 +13,15 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -30,57 +30,65 @@ import javax.management.relation.Relation;
 
 import jline.console.ConsoleReader;
 
+import org.geogit.api.CommitBuilder;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
 import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
-import org.geogit.api.porcelain.AddOp;
-import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.plumbing.WriteBack;
+import org.geogit.api.porcelain.ConfigGet;
 import org.geogit.cli.AbstractCommand;
 import org.geogit.cli.CLICommand;
 import org.geogit.cli.GeogitCLI;
 import org.geogit.osm.history.internal.Change;
 import org.geogit.osm.history.internal.Changeset;
 import org.geogit.osm.history.internal.HistoryDownloader;
+import org.geogit.osm.history.internal.HistoryDumpReader;
 import org.geogit.osm.history.internal.Node;
+import org.geogit.osm.history.internal.NodeCoordinateStore;
 import org.geogit.osm.history.internal.Primitive;
 import org.geogit.osm.history.internal.Way;
+import org.geogit.repository.FeatureValues;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
-import org.geogit.repository.WorkingTree;
+import org.geogit.storage.ObjectDatabase;
 import org.geotools.data.DataUtilities;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.referencing.CRS;
-import org.geotools.util.NullProgressListener;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.util.ProgressListener;
 
 import com.beust.jcommander.Parameters;
 import com.beust.jcommander.ParametersDelegate;
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
@@ -104,6 +112,9 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     private static final GeometryFactory GEOMF = new GeometryFactory();
 
+    /** Number of changesets to parse ahead of the one being applied */
+    private static final int PARSE_AHEAD = 16;
+
     @ParametersDelegate
     public HistoryImportArgs args = new HistoryImportArgs();
 
@@ -115,6 +126,11 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
         ConsoleReader console = cli.getConsole();
 
+        if (args.dumpFile != null) {
+            importDump(cli, console);
+            return;
+        }
+
         final String osmAPIUrl = resolveAPIURL();
 
         final long startIndex;
@@ -139,17 +155,58 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
                 + "be kept on the download directory.");
         console.flush();
 
-        HistoryDownloader downloader;
+        final HistoryDownloader downloader;
         downloader = new HistoryDownloader(osmAPIUrl, targetDir, startIndex, endIndex, executor,
                 args.keepFiles);
         try {
-            importOsmHistory(cli, console, downloader);
+            importOsmHistory(cli, console, new Supplier<Optional<Changeset>>() {
+                @Override
+                public Optional<Changeset> get() {
+                    return downloader.fetchNextChangeset();
+                }
+            });
         } finally {
             executor.shutdownNow();
             executor.awaitTermination(30, TimeUnit.SECONDS);
         }
     }
 
+    /**
+     * Imports the changesets of a history dump file instead of downloading them, skipping the ones
+     * already imported if resuming
+     */
+    private void importDump(GeogitCLI cli, ConsoleReader console) throws IOException,
+            InterruptedException {
+        checkArgument(args.dumpFile.isFile(), "File not found: %s", args.dumpFile);
+        final long lastChangeset = args.resume ? getCurrentBranchChangeset(cli.getGeogit()) : 0L;
+
+        console.println("Importing OSM history from " + args.dumpFile.getAbsolutePath());
+        console.flush();
+
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("osm-history-sort-thread-%d").build();
+        final ExecutorService executor = Executors.newFixedThreadPool(args.numThreads,
+                threadFactory);
+        final HistoryDumpReader reader = new HistoryDumpReader(args.dumpFile,
+                resolveTargetDir(), executor);
+        try {
+            importOsmHistory(cli, console, new Supplier<Optional<Changeset>>() {
+                @Override
+                public Optional<Changeset> get() {
+                    Optional<Changeset> next;
+                    do {
+                        next = reader.fetchNextChangeset();
+                    } while (next.isPresent() && next.get().getId() <= lastChangeset);
+                    return next;
+                }
+            });
+        } finally {
+            reader.close();
+            executor.shutdownNow();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
     private File resolveTargetDir() throws IOException {
         final File targetDir;
         if (args.saveFolder == null) {
@@ -182,72 +239,232 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         return osmAPIUrl;
     }
 
-    private void importOsmHistory(GeogitCLI cli, ConsoleReader console, HistoryDownloader downloader)
+    private void importOsmHistory(GeogitCLI cli, ConsoleReader console,
+            Supplier<Optional<Changeset>> changesets) throws IOException, InterruptedException {
+
+        final NodeCoordinateStore nodeCoordinates = openNodeCoordinateStore(cli.getGeogit());
+        try {
+            importOsmHistory(cli, console, changesets, nodeCoordinates);
+        } finally {
+            nodeCoordinates.close();
+        }
+    }
+
+    /**
+     * Opens the store of node coordinates of the current branch, discarding its contents if they
+     * don't correspond to the last changeset imported into the branch
+     */
+    private NodeCoordinateStore openNodeCoordinateStore(GeoGIT geogit) throws IOException {
+        final File branchTrackingFile = getBranchTrackingFile(geogit);
+        final File storeFile = new File(branchTrackingFile.getParentFile(),
+                branchTrackingFile.getName() + ".nodes");
+        final long lastChangeset = getCurrentBranchChangeset(geogit);
+
+        NodeCoordinateStore store = new NodeCoordinateStore(storeFile);
+        if (store.getChangeset() != lastChangeset) {
+            store.clear();
+            store.setChangeset(lastChangeset);
+        }
+        return store;
+    }
+
+    private void importOsmHistory(GeogitCLI cli, ConsoleReader console,
+            final Supplier<Optional<Changeset>> changesets, NodeCoordinateStore nodeCoordinates)
             throws IOException, InterruptedException {
-        Optional<Changeset> set;
-        while ((set = downloader.fetchNextChangeset()).isPresent()) {
-            Changeset changeset = set.get();
-
-            String desc = "obtaining osm changeset " + changeset.getId() + "...";
-            console.print(desc);
-            console.flush();
-
-            // ProgressListener listener = cli.getProgressListener();
-            // listener.dispose();
-            // listener.setCanceled(false);
-            // listener.progress(0f);
-            // listener.setDescription(desc);
-            // listener.started();
-
-            Iterator<Change> changes = changeset.getChanges().get();
-            console.print("applying...");
-            console.flush();
-            insertAndAddChanges(cli, changes);
-            // listener.progress(100f);
-            // listener.complete();
-
-            commit(cli, changeset);
+
+        final GeoGIT geogit = cli.getGeogit();
+        final Repository repository = geogit.getRepository();
+        final ObjectId headTreeId = repository.getOrCreateHeadTree().getId();
+        checkState(headTreeId.equals(repository.getWorkingTree().getTree().getId())
+                && headTreeId.equals(repository.getIndex().getTree().getId()),
+                "There are uncommitted changes, commit or discard them before importing");
+
+        final String committer = resolveConfig(geogit, "user.name");
+        final String committerEmail = resolveConfig(geogit, "user.email");
+
+        // changesets are parsed ahead on their own thread while the previous ones are applied
+        final BlockingQueue<ParsedChangeset> parsed = new ArrayBlockingQueue<ParsedChangeset>(
+                PARSE_AHEAD);
+        final ExecutorService parserExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("osm-history-parse-thread-%d").build());
+        final Future<?> parser = parserExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                Optional<Changeset> set;
+                while ((set = changesets.get()).isPresent()) {
+                    Changeset changeset = set.get();
+                    List<Change> changes = ImmutableList.copyOf(changeset.getChanges().get());
+                    parsed.put(new ParsedChangeset(changeset, changes));
+                }
+                parsed.put(ParsedChangeset.END);
+                return null;
+            }
+        });
+        try {
+            ParsedChangeset next;
+            while ((next = nextChangeset(parsed, parser)) != ParsedChangeset.END) {
+                final Changeset changeset = next.changeset;
+                console.print("applying osm changeset " + changeset.getId() + "...");
+                console.flush();
+
+                // the store won't match the branch until the changeset is committed
+                nodeCoordinates.setChangeset(NodeCoordinateStore.NO_CHANGESET);
+                int count = applyAndCommit(geogit, changeset, next.changes, nodeCoordinates,
+                        committer, committerEmail);
+                updateBranchChangeset(geogit, changeset.getId());
+                nodeCoordinates.setChangeset(changeset.getId());
+
+                console.println("committed " + count + " changes.");
+                console.flush();
+            }
+        } finally {
+            parserExecutor.shutdownNow();
         }
     }
 
     /**
-     * @param cli
-     * @param changeset
-     * @throws IOException
+     * @return the next parsed changeset, waiting for it if needed, or {@link ParsedChangeset#END}
+     *         if there are no more
      */
-    private void commit(GeogitCLI cli, Changeset changeset) throws IOException {
-        ConsoleReader console = cli.getConsole();
-        console.print("Committing changeset " + changeset.getId() + "...");
-        console.flush();
+    private ParsedChangeset nextChangeset(BlockingQueue<ParsedChangeset> parsed, Future<?> parser)
+            throws InterruptedException {
+        while (true) {
+            ParsedChangeset next = parsed.poll(1, TimeUnit.SECONDS);
+            if (next != null) {
+                return next;
+            }
+            if (parser.isDone()) {
+                next = parsed.poll();
+                if (next != null) {
+                    return next;
+                }
+                try {
+                    parser.get();
+                } catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
+                return ParsedChangeset.END;
+            }
+        }
+    }
+
+    private String resolveConfig(GeoGIT geogit, String key) {
+        Optional<String> value = geogit.command(ConfigGet.class).setName(key).call();
+        checkState(value.isPresent(),
+                "%s not found in config. Use geogit config [--global] %s <value> to configure it.",
+                key, key);
+        return value.get();
+    }
+
+    /**
+     * Applies the changes of a changeset straight to the type trees of the current branch and
+     * commits the resulting tree, without going through the working tree and the index, which are
+     * then set to the new tree.
+     * 
+     * @return the number of changes applied
+     */
+    private int applyAndCommit(GeoGIT geogit, Changeset changeset, List<Change> changes,
+            NodeCoordinateStore nodeCoordinates, String committer, String committerEmail) {
+
+        final Repository repository = geogit.getRepository();
+        final ObjectDatabase objectDb = repository.getObjectDatabase();
+        final SymRef head = getHead(geogit);
+        final ObjectId parentId = head.getObjectId();
+        final RevTree root = repository.getOrCreateHeadTree();
+
+        Map<String, RevTreeBuilder> typeTrees = Maps.newTreeMap();
+        List<RevFeature> features = Lists.newArrayList(changes.size());
+        int cnt = 0;
+        for (Change change : changes) {
+            final String featurePath = featurePath(change);
+            if (featurePath == null) {
+                continue;// ignores relations
+            }
+            cnt++;
+            final String parentPath = NodeRef.parentPath(featurePath);
+            final String fid = NodeRef.nodeFromPath(featurePath);
+            RevTreeBuilder typeTree = typeTrees.get(parentPath);
+            if (typeTree == null) {
+                Optional<NodeRef> typeTreeRef = geogit.command(FindTreeChild.class)
+                        .setParent(root).setChildPath(parentPath).call();
+                RevTree tree = typeTreeRef.isPresent() ? repository.getTree(typeTreeRef.get()
+                        .objectId()) : RevTree.EMPTY;
+                typeTree = tree.builder(objectDb);
+                typeTrees.put(parentPath, typeTree);
+            }
+
+            if (Change.Type.delete.equals(change.getType())) {
+                typeTree.remove(fid);
+                if (change.getNode().isPresent()) {
+                    nodeCoordinates.remove(change.getNode().get().getId());
+                }
+            } else {
+                final Primitive primitive = change.getNode().isPresent() ? change.getNode().get()
+                        : change.getWay().get();
+                final Geometry geom = parseGeometry(geogit, primitive, nodeCoordinates);
+                if (geom instanceof Point) {
+                    nodeCoordinates.put(primitive.getId(), ((Point) geom).getCoordinate());
+                } else if (primitive instanceof Node) {
+                    nodeCoordinates.remove(primitive.getId());
+                }
+
+                FeatureValues values = toFeatureValues(fid, primitive, geom);
+                RevFeature revFeature = values.toRevFeature(revType(primitive));
+                features.add(revFeature);
+                typeTree.put(org.geogit.api.Node.create(values.getId(), revFeature.getId(),
+                        values.getMetadataId(), TYPE.FEATURE, values.getBounds()));
+            }
+        }
+        objectDb.putAll(features.iterator());
+
+        ObjectId newTreeId = root.getId();
+        if (!typeTrees.isEmpty()) {
+            objectDb.put(NODE_REV_TYPE);
+            objectDb.put(WAY_REV_TYPE);
+            RevTreeBuilder rootBuilder = root.builder(objectDb);
+            for (Map.Entry<String, RevTreeBuilder> e : typeTrees.entrySet()) {
+                newTreeId = geogit.command(WriteBack.class).setAncestor(rootBuilder)
+                        .setChildPath(e.getKey()).setTree(e.getValue().build())
+                        .setMetadataId(metadataId(e.getKey())).call();
+            }
+        } else if (root.getId().equals(RevTree.EMPTY.getId())) {
+            objectDb.put(RevTree.EMPTY);
+        }
 
-        GeoGIT geogit = cli.getGeogit();
-        CommitOp command = geogit.command(CommitOp.class);
-        command.setAllowEmpty(true);
         String message = "";
         if (changeset.getComment().isPresent()) {
             message = changeset.getComment().get() + "\nchangeset " + changeset.getId();
         } else {
             message = "changeset " + changeset.getId();
         }
-        command.setMessage(message);
-        command.setAuthor(changeset.getUserName(), null);
-        command.setAuthorTimestamp(changeset.getClosed());
-        command.setAuthorTimeZoneOffset(0);// osm timestamps are in GMT
-        ProgressListener listener = cli.getProgressListener();
-        listener.dispose();
-        listener.setCanceled(false);
-        listener.progress(0f);
-        listener.started();
-        command.setProgressListener(listener);
-        try {
-            command.call();
-            updateBranchChangeset(geogit, changeset.getId());
-            listener.complete();
-            console.println("done.");
-            console.flush();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+        final Platform platform = geogit.getPlatform();
+        final long now = platform.currentTimeMillis();
+        CommitBuilder builder = new CommitBuilder(platform);
+        builder.setAuthor(changeset.getUserName());
+        builder.setAuthorTimestamp(changeset.getClosed());
+        builder.setAuthorTimeZoneOffset(0);// osm timestamps are in GMT
+        builder.setCommitter(committer);
+        builder.setCommitterEmail(committerEmail);
+        builder.setCommitterTimestamp(now);
+        builder.setCommitterTimeZoneOffset(platform.timeZoneOffset(now));
+        builder.setMessage(message);
+        if (!parentId.isNull()) {
+            builder.setParentIds(ImmutableList.of(parentId));
         }
+        builder.setTreeId(newTreeId);
+        RevCommit commit = builder.build();
+        objectDb.put(commit);
+
+        geogit.command(UpdateRef.class).setName(head.getTarget()).setOldValue(parentId)
+                .setNewValue(commit.getId()).call();
+        repository.getWorkingTree().updateWorkHead(newTreeId);
+        repository.getIndex().updateStageHead(newTreeId);
+        return cnt;
+    }
+
+    private static ObjectId metadataId(String typeTreePath) {
+        return NODE_TYPE_NAME.equals(typeTreePath) ? NODE_REV_TYPE.getId() : WAY_REV_TYPE.getId();
     }
 
     /**
@@ -297,107 +514,53 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
     }
 
     /**
-     * @param cli
-     * @param changes
-     * @throws IOException
-     */
-    private void insertAndAddChanges(GeogitCLI cli, final Iterator<Change> changes)
-            throws IOException {
-        if (!changes.hasNext()) {
-            return;
-        }
-        final GeoGIT geogit = cli.getGeogit();
-        final Repository repository = geogit.getRepository();
-        final WorkingTree workTree = repository.getWorkingTree();
-
-        Map<Long, Coordinate> thisChangePointCache = new LinkedHashMap<Long, Coordinate>() {
-            /** serialVersionUID */
-            private static final long serialVersionUID = 1277795218777240552L;
-
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Long, Coordinate> eldest) {
-                return size() == 10000;
-            }
-        };
-
-        int cnt = 0;
-
-        Set<String> deletes = Sets.newHashSet();
-        Multimap<String, SimpleFeature> insertsByParent = HashMultimap.create();
-
-        while (changes.hasNext()) {
-            Change change = changes.next();
-            final String featurePath = featurePath(change);
-            if (featurePath == null) {
-                continue;// ignores relations
-            }
-            cnt++;
-            final String parentPath = NodeRef.parentPath(featurePath);
-            if (Change.Type.delete.equals(change.getType())) {
-                deletes.add(featurePath);
-            } else {
-                final Primitive primitive = change.getNode().isPresent() ? change.getNode().get()
-                        : change.getWay().get();
-                final Geometry geom = parseGeometry(geogit, primitive, thisChangePointCache);
-                if (geom instanceof Point) {
-                    thisChangePointCache.put(Long.valueOf(primitive.getId()),
-                            ((Point) geom).getCoordinate());
-                }
-
-                SimpleFeature feature = toFeature(primitive, geom);
-                insertsByParent.put(parentPath, feature);
-            }
-        }
-
-        for (String parentPath : insertsByParent.keySet()) {
-            Collection<SimpleFeature> features = insertsByParent.get(parentPath);
-            if (features.isEmpty()) {
-                continue;
-            }
-
-            Iterator<? extends Feature> iterator = features.iterator();
-            ProgressListener listener = new NullProgressListener();
-            List<org.geogit.api.Node> insertedTarget = null;
-            Integer collectionSize = Integer.valueOf(features.size());
-            workTree.insert(parentPath, iterator, listener, insertedTarget, collectionSize);
-        }
-        if (!deletes.isEmpty()) {
-            workTree.delete(deletes.iterator());
-        }
-        ConsoleReader console = cli.getConsole();
-        console.print("Applied " + cnt + " changes, staging...");
-        console.flush();
-
-        geogit.command(AddOp.class).call();
-
-        console.println("done.");
-        console.flush();
-    }
-
-    /**
+     * Builds the geometry of a node or a way. The coordinates of the way nodes are looked up in
+     * the node coordinate store, and only the nodes missing from it are looked up in the index and
+     * in the HEAD tree, and then added to it.
+     * 
      * @param primitive
-     * @param thisChangePointCache
+     * @param nodeCoordinates
      * @return
      */
     private Geometry parseGeometry(GeoGIT geogit, Primitive primitive,
-            Map<Long, Coordinate> thisChangePointCache) {
+            NodeCoordinateStore nodeCoordinates) {
 
         if (primitive instanceof Relation) {
             return null;
         }
 
         if (primitive instanceof Node) {
-            Optional<Point> location = ((Node) primitive).getLocation();
-            return location.orNull();
+            Coordinate location = ((Node) primitive).getCoordinate();
+            return location == null ? null : GEOMF.createPoint(location);
         }
 
         final Way way = (Way) primitive;
-        final ImmutableList<Long> nodes = way.getNodes();
+        final long[] nodes = way.getNodeIds();
 
-        StagingArea index = geogit.getRepository().getIndex();
+        List<Coordinate> coordinates = Lists.newArrayList(nodes.length);
+        FindTreeChild findTreeChild = null;
+        for (long nodeId : nodes) {
+            Coordinate coord = nodeCoordinates.get(nodeId);
+            if (coord == null) {
+                if (findTreeChild == null) {
+                    findTreeChild = headTreeChildFinder(geogit);
+                }
+                coord = findNodeCoordinate(geogit, nodeId, findTreeChild);
+                if (coord != null) {
+                    nodeCoordinates.put(nodeId, coord);
+                }
+            }
+            if (coord != null) {
+                coordinates.add(coord);
+            }
+        }
+        if (coordinates.size() < 2) {
+            return null;
+        }
+        return GEOMF.createLineString(coordinates.toArray(new Coordinate[coordinates.size()]));
+    }
 
-        FeatureBuilder featureBuilder = new FeatureBuilder(NODE_REV_TYPE);
-        List<Coordinate> coordinates = Lists.newArrayList(nodes.size());
+    private FindTreeChild headTreeChildFinder(GeoGIT geogit) {
         FindTreeChild findTreeChild = geogit.command(FindTreeChild.class);
         findTreeChild.setIndex(true);
         ObjectId rootTreeId = geogit.command(ResolveTreeish.class).setTreeish(Ref.HEAD).call()
@@ -407,42 +570,39 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
                     .call(RevTree.class).get();
             findTreeChild.setParent(headTree);
         }
-        for (Long nodeId : nodes) {
-            Coordinate coord = thisChangePointCache.get(nodeId);
-            if (coord == null) {
-                String fid = String.valueOf(nodeId);
-                String path = NodeRef.appendChild(NODE_TYPE_NAME, fid);
-                Optional<org.geogit.api.Node> ref = index.findStaged(path);
-                if (!ref.isPresent()) {
-                    Optional<NodeRef> nodeRef = findTreeChild.setChildPath(path).call();
-                    if (nodeRef.isPresent()) {
-                        ref = Optional.of(nodeRef.get().getNode());
-                    } else {
-                        ref = Optional.absent();
-                    }
-                }
-                if (ref.isPresent()) {
-                    org.geogit.api.Node nodeRef = ref.get();
-
-                    RevFeature revFeature = index.getDatabase().getFeature(nodeRef.getObjectId());
-                    String id = NodeRef.nodeFromPath(nodeRef.getName());
-                    Feature feature = featureBuilder.build(id, revFeature);
-
-                    Point p = (Point) ((SimpleFeature) feature).getAttribute("location");
-                    if (p != null) {
-                        coord = p.getCoordinate();
-                        thisChangePointCache.put(Long.valueOf(nodeId), coord);
-                    }
-                }
-            }
-            if (coord != null) {
-                coordinates.add(coord);
+        return findTreeChild;
+    }
+
+    /**
+     * Looks up the location of a node in the index, or in the HEAD tree if it is not staged
+     * 
+     * @return the node location, or {@code null} if the node is not found or has no location
+     */
+    @Nullable
+    private Coordinate findNodeCoordinate(GeoGIT geogit, long nodeId, FindTreeChild findTreeChild) {
+        StagingArea index = geogit.getRepository().getIndex();
+        String fid = String.valueOf(nodeId);
+        String path = NodeRef.appendChild(NODE_TYPE_NAME, fid);
+        Optional<org.geogit.api.Node> ref = index.findStaged(path);
+        if (!ref.isPresent()) {
+            Optional<NodeRef> nodeRef = findTreeChild.setChildPath(path).call();
+            if (nodeRef.isPresent()) {
+                ref = Optional.of(nodeRef.get().getNode());
+            } else {
+                ref = Optional.absent();
             }
         }
-        if (coordinates.size() < 2) {
+        if (!ref.isPresent()) {
             return null;
         }
-        return GEOMF.createLineString(coordinates.toArray(new Coordinate[coordinates.size()]));
+        org.geogit.api.Node nodeRef = ref.get();
+
+        RevFeature revFeature = index.getDatabase().getFeature(nodeRef.getObjectId());
+        String id = NodeRef.nodeFromPath(nodeRef.getName());
+        Feature feature = new FeatureBuilder(NODE_REV_TYPE).build(id, revFeature);
+
+        Point p = (Point) ((SimpleFeature) feature).getAttribute("location");
+        return p == null ? null : p.getCoordinate();
     }
 
     /**
@@ -467,7 +627,7 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     // private static SimpleFeatureType RelationType;
 
-    private synchronized static SimpleFeatureType nodeType() {
+    synchronized static SimpleFeatureType nodeType() {
         if (NodeType == null) {
             String typeSpec = "visible:Boolean,version:Integer,timestamp:java.lang.Long,tags:String,location:Point:srid=4326";
             try {
@@ -483,7 +643,7 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
         return NodeType;
     }
 
-    private synchronized static SimpleFeatureType wayType() {
+    synchronized static SimpleFeatureType wayType() {
         if (WayType == null) {
             String typeSpec = "visible:Boolean,version:Integer,timestamp:java.lang.Long,tags:String,way:LineString:srid=4326";
             try {
@@ -503,53 +663,114 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
 
     private static final RevFeatureType WAY_REV_TYPE = RevFeatureType.build(wayType());
 
-    private static SimpleFeature toFeature(Primitive feature, Geometry geom) {
+    /** Names of the node attributes, in the order of the values of its {@link RevFeature}s */
+    private static final ImmutableList<String> NODE_ATTRIBUTES = attributeNames(NODE_REV_TYPE);
+
+    /** Names of the way attributes, in the order of the values of its {@link RevFeature}s */
+    private static final ImmutableList<String> WAY_ATTRIBUTES = attributeNames(WAY_REV_TYPE);
+
+    /**
+     * @return the attribute names in the order of the {@link RevFeatureType#sortedDescriptors()
+     *         sorted descriptors}, which is the one {@link RevFeatureBuilder} gives the values in
+     */
+    private static ImmutableList<String> attributeNames(RevFeatureType type) {
+        ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (PropertyDescriptor descriptor : type.sortedDescriptors()) {
+            names.add(descriptor.getName().getLocalPart());
+        }
+        return names.build();
+    }
 
-        SimpleFeatureType ft = feature instanceof Node ? nodeType() : wayType();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+    /**
+     * Builds the feature straight out of the primitive, with the attribute values in the same order
+     * {@link RevFeatureBuilder} would give them for the {@link #nodeType() node} and
+     * {@link #wayType() way} types.
+     */
+    static RevFeature toRevFeature(Primitive feature, @Nullable Geometry geom) {
+        return toFeatureValues(String.valueOf(feature.getId()), feature, geom).toRevFeature(
+                revType(feature));
+    }
 
-        // "visible:Boolean,version:Int,timestamp:long,[location:Point | way:LineString];
-        builder.set("visible", Boolean.valueOf(feature.isVisible()));
-        builder.set("version", Integer.valueOf(feature.getVersion()));
-        builder.set("timestamp", Long.valueOf(feature.getTimestamp()));
+    /**
+     * @return the attribute values of the primitive, sorted as the descriptors of its
+     *         {@link #revType(Primitive) feature type}, along with its bounds and feature type id
+     */
+    private static FeatureValues toFeatureValues(String fid, Primitive feature,
+            @Nullable Geometry geom) {
+        final List<String> attributes = feature instanceof Node ? NODE_ATTRIBUTES
+                : WAY_ATTRIBUTES;
+        Object[] values = new Object[attributes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = attributeValue(attributes.get(i), feature, geom);
+        }
+        Envelope bounds = geom == null ? null : geom.getEnvelopeInternal();
+        return new FeatureValues(fid, values, bounds, revType(feature).getId());
+    }
 
-        String tags = buildTagsString(feature.getTags());
-        builder.set("tags", tags);
+    private static RevFeatureType revType(Primitive feature) {
         if (feature instanceof Node) {
-            builder.set("location", geom);
+            return NODE_REV_TYPE;
         } else if (feature instanceof Way) {
-            builder.set("way", geom);
-        } else {
-            throw new IllegalArgumentException();
+            return WAY_REV_TYPE;
         }
+        throw new IllegalArgumentException();
+    }
 
-        String fid = String.valueOf(feature.getId());
-        SimpleFeature simpleFeature = builder.buildFeature(fid);
-        return simpleFeature;
+    @Nullable
+    private static Object attributeValue(String attribute, Primitive feature,
+            @Nullable Geometry geom) {
+        if ("visible".equals(attribute)) {
+            return Boolean.valueOf(feature.isVisible());
+        } else if ("version".equals(attribute)) {
+            return Integer.valueOf(feature.getVersion());
+        } else if ("timestamp".equals(attribute)) {
+            return Long.valueOf(feature.getTimestamp());
+        } else if ("tags".equals(attribute)) {
+            return buildTagsString(feature);
+        } else if ("location".equals(attribute) || "way".equals(attribute)) {
+            return geom;
+        }
+        throw new IllegalStateException("Unknown attribute " + attribute);
     }
 
     /**
-     * @param tags
+     * @param feature
      * @return
      */
     @Nullable
-    private static String buildTagsString(Map<String, String> tags) {
-        if (tags.isEmpty()) {
+    private static String buildTagsString(Primitive feature) {
+        final int tagCount = feature.getTagCount();
+        if (tagCount == 0) {
             return null;
         }
         StringBuilder sb = new StringBuilder();
-        for (Iterator<Map.Entry<String, String>> it = tags.entrySet().iterator(); it.hasNext();) {
-            Entry<String, String> e = it.next();
-            String key = e.getKey();
-            if (key == null || key.isEmpty()) {
+        for (int i = 0; i < tagCount; i++) {
+            String key = feature.getTagKey(i);
+            if (key.isEmpty()) {
                 continue;
             }
-            String value = e.getValue();
-            sb.append(key).append(':').append(value);
-            if (it.hasNext()) {
+            if (sb.length() > 0) {
                 sb.append(';');
             }
+            sb.append(key).append(':').append(feature.getTagValue(i));
         }
         return sb.toString();
     }
+
+    /**
+     * A changeset along with its changes, parsed ahead of being applied
+     */
+    private static class ParsedChangeset {
+
+        static final ParsedChangeset END = new ParsedChangeset(null, null);
+
+        final Changeset changeset;
+
+        final List<Change> changes;
+
+        ParsedChangeset(Changeset changeset, List<Change> changes) {
+            this.changeset = changeset;
+            this.changes = changes;
+        }
+    }
 }
@@ -21,9 +21,6 @@ import javax.xml.stream.XMLStreamReader;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.Point;
 
 /**
  * Example changeset download:
@@ -67,8 +64,6 @@ class ChangesetContentsScanner {
 
     private static ImmutableSet<String> PRIMITIVE_TAGS = ImmutableSet.of("node", "way", "relation");
 
-    private static final GeometryFactory GEOMFACT = new GeometryFactory();
-
     public Iterator<Change> parse(InputStream changesetDownloadStream) throws XMLStreamException {
 
         final XMLStreamReader reader;
@@ -223,19 +218,19 @@ class ChangesetContentsScanner {
 
         Primitive primitive = inferrPrimitive(reader);
 
-        primitive.setId(Long.valueOf(reader.getAttributeValue(null, "id")));
+        primitive.setId(Long.parseLong(reader.getAttributeValue(null, "id")));
         primitive.setVisible(Boolean.valueOf(reader.getAttributeValue(null, "visible")));
         primitive.setTimestamp(parseDateTime(reader.getAttributeValue(null, "timestamp")));
         primitive.setUserName(reader.getAttributeValue(null, "user"));
 
-        Long uid = Long.valueOf(fromNullable(reader.getAttributeValue(null, "uid")).or("-1"));
+        long uid = Long.parseLong(fromNullable(reader.getAttributeValue(null, "uid")).or("-1"));
         primitive.setUserId(uid);
 
-        Integer version = Integer.valueOf(fromNullable(reader.getAttributeValue(null, "version"))
+        int version = Integer.parseInt(fromNullable(reader.getAttributeValue(null, "version"))
                 .or("1"));
         primitive.setVersion(version);
 
-        primitive.setChangesetId(Long.valueOf(reader.getAttributeValue(null, "changeset")));
+        primitive.setChangesetId(Long.parseLong(reader.getAttributeValue(null, "changeset")));
 
         if (primitive instanceof Node) {
             Node node = (Node) primitive;
@@ -243,10 +238,7 @@ class ChangesetContentsScanner {
             String lon = reader.getAttributeValue(null, "lon");
             // may be null in case of a delete change
             if (lat != null && lon != null) {
-                double x = Double.valueOf(lon);
-                double y = Double.valueOf(lat);
-                Point location = GEOMFACT.createPoint(new Coordinate(x, y));
-                node.setLocation(location);
+                node.setLocation(Double.parseDouble(lon), Double.parseDouble(lat));
             }
             parseNodeContents(node, reader);
         } else if (primitive instanceof Way) {
@@ -310,7 +302,7 @@ class ChangesetContentsScanner {
                     parseTag(way, reader);
                     reader.require(END_ELEMENT, null, "tag");
                 } else if ("nd".equals(tagName)) {
-                    long nodeRef = Long.valueOf(reader.getAttributeValue(null, "ref"));
+                    long nodeRef = Long.parseLong(reader.getAttributeValue(null, "ref"));
                     reader.nextTag();
                     reader.require(END_ELEMENT, null, "nd");
                     way.addNode(nodeRef);
@@ -369,7 +361,9 @@ class ChangesetContentsScanner {
         reader.require(START_ELEMENT, null, "tag");
         String key = reader.getAttributeValue(null, "k");
         String value = reader.getAttributeValue(null, "v");
-        primitive.getTags().put(key, value);
+        if (key != null) {
+            primitive.putTag(key, value);
+        }
         reader.nextTag();
         reader.require(END_ELEMENT, null, "tag");
     }
@@ -0,0 +1,595 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.Queues;
+import com.google.common.io.Closeables;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import crosby.binary.Fileformat.Blob;
+import crosby.binary.Fileformat.BlobHeader;
+
+/**
+ * Reads an OSM full history dump, as the {@code .osh} files produced by the planet history dumps
+ * and their regional extracts, and returns its contents as a sequence of changesets, like
+ * {@link HistoryDownloader} does out of the changesets downloaded from the API.
+ * <p>
+ * A history dump holds every version of every element sorted by element type, id and version,
+ * while the importer needs them grouped by changeset. So the dump is first streamed through and
+ * sorted in runs of {@link #RUN_SIZE} elements that are written to temporary files on the given
+ * executor while the parsing goes on, and then the runs are merged to return the changesets in
+ * changeset id order, nodes first and then ways in each of them. Changesets only carry what can be
+ * known from the elements: the id, the user and the time span of the edits.
+ * <p>
+ * No more than {@link #MERGE_FAN_IN} runs are merged at once, so the number of open files and the
+ * memory taken by their buffers are bounded. Larger dumps, like the full planet history, are
+ * merged in several passes, each one merging groups of runs into longer runs, until there are few
+ * enough of them for the final merge.
+ * <p>
+ * No more than {@link #MAX_PENDING_RUNS} runs are waiting to be sorted and written at any time,
+ * the parsing waits for them otherwise, so memory use doesn't depend on how much faster the
+ * parsing is than the sorting.
+ * <p>
+ * Plain, gzip ({@code .gz}) and bzip2 ({@code .bz2}) compressed XML dumps, and PBF ({@code .pbf})
+ * dumps are supported. The blocks of the PBF dumps are decoded on the executor too, with no more
+ * than {@link #MAX_PENDING_BLOCKS} of them in flight. Relations are skipped, as the history
+ * importer ignores them.
+ */
+public class HistoryDumpReader implements Closeable {
+
+    /** Number of elements to sort in memory and write to each temporary run file */
+    static final int RUN_SIZE = 100000;
+
+    /** Maximum number of runs read at once by a merge */
+    static final int MERGE_FAN_IN = 64;
+
+    /** Maximum number of complete runs waiting to be sorted and written */
+    static final int MAX_PENDING_RUNS = 4;
+
+    /** Maximum number of PBF blocks read and waiting to be decoded */
+    static final int MAX_PENDING_BLOCKS = 8;
+
+    /** Maximum size of a PBF blob header, as set by the format */
+    private static final int MAX_PBF_HEADER_SIZE = 64 * 1024;
+
+    /** Maximum size of a PBF blob, as set by the format */
+    private static final int MAX_PBF_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private static final byte NODE = 0;
+
+    private static final byte WAY = 1;
+
+    /**
+     * Orders the elements by changeset, then nodes before ways, so the ways can be built out of
+     * the nodes of the same changeset, then by id and version
+     */
+    private static final Comparator<Primitive> CHANGESET_ORDER = new Comparator<Primitive>() {
+        @Override
+        public int compare(Primitive p1, Primitive p2) {
+            int c = compare(p1.getChangesetId(), p2.getChangesetId());
+            if (c == 0) {
+                c = compare(kind(p1), kind(p2));
+            }
+            if (c == 0) {
+                c = compare(p1.getId(), p2.getId());
+            }
+            if (c == 0) {
+                c = compare(p1.getVersion(), p2.getVersion());
+            }
+            return c;
+        }
+
+        private int compare(long l1, long l2) {
+            return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+        }
+    };
+
+    private final File dumpFile;
+
+    private final File tmpDir;
+
+    private final ExecutorService executor;
+
+    private final int runSize;
+
+    private final int mergeFanIn;
+
+    private final Semaphore pendingRuns = new Semaphore(MAX_PENDING_RUNS);
+
+    private final List<DataInputStream> openRuns = Lists.newArrayList();
+
+    private PeekingIterator<Primitive> elements;
+
+    /**
+     * @param dumpFile the history dump, a PBF file if its name ends with {@code .pbf}, or an XML
+     *        file, gzip or bzip2 compressed if its name ends with {@code .gz} or {@code .bz2}
+     * @param tmpDir the directory where to create the temporary files with the sorted runs
+     * @param executor the executor to decode the PBF blocks and to sort and write the runs on
+     */
+    public HistoryDumpReader(File dumpFile, File tmpDir, ExecutorService executor) {
+        this(dumpFile, tmpDir, executor, RUN_SIZE, MERGE_FAN_IN);
+    }
+
+    HistoryDumpReader(File dumpFile, File tmpDir, ExecutorService executor, int runSize) {
+        this(dumpFile, tmpDir, executor, runSize, MERGE_FAN_IN);
+    }
+
+    HistoryDumpReader(File dumpFile, File tmpDir, ExecutorService executor, int runSize,
+            int mergeFanIn) {
+        checkArgument(runSize > 0);
+        checkArgument(mergeFanIn > 1);
+        checkNotNull(dumpFile);
+        checkNotNull(tmpDir);
+        checkNotNull(executor);
+        this.dumpFile = dumpFile;
+        this.tmpDir = new File(tmpDir, dumpFile.getName() + ".runs");
+        this.executor = executor;
+        this.runSize = runSize;
+        this.mergeFanIn = mergeFanIn;
+    }
+
+    /**
+     * Returns the next changeset in the dump, parsing and sorting the whole dump on the first call.
+     *
+     * @return the next changeset, or absent if there are no more
+     */
+    public Optional<Changeset> fetchNextChangeset() {
+        if (elements == null) {
+            try {
+                elements = Iterators.peekingIterator(merge(reduceRuns(sortRuns()), openRuns));
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        if (!elements.hasNext()) {
+            return Optional.absent();
+        }
+        final Primitive first = elements.peek();
+        final long changesetId = first.getChangesetId();
+        List<Change> changes = Lists.newArrayList();
+        long created = first.getTimestamp();
+        long closed = first.getTimestamp();
+        while (elements.hasNext() && elements.peek().getChangesetId() == changesetId) {
+            Primitive primitive = elements.next();
+            changes.add(new Change(changeType(primitive), primitive));
+            created = Math.min(created, primitive.getTimestamp());
+            closed = Math.max(closed, primitive.getTimestamp());
+        }
+
+        Changeset changeset = new Changeset();
+        changeset.setId(changesetId);
+        changeset.setUserName(first.getUserName());
+        changeset.setUserId(first.getUserId());
+        changeset.setCreated(created);
+        changeset.setClosed(closed);
+        changeset.setOpen(false);
+        Iterator<Change> iterator = changes.iterator();
+        changeset.setChanges(Suppliers.ofInstance(iterator));
+        return Optional.of(changeset);
+    }
+
+    /**
+     * Closes and deletes the temporary files.
+     */
+    @Override
+    public void close() {
+        for (DataInputStream in : openRuns) {
+            Closeables.closeQuietly(in);
+        }
+        openRuns.clear();
+        File[] files = tmpDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tmpDir.delete();
+    }
+
+    private static Change.Type changeType(Primitive primitive) {
+        if (!primitive.isVisible()) {
+            return Change.Type.delete;
+        }
+        return primitive.getVersion() == 1 ? Change.Type.create : Change.Type.modify;
+    }
+
+    private static byte kind(Primitive primitive) {
+        return primitive instanceof Node ? NODE : WAY;
+    }
+
+    /**
+     * Parses the dump on the calling thread, handing each run to the executor to be sorted and
+     * written as soon as it is complete.
+     *
+     * @return the run files, in no particular order
+     */
+    private List<File> sortRuns() throws IOException, XMLStreamException, InterruptedException,
+            ExecutionException {
+
+        if (!tmpDir.exists() && !tmpDir.mkdirs()) {
+            throw new IOException("Unable to create directory " + tmpDir);
+        }
+        final String name = dumpFile.getName();
+        final RunWriter runs = new RunWriter();
+        InputStream in = new BufferedInputStream(new FileInputStream(dumpFile), 64 * 1024);
+        try {
+            if (name.endsWith(".pbf")) {
+                parsePbf(new DataInputStream(in), runs);
+            } else {
+                if (name.endsWith(".gz")) {
+                    in = new GZIPInputStream(in, 64 * 1024);
+                } else if (name.endsWith(".bz2")) {
+                    // the planet dumps are made of several concatenated bzip2 streams
+                    in = new BZip2CompressorInputStream(in, true);
+                }
+                parseXml(in, runs);
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+        return runs.finish();
+    }
+
+    private void parseXml(InputStream in, RunWriter runs) throws XMLStreamException,
+            InterruptedException {
+
+        XMLStreamReader reader = XMLInputFactory.newFactory().createXMLStreamReader(in, "UTF-8");
+        ChangesetContentsScanner scanner = new ChangesetContentsScanner();
+        while (reader.hasNext()) {
+            if (reader.next() != START_ELEMENT) {
+                continue;
+            }
+            final String name = reader.getLocalName();
+            if (!"node".equals(name) && !"way".equals(name)) {
+                continue;
+            }
+            // extracts with no history have no visible attribute
+            final boolean visible = !"false".equals(reader.getAttributeValue(null, "visible"));
+            Primitive primitive = scanner.parsePrimitive(reader);
+            primitive.setVisible(visible);
+            runs.add(primitive);
+        }
+    }
+
+    /**
+     * Reads the blobs of the PBF file on the calling thread and decodes them on the executor, with
+     * up to {@link #MAX_PENDING_BLOCKS} of them being decoded at a time. The decoded elements go
+     * to the runs in the order of the blocks, though it doesn't matter as the runs are sorted.
+     */
+    private void parsePbf(DataInputStream in, RunWriter runs) throws IOException,
+            InterruptedException, ExecutionException {
+
+        final Queue<Future<List<Primitive>>> blocks = Queues.newArrayDeque();
+        try {
+            BlobHeader header;
+            while ((header = readBlobHeader(in)) != null) {
+                final int size = header.getDatasize();
+                if (size < 0 || size > MAX_PBF_BLOB_SIZE) {
+                    throw new IOException("Invalid PBF blob size: " + size);
+                }
+                final byte[] data = new byte[size];
+                in.readFully(data);
+
+                if (PbfBlockDecoder.HEADER.equals(header.getType())) {
+                    PbfBlockDecoder.checkHeader(Blob.parseFrom(data));
+                } else if (PbfBlockDecoder.DATA.equals(header.getType())) {
+                    if (blocks.size() == MAX_PENDING_BLOCKS) {
+                        runs.addAll(blocks.remove().get());
+                    }
+                    blocks.add(executor.submit(new Callable<List<Primitive>>() {
+                        @Override
+                        public List<Primitive> call() throws IOException {
+                            return PbfBlockDecoder.decode(Blob.parseFrom(data));
+                        }
+                    }));
+                }
+                // the format asks to skip the blobs of unknown types
+            }
+            while (!blocks.isEmpty()) {
+                runs.addAll(blocks.remove().get());
+            }
+        } finally {
+            for (Future<List<Primitive>> block : blocks) {
+                block.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return the header of the next blob, or {@code null} at the end of the file
+     */
+    private static BlobHeader readBlobHeader(DataInputStream in) throws IOException {
+        final int size;
+        try {
+            size = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (size < 0 || size > MAX_PBF_HEADER_SIZE) {
+            throw new IOException("Invalid PBF blob header size: " + size);
+        }
+        final byte[] header = new byte[size];
+        in.readFully(header);
+        return BlobHeader.parseFrom(header);
+    }
+
+    /**
+     * Collects the parsed elements in runs and hands each one to the executor to be sorted and
+     * written once complete, waiting while there are {@link #MAX_PENDING_RUNS} pending already
+     */
+    private class RunWriter {
+
+        private final List<Future<File>> runs = Lists.newArrayList();
+
+        private List<Primitive> run = Lists.newArrayListWithCapacity(runSize);
+
+        void add(Primitive primitive) throws InterruptedException {
+            run.add(primitive);
+            if (run.size() == runSize) {
+                submit();
+            }
+        }
+
+        void addAll(List<Primitive> primitives) throws InterruptedException {
+            for (Primitive primitive : primitives) {
+                add(primitive);
+            }
+        }
+
+        /**
+         * Submits the last, incomplete, run and waits for all the runs to be written
+         *
+         * @return the run files
+         */
+        List<File> finish() throws InterruptedException, ExecutionException {
+            if (!run.isEmpty()) {
+                submit();
+            }
+            List<File> files = Lists.newArrayListWithCapacity(runs.size());
+            for (Future<File> future : runs) {
+                files.add(future.get());
+            }
+            return files;
+        }
+
+        private void submit() throws InterruptedException {
+            pendingRuns.acquire();
+            try {
+                runs.add(writeRun(run, runs.size()));
+            } catch (RuntimeException e) {
+                pendingRuns.release();
+                throw e;
+            }
+            run = Lists.newArrayListWithCapacity(runSize);
+        }
+    }
+
+    private Future<File> writeRun(final List<Primitive> run, final int index) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                try {
+                    Collections.sort(run, CHANGESET_ORDER);
+                    File file = new File(tmpDir, "run" + index);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file), 64 * 1024));
+                    try {
+                        for (Primitive primitive : run) {
+                            write(primitive, out);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    return file;
+                } finally {
+                    pendingRuns.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Merges the runs in groups of {@link #mergeFanIn} into longer runs, as many times as needed
+     * to have no more than {@link #mergeFanIn} of them, deleting the merged ones
+     *
+     * @return the remaining runs
+     */
+    private List<File> reduceRuns(List<File> runFiles) throws IOException {
+        int pass = 0;
+        while (runFiles.size() > mergeFanIn) {
+            List<File> merged = Lists.newArrayList();
+            for (List<File> group : Lists.partition(runFiles, mergeFanIn)) {
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                File file = new File(tmpDir, "merge" + pass + "-" + merged.size());
+                List<DataInputStream> inputs = Lists.newArrayListWithCapacity(group.size());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), 64 * 1024));
+                try {
+                    Iterator<Primitive> primitives = merge(group, inputs);
+                    while (primitives.hasNext()) {
+                        write(primitives.next(), out);
+                    }
+                } finally {
+                    out.close();
+                    for (DataInputStream in : inputs) {
+                        Closeables.closeQuietly(in);
+                    }
+                }
+                for (File run : group) {
+                    run.delete();
+                }
+                merged.add(file);
+            }
+            runFiles = merged;
+            pass++;
+        }
+        return runFiles;
+    }
+
+    /**
+     * @param runFiles the runs to merge
+     * @param inputs where to add the streams opened to read the runs, to close them
+     * @return the elements of all the runs, in changeset order
+     */
+    private Iterator<Primitive> merge(List<File> runFiles, List<DataInputStream> inputs)
+            throws IOException {
+        List<PeekingIterator<Primitive>> runs = Lists.newArrayListWithCapacity(runFiles.size());
+        for (File file : runFiles) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                    file), 64 * 1024));
+            inputs.add(in);
+            runs.add(Iterators.peekingIterator(read(in)));
+        }
+        final PriorityQueue<PeekingIterator<Primitive>> queue = new PriorityQueue<PeekingIterator<Primitive>>(
+                Math.max(1, runs.size()), new Comparator<PeekingIterator<Primitive>>() {
+                    @Override
+                    public int compare(PeekingIterator<Primitive> r1, PeekingIterator<Primitive> r2) {
+                        return CHANGESET_ORDER.compare(r1.peek(), r2.peek());
+                    }
+                });
+        for (PeekingIterator<Primitive> run : runs) {
+            if (run.hasNext()) {
+                queue.add(run);
+            }
+        }
+        return new AbstractIterator<Primitive>() {
+            @Override
+            protected Primitive computeNext() {
+                PeekingIterator<Primitive> run = queue.poll();
+                if (run == null) {
+                    return endOfData();
+                }
+                Primitive next = run.next();
+                if (run.hasNext()) {
+                    queue.add(run);
+                }
+                return next;
+            }
+        };
+    }
+
+    private static void write(Primitive primitive, DataOutputStream out) throws IOException {
+        out.writeByte(kind(primitive));
+        out.writeLong(primitive.getId());
+        out.writeLong(primitive.getChangesetId());
+        out.writeBoolean(primitive.isVisible());
+        out.writeLong(primitive.getTimestamp());
+        out.writeInt(primitive.getVersion());
+        out.writeUTF(primitive.getUserName() == null ? "" : primitive.getUserName());
+        out.writeLong(primitive.getUserId());
+        final int tagCount = primitive.getTagCount();
+        out.writeInt(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            String value = primitive.getTagValue(i);
+            out.writeUTF(primitive.getTagKey(i));
+            out.writeUTF(value == null ? "" : value);
+        }
+        if (primitive instanceof Node) {
+            Coordinate location = ((Node) primitive).getCoordinate();
+            out.writeBoolean(location != null);
+            if (location != null) {
+                out.writeDouble(location.x);
+                out.writeDouble(location.y);
+            }
+        } else {
+            long[] nodes = ((Way) primitive).getNodeIds();
+            out.writeInt(nodes.length);
+            for (long node : nodes) {
+                out.writeLong(node);
+            }
+        }
+    }
+
+    private static Iterator<Primitive> read(final DataInputStream in) {
+        return new AbstractIterator<Primitive>() {
+            @Override
+            protected Primitive computeNext() {
+                try {
+                    return readPrimitive(in);
+                } catch (EOFException e) {
+                    Closeables.closeQuietly(in);
+                    return endOfData();
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        };
+    }
+
+    private static Primitive readPrimitive(DataInputStream in) throws IOException {
+        final byte kind = in.readByte();
+        final Primitive primitive = kind == NODE ? new Node() : new Way();
+        primitive.setId(in.readLong());
+        primitive.setChangesetId(in.readLong());
+        primitive.setVisible(in.readBoolean());
+        primitive.setTimestamp(in.readLong());
+        primitive.setVersion(in.readInt());
+        String userName = in.readUTF();
+        primitive.setUserName(userName.isEmpty() ? null : userName);
+        primitive.setUserId(in.readLong());
+        final int tagCount = in.readInt();
+        for (int i = 0; i < tagCount; i++) {
+            primitive.putTag(in.readUTF(), in.readUTF());
+        }
+        if (primitive instanceof Node) {
+            if (in.readBoolean()) {
+                double x = in.readDouble();
+                double y = in.readDouble();
+                ((Node) primitive).setLocation(x, y);
+            }
+        } else {
+            final int nodeCount = in.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                ((Way) primitive).addNode(in.readLong());
+            }
+        }
+        return primitive;
+    }
+}
@@ -5,32 +5,61 @@
 
 package org.geogit.osm.history.internal;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 
 /**
- *
+ * An OSM node. The location is kept as lon/lat fixed point integers with the 7 decimal places OSM
+ * uses, instead of as a geometry.
  */
 public class Node extends Primitive {
 
-    /** WGS84 location, lon/lat axis order */
-    private Point location;
+    private static final double SCALE = 1E7;
+
+    private static final GeometryFactory GEOMFACT = new GeometryFactory();
+
+    private boolean hasLocation;
+
+    private int lon;
+
+    private int lat;
 
     /** WGS84 location, lon/lat axis order */
     public Optional<Point> getLocation() {
-        return Optional.fromNullable(location);
+        if (!hasLocation) {
+            return Optional.absent();
+        }
+        return Optional.of(GEOMFACT.createPoint(getCoordinate()));
+    }
+
+    /**
+     * @return the WGS84 location, lon/lat axis order, or {@code null} if the node has none
+     */
+    @Nullable
+    public Coordinate getCoordinate() {
+        if (!hasLocation) {
+            return null;
+        }
+        return new Coordinate(lon / SCALE, lat / SCALE);
     }
 
     /**
-     * @param location point location, in lon/lat ordinate order
+     * @param lon longitude, in decimal degrees
+     * @param lat latitude, in decimal degrees
      */
-    void setLocation(Point location) {
-        this.location = location;
+    void setLocation(double lon, double lat) {
+        this.lon = (int) Math.round(lon * SCALE);
+        this.lat = (int) Math.round(lat * SCALE);
+        this.hasLocation = true;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder(super.toString()).append(",location:").append(location)
+        return new StringBuilder(super.toString()).append(",location:").append(getCoordinate())
                 .append("]").toString();
     }
 }
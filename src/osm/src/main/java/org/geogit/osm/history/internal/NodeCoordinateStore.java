@@ -0,0 +1,346 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Throwables;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A persistent map of OSM node ids to node coordinates, backed by a memory mapped file.
+ * <p>
+ * The file holds an open addressing hash table with linear probing, where each slot takes 16
+ * bytes: the node id, and the longitude and latitude as fixed point integers with the 7 decimal
+ * places OSM uses, so coordinates read back exactly as they were parsed. The table doubles its size
+ * when it gets 70% full. Node id {@code 0} marks empty slots and can't be stored.
+ * <p>
+ * Along with the coordinates, the store records the id of the changeset it is up to date with, so
+ * that it can be discarded if it doesn't match the repository it is used with.
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+public class NodeCoordinateStore implements Closeable {
+
+    /**
+     * {@link #getChangeset() Changeset} of a store whose contents don't correspond to any
+     * changeset, like one being modified
+     */
+    public static final long NO_CHANGESET = -1L;
+
+    private static final int MAGIC = 0x4f534d4e;// "OSMN"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int SIZE_OFFSET = 8;
+
+    private static final int CHANGESET_OFFSET = 16;
+
+    private static final int ENTRY_SIZE = 16;
+
+    /** 4M slots, that is, 64MB, per mapped segment */
+    private static final int SEGMENT_SHIFT = 22;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final long INITIAL_CAPACITY = 1L << 16;
+
+    private static final double MAX_LOAD = 0.7;
+
+    private static final double SCALE = 1E7;
+
+    private static final long EMPTY = 0L;
+
+    private final File file;
+
+    private RandomAccessFile raf;
+
+    private MappedByteBuffer header;
+
+    private MappedByteBuffer[] segments;
+
+    private long capacity;
+
+    private long mask;
+
+    private long size;
+
+    /**
+     * Opens the store at the given file, creating it if it doesn't exist.
+     */
+    public NodeCoordinateStore(final File file) throws IOException {
+        this(file, INITIAL_CAPACITY);
+    }
+
+    private NodeCoordinateStore(final File file, final long initialCapacity) throws IOException {
+        checkNotNull(file);
+        this.file = file;
+        open(initialCapacity);
+    }
+
+    private void open(final long initialCapacity) throws IOException {
+        final boolean exists = file.exists() && file.length() > 0;
+        raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        if (!exists) {
+            raf.setLength(HEADER_SIZE + initialCapacity * ENTRY_SIZE);
+        }
+        header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (!exists) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(SIZE_OFFSET, 0L);
+            header.putLong(CHANGESET_OFFSET, NO_CHANGESET);
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            raf.close();
+            throw new IOException(file + " is not a node coordinate store");
+        }
+
+        capacity = (raf.length() - HEADER_SIZE) / ENTRY_SIZE;
+        checkState(Long.bitCount(capacity) == 1, "Corrupt node coordinate store: %s", file);
+        mask = capacity - 1;
+        size = header.getLong(SIZE_OFFSET);
+
+        final long segmentCapacity = Math.min(capacity, 1L << SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[(int) (capacity / segmentCapacity)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = HEADER_SIZE + i * segmentCapacity * ENTRY_SIZE;
+            segments[i] = channel.map(MapMode.READ_WRITE, position, segmentCapacity
+                    * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * @return the number of nodes in the store
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the changeset the store is up to date with, or {@link #NO_CHANGESET}
+     */
+    public long getChangeset() {
+        return header.getLong(CHANGESET_OFFSET);
+    }
+
+    /**
+     * Records the id of the changeset the store is up to date with.
+     */
+    public void setChangeset(long changesetId) {
+        header.putLong(CHANGESET_OFFSET, changesetId);
+    }
+
+    /**
+     * @return the coordinate of the node, or {@code null} if it is not in the store
+     */
+    @Nullable
+    public Coordinate get(final long nodeId) {
+        checkArgument(nodeId != EMPTY, "invalid node id: %s", nodeId);
+        final long slot = find(nodeId);
+        if (key(slot) == EMPTY) {
+            return null;
+        }
+        final MappedByteBuffer segment = segment(slot);
+        final int offset = offset(slot);
+        double x = segment.getInt(offset + 8) / SCALE;
+        double y = segment.getInt(offset + 12) / SCALE;
+        return new Coordinate(x, y);
+    }
+
+    /**
+     * Sets the coordinate of a node, replacing the one it had if it already was in the store.
+     */
+    public void put(final long nodeId, final Coordinate coordinate) {
+        checkArgument(nodeId != EMPTY, "invalid node id: %s", nodeId);
+        checkNotNull(coordinate);
+        put(nodeId, (int) Math.round(coordinate.x * SCALE),
+                (int) Math.round(coordinate.y * SCALE));
+    }
+
+    private void put(final long nodeId, final int x, final int y) {
+        long slot = find(nodeId);
+        if (key(slot) == EMPTY) {
+            if (size + 1 > capacity * MAX_LOAD) {
+                grow();
+                slot = find(nodeId);
+            }
+            segment(slot).putLong(offset(slot), nodeId);
+            setSize(size + 1);
+        }
+        final MappedByteBuffer segment = segment(slot);
+        final int offset = offset(slot);
+        segment.putInt(offset + 8, x);
+        segment.putInt(offset + 12, y);
+    }
+
+    /**
+     * Removes a node from the store.
+     *
+     * @return whether the node was in the store
+     */
+    public boolean remove(final long nodeId) {
+        checkArgument(nodeId != EMPTY, "invalid node id: %s", nodeId);
+        long hole = find(nodeId);
+        if (key(hole) == EMPTY) {
+            return false;
+        }
+        // shift back the following entries of the probe sequence that can fill the hole, so
+        // lookups don't stop early at it
+        long slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            final long key = key(slot);
+            if (key == EMPTY) {
+                break;
+            }
+            final long home = hash(key) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                copy(slot, hole);
+                hole = slot;
+            }
+        }
+        final MappedByteBuffer segment = segment(hole);
+        final int offset = offset(hole);
+        segment.putLong(offset, EMPTY);
+        segment.putLong(offset + 8, 0L);
+        setSize(size - 1);
+        return true;
+    }
+
+    /**
+     * Removes all the nodes from the store and resets its {@link #getChangeset() changeset}.
+     */
+    public void clear() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+        open(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Writes any pending change to the file.
+     */
+    public void flush() {
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (raf == null) {
+            return;
+        }
+        flush();
+        raf.close();
+        raf = null;
+        header = null;
+        segments = null;
+    }
+
+    private void setSize(long size) {
+        this.size = size;
+        header.putLong(SIZE_OFFSET, size);
+    }
+
+    /**
+     * @return the slot that holds the node, or the empty slot where it would go
+     */
+    private long find(final long nodeId) {
+        long slot = hash(nodeId) & mask;
+        while (true) {
+            long key = key(slot);
+            if (key == EMPTY || key == nodeId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private long key(long slot) {
+        return segment(slot).getLong(offset(slot));
+    }
+
+    private void copy(long from, long to) {
+        final MappedByteBuffer source = segment(from);
+        final MappedByteBuffer target = segment(to);
+        final int sourceOffset = offset(from);
+        final int targetOffset = offset(to);
+        target.putLong(targetOffset, source.getLong(sourceOffset));
+        target.putLong(targetOffset + 8, source.getLong(sourceOffset + 8));
+    }
+
+    private MappedByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & SEGMENT_MASK) * ENTRY_SIZE;
+    }
+
+    /**
+     * Rehashes the entries into a file twice as large and replaces the current one with it.
+     */
+    private void grow() {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            if (tmp.exists() && !tmp.delete()) {
+                throw new IOException("Unable to delete " + tmp);
+            }
+            NodeCoordinateStore grown = new NodeCoordinateStore(tmp, capacity * 2);
+            try {
+                for (long slot = 0; slot < capacity; slot++) {
+                    final long key = key(slot);
+                    if (key != EMPTY) {
+                        final MappedByteBuffer segment = segment(slot);
+                        final int offset = offset(slot);
+                        grown.put(key, segment.getInt(offset + 8), segment.getInt(offset + 12));
+                    }
+                }
+                grown.setChangeset(getChangeset());
+            } finally {
+                grown.close();
+            }
+            close();
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file + " by " + tmp);
+            }
+            open(INITIAL_CAPACITY);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Spreads the bits of the node id, as node ids are mostly sequential (MurmurHash3 finalizer)
+     */
+    private static long hash(long nodeId) {
+        long h = nodeId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
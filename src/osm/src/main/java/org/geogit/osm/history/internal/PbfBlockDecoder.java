@@ -0,0 +1,233 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import crosby.binary.Fileformat.Blob;
+import crosby.binary.Osmformat;
+import crosby.binary.Osmformat.DenseInfo;
+import crosby.binary.Osmformat.DenseNodes;
+import crosby.binary.Osmformat.HeaderBlock;
+import crosby.binary.Osmformat.Info;
+import crosby.binary.Osmformat.PrimitiveBlock;
+import crosby.binary.Osmformat.PrimitiveGroup;
+
+/**
+ * Decodes the blocks of an OSM PBF file, such as the PBF full history dumps, into
+ * {@link Primitive primitives}. Relations are skipped, as the history importer ignores them.
+ * <p>
+ * Blocks are independent from each other, so they can be decoded concurrently.
+ */
+class PbfBlockDecoder {
+
+    /** Type of the blob holding the {@link HeaderBlock} */
+    static final String HEADER = "OSMHeader";
+
+    /** Type of the blobs holding {@link PrimitiveBlock primitive blocks} */
+    static final String DATA = "OSMData";
+
+    private static final Set<String> SUPPORTED_FEATURES = ImmutableSet.of("OsmSchema-V0.6",
+            "DenseNodes", "HistoricalInformation");
+
+    private PbfBlockDecoder() {
+        // static methods only
+    }
+
+    /**
+     * Checks that all the features required to read the file are supported
+     *
+     * @throws IOException if they aren't
+     */
+    static void checkHeader(Blob blob) throws IOException {
+        HeaderBlock header = HeaderBlock.parseFrom(uncompress(blob));
+        for (String feature : header.getRequiredFeaturesList()) {
+            if (!SUPPORTED_FEATURES.contains(feature)) {
+                throw new IOException("Unsupported PBF feature: " + feature);
+            }
+        }
+    }
+
+    /**
+     * @return the nodes and ways of the block, in the order they're found in it
+     */
+    static List<Primitive> decode(Blob blob) throws IOException {
+        final PrimitiveBlock block = PrimitiveBlock.parseFrom(uncompress(blob));
+        final String[] strings = new String[block.getStringtable().getSCount()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = block.getStringtable().getS(i).toStringUtf8();
+        }
+        final Coordinates coordinates = new Coordinates(block);
+        final int dateGranularity = block.getDateGranularity();
+
+        List<Primitive> primitives = Lists.newArrayList();
+        for (PrimitiveGroup group : block.getPrimitivegroupList()) {
+            for (Osmformat.Node node : group.getNodesList()) {
+                Node primitive = new Node();
+                setInfo(primitive, node.getId(), node.getInfo(), strings, dateGranularity);
+                for (int i = 0; i < node.getKeysCount(); i++) {
+                    primitive.putTag(strings[node.getKeys(i)], strings[node.getVals(i)]);
+                }
+                if (primitive.isVisible()) {
+                    primitive.setLocation(coordinates.lon(node.getLon()),
+                            coordinates.lat(node.getLat()));
+                }
+                primitives.add(primitive);
+            }
+            if (group.hasDense()) {
+                decodeDense(group.getDense(), strings, coordinates, dateGranularity, primitives);
+            }
+            for (Osmformat.Way way : group.getWaysList()) {
+                Way primitive = new Way();
+                setInfo(primitive, way.getId(), way.getInfo(), strings, dateGranularity);
+                for (int i = 0; i < way.getKeysCount(); i++) {
+                    primitive.putTag(strings[way.getKeys(i)], strings[way.getVals(i)]);
+                }
+                long ref = 0;
+                for (int i = 0; i < way.getRefsCount(); i++) {
+                    ref += way.getRefs(i);
+                    primitive.addNode(ref);
+                }
+                primitives.add(primitive);
+            }
+        }
+        return primitives;
+    }
+
+    /**
+     * Decodes the dense nodes, whose ids, coordinates and most of their info are delta coded, and
+     * whose tags are a sequence of key and value string indexes with a zero after the ones of each
+     * node
+     */
+    private static void decodeDense(DenseNodes dense, String[] strings, Coordinates coordinates,
+            int dateGranularity, List<Primitive> primitives) {
+
+        final DenseInfo info = dense.hasDenseinfo() ? dense.getDenseinfo() : null;
+        long id = 0, lat = 0, lon = 0, timestamp = 0, changeset = 0;
+        int uid = 0, userSid = 0;
+        int keyVal = 0;
+        for (int i = 0; i < dense.getIdCount(); i++) {
+            id += dense.getId(i);
+            lat += dense.getLat(i);
+            lon += dense.getLon(i);
+
+            Node node = new Node();
+            node.setId(id);
+            node.setVisible(true);
+            if (info != null) {
+                timestamp += info.getTimestamp(i);
+                changeset += info.getChangeset(i);
+                uid += info.getUid(i);
+                userSid += info.getUserSid(i);
+                node.setVersion(info.getVersion(i));
+                node.setTimestamp(timestamp * dateGranularity);
+                node.setChangesetId(changeset);
+                node.setUserId(uid);
+                node.setUserName(userName(strings, userSid));
+                // files without history have no visible flags
+                node.setVisible(info.getVisibleCount() == 0 || info.getVisible(i));
+            }
+            if (dense.getKeysValsCount() > 0) {
+                while (dense.getKeysVals(keyVal) != 0) {
+                    node.putTag(strings[dense.getKeysVals(keyVal)],
+                            strings[dense.getKeysVals(keyVal + 1)]);
+                    keyVal += 2;
+                }
+                keyVal++;
+            }
+            if (node.isVisible()) {
+                node.setLocation(coordinates.lon(lon), coordinates.lat(lat));
+            }
+            primitives.add(node);
+        }
+    }
+
+    private static void setInfo(Primitive primitive, long id, Info info, String[] strings,
+            int dateGranularity) {
+        primitive.setId(id);
+        primitive.setVersion(info.getVersion());
+        primitive.setTimestamp((long) info.getTimestamp() * dateGranularity);
+        primitive.setChangesetId(info.getChangeset());
+        primitive.setUserId(info.getUid());
+        primitive.setUserName(info.hasUserSid() ? userName(strings, info.getUserSid()) : null);
+        primitive.setVisible(!info.hasVisible() || info.getVisible());
+    }
+
+    /**
+     * @return the user name, or {@code null} for the empty string at index 0 of the string table
+     *         that anonymous edits refer to
+     */
+    @Nullable
+    private static String userName(String[] strings, int index) {
+        String userName = strings[index];
+        return userName.isEmpty() ? null : userName;
+    }
+
+    private static byte[] uncompress(Blob blob) throws IOException {
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new IOException("Unsupported PBF blob compression");
+        }
+        byte[] data = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            int size = 0;
+            int read;
+            while (size < data.length
+                    && (read = inflater.inflate(data, size, data.length - size)) > 0) {
+                size += read;
+            }
+            if (size != data.length) {
+                throw new IOException("Truncated PBF blob, expected " + data.length
+                        + " bytes but got " + size);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Converts the coordinates of a block, given in units of {@code granularity} nanodegrees from
+     * an offset, to degrees
+     */
+    private static class Coordinates {
+
+        private final long granularity;
+
+        private final long latOffset;
+
+        private final long lonOffset;
+
+        Coordinates(PrimitiveBlock block) {
+            this.granularity = block.getGranularity();
+            this.latOffset = block.getLatOffset();
+            this.lonOffset = block.getLonOffset();
+        }
+
+        double lat(long lat) {
+            return 1e-9 * (latOffset + granularity * lat);
+        }
+
+        double lon(long lon) {
+            return 1e-9 * (lonOffset + granularity * lon);
+        }
+    }
+}
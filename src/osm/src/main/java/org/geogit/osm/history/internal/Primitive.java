@@ -5,15 +5,26 @@
 
 package org.geogit.osm.history.internal;
 
+import java.util.Arrays;
 import java.util.Map;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Maps;
 
 /**
- *
+ * Base class for the OSM primitives.
+ * <p>
+ * Tags are kept as parallel arrays of keys and values instead of a map, and the keys, which are
+ * drawn from a small vocabulary, are interned so that all the primitives share a single instance of
+ * each of them.
  */
 public class Primitive {
 
+    private static final Interner<String> TAG_KEYS = Interners.newWeakInterner();
+
+    private static final String[] NO_TAGS = new String[0];
+
     private long id;
 
     private long changesetId;
@@ -28,10 +39,13 @@ public class Primitive {
 
     private long userId;
 
-    private Map<String, String> tags;
+    private String[] tagKeys = NO_TAGS;
+
+    private String[] tagValues = NO_TAGS;
+
+    private int tagCount;
 
     public Primitive() {
-        tags = Maps.newHashMap();
     }
 
     public long getId() {
@@ -62,10 +76,58 @@ public class Primitive {
         return userId;
     }
 
+    /**
+     * @return a copy of the tags, prefer {@link #getTagKey(int)} and {@link #getTagValue(int)} to
+     *         iterate over them
+     */
     public Map<String, String> getTags() {
+        Map<String, String> tags = Maps.newLinkedHashMap();
+        for (int i = 0; i < tagCount; i++) {
+            tags.put(tagKeys[i], tagValues[i]);
+        }
         return tags;
     }
 
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public String getTagKey(int index) {
+        checkTagIndex(index);
+        return tagKeys[index];
+    }
+
+    public String getTagValue(int index) {
+        checkTagIndex(index);
+        return tagValues[index];
+    }
+
+    private void checkTagIndex(int index) {
+        if (index < 0 || index >= tagCount) {
+            throw new IndexOutOfBoundsException("tag index: " + index + ", tags: " + tagCount);
+        }
+    }
+
+    /**
+     * Sets the value of a tag, replacing the one it had if the key is already present
+     */
+    void putTag(String key, String value) {
+        for (int i = 0; i < tagCount; i++) {
+            if (tagKeys[i].equals(key)) {
+                tagValues[i] = value;
+                return;
+            }
+        }
+        if (tagCount == tagKeys.length) {
+            int capacity = Math.max(4, tagCount * 2);
+            tagKeys = Arrays.copyOf(tagKeys, capacity);
+            tagValues = Arrays.copyOf(tagValues, capacity);
+        }
+        tagKeys[tagCount] = TAG_KEYS.intern(key);
+        tagValues[tagCount] = value;
+        tagCount++;
+    }
+
     void setId(long id) {
         this.id = id;
     }
@@ -5,38 +5,55 @@
 
 package org.geogit.osm.history.internal;
 
-import java.util.List;
+import java.util.Arrays;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 
 /**
- *
+ * An OSM way. The node references are kept in a {@code long[]} instead of a list of boxed longs.
  */
 public class Way extends Primitive {
 
-    private List<Long> nodes;
+    private static final long[] NO_NODES = new long[0];
+
+    private long[] nodes = NO_NODES;
+
+    private int nodeCount;
 
     public Way() {
         super();
-        this.nodes = Lists.newLinkedList();
     }
 
     /**
      * @param nodeRef
      */
     void addNode(long nodeRef) {
-        nodes.add(Long.valueOf(nodeRef));
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, Math.max(8, nodeCount * 2));
+        }
+        nodes[nodeCount++] = nodeRef;
     }
 
     public ImmutableList<Long> getNodes() {
-        return ImmutableList.copyOf(nodes);
+        return ImmutableList.copyOf(Longs.asList(getNodeIds()));
+    }
+
+    /**
+     * @return the ids of the way nodes, in order
+     */
+    public long[] getNodeIds() {
+        return Arrays.copyOf(nodes, nodeCount);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder(super.toString()).append(",nodes:").append(nodes).append("]")
-                .toString();
+        return new StringBuilder(super.toString()).append(",nodes:")
+                .append(Arrays.toString(getNodeIds())).append("]").toString();
     }
 
 }
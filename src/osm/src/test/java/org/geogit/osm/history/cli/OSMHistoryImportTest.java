@@ -6,31 +6,56 @@
 package org.geogit.osm.history.cli;
 
 import java.io.File;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import jline.UnsupportedTerminal;
 import jline.console.ConsoleReader;
 
 import org.apache.commons.io.FileUtils;
 import org.geogit.api.GeoGIT;
+import org.geogit.api.NodeRef;
 import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.TestPlatform;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
+import org.geogit.api.porcelain.AddOp;
+import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.DiffOp;
+import org.geogit.api.porcelain.LogOp;
 import org.geogit.cli.GeogitCLI;
+import org.geogit.osm.history.internal.Change;
+import org.geogit.osm.history.internal.Changeset;
+import org.geogit.osm.history.internal.HistoryDownloader;
+import org.geogit.osm.history.internal.Node;
+import org.geogit.osm.history.internal.Primitive;
+import org.geogit.osm.history.internal.Way;
+import org.geogit.repository.WorkingTree;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.referencing.CRS;
+import org.geotools.util.NullProgressListener;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 /**
  *
@@ -43,18 +68,22 @@ public class OSMHistoryImportTest extends Assert {
 
     @Before
     public void setUp() throws Exception {
+        fakeOsmApiUrl = getClass().getResource("../internal/01_10").toExternalForm();
+        cli = newRepository(new File("target", "repo"));
+    }
+
+    private static GeogitCLI newRepository(File workingDirectory) throws Exception {
         ConsoleReader consoleReader = new ConsoleReader(System.in, System.out,
                 new UnsupportedTerminal());
-        cli = new GeogitCLI(consoleReader);
-        fakeOsmApiUrl = getClass().getResource("../internal/01_10").toExternalForm();
+        GeogitCLI cli = new GeogitCLI(consoleReader);
 
-        File workingDirectory = new File("target", "repo");
         FileUtils.deleteDirectory(workingDirectory);
         assertTrue(workingDirectory.mkdir());
         Platform platform = new TestPlatform(workingDirectory);
         cli.setPlatform(platform);
         cli.execute("init");
         assertTrue(new File(workingDirectory, ".geogit").exists());
+        return cli;
     }
 
     @Test
@@ -91,4 +120,204 @@ public class OSMHistoryImportTest extends Assert {
         assertTrue(actual.toString(), CRS.equalsIgnoreMetadata(expected, actual));
     }
 
+    /**
+     * The changesets committed straight from the built trees shall result in the same history as
+     * inserting the changes in the working tree, staging and committing them one changeset at a
+     * time, which is how they were imported before
+     */
+    @Test
+    public void testSameHistoryAsSequentialImport() throws Exception {
+        cli.execute("config", "user.name", "Gabriel Roldan");
+        cli.execute("config", "user.email", "groldan@opengeo.org");
+        cli.execute("osm", "import-history", fakeOsmApiUrl, "--to", "9");
+
+        GeogitCLI sequentialCli = newRepository(new File("target", "sequential-repo"));
+        sequentialCli.execute("config", "user.name", "Gabriel Roldan");
+        sequentialCli.execute("config", "user.email", "groldan@opengeo.org");
+        importSequentially(sequentialCli.getGeogit(), 9);
+
+        List<RevCommit> expected = ImmutableList.copyOf(sequentialCli.getGeogit()
+                .command(LogOp.class).call());
+        List<RevCommit> actual = ImmutableList.copyOf(cli.getGeogit().command(LogOp.class)
+                .call());
+        assertEquals(9, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            RevCommit e = expected.get(i);
+            RevCommit a = actual.get(i);
+            assertEquals(e.getMessage(), a.getMessage());
+            assertEquals(e.getMessage(), e.getAuthor(), a.getAuthor());
+            assertEquals(e.getMessage(), e.getCommitter().getName(), a.getCommitter().getName());
+            assertEquals(e.getMessage(), e.getParentIds().size(), a.getParentIds().size());
+            assertEquals(e.getMessage(), e.getTreeId(), a.getTreeId());
+        }
+    }
+
+    /**
+     * The features built straight out of the primitives shall be the same as the ones built out of
+     * simple features of the node and way types
+     */
+    @Test
+    public void testToRevFeature() throws Exception {
+        final File downloadFolder = new File("target", "download");
+        FileUtils.deleteDirectory(downloadFolder);
+        assertTrue(downloadFolder.mkdir());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final HistoryDownloader downloader = new HistoryDownloader(fakeOsmApiUrl,
+                downloadFolder, 1, 9, executor, false);
+        final Map<Long, Coordinate> nodeCoordinates = Maps.newHashMap();
+        int nodes = 0;
+        int ways = 0;
+        try {
+            Optional<Changeset> set;
+            while ((set = downloader.fetchNextChangeset()).isPresent()) {
+                for (Iterator<Change> it = set.get().getChanges().get(); it.hasNext();) {
+                    Change change = it.next();
+                    if (change.getRelation().isPresent()) {
+                        continue;
+                    }
+                    Primitive primitive = change.getNode().isPresent() ? change.getNode().get()
+                            : change.getWay().get();
+                    Geometry geom = geometry(primitive, nodeCoordinates);
+                    RevFeature expected = new RevFeatureBuilder().build(toFeature(primitive,
+                            geom));
+                    RevFeature actual = OSMHistoryImport.toRevFeature(primitive, geom);
+                    assertEquals(primitive.toString(), expected.getValues(), actual.getValues());
+                    assertEquals(primitive.toString(), expected.getId(), actual.getId());
+                    if (primitive instanceof Node) {
+                        nodes++;
+                    } else {
+                        ways++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(nodes > 0);
+        assertTrue(ways > 0);
+    }
+
+    /**
+     * Imports the changesets by inserting and deleting their features in the working tree, then
+     * staging and committing them
+     */
+    private void importSequentially(GeoGIT geogit, long toChangeset) throws Exception {
+        final File downloadFolder = new File("target", "sequential-download");
+        FileUtils.deleteDirectory(downloadFolder);
+        assertTrue(downloadFolder.mkdir());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final HistoryDownloader downloader = new HistoryDownloader(fakeOsmApiUrl,
+                downloadFolder, 1, toChangeset, executor, false);
+        final WorkingTree workTree = geogit.getRepository().getWorkingTree();
+        final Map<Long, Coordinate> nodeCoordinates = Maps.newHashMap();
+        try {
+            Optional<Changeset> set;
+            while ((set = downloader.fetchNextChangeset()).isPresent()) {
+                Changeset changeset = set.get();
+
+                // the last change of each feature wins, a null feature is a delete
+                Map<String, SimpleFeature> changed = Maps.newLinkedHashMap();
+                for (Iterator<Change> it = changeset.getChanges().get(); it.hasNext();) {
+                    Change change = it.next();
+                    if (change.getRelation().isPresent()) {
+                        continue;
+                    }
+                    Primitive primitive = change.getNode().isPresent() ? change.getNode().get()
+                            : change.getWay().get();
+                    String path = NodeRef.appendChild(primitive instanceof Node ? "node" : "way",
+                            String.valueOf(primitive.getId()));
+                    if (Change.Type.delete.equals(change.getType())) {
+                        nodeCoordinates.remove(primitive.getId());
+                        changed.put(path, null);
+                    } else {
+                        changed.put(path,
+                                toFeature(primitive, geometry(primitive, nodeCoordinates)));
+                    }
+                }
+
+                for (String typeName : ImmutableList.of("node", "way")) {
+                    List<SimpleFeature> inserts = Lists.newArrayList();
+                    List<String> deletes = Lists.newArrayList();
+                    for (Map.Entry<String, SimpleFeature> e : changed.entrySet()) {
+                        if (typeName.equals(NodeRef.parentPath(e.getKey()))) {
+                            if (e.getValue() == null) {
+                                deletes.add(e.getKey());
+                            } else {
+                                inserts.add(e.getValue());
+                            }
+                        }
+                    }
+                    if (!inserts.isEmpty()) {
+                        workTree.insert(typeName, inserts.iterator(), new NullProgressListener(),
+                                null, inserts.size());
+                    }
+                    if (!deletes.isEmpty()) {
+                        workTree.delete(deletes.iterator());
+                    }
+                }
+                geogit.command(AddOp.class).call();
+
+                String message = "changeset " + changeset.getId();
+                if (changeset.getComment().isPresent()) {
+                    message = changeset.getComment().get() + "\n" + message;
+                }
+                geogit.command(CommitOp.class).setAllowEmpty(true).setMessage(message)
+                        .setAuthor(changeset.getUserName(), null)
+                        .setAuthorTimestamp(changeset.getClosed()).setAuthorTimeZoneOffset(0)
+                        .call();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the point of a node, or the line string of a way out of the coordinates of its nodes
+     */
+    private static Geometry geometry(Primitive primitive, Map<Long, Coordinate> nodeCoordinates) {
+        final GeometryFactory geometryFactory = new GeometryFactory();
+        Geometry geom = null;
+        if (primitive instanceof Node) {
+            Coordinate location = ((Node) primitive).getCoordinate();
+            if (location == null) {
+                nodeCoordinates.remove(primitive.getId());
+            } else {
+                nodeCoordinates.put(primitive.getId(), location);
+                geom = geometryFactory.createPoint(location);
+            }
+        } else {
+            List<Coordinate> coordinates = Lists.newArrayList();
+            for (long nodeId : ((Way) primitive).getNodeIds()) {
+                Coordinate coordinate = nodeCoordinates.get(nodeId);
+                if (coordinate != null) {
+                    coordinates.add(coordinate);
+                }
+            }
+            if (coordinates.size() > 1) {
+                geom = geometryFactory.createLineString(coordinates
+                        .toArray(new Coordinate[coordinates.size()]));
+            }
+        }
+        return geom;
+    }
+
+    private static SimpleFeature toFeature(Primitive primitive, Geometry geom) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(
+                primitive instanceof Node ? OSMHistoryImport.nodeType()
+                        : OSMHistoryImport.wayType());
+        builder.set("visible", Boolean.valueOf(primitive.isVisible()));
+        builder.set("version", Integer.valueOf(primitive.getVersion()));
+        builder.set("timestamp", Long.valueOf(primitive.getTimestamp()));
+        StringBuilder tags = new StringBuilder();
+        for (Map.Entry<String, String> tag : primitive.getTags().entrySet()) {
+            if (!tag.getKey().isEmpty()) {
+                tags.append(tags.length() > 0 ? ";" : "").append(tag.getKey()).append(':')
+                        .append(tag.getValue());
+            }
+        }
+        builder.set("tags", tags.length() == 0 ? null : tags.toString());
+        builder.set(primitive instanceof Node ? "location" : "way", geom);
+        return builder.buildFeature(String.valueOf(primitive.getId()));
+    }
 }
@@ -0,0 +1,93 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import java.io.ByteArrayInputStream;
+import java.text.NumberFormat;
+import java.util.Iterator;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Measures the throughput of {@link ChangesetContentsScanner} on a synthetic changeset download
+ */
+public class ChangesetContentsScannerPerformanceTest extends Assert {
+
+    private static final String[][] TAGS = { { "highway", "residential" }, { "name", "Main St" },
+            { "oneway", "yes" }, { "surface", "asphalt" }, { "maxspeed", "50" } };
+
+    @Ignore
+    @Test
+    public void testParse() throws Exception {
+        System.err.println("############### Warming up....");
+        parse(50 * 1000, 10);
+        System.err.println("############### Warm up done.");
+
+        parse(50 * 1000, 10);
+        parse(500 * 1000, 10);
+        // parse(5 * 1000 * 1000, 10);
+    }
+
+    private void parse(final int numNodes, final int nodesPerWay) throws Exception {
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        final byte[] document = createDocument(numNodes, nodesPerWay);
+        System.err.println("***********\nParsing " + numberFormat.format(numNodes) + " nodes and "
+                + numberFormat.format(numNodes / nodesPerWay) + " ways ("
+                + numberFormat.format(document.length / 1024) + " KB)...");
+
+        Stopwatch sw = new Stopwatch().start();
+        Iterator<Change> changes = new ChangesetContentsScanner()
+                .parse(new ByteArrayInputStream(document));
+        int count = 0;
+        while (changes.hasNext()) {
+            changes.next();
+            count++;
+        }
+        sw.stop();
+        assertEquals(numNodes + numNodes / nodesPerWay, count);
+
+        long millis = Math.max(1, sw.elapsedMillis());
+        System.err.println("Parsed " + numberFormat.format(count) + " changes in " + sw.toString()
+                + " (" + numberFormat.format(count * 1000L / millis) + " changes/s)");
+    }
+
+    private byte[] createDocument(final int numNodes, final int nodesPerWay) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<osmChange version=\"0.6\" generator=\"test\">\n");
+        for (int i = 1; i <= numNodes; i++) {
+            sb.append(" <create>\n  <node id=\"").append(i).append("\" lat=\"")
+                    .append(48 + (i % 1000) / 1E4).append("\" lon=\"")
+                    .append(16 + (i / 1000) / 1E4).append("\" changeset=\"1\" user=\"test\"")
+                    .append(" uid=\"1\" visible=\"true\" timestamp=\"2009-10-31T21:41:32Z\"")
+                    .append(" version=\"1\">\n");
+            if (i % 10 == 0) {
+                sb.append("   <tag k=\"amenity\" v=\"restaurant\"/>\n");
+            }
+            sb.append("  </node>\n </create>\n");
+        }
+        for (int w = 0; w < numNodes / nodesPerWay; w++) {
+            sb.append(" <create>\n  <way id=\"").append(w + 1)
+                    .append("\" changeset=\"1\" user=\"test\" uid=\"1\" visible=\"true\"")
+                    .append(" timestamp=\"2009-10-31T21:41:32Z\" version=\"1\">\n");
+            for (int n = 1; n <= nodesPerWay; n++) {
+                sb.append("   <nd ref=\"").append(w * nodesPerWay + n).append("\"/>\n");
+            }
+            for (String[] tag : TAGS) {
+                sb.append("   <tag k=\"").append(tag[0]).append("\" v=\"").append(tag[1])
+                        .append("\"/>\n");
+            }
+            sb.append("  </way>\n </create>\n");
+        }
+        sb.append("</osmChange>\n");
+        return sb.toString().getBytes(Charsets.UTF_8);
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
 
 /**
  *
@@ -90,6 +91,8 @@ public class ChangesetContentsScannerTest extends Assert {
 
         assertEquals(-4.4621888, node.getLocation().get().getX(), 1E-6);
         assertEquals(48.4056473, node.getLocation().get().getY(), 1E-6);
+        // coordinates have OSM's precision and read back exactly
+        assertEquals(new Coordinate(-4.4621888, 48.4056473), node.getCoordinate());
     }
 
     @Test
@@ -107,6 +110,31 @@ public class ChangesetContentsScannerTest extends Assert {
                 ImmutableMap.of("type", "road"));
 
         assertEquals(ImmutableList.of(1082500L, 1082501L, 1082502L, 1082503L), way.getNodes());
+        assertEquals(4, way.getNodeCount());
+        assertArrayEquals(new long[] { 1082500L, 1082501L, 1082502L, 1082503L },
+                way.getNodeIds());
+    }
+
+    @Test
+    public void testParseTags() throws Exception {
+        String nodeDef = "<node id=\"1\" visible=\"true\" timestamp=\"2009-11-21T09:05:57Z\" user=\"jttt\" uid=\"48\" version=\"1\" changeset=\"1864\" lat=\"1\" lon=\"2\">"
+                + " <tag k=\"name\" v=\"first\" />"//
+                + " <tag k=\"amenity\" v=\"cafe\" />"//
+                + " <tag k=\"name\" v=\"second\" />"//
+                + "</node>";
+
+        Node node1 = (Node) new ChangesetContentsScanner().parsePrimitive(reader(nodeDef));
+        Node node2 = (Node) new ChangesetContentsScanner().parsePrimitive(reader(nodeDef));
+
+        // tags keep the document order, and a repeated key replaces the value
+        assertEquals(2, node1.getTagCount());
+        assertEquals("name", node1.getTagKey(0));
+        assertEquals("second", node1.getTagValue(0));
+        assertEquals("amenity", node1.getTagKey(1));
+        assertEquals("cafe", node1.getTagValue(1));
+        // keys are shared among primitives
+        assertSame(node1.getTagKey(0), node2.getTagKey(0));
+        assertSame(node1.getTagKey(1), node2.getTagKey(1));
     }
 
     @Test
@@ -0,0 +1,363 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+
+import crosby.binary.Fileformat.Blob;
+import crosby.binary.Fileformat.BlobHeader;
+import crosby.binary.Osmformat;
+import crosby.binary.Osmformat.DenseInfo;
+import crosby.binary.Osmformat.DenseNodes;
+import crosby.binary.Osmformat.HeaderBlock;
+import crosby.binary.Osmformat.Info;
+import crosby.binary.Osmformat.PrimitiveBlock;
+import crosby.binary.Osmformat.PrimitiveGroup;
+import crosby.binary.Osmformat.Relation;
+import crosby.binary.Osmformat.StringTable;
+
+/**
+ *
+ */
+public class HistoryDumpReaderTest extends Assert {
+
+    /**
+     * A full history dump, sorted by element type, id and version as the real ones. Changeset 10
+     * creates nodes 1 and 2, changeset 11 deletes node 2 and creates way 5, and changeset 12 moves
+     * node 1 and modifies way 5.
+     */
+    static final String DUMP = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\" generator=\"test\">\n"
+            + " <node id=\"1\" version=\"1\" timestamp=\"2009-10-11T20:00:00Z\" uid=\"1\" user=\"alice\" changeset=\"10\" visible=\"true\" lat=\"1.0\" lon=\"2.0\">\n"
+            + "  <tag k=\"name\" v=\"one\"/>\n"
+            + " </node>\n"
+            + " <node id=\"1\" version=\"2\" timestamp=\"2009-10-11T22:00:00Z\" uid=\"2\" user=\"bob\" changeset=\"12\" visible=\"true\" lat=\"1.5\" lon=\"2.5\"/>\n"
+            + " <node id=\"2\" version=\"1\" timestamp=\"2009-10-11T20:01:00Z\" uid=\"1\" user=\"alice\" changeset=\"10\" visible=\"true\" lat=\"3.0\" lon=\"4.0\"/>\n"
+            + " <node id=\"2\" version=\"2\" timestamp=\"2009-10-11T21:00:00Z\" uid=\"1\" user=\"alice\" changeset=\"11\" visible=\"false\"/>\n"
+            + " <node id=\"3\" version=\"1\" timestamp=\"2009-10-11T20:02:00Z\" uid=\"1\" user=\"alice\" changeset=\"10\" visible=\"true\" lat=\"5.0\" lon=\"6.0\"/>\n"
+            + " <way id=\"5\" version=\"1\" timestamp=\"2009-10-11T21:00:00Z\" uid=\"1\" user=\"alice\" changeset=\"11\" visible=\"true\">\n"
+            + "  <nd ref=\"1\"/>\n"
+            + "  <nd ref=\"3\"/>\n"
+            + "  <tag k=\"highway\" v=\"residential\"/>\n"
+            + " </way>\n"
+            + " <way id=\"5\" version=\"2\" timestamp=\"2009-10-11T22:00:00Z\" uid=\"2\" user=\"bob\" changeset=\"12\" visible=\"true\">\n"
+            + "  <nd ref=\"3\"/>\n"
+            + "  <nd ref=\"1\"/>\n"
+            + " </way>\n"
+            + " <relation id=\"7\" version=\"1\" timestamp=\"2009-10-11T21:00:00Z\" uid=\"1\" user=\"alice\" changeset=\"11\" visible=\"true\">\n"
+            + "  <member type=\"way\" ref=\"5\" role=\"\"/>\n"
+            + " </relation>\n"
+            + "</osm>\n";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes {@link #DUMP} to the given file, gzip or bzip2 compressed if its name ends with
+     * {@code .gz} or {@code .bz2}
+     */
+    static File writeDump(File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            out = new GZIPOutputStream(out);
+        } else if (file.getName().endsWith(".bz2")) {
+            out = new BZip2CompressorOutputStream(out);
+        }
+        Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+        try {
+            writer.write(DUMP);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testPlainDump() throws Exception {
+        File dump = writeDump(new File(tmpFolder.getRoot(), "history.osh"));
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor));
+    }
+
+    @Test
+    public void testCompressedDumpInSeveralRuns() throws Exception {
+        File dump = writeDump(new File(tmpFolder.getRoot(), "history.osh.gz"));
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor, 2));
+    }
+
+    /**
+     * With a run per element and runs merged two at a time, the runs are merged in several passes
+     * and only the last two are left for the final merge
+     */
+    @Test
+    public void testMultiPassMerge() throws Exception {
+        File dump = writeDump(new File(tmpFolder.getRoot(), "history.osh"));
+        HistoryDumpReader reader = new HistoryDumpReader(dump, tmpFolder.getRoot(), executor, 1,
+                2);
+        try {
+            assertTrue(reader.fetchNextChangeset().isPresent());
+            File[] runs = new File(tmpFolder.getRoot(), "history.osh.runs").listFiles();
+            assertEquals(2, runs.length);
+        } finally {
+            reader.close();
+        }
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor, 1, 2));
+    }
+
+    @Test
+    public void testBzip2Dump() throws Exception {
+        File dump = writeDump(new File(tmpFolder.getRoot(), "history.osh.bz2"));
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor, 3));
+    }
+
+    @Test
+    public void testPbfDump() throws Exception {
+        File dump = writePbf(new File(tmpFolder.getRoot(), "history.osh.pbf"), "OsmSchema-V0.6",
+                "DenseNodes", "HistoricalInformation");
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor));
+    }
+
+    @Test
+    public void testPbfDumpInSeveralRuns() throws Exception {
+        File dump = writePbf(new File(tmpFolder.getRoot(), "history.osh.pbf"), "OsmSchema-V0.6",
+                "DenseNodes");
+        assertChangesets(new HistoryDumpReader(dump, tmpFolder.getRoot(), executor, 2));
+    }
+
+    @Test
+    public void testUnsupportedPbfFeature() throws Exception {
+        File dump = writePbf(new File(tmpFolder.getRoot(), "history.osh.pbf"), "OsmSchema-V0.6",
+                "LocationsOnWays");
+        HistoryDumpReader reader = new HistoryDumpReader(dump, tmpFolder.getRoot(), executor);
+        try {
+            reader.fetchNextChangeset();
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("LocationsOnWays"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The parsing shall wait while {@link HistoryDumpReader#MAX_PENDING_RUNS} runs wait to be
+     * sorted and written
+     */
+    @Test
+    public void testPendingRunsLimit() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        final Semaphore release = new Semaphore(0);
+        ExecutorService blocking = new ThreadPoolExecutor(10, 10, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                started.incrementAndGet();
+                release.acquireUninterruptibly();
+            }
+        };
+        File dump = writeDump(new File(tmpFolder.getRoot(), "history.osh"));
+        final HistoryDumpReader reader = new HistoryDumpReader(dump, tmpFolder.getRoot(),
+                blocking, 1);
+        try {
+            Future<Optional<Changeset>> first = executor
+                    .submit(new Callable<Optional<Changeset>>() {
+                        @Override
+                        public Optional<Changeset> call() {
+                            return reader.fetchNextChangeset();
+                        }
+                    });
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (started.get() < HistoryDumpReader.MAX_PENDING_RUNS) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            // seven elements, one per run, but only some of the runs handed to the executor
+            assertEquals(HistoryDumpReader.MAX_PENDING_RUNS, started.get());
+            assertFalse(first.isDone());
+
+            release.release(100);
+            assertEquals(10L, first.get(10, TimeUnit.SECONDS).get().getId());
+            assertEquals(7, started.get());
+        } finally {
+            release.release(100);
+            reader.close();
+            blocking.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the same history as {@link #DUMP} as a PBF file, with the nodes as dense nodes in a
+     * zlib compressed block, and the ways and the relation in a block of their own
+     *
+     * @param requiredFeatures the features set as required to read the file in its header
+     */
+    private static File writePbf(File file, String... requiredFeatures) throws Exception {
+        // 0: "", 1: alice, 2: bob, 3: name, 4: one, 5: highway, 6: residential
+        StringTable strings = StringTable.newBuilder().addS(ByteString.copyFromUtf8(""))
+                .addS(ByteString.copyFromUtf8("alice")).addS(ByteString.copyFromUtf8("bob"))
+                .addS(ByteString.copyFromUtf8("name")).addS(ByteString.copyFromUtf8("one"))
+                .addS(ByteString.copyFromUtf8("highway"))
+                .addS(ByteString.copyFromUtf8("residential")).build();
+
+        // delta coded, coordinates in units of 100 nanodegrees and timestamps in seconds
+        DenseInfo denseInfo = DenseInfo.newBuilder().addVersion(1).addVersion(2).addVersion(1)
+                .addVersion(2).addVersion(1).addTimestamp(1255291200).addTimestamp(7200)
+                .addTimestamp(-7140).addTimestamp(3540).addTimestamp(-3480).addChangeset(10)
+                .addChangeset(2).addChangeset(-2).addChangeset(1).addChangeset(-1).addUid(1)
+                .addUid(1).addUid(-1).addUid(0).addUid(0).addUserSid(1).addUserSid(1)
+                .addUserSid(-1).addUserSid(0).addUserSid(0).addVisible(true).addVisible(true)
+                .addVisible(true).addVisible(false).addVisible(true).build();
+        DenseNodes dense = DenseNodes.newBuilder().addId(1).addId(0).addId(1).addId(0).addId(1)
+                .addLat(10000000).addLat(5000000).addLat(15000000).addLat(0).addLat(20000000)
+                .addLon(20000000).addLon(5000000).addLon(15000000).addLon(0).addLon(20000000)
+                .setDenseinfo(denseInfo).addKeysVals(3).addKeysVals(4).addKeysVals(0)
+                .addKeysVals(0).addKeysVals(0).addKeysVals(0).addKeysVals(0).build();
+        PrimitiveBlock nodes = PrimitiveBlock.newBuilder().setStringtable(strings)
+                .addPrimitivegroup(PrimitiveGroup.newBuilder().setDense(dense)).build();
+
+        Osmformat.Way way1 = Osmformat.Way.newBuilder().setId(5).addKeys(5).addVals(6)
+                .addRefs(1).addRefs(2).setInfo(info(1, 1255294800, 11, 1, 1)).build();
+        Osmformat.Way way2 = Osmformat.Way.newBuilder().setId(5).addRefs(3).addRefs(-2)
+                .setInfo(info(2, 1255298400, 12, 2, 2)).build();
+        Relation relation = Relation.newBuilder().setId(7).setInfo(info(1, 1255294800, 11, 1, 1))
+                .build();
+        PrimitiveBlock ways = PrimitiveBlock.newBuilder().setStringtable(strings)
+                .addPrimitivegroup(PrimitiveGroup.newBuilder().addWays(way1).addWays(way2))
+                .addPrimitivegroup(PrimitiveGroup.newBuilder().addRelations(relation)).build();
+
+        HeaderBlock.Builder header = HeaderBlock.newBuilder();
+        for (String feature : requiredFeatures) {
+            header.addRequiredFeatures(feature);
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            writeBlob(out, "OSMHeader", header.build(), false);
+            writeBlob(out, "OSMData", nodes, true);
+            writeBlob(out, "OSMData", ways, false);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static Info info(int version, int timestamp, long changeset, int uid, int userSid) {
+        return Info.newBuilder().setVersion(version).setTimestamp(timestamp)
+                .setChangeset(changeset).setUid(uid).setUserSid(userSid).setVisible(true).build();
+    }
+
+    private static void writeBlob(DataOutputStream out, String type, MessageLite message,
+            boolean compress) throws Exception {
+        final byte[] raw = message.toByteArray();
+        Blob.Builder blob = Blob.newBuilder();
+        if (compress) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            DeflaterOutputStream deflater = new DeflaterOutputStream(compressed);
+            deflater.write(raw);
+            deflater.close();
+            blob.setZlibData(ByteString.copyFrom(compressed.toByteArray())).setRawSize(
+                    raw.length);
+        } else {
+            blob.setRaw(ByteString.copyFrom(raw));
+        }
+        byte[] data = blob.build().toByteArray();
+        byte[] header = BlobHeader.newBuilder().setType(type).setDatasize(data.length).build()
+                .toByteArray();
+        out.writeInt(header.length);
+        out.write(header);
+        out.write(data);
+    }
+
+    private void assertChangesets(HistoryDumpReader reader) {
+        try {
+            Changeset changeset = reader.fetchNextChangeset().get();
+            assertEquals(10L, changeset.getId());
+            assertEquals("alice", changeset.getUserName());
+            List<Change> changes = ImmutableList.copyOf(changeset.getChanges().get());
+            assertEquals(3, changes.size());
+            assertChange(changes.get(0), Change.Type.create, 1L);
+            assertEquals("one", changes.get(0).getNode().get().getTags().get("name"));
+            assertEquals(2.0, changes.get(0).getNode().get().getLocation().get().getX(), 0);
+            assertEquals(1.0, changes.get(0).getNode().get().getLocation().get().getY(), 0);
+            assertChange(changes.get(1), Change.Type.create, 2L);
+            assertChange(changes.get(2), Change.Type.create, 3L);
+
+            changeset = reader.fetchNextChangeset().get();
+            assertEquals(11L, changeset.getId());
+            changes = ImmutableList.copyOf(changeset.getChanges().get());
+            assertEquals(2, changes.size());
+            assertChange(changes.get(0), Change.Type.delete, 2L);
+            assertFalse(changes.get(0).getNode().get().getLocation().isPresent());
+            assertChange(changes.get(1), Change.Type.create, 5L);
+            assertEquals(Lists.newArrayList(1L, 3L), changes.get(1).getWay().get().getNodes());
+
+            changeset = reader.fetchNextChangeset().get();
+            assertEquals(12L, changeset.getId());
+            assertEquals("bob", changeset.getUserName());
+            changes = ImmutableList.copyOf(changeset.getChanges().get());
+            assertEquals(2, changes.size());
+            assertChange(changes.get(0), Change.Type.modify, 1L);
+            assertChange(changes.get(1), Change.Type.modify, 5L);
+            assertEquals(Lists.newArrayList(3L, 1L), changes.get(1).getWay().get().getNodes());
+
+            assertEquals(Optional.absent(), reader.fetchNextChangeset());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertChange(Change change, Change.Type type, long id) {
+        assertEquals(type, change.getType());
+        Primitive primitive = change.getNode().isPresent() ? change.getNode().get() : change
+                .getWay().get();
+        assertEquals(id, primitive.getId());
+    }
+}
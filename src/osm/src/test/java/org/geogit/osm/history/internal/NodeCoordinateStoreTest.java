@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.osm.history.internal;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ *
+ */
+public class NodeCoordinateStoreTest extends Assert {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File file;
+
+    private NodeCoordinateStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(tmpFolder.getRoot(), "nodes");
+        store = new NodeCoordinateStore(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void testPutGet() {
+        assertNull(store.get(1L));
+        store.put(1L, new Coordinate(-57.9571303, -34.9210986));
+        store.put(2L, new Coordinate(180, 90));
+        store.put(3L, new Coordinate(-180, -90));
+        assertEquals(3, store.size());
+
+        assertEquals(new Coordinate(-57.9571303, -34.9210986), store.get(1L));
+        assertEquals(new Coordinate(180, 90), store.get(2L));
+        assertEquals(new Coordinate(-180, -90), store.get(3L));
+        assertNull(store.get(4L));
+
+        store.put(1L, new Coordinate(1.5, 2.5));
+        assertEquals(3, store.size());
+        assertEquals(new Coordinate(1.5, 2.5), store.get(1L));
+    }
+
+    @Test
+    public void testRemove() {
+        final int count = 10000;
+        for (long id = 1; id <= count; id++) {
+            store.put(id, new Coordinate(id / 1000d, -id / 1000d));
+        }
+        for (long id = 1; id <= count; id += 2) {
+            assertTrue(store.remove(id));
+        }
+        assertFalse(store.remove(1L));
+        assertEquals(count / 2, store.size());
+        for (long id = 1; id <= count; id++) {
+            Coordinate coordinate = store.get(id);
+            if (id % 2 == 1) {
+                assertNull(coordinate);
+            } else {
+                assertEquals(new Coordinate(id / 1000d, -id / 1000d), coordinate);
+            }
+        }
+    }
+
+    @Test
+    public void testGrowAndReopen() throws Exception {
+        final int count = 200000;
+        Random random = new Random(1);
+        Coordinate[] coordinates = new Coordinate[count];
+        for (int i = 0; i < count; i++) {
+            double x = Math.round((random.nextDouble() * 360 - 180) * 1E7) / 1E7;
+            double y = Math.round((random.nextDouble() * 180 - 90) * 1E7) / 1E7;
+            coordinates[i] = new Coordinate(x, y);
+            store.put(i + 1, coordinates[i]);
+        }
+        store.setChangeset(42L);
+        store.close();
+
+        store = new NodeCoordinateStore(file);
+        assertEquals(count, store.size());
+        assertEquals(42L, store.getChangeset());
+        for (int i = 0; i < count; i++) {
+            assertEquals(coordinates[i], store.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        store.put(1L, new Coordinate(1, 1));
+        store.setChangeset(10L);
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.get(1L));
+        assertEquals(NodeCoordinateStore.NO_CHANGESET, store.getChangeset());
+    }
+}
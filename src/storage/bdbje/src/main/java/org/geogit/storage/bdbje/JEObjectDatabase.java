@@ -15,6 +15,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
@@ -223,6 +224,30 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         }
     }
 
+    /**
+     * Overrides to insert the whole batch in a single transaction
+     */
+    @Override
+    protected int putAllInternal(final List<Entry<ObjectId, byte[]>> objects) {
+        if (txn == null) {
+            return super.putAllInternal(objects);
+        }
+        Transaction transaction = txn.beginTransaction(TransactionConfig.DEFAULT);
+        try {
+            int inserted = 0;
+            for (Entry<ObjectId, byte[]> object : objects) {
+                if (SUCCESS.equals(putInternal(object.getKey(), object.getValue(), transaction))) {
+                    inserted++;
+                }
+            }
+            txn.commitTransaction();
+            return inserted;
+        } catch (Exception e) {
+            txn.abortTransaction();
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
         OperationStatus status;
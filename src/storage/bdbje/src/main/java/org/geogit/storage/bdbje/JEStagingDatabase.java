@@ -63,6 +63,11 @@ import com.sleepycat.je.Environment;
  */
 public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
 
+    /**
+     * Maximum number of ids handed at a time to the databases' copyTo
+     */
+    private static final int COPY_RUN_SIZE = 1000;
+
     private final EnvironmentBuilder envProvider;
 
     // /////////////////////////////////////////
@@ -143,6 +148,19 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return repositoryDb.getRaw(id);
     }
 
+    @Override
+    public InputStream getCompressed(ObjectId id) {
+        if (stagingDb.exists(id)) {
+            return stagingDb.getCompressed(id);
+        }
+        return repositoryDb.getCompressed(id);
+    }
+
+    @Override
+    public boolean putCompressed(ObjectId objectId, InputStream compressed) {
+        return stagingDb.putCompressed(objectId, compressed);
+    }
+
     @Override
     public List<ObjectId> lookUp(String partialId) {
         Set<ObjectId> lookUp = new HashSet<ObjectId>(stagingDb.lookUp(partialId));
@@ -214,6 +232,38 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return stagingDb.put(objectId, raw);
     }
 
+    /**
+     * Copies each run of consecutive ids found in the same database, staging area or repository,
+     * with that database's {@link ObjectDatabase#copyTo(Iterator, ObjectDatabase) copyTo}, so
+     * objects are copied in their stored form whenever possible and in the iteration order.
+     */
+    @Override
+    public long copyTo(Iterator<ObjectId> ids, ObjectDatabase target) {
+        long inserted = 0;
+        List<ObjectId> run = Lists.newArrayList();
+        ObjectDatabase runSource = null;
+        while (ids.hasNext()) {
+            ObjectId id = ids.next();
+            ObjectDatabase source = stagingDb.exists(id) ? stagingDb : repositoryDb;
+            if (source != runSource || run.size() >= COPY_RUN_SIZE) {
+                inserted += copyRun(run, runSource, target);
+                run.clear();
+                runSource = source;
+            }
+            run.add(id);
+        }
+        inserted += copyRun(run, runSource, target);
+        return inserted;
+    }
+
+    private long copyRun(List<ObjectId> run, ObjectDatabase source, ObjectDatabase target) {
+        if (run.isEmpty() || source == target) {
+            // objects from the repository database are already there
+            return 0;
+        }
+        return source.copyTo(run.iterator(), target);
+    }
+
     @Override
     public RevTree getTree(ObjectId id) {
         return get(id, RevTree.class);
@@ -67,6 +67,7 @@ public class CommandBuilder {
         command.setPaths(Arrays.asList(options.getValuesArray("path")));
         command.setSince(options.getFirstValue("since"));
         command.setUntil(options.getFirstValue("until"));
+        command.setPage(options.getFirstValue("page"));
         return command;
     }
 
@@ -100,6 +101,8 @@ public class CommandBuilder {
         command.setOldRefSpec(options.getFirstValue("oldRefSpec", null));
         command.setNewRefSpec(options.getFirstValue("newRefSpec", null));
         command.setPathFilter(options.getFirstValue("pathFilter", null));
+        command.setLimit(parseInt(options, "limit", null));
+        command.setPage(options.getFirstValue("page"));
         return command;
     }
     
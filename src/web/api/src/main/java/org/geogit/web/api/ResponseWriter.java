@@ -6,7 +6,6 @@ import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.codehaus.jettison.AbstractXMLStreamWriter;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
@@ -28,12 +27,18 @@ public class ResponseWriter {
 
     public ResponseWriter(XMLStreamWriter out) {
         this.out = out;
-        if (out instanceof AbstractXMLStreamWriter) {
-            configureJSONOutput((AbstractXMLStreamWriter) out);
+        if (out instanceof StreamingJSONWriter) {
+            configureJSONOutput((StreamingJSONWriter) out);
         }
     }
 
-    private void configureJSONOutput(AbstractXMLStreamWriter out) {
+    private void configureJSONOutput(StreamingJSONWriter out) {
+        out.serializeAsArray("commit");
+        out.serializeAsArray("parents/id");
+        out.serializeAsArray("node");
+        out.serializeAsArray("diff");
+        out.serializeAsArray("staged");
+        out.serializeAsArray("unstaged");
     }
 
     public void finish() throws XMLStreamException {
@@ -128,6 +133,17 @@ public class ResponseWriter {
         }
     }
 
+    /**
+     * Writes the continuation token to pass back to get the next page of results, if there's one
+     * 
+     * @param token the opaque continuation token, {@code null} if there are no more results
+     */
+    public void writeNextPage(@Nullable String token) throws XMLStreamException {
+        if (token != null) {
+            writeElement("nextPage", token);
+        }
+    }
+
     public void writeCommits(Iterator<RevCommit> entries) throws XMLStreamException {
         while (entries.hasNext()) {
             RevCommit entry = entries.next();
@@ -0,0 +1,357 @@
+package org.geogit.web.api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Deque;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * An {@link XMLStreamWriter} that writes JSON straight to the output as the elements are written,
+ * instead of building the whole document in memory before writing it out.
+ * <p>
+ * Elements with child elements are written as objects, elements with only text content as string
+ * values, and attributes as {@code "@name"} members. Since repeated elements can't be told apart
+ * from single ones without buffering, the elements that are written as arrays have to be declared
+ * beforehand through {@link #serializeAsArray(String)}, either by name or as
+ * {@code parent/child}; consecutive siblings with such a name are written as a single array.
+ * Namespaces, comments and processing instructions are ignored.
+ */
+public class StreamingJSONWriter implements XMLStreamWriter {
+
+    private final Writer out;
+
+    private final Set<String> arrayElements = Sets.newHashSet();
+
+    private final Deque<Level> levels = Lists.newLinkedList();
+
+    /**
+     * The state of an element being written
+     */
+    private static class Level {
+
+        @Nullable
+        final String name;
+
+        /** whether the element has child elements or attributes, and hence is an object */
+        boolean object;
+
+        int members;
+
+        /** the name of the array being written as the element's last member, if any */
+        @Nullable
+        String openArray;
+
+        final StringBuilder text = new StringBuilder();
+
+        Level(@Nullable String name) {
+            this.name = name;
+        }
+    }
+
+    public StreamingJSONWriter(Writer out) {
+        Preconditions.checkNotNull(out);
+        this.out = out;
+    }
+
+    /**
+     * Declares the elements to be written as arrays
+     *
+     * @param name an element name, or a {@code parent/child} pair of names to declare only the
+     *        elements with the given name under the given parent
+     */
+    public void serializeAsArray(String name) {
+        arrayElements.add(name);
+    }
+
+    private boolean isArray(@Nullable String parent, String name) {
+        return arrayElements.contains(name) || arrayElements.contains(parent + "/" + name);
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        Preconditions.checkState(levels.isEmpty(), "document already started");
+        levels.push(new Level(null));
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (levels.size() > 1) {
+            writeEndElement();
+        }
+        if (!levels.isEmpty()) {
+            Level document = levels.pop();
+            write(document.object ? endObject(document) : "{}");
+        }
+        flush();
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        if (levels.isEmpty()) {
+            writeStartDocument();
+        }
+        Level parent = levels.peek();
+        startMember(parent, localName);
+        levels.push(new Level(localName));
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI)
+            throws XMLStreamException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeStartElement(localName);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI)
+            throws XMLStreamException {
+        writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        Preconditions.checkState(levels.size() > 1, "no element to end");
+        Level level = levels.pop();
+        if (level.object) {
+            write(endObject(level));
+        } else {
+            write(quote(level.text));
+        }
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        Preconditions.checkState(levels.size() > 1, "no element to add the attribute to");
+        startMember(levels.peek(), "@" + localName);
+        write(quote(value));
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        Preconditions.checkState(!levels.isEmpty(), "document not started");
+        levels.peek().text.append(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        Preconditions.checkState(!levels.isEmpty(), "document not started");
+        levels.peek().text.append(text, start, len);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    /**
+     * Writes the name of a new member of {@code parent}, opening the parent object and closing or
+     * continuing the array of its previous member as needed
+     */
+    private void startMember(Level parent, String name) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        if (!parent.object) {
+            // text content mixed with child elements is dropped
+            parent.object = true;
+            sb.append('{');
+        }
+        if (parent.openArray != null) {
+            if (parent.openArray.equals(name)) {
+                write(sb.append(','));
+                return;
+            }
+            sb.append(']');
+            parent.openArray = null;
+        }
+        if (parent.members++ > 0) {
+            sb.append(',');
+        }
+        sb.append(quote(name)).append(':');
+        if (!name.startsWith("@") && isArray(parent.name, name)) {
+            sb.append('[');
+            parent.openArray = name;
+        }
+        write(sb);
+    }
+
+    private String endObject(Level level) {
+        return level.openArray == null ? "}" : "]}";
+    }
+
+    private static String quote(CharSequence value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    // also escape the JS line separators so the output is valid JSONP
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void write(CharSequence s) throws XMLStreamException {
+        try {
+            out.append(s);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Does not close the underlying writer, as mandated by {@link XMLStreamWriter#close()}
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        // not representable in JSON
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        // not representable in JSON
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data)
+            throws XMLStreamException {
+        // not representable in JSON
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        // not representable in JSON
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        writeCharacters("&" + name + ";");
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        // namespaces are ignored
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        // namespaces are ignored
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        // namespaces are ignored
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        // namespaces are ignored
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        // namespaces are ignored
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property not supported: " + name);
+    }
+}
@@ -11,6 +11,13 @@ import org.geogit.web.api.CommandSpecException;
 import org.geogit.web.api.ResponseWriter;
 import org.geogit.web.api.WebAPICommand;
 
+/**
+ * Lists the differences between two versions.
+ * <p>
+ * When a {@code limit} is given and there are more differences, the response includes a
+ * {@code nextPage} token that can be passed as the {@code page} parameter, along with the same
+ * versions and filter, to get the next page.
+ */
 public class Diff implements WebAPICommand {
     private String oldRefSpec;
 
@@ -18,6 +25,10 @@ public class Diff implements WebAPICommand {
 
     private String pathFilter;
 
+    private Integer limit;
+
+    private String page;
+
     public void setOldRefSpec(String oldRefSpec) {
         this.oldRefSpec = oldRefSpec;
     }
@@ -30,6 +41,17 @@ public class Diff implements WebAPICommand {
         this.pathFilter = pathFilter;
     }
 
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @param page the continuation token returned as {@code nextPage} by a previous call
+     */
+    public void setPage(String page) {
+        this.page = page;
+    }
+
     @Override
     public void run(CommandContext context) {
         if (oldRefSpec == null || oldRefSpec.trim().isEmpty()) {
@@ -38,6 +60,22 @@ public class Diff implements WebAPICommand {
         if (newRefSpec == null || newRefSpec.trim().isEmpty()) {
             throw new CommandSpecException("No new ref spec");
         }
+        if (limit != null && limit.intValue() <= 0) {
+            throw new CommandSpecException("Invalid limit " + limit + ", it shall be positive");
+        }
+        // the token is the position of the first entry of the page in the diff
+        int start = 0;
+        if (page != null) {
+            try {
+                start = Integer.parseInt(page);
+            } catch (NumberFormatException e) {
+                throw new CommandSpecException("Invalid page token '" + page + "'");
+            }
+            if (start < 0) {
+                throw new CommandSpecException("Invalid page token '" + page + "'");
+            }
+        }
+        final int offset = start;
         final GeoGIT geogit = context.getGeoGIT();
 
         final Iterator<DiffEntry> diff = geogit.command(DiffOp.class).setOldVersion(oldRefSpec)
@@ -47,7 +85,14 @@ public class Diff implements WebAPICommand {
             @Override
             public void write(ResponseWriter out) throws Exception {
                 out.start();
-                out.writeDiffEntries("diff", 0, -1, diff);
+                if (limit == null) {
+                    out.writeDiffEntries("diff", offset, -1, diff);
+                } else {
+                    out.writeDiffEntries("diff", offset, limit.intValue(), diff);
+                    if (diff.hasNext()) {
+                        out.writeNextPage(String.valueOf(offset + limit.intValue()));
+                    }
+                }
                 out.finish();
             }
         });
@@ -10,14 +10,21 @@ import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.web.api.CommandContext;
 import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.CommandSpecException;
 import org.geogit.web.api.ResponseWriter;
 import org.geogit.web.api.WebAPICommand;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 
 /**
- *
+ * Lists the history of the current branch.
+ * <p>
+ * When the response is limited, it includes a {@code nextPage} token that can be passed as the
+ * {@code page} parameter, along with the same filters, to get the next page. The token resumes the
+ * history walk right where the previous page ended, so getting any page costs the same regardless
+ * of how deep into the history it is, as opposed to skipping an {@code offset} of commits.
  */
 public class Log implements WebAPICommand {
 
@@ -31,6 +38,8 @@ public class Log implements WebAPICommand {
 
     List<String> paths;
 
+    String page;
+
     public void setLimit(Integer limit) {
         this.limit = limit;
     }
@@ -51,24 +60,37 @@ public class Log implements WebAPICommand {
         this.paths = paths;
     }
 
+    /**
+     * @param page the continuation token returned as {@code nextPage} by a previous call
+     */
+    public void setPage(String page) {
+        this.page = page;
+    }
+
     @Override
     public void run(CommandContext context) {
+        if (limit != null && limit.intValue() <= 0) {
+            throw new CommandSpecException("Invalid limit " + limit + ", it shall be positive");
+        }
         final GeoGIT geogit = context.getGeoGIT();
 
         LogOp op = geogit.command(LogOp.class);
 
-        if (skip != null) {
+        if (skip != null && page == null) {
+            // the page token already tells where to start
             op.setSkip(skip.intValue());
         }
         if (limit != null) {
             op.setLimit(limit.intValue());
         }
 
+        ObjectId sinceId = ObjectId.NULL;
         if (this.since != null) {
             Optional<ObjectId> since;
             since = geogit.command(RevParse.class).setRefSpec(this.since).call();
             Preconditions.checkArgument(since.isPresent(), "Object not found '%s'", this.since);
             op.setSince(since.get());
+            sinceId = since.get();
         }
         if (this.until != null) {
             Optional<ObjectId> until;
@@ -76,21 +98,78 @@ public class Log implements WebAPICommand {
             Preconditions.checkArgument(until.isPresent(), "Object not found '%s'", this.until);
             op.setUntil(until.get());
         }
+        if (page != null) {
+            // the token is the id of the commit to resume the walk at
+            ObjectId resumeAt;
+            try {
+                resumeAt = ObjectId.valueOf(page);
+            } catch (IllegalArgumentException e) {
+                throw new CommandSpecException("Invalid page token '" + page + "'");
+            }
+            if (!geogit.getRepository().commitExists(resumeAt)) {
+                throw new CommandSpecException("Invalid page token '" + page + "'");
+            }
+            op.setUntil(resumeAt);
+        }
         if (paths != null && !paths.isEmpty()) {
             for (String path : paths) {
                 op.addPath(path);
             }
         }
 
-        final Iterator<RevCommit> log = op.call();
+        final Iterator<RevCommit> commits = op.call();
+        final LastCommitIterator log = new LastCommitIterator(commits);
+        final ObjectId oldest = sinceId;
         context.setResponseContent(new CommandResponse() {
             @Override
             public void write(ResponseWriter out) throws Exception {
                 out.start();
                 out.writeCommits(log);
+                out.writeNextPage(nextPage(log, oldest));
                 out.finish();
             }
         });
 
     }
+
+    /**
+     * @return the token to get the page following the one written from {@code log}, or
+     *         {@code null} if the page was not full or there are no older commits
+     */
+    private String nextPage(LastCommitIterator log, ObjectId sinceId) {
+        if (limit == null || log.count < limit.intValue() || log.last == null) {
+            return null;
+        }
+        Optional<ObjectId> parent = log.last.parentN(0);
+        if (!parent.isPresent() || parent.get().equals(sinceId)) {
+            return null;
+        }
+        return parent.get().toString();
+    }
+
+    /**
+     * Keeps track of the last commit returned and how many commits were returned
+     */
+    private static class LastCommitIterator extends AbstractIterator<RevCommit> {
+
+        private final Iterator<RevCommit> delegate;
+
+        private RevCommit last;
+
+        private int count;
+
+        LastCommitIterator(Iterator<RevCommit> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected RevCommit computeNext() {
+            if (!delegate.hasNext()) {
+                return endOfData();
+            }
+            last = delegate.next();
+            count++;
+            return last;
+        }
+    }
 }
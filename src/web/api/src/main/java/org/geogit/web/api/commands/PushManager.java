@@ -1,20 +1,32 @@
 package org.geogit.web.api.commands;
 
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
-import org.geogit.api.RevObject;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.ConcurrentRefUpdateException;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * Provides a safety net for remote pushes. This class keeps track of all objects that are being
@@ -22,16 +34,35 @@ import com.google.common.base.Optional;
  * in the Index database. If every object is successfully transfered, a message will be sent to the
  * PushManager to transfer all of those objects to the repository database. This prevents the
  * repository from getting corrupted if a push fails halfway through.
- * 
+ * <p>
+ * Each push is tracked in its own session, identified by the id returned by
+ * {@link #connectionBegin(String)}, so several clients, even from the same address, can push at
+ * the same time. Sessions not used for
+ * {@link #setSessionTimeout(long, TimeUnit) a while} are considered abandoned and discarded.
+ * <p>
+ * Clients that predate sessions don't send the session id, and identify their push by their
+ * address instead. The latest session begun from an address can be referred to by the address
+ * too, so those clients keep working as long as they don't push concurrently from the same
+ * address.
  */
 public class PushManager {
 
-    private Map<String, List<ObjectId>> incomingData;
+    /**
+     * Default time after which a session that's not used is discarded
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
 
     private static PushManager instance = new PushManager();
 
-    private PushManager() {
-        incomingData = new HashMap<String, List<ObjectId>>();
+    /**
+     * Push sessions by session id, and by the address they were begun from
+     */
+    private final ConcurrentMap<String, PushSession> sessions;
+
+    private volatile long sessionTimeoutMillis = DEFAULT_SESSION_TIMEOUT_MILLIS;
+
+    PushManager() {
+        sessions = Maps.newConcurrentMap();
     }
 
     /**
@@ -42,19 +73,27 @@ public class PushManager {
     }
 
     /**
-     * Begins tracking incoming objects from the specified ip address.
+     * @param timeout how long a session may go unused before it's discarded
+     * @param unit the time unit of {@code timeout}
+     */
+    public void setSessionTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout > 0, "timeout shall be positive: %s", timeout);
+        this.sessionTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Begins a new push session.
      * 
-     * @param ipAddress the remote machine that is pushing objects
+     * @param ipAddress the address of the remote machine that is pushing objects, which refers to
+     *        the new session too, for the clients that don't send the session id
+     * @return the id of the new push session, to be passed to the other methods of this class
      */
-    public void connectionBegin(String ipAddress) {
-        if (incomingData.containsKey(ipAddress)) {
-            incomingData.remove(ipAddress);
-        }
-        if (incomingData.size() > 0) {
-            // Fail?
-        }
-        List<ObjectId> newList = new LinkedList<ObjectId>();
-        incomingData.put(ipAddress, newList);
+    public String connectionBegin(String ipAddress) {
+        expireSessions();
+        PushSession session = new PushSession(UUID.randomUUID().toString(), ipAddress);
+        sessions.put(session.id, session);
+        sessions.put(ipAddress, session);
+        return session.id;
     }
 
     /**
@@ -63,71 +102,182 @@ public class PushManager {
      * object database.
      * 
      * @param geogit the geogit of the local repository
-     * @param ipAddress the remote machine that is pushing objects
+     * @param session the push session id, or the address it was begun from
+     * @throws ConcurrentRefUpdateException if the ref being pushed was updated by someone else
+     *         while it was being pushed
      */
-    public void connectionSucceeded(GeoGIT geogit, String ipAddress, String refspec,
+    public void connectionSucceeded(GeoGIT geogit, String session, String refspec,
             ObjectId newCommit) {
-        // Add objects to the repository
-        if (incomingData.containsKey(ipAddress)) {
-            List<ObjectId> objectsToMove = incomingData.remove(ipAddress);
-            for (ObjectId oid : objectsToMove) {
-                RevObject toAdd = geogit.getRepository().getIndex().getDatabase().get(oid);
-                geogit.getRepository().getObjectDatabase().put(toAdd);
-            }
-            Optional<Ref> oldRef = geogit.command(RefParse.class).setName(refspec).call();
-            Optional<Ref> headRef = geogit.command(RefParse.class).setName(Ref.HEAD).call();
-            String refName = refspec;
-            if (oldRef.isPresent()) {
-                if (oldRef.get().getObjectId().equals(newCommit)) {
-                    return;
-                }
-                refName = oldRef.get().getName();
+        PushSession pushSession = remove(session);
+        if (pushSession == null) {
+            throw new RuntimeException("Tried to end a connection that didn't exist.");
+        }
+        // Add objects to the repository, copying them as stored. Commits are put afterwards, so
+        // that they reach the commit graph
+        final Repository repository = geogit.getRepository();
+        final ObjectDatabase stagingDb = repository.getIndex().getDatabase();
+        final ObjectDatabase objectDb = repository.getObjectDatabase();
+        final List<RevCommit> commits = pushedCommits(stagingDb, newCommit, pushSession.objects);
+        final Set<ObjectId> commitIds = Sets.newHashSet();
+        for (RevCommit commit : commits) {
+            commitIds.add(commit.getId());
+        }
+        stagingDb.copyTo(
+                Iterators.filter(pushSession.objects.iterator(),
+                        Predicates.not(Predicates.in(commitIds))), objectDb);
+        for (RevCommit commit : Lists.reverse(commits)) {
+            objectDb.put(commit);
+        }
+
+        Optional<Ref> oldRef = geogit.command(RefParse.class).setName(refspec).call();
+        Optional<Ref> headRef = geogit.command(RefParse.class).setName(Ref.HEAD).call();
+        String refName = refspec;
+        UpdateRef updateRef = geogit.command(UpdateRef.class);
+        if (oldRef.isPresent()) {
+            if (oldRef.get().getObjectId().equals(newCommit)) {
+                return;
             }
-            if (headRef.isPresent() && headRef.get() instanceof SymRef) {
-                if (((SymRef) headRef.get()).getTarget().equals(refName)) {
-                    RevCommit commit = geogit.getRepository().getCommit(newCommit);
-                    geogit.command(UpdateRef.class).setName(Ref.WORK_HEAD)
-                            .setNewValue(commit.getTreeId()).call();
-                    geogit.command(UpdateRef.class).setName(Ref.STAGE_HEAD)
-                            .setNewValue(commit.getTreeId()).call();
-                }
+            refName = oldRef.get().getName();
+            // fails with ConcurrentRefUpdateException if the ref was updated after being read
+            updateRef.setOldValue(oldRef.get().getObjectId());
+        }
+        updateRef.setName(refName).setNewValue(newCommit).call();
+
+        if (headRef.isPresent() && headRef.get() instanceof SymRef) {
+            if (((SymRef) headRef.get()).getTarget().equals(refName)) {
+                RevCommit commit = geogit.getRepository().getCommit(newCommit);
+                geogit.command(UpdateRef.class).setName(Ref.WORK_HEAD)
+                        .setNewValue(commit.getTreeId()).call();
+                geogit.command(UpdateRef.class).setName(Ref.STAGE_HEAD)
+                        .setNewValue(commit.getTreeId()).call();
             }
+        }
+    }
 
-            geogit.command(UpdateRef.class).setName(refName).setNewValue(newCommit).call();
-        } else {
-            throw new RuntimeException("Tried to end a connection that didn't exist.");
+    /**
+     * @return the pushed commits reachable from {@code tip}, each one before its parents
+     */
+    private List<RevCommit> pushedCommits(ObjectDatabase stagingDb, ObjectId tip,
+            Set<ObjectId> pushed) {
+        List<RevCommit> commits = Lists.newArrayList();
+        List<ObjectId> queue = Lists.newArrayList(tip);
+        Set<ObjectId> visited = Sets.newHashSet();
+        while (!queue.isEmpty()) {
+            ObjectId commitId = queue.remove(queue.size() - 1);
+            if (!pushed.contains(commitId) || !visited.add(commitId)) {
+                continue;
+            }
+            RevCommit commit = stagingDb.getCommit(commitId);
+            commits.add(commit);
+            queue.addAll(commit.getParentIds());
         }
+        return commits;
     }
 
     /**
      * Determines if a given object has already been pushed.
      * 
-     * @param ipAddress the remote machine that is pushing objects
+     * @param session the push session id, or the address it was begun from
      * @param oid the id of the object
      * @return {@code true} if the object has already been pushed and is being tracked by the
      *         {@code PushManager}
      */
-    public boolean alreadyPushed(String ipAddress, ObjectId oid) {
-        if (incomingData.containsKey(ipAddress)) {
-            return incomingData.get(ipAddress).contains(oid);
-        }
-        return false;
+    public boolean alreadyPushed(String session, ObjectId oid) {
+        PushSession pushSession = lookUp(session);
+        return pushSession != null && pushSession.objects.contains(oid);
     }
 
     /**
      * Tells the {@code PushManager} that an object has been added to the index database and should
      * be tracked for the given connection.
      * 
-     * @param ipAddress the remote machine that is pushing objects
+     * @param session the push session id, or the address it was begun from
      * @param oid the id of the object
      */
-    public void addObject(String ipAddress, ObjectId oid) {
-        if (incomingData.containsKey(ipAddress)) {
-            incomingData.get(ipAddress).add(oid);
-        } else {
+    public void addObject(String session, ObjectId oid) {
+        PushSession pushSession = lookUp(session);
+        if (pushSession == null) {
             throw new RuntimeException(
                     "Tried to push an object without first opening a connection.");
         }
+        pushSession.objects.add(oid);
     }
 
+    /**
+     * @return the number of push sessions in progress
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (Map.Entry<String, PushSession> e : sessions.entrySet()) {
+            if (e.getKey().equals(e.getValue().id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Nullable
+    private PushSession lookUp(String session) {
+        PushSession pushSession = sessions.get(session);
+        if (pushSession != null) {
+            pushSession.touch();
+        }
+        return pushSession;
+    }
+
+    /**
+     * @return the removed session, or {@code null} if there's no such session or it was removed
+     *         meanwhile
+     */
+    @Nullable
+    private PushSession remove(String session) {
+        PushSession pushSession = sessions.get(session);
+        if (pushSession == null || !remove(pushSession)) {
+            return null;
+        }
+        return pushSession;
+    }
+
+    private boolean remove(PushSession pushSession) {
+        // the address is left alone if a later session was begun from it
+        sessions.remove(pushSession.address, pushSession);
+        return sessions.remove(pushSession.id, pushSession);
+    }
+
+    /**
+     * Discards the sessions that haven't been used within the session timeout
+     */
+    private void expireSessions() {
+        final long expiredBefore = System.currentTimeMillis() - sessionTimeoutMillis;
+        for (PushSession session : sessions.values()) {
+            if (session.lastAccess < expiredBefore) {
+                remove(session);
+            }
+        }
+    }
+
+    /**
+     * The objects pushed within a push session
+     */
+    private static class PushSession {
+
+        private final String id;
+
+        private final String address;
+
+        private final Set<ObjectId> objects = Sets.newSetFromMap(Maps
+                .<ObjectId, Boolean> newConcurrentMap());
+
+        private volatile long lastAccess;
+
+        PushSession(String id, String address) {
+            this.id = id;
+            this.address = address;
+            touch();
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
 }
@@ -0,0 +1,238 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jettison.mapped.MappedNamespaceConvention;
+import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.SymRef;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class StreamingJSONWriterTest {
+
+    private StringWriter out;
+
+    private StreamingJSONWriter writer;
+
+    @Before
+    public void setUp() {
+        out = new StringWriter();
+        writer = new StreamingJSONWriter(out);
+    }
+
+    private void element(String name, String text) throws Exception {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    @Test
+    public void testEmptyDocument() throws Exception {
+        writer.writeStartDocument();
+        writer.writeEndDocument();
+        assertEquals("{}", out.toString());
+    }
+
+    @Test
+    public void testNested() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        element("success", "true");
+        writer.writeStartElement("Ref");
+        element("name", "HEAD");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"response\":{\"success\":\"true\",\"Ref\":{\"name\":\"HEAD\"}}}",
+                out.toString());
+    }
+
+    @Test
+    public void testArrayByName() throws Exception {
+        writer.serializeAsArray("item");
+        writer.writeStartDocument();
+        writer.writeStartElement("root");
+        element("item", "a");
+        element("item", "b");
+        element("other", "c");
+        writer.writeStartElement("nested");
+        element("item", "d");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"root\":{\"item\":[\"a\",\"b\"],\"other\":\"c\","
+                + "\"nested\":{\"item\":[\"d\"]}}}", out.toString());
+    }
+
+    @Test
+    public void testArrayOfObjects() throws Exception {
+        writer.serializeAsArray("commit");
+        writer.writeStartDocument();
+        writer.writeStartElement("response");
+        writer.writeStartElement("commit");
+        element("id", "1");
+        writer.writeEndElement();
+        writer.writeStartElement("commit");
+        element("id", "2");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"response\":{\"commit\":[{\"id\":\"1\"},{\"id\":\"2\"}]}}",
+                out.toString());
+    }
+
+    @Test
+    public void testArrayByParentAndChild() throws Exception {
+        writer.serializeAsArray("parents/id");
+        writer.writeStartDocument();
+        writer.writeStartElement("commit");
+        element("id", "c");
+        writer.writeStartElement("parents");
+        element("id", "p1");
+        element("id", "p2");
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"commit\":{\"id\":\"c\",\"parents\":{\"id\":[\"p1\",\"p2\"]}}}",
+                out.toString());
+    }
+
+    @Test
+    public void testAttributes() throws Exception {
+        writer.serializeAsArray("item");
+        writer.writeStartDocument();
+        writer.writeStartElement("root");
+        writer.writeAttribute("version", "1");
+        writer.writeStartElement("item");
+        writer.writeAttribute("id", "a");
+        writer.writeEndElement();
+        element("text", "b");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"root\":{\"@version\":\"1\",\"item\":[{\"@id\":\"a\"}],\"text\":\"b\"}}",
+                out.toString());
+    }
+
+    @Test
+    public void testEmptyElements() throws Exception {
+        writer.serializeAsArray("item");
+        writer.writeStartDocument();
+        writer.writeStartElement("root");
+        writer.writeEmptyElement("empty");
+        writer.writeStartElement("noText");
+        writer.writeEndElement();
+        writer.writeEmptyElement("item");
+        writer.writeEmptyElement("item");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"root\":{\"empty\":\"\",\"noText\":\"\",\"item\":[\"\",\"\"]}}",
+                out.toString());
+    }
+
+    @Test
+    public void testEndDocumentClosesElements() throws Exception {
+        writer.serializeAsArray("item");
+        writer.writeStartDocument();
+        writer.writeStartElement("root");
+        element("item", "a");
+        writer.writeStartElement("open");
+        writer.writeEndDocument();
+        assertEquals("{\"root\":{\"item\":[\"a\"],\"open\":\"\"}}", out.toString());
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        writer.writeStartDocument();
+        writer.writeStartElement("root");
+        writer.writeAttribute("quote", "\"");
+        element("text", "a\"b\\c/d\n\r\t\b\f\u0001\u2028\u2029\u00e9");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        assertEquals("{\"root\":{\"@quote\":\"\\\"\",\"text\":"
+                + "\"a\\\"b\\\\c/d\\n\\r\\t\\b\\f\\u0001\\u2028\\u2029\u00e9\"}}", out.toString());
+
+        // and it parses back to the original text
+        JSONObject root = new JSONObject(out.toString()).getJSONObject("root");
+        assertEquals("a\"b\\c/d\n\r\t\b\f\u0001\u2028\u2029\u00e9", root.getString("text"));
+    }
+
+    /**
+     * A response written with {@link StreamingJSONWriter} shall parse to the same JSON as the one
+     * written with Jettison's {@link MappedXMLStreamWriter}, which was used before, as long as the
+     * elements declared as arrays are repeated so that Jettison writes them as arrays too
+     */
+    @Test
+    public void testSameAsMappedWriter() throws Exception {
+        StringWriter mapped = new StringWriter();
+        writeResponse(new MappedXMLStreamWriter(new MappedNamespaceConvention(), mapped));
+        writeResponse(writer);
+
+        assertEquals(toJava(new JSONObject(mapped.toString())),
+                toJava(new JSONObject(out.toString())));
+    }
+
+    private void writeResponse(XMLStreamWriter xml) throws Exception {
+        ObjectId metadataId = ObjectId.forString("metadata");
+        List<NodeRef> nodes = ImmutableList.of(
+                new NodeRef(Node.create("points", ObjectId.forString("points"), metadataId,
+                        TYPE.TREE), "", metadataId),
+                new NodeRef(Node.create("lines", ObjectId.forString("lines"), metadataId,
+                        TYPE.TREE), "", metadataId));
+        Ref master = new Ref(Ref.MASTER, ObjectId.forString("master"), TYPE.COMMIT);
+
+        ResponseWriter response = new ResponseWriter(xml);
+        response.start();
+        response.writeHeaderElements("branch", "master", "count", "2");
+        response.writeLsTreeResponse(nodes.iterator(), true);
+        response.writeUpdateRefResponse(new SymRef(Ref.HEAD, master));
+        response.writeNextPage("token \"1\"");
+        response.finish();
+        xml.flush();
+    }
+
+    /**
+     * @return the JSON value as maps, lists and strings, which can be compared with equals
+     */
+    private static Object toJava(Object json) throws Exception {
+        if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject) json;
+            Map<String, Object> map = Maps.newHashMap();
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                map.put(key, toJava(object.get(key)));
+            }
+            return map;
+        }
+        if (json instanceof JSONArray) {
+            JSONArray array = (JSONArray) json;
+            List<Object> list = Lists.newArrayList();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(toJava(array.get(i)));
+            }
+            return list;
+        }
+        return json;
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.api.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PushManagerTest {
+
+    private static final String ADDRESS = "10.0.0.1.192.168.0.2";
+
+    private PushManager pushManager;
+
+    @Before
+    public void setUp() {
+        pushManager = new PushManager();
+    }
+
+    @Test
+    public void testConcurrentSessions() {
+        // two clients behind the same address
+        String session1 = pushManager.connectionBegin(ADDRESS);
+        String session2 = pushManager.connectionBegin(ADDRESS);
+        assertFalse(session1.equals(session2));
+        assertEquals(2, pushManager.getSessionCount());
+
+        ObjectId object1 = ObjectId.forString("object1");
+        ObjectId object2 = ObjectId.forString("object2");
+        pushManager.addObject(session1, object1);
+        pushManager.addObject(session2, object2);
+
+        assertTrue(pushManager.alreadyPushed(session1, object1));
+        assertFalse(pushManager.alreadyPushed(session1, object2));
+        assertTrue(pushManager.alreadyPushed(session2, object2));
+        assertFalse(pushManager.alreadyPushed(session2, object1));
+    }
+
+    @Test
+    public void testSessionExpiry() throws Exception {
+        pushManager.setSessionTimeout(1, TimeUnit.MILLISECONDS);
+        String expired = pushManager.connectionBegin(ADDRESS);
+        Thread.sleep(10);
+
+        // sessions are expired as new ones begin
+        String session = pushManager.connectionBegin("10.0.0.2.");
+        assertEquals(1, pushManager.getSessionCount());
+
+        ObjectId object = ObjectId.forString("object");
+        try {
+            pushManager.addObject(expired, object);
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Tried to push an object"));
+        }
+        try {
+            pushManager.addObject(ADDRESS, object);
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Tried to push an object"));
+        }
+        pushManager.addObject(session, object);
+        assertTrue(pushManager.alreadyPushed(session, object));
+    }
+
+    /**
+     * Clients that don't send the session id refer to their push by their address
+     */
+    @Test
+    public void testLegacyClient() {
+        String session = pushManager.connectionBegin(ADDRESS);
+
+        ObjectId object = ObjectId.forString("object");
+        pushManager.addObject(ADDRESS, object);
+        assertTrue(pushManager.alreadyPushed(ADDRESS, object));
+        assertTrue(pushManager.alreadyPushed(session, object));
+        assertEquals(1, pushManager.getSessionCount());
+
+        // the address refers to the latest session begun from it
+        String later = pushManager.connectionBegin(ADDRESS);
+        assertFalse(pushManager.alreadyPushed(ADDRESS, object));
+        assertEquals(2, pushManager.getSessionCount());
+
+        ObjectId other = ObjectId.forString("other");
+        pushManager.addObject(ADDRESS, other);
+        assertTrue(pushManager.alreadyPushed(later, other));
+        assertFalse(pushManager.alreadyPushed(session, other));
+    }
+}
@@ -10,8 +10,6 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.codehaus.jettison.mapped.MappedNamespaceConvention;
-import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
 import org.geogit.api.GeoGIT;
 import org.geogit.web.api.CommandBuilder;
 import org.geogit.web.api.CommandContext;
@@ -19,6 +17,7 @@ import org.geogit.web.api.CommandResponse;
 import org.geogit.web.api.CommandSpecException;
 import org.geogit.web.api.ParameterSet;
 import org.geogit.web.api.ResponseWriter;
+import org.geogit.web.api.StreamingJSONWriter;
 import org.geogit.web.api.WebAPICommand;
 import org.restlet.data.Form;
 import org.restlet.data.MediaType;
@@ -160,7 +159,7 @@ public class CommandResource extends ServerResource {
                 }
                 callback = null; // this doesn't make sense
             } else if (mediaType == MediaType.APPLICATION_JSON) {
-                xml = new MappedXMLStreamWriter(new MappedNamespaceConvention(), writer);
+                xml = new StreamingJSONWriter(writer);
             } else {
                 throw new RuntimeException("mediatype not handled " + mediaType);
             }
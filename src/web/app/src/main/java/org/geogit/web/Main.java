@@ -19,6 +19,7 @@ import org.geogit.web.api.commands.PushManager;
 import org.geogit.web.api.repo.BeginPush;
 import org.geogit.web.api.repo.EndPush;
 import org.geogit.web.api.repo.ManifestResource;
+import org.geogit.web.api.repo.MissingCommitsResource;
 import org.geogit.web.api.repo.ObjectExistsResource;
 import org.geogit.web.api.repo.ObjectResource;
 import org.geogit.web.api.repo.SendObjectResource;
@@ -105,6 +106,7 @@ public class Main extends Application {
         router.attach("/exists", ObjectExistsResource.class);
         router.attach("/beginpush", BeginPush.class);
         router.attach("/endpush", EndPush.class);
+        router.attach("/missingcommits", MissingCommitsResource.class);
         return router;
     }
 
@@ -3,6 +3,7 @@ package org.geogit.web.api.repo;
 import java.io.IOException;
 import java.io.Writer;
 
+import org.geogit.remote.HttpRemoteRepo;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.data.ClientInfo;
 import org.restlet.data.Form;
@@ -30,8 +31,10 @@ public class BeginPush extends ServerResource {
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
             PushManager pushManager = PushManager.get();
-            pushManager.connectionBegin(ipAddress);
-            w.write("Push began for address: " + ipAddress);
+            String sessionId = pushManager.connectionBegin(ipAddress);
+            w.write("Push began for address: " + ipAddress + "\n");
+            w.write(HttpRemoteRepo.PUSH_SESSION + sessionId + "\n");
+            w.write(HttpRemoteRepo.ACCEPTS_COMPRESSED_OBJECTS + "\n");
             w.flush();
         }
     }
@@ -6,6 +6,7 @@ import java.io.Writer;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.plumbing.ConcurrentRefUpdateException;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.data.ClientInfo;
@@ -36,6 +37,8 @@ public class EndPush extends ServerResource {
             // external network.
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
+            // the push session, or the address for clients that do not send it
+            String session = options.getFirstValue("sessionId", ipAddress);
 
             String refspec = options.getFirstValue("refspec", null);
             ObjectId oid = ObjectId.valueOf(options.getFirstValue("objectId",
@@ -53,8 +56,13 @@ public class EndPush extends ServerResource {
                 w.flush();
             } else {
                 PushManager pushManager = PushManager.get();
-                pushManager.connectionSucceeded(ggit, ipAddress, refspec, oid);
-                w.write("Push succeeded for address: " + ipAddress);
+                try {
+                    pushManager.connectionSucceeded(ggit, session, refspec, oid);
+                    w.write("Push succeeded for address: " + ipAddress);
+                } catch (ConcurrentRefUpdateException e) {
+                    w.write("Push aborted for address: " + ipAddress
+                            + ". The ref was changed during push.");
+                }
                 w.flush();
             }
         }
@@ -0,0 +1,79 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.api.repo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.FindMissingCommits;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+import org.restlet.resource.ServerResource;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * Negotiates the commits a fetching client is missing.
+ * <p>
+ * The request body lists the commit the client wants as a {@code want <id>} line, the tips of the
+ * client refs as {@code have <id>} lines, and optionally the history depth to limit the answer to
+ * as a {@code depth <n>} line. The response lists the ids of the missing commits, one per line,
+ * each one before its parents.
+ *
+ * @see FindMissingCommits
+ */
+public class MissingCommitsResource extends ServerResource {
+
+    @Post
+    public Representation findMissingCommits(Representation entity) throws IOException {
+        final GeoGIT ggit = (GeoGIT) getApplication().getContext().getAttributes().get("geogit");
+        FindMissingCommits command = ggit.command(FindMissingCommits.class);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getStream(),
+                Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("want ")) {
+                    command.setWant(ObjectId.valueOf(line.substring(5).trim()));
+                } else if (line.startsWith("have ")) {
+                    command.addHave(ObjectId.valueOf(line.substring(5).trim()));
+                } else if (line.startsWith("depth ")) {
+                    command.setDepth(Integer.valueOf(line.substring(6).trim()));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+
+        final List<ObjectId> missing;
+        try {
+            missing = command.call();
+        } catch (IllegalStateException e) {
+            // no want line
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // unknown want; not a 404, which clients take as the negotiation being unsupported
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, e.getMessage());
+        }
+
+        StringBuilder sb = new StringBuilder(missing.size() * 41);
+        for (ObjectId id : missing) {
+            sb.append(id).append('\n');
+        }
+        return new StringRepresentation(sb, MediaType.TEXT_PLAIN);
+    }
+}
@@ -35,7 +35,9 @@ public class ObjectExistsResource extends ServerResource {
             // external network.
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
-            if (ggit.getRepository().blobExists(oid) || pushManager.alreadyPushed(ipAddress, oid)) {
+            // the push session, or the address for clients that do not send it
+            String session = options.getFirstValue("sessionId", ipAddress);
+            if (ggit.getRepository().blobExists(oid) || pushManager.alreadyPushed(session, oid)) {
                 w.write("1");
             } else {
                 w.write("0");
@@ -1,14 +1,20 @@
 package org.geogit.web.api.repo;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
+import org.geogit.remote.HttpRemoteRepo;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.MediaType;
+import org.restlet.data.Preference;
 import org.restlet.representation.OutputRepresentation;
 import org.restlet.resource.Finder;
 import org.restlet.resource.ServerResource;
@@ -22,9 +28,10 @@ public class ObjectResource extends Finder {
             final String id = (String) request.getAttributes().get("id");
             final ObjectId oid = ObjectId.valueOf(id);
             if (ggit.getRepository().blobExists(oid)) {
+                final boolean compressed = acceptsCompressed(request);
                 return new ServerResource() {
                     {
-                        getVariants().add(new ObjectRepresentation(oid, ggit));
+                        getVariants().add(new ObjectRepresentation(oid, ggit, compressed));
                     }
                 };
             }
@@ -32,21 +39,50 @@ public class ObjectResource extends Finder {
         return super.find(request, response);
     }
 
+    /**
+     * @return whether the client explicitly accepts objects in their stored, compressed, form
+     */
+    private static boolean acceptsCompressed(Request request) {
+        for (Preference<MediaType> accepted : request.getClientInfo().getAcceptedMediaTypes()) {
+            if (HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE.equals(accepted.getMetadata()
+                    .getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private class ObjectRepresentation extends OutputRepresentation {
         private final ObjectId oid;
 
         private final GeoGIT ggit;
 
-        public ObjectRepresentation(ObjectId oid, GeoGIT ggit) {
-            super(MediaType.APPLICATION_OCTET_STREAM);
+        private final boolean compressed;
+
+        public ObjectRepresentation(ObjectId oid, GeoGIT ggit, boolean compressed) {
+            super(compressed ? MediaType.valueOf(HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE)
+                    : MediaType.APPLICATION_OCTET_STREAM);
             this.oid = oid;
             this.ggit = ggit;
+            this.compressed = compressed;
         }
 
         @Override
         public void write(OutputStream out) throws IOException {
-            InputStream rawObject = ggit.getRepository().getRawObject(oid);
+            InputStream rawObject = compressed ? ggit.getRepository().getCompressedObject(oid)
+                    : ggit.getRepository().getRawObject(oid);
             try {
+                if (rawObject instanceof FileInputStream) {
+                    // let the OS copy the stored object straight to the response
+                    FileChannel channel = ((FileInputStream) rawObject).getChannel();
+                    WritableByteChannel target = Channels.newChannel(out);
+                    long position = 0;
+                    long size = channel.size();
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                    return;
+                }
                 byte[] buff = new byte[8192];
                 int len = 0;
                 while ((len = rawObject.read(buff)) >= 0) {
@@ -5,6 +5,8 @@ import java.io.InputStream;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
+import org.geogit.remote.HttpRemoteRepo;
+import org.geogit.storage.StagingDatabase;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.data.ClientInfo;
 import org.restlet.data.Form;
@@ -26,6 +28,8 @@ public class SendObjectResource extends ServerResource {
         // external network.
         // e.g.: ext.ern.al.IP.int.ern.al.IP
         String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
+        // the push session, or the address for clients that do not send it
+        String session = options.getFirstValue("sessionId", ipAddress);
 
         InputStream input = entity.getStream();
         byte objectIdBytes[] = new byte[20];
@@ -39,8 +43,16 @@ public class SendObjectResource extends ServerResource {
 
         } else {
             // put it into the staging database until we have all of the data
-            ggit.getRepository().getIndex().getDatabase().put(objectId, input);
-            pushManager.addObject(ipAddress, objectId);
+            StagingDatabase stagingDatabase = ggit.getRepository().getIndex().getDatabase();
+            if (entity.getMediaType() != null
+                    && HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE.equals(entity.getMediaType()
+                            .getName())) {
+                // already compressed, store it as is
+                stagingDatabase.putCompressed(objectId, input);
+            } else {
+                stagingDatabase.put(objectId, input);
+            }
+            pushManager.addObject(session, objectId);
             result = new StringRepresentation("Object added: " + objectId.toString());
         }
 
@@ -0,0 +1,178 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A TCP proxy that forwards the connections it accepts to a local server, counting the connections
+ * and the bytes that go through them.
+ * <p>
+ * Counting at the socket level measures the traffic as it is on the wire, with headers and any
+ * chunked or compressed encoding included, and tells how many connections the client opened, that
+ * is, how well it reuses them.
+ */
+class CountingProxy {
+
+    private final ServerSocket serverSocket;
+
+    private final int targetPort;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong connections = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * @param targetPort the port of the local server to forward the connections to
+     */
+    CountingProxy(int targetPort) throws IOException {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("benchmark-proxy-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return the port the proxy listens to
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void start() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket client = serverSocket.accept();
+                        connections.incrementAndGet();
+                        forward(client);
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        });
+    }
+
+    void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        executor.shutdownNow();
+    }
+
+    void reset() {
+        connections.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+    }
+
+    /**
+     * @return the number of connections accepted since the last {@link #reset()}
+     */
+    long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return the number of bytes sent by the clients since the last {@link #reset()}
+     */
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return the number of bytes received by the clients since the last {@link #reset()}
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void forward(final Socket client) throws IOException {
+        final Socket server;
+        try {
+            server = new Socket(InetAddress.getByName("localhost"), targetPort);
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        client.setTcpNoDelay(true);
+        server.setTcpNoDelay(true);
+        // closes both sockets once both directions are done
+        final AtomicInteger open = new AtomicInteger(2);
+        executor.execute(new Pump(client, server, bytesSent, open));
+        executor.execute(new Pump(server, client, bytesReceived, open));
+    }
+
+    private static class Pump implements Runnable {
+
+        private final Socket from;
+
+        private final Socket to;
+
+        private final AtomicLong counter;
+
+        private final AtomicInteger open;
+
+        Pump(Socket from, Socket to, AtomicLong counter, AtomicInteger open) {
+            this.from = from;
+            this.to = to;
+            this.counter = counter;
+            this.open = open;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[16 * 1024];
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                    counter.addAndGet(read);
+                }
+                to.shutdownOutput();
+            } catch (IOException e) {
+                // connection reset by either end, unblock the other direction
+                closeQuietly(from);
+                closeQuietly(to);
+            } finally {
+                if (open.decrementAndGet() == 0) {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
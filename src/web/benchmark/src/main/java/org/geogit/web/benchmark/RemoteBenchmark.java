@@ -0,0 +1,294 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.RevParse;
+import org.geogit.api.porcelain.CloneOp;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.ConfigOp.ConfigScope;
+import org.geogit.api.porcelain.FetchOp;
+import org.geogit.api.porcelain.InitOp;
+import org.geogit.api.porcelain.PullOp;
+import org.geogit.api.porcelain.PushOp;
+import org.geogit.api.porcelain.ResetOp;
+import org.geogit.api.porcelain.ResetOp.ResetMode;
+import org.geogit.di.GeogitModule;
+import org.geogit.storage.bdbje.JEStorageModule;
+import org.geogit.web.Main;
+import org.restlet.Application;
+import org.restlet.Component;
+import org.restlet.Context;
+import org.restlet.data.Protocol;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.inject.Guice;
+import com.google.inject.util.Modules;
+
+/**
+ * Measures the performance of the remote operations over the HTTP protocol.
+ * <p>
+ * Each run generates a repository of the requested size and shape, serves it with the web
+ * application on an in-process server, and then, through a {@link CountingProxy counting proxy}:
+ * <ol>
+ * <li>clones it,
+ * <li>pushes commits made on another clone,
+ * <li>pulls them into the first clone,
+ * <li>and fetches commits made on the served repository.
+ * </ol>
+ * For every operation, it reports the elapsed time, the requests the server handled, the
+ * connections the client opened and the bytes on the wire, as CSV rows preceded by comment lines
+ * with the parameters of the benchmark. The generated repositories are the same for the same
+ * parameters, so reports of different builds can be compared.
+ */
+public class RemoteBenchmark {
+
+    @Parameter(names = "--commits", description = "Number of commits of the served repository")
+    int commits = 100;
+
+    @Parameter(names = "--features", description = "Number of features added by each commit")
+    int features = 100;
+
+    @Parameter(names = "--updates", description = "Number of existing features modified by each commit")
+    int updates = 10;
+
+    @Parameter(names = "--types", description = "Number of feature types the features are spread over")
+    int types = 4;
+
+    @Parameter(names = "--push-commits", description = "Number of commits to push and pull")
+    int pushCommits = 10;
+
+    @Parameter(names = "--fetch-commits", description = "Number of commits to fetch")
+    int fetchCommits = 10;
+
+    @Parameter(names = "--runs", description = "Number of times to run the benchmark")
+    int runs = 3;
+
+    @Parameter(names = "--seed", description = "Random seed of the generated data")
+    long seed = 1;
+
+    @Parameter(names = "--label", description = "Label of the report rows, e.g. the version being measured")
+    String label = "";
+
+    @Parameter(names = "--output", description = "CSV file to write the report to, instead of the standard output")
+    File output;
+
+    @Parameter(names = "--workdir", description = "Directory to create the repositories in, a temporary one by default")
+    File workDir;
+
+    @Parameter(names = { "--help", "-h" }, help = true, description = "Print this help")
+    boolean help;
+
+    private final List<String> rows = Lists.newArrayList();
+
+    private CountingProxy proxy;
+
+    private RequestCounter requestCounter;
+
+    public static void main(String[] args) throws Exception {
+        RemoteBenchmark benchmark = new RemoteBenchmark();
+        JCommander jc = new JCommander(benchmark);
+        jc.setProgramName("geogit-remote-benchmark");
+        try {
+            jc.parse(args);
+        } catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (benchmark.help) {
+            jc.usage();
+            return;
+        }
+        benchmark.run();
+    }
+
+    public void run() throws Exception {
+        final File baseDir = workDir == null ? Files.createTempDir() : workDir;
+        for (int run = 1; run <= runs; run++) {
+            File runDir = new File(baseDir, "run" + run);
+            if (runDir.exists()) {
+                throw new IllegalStateException(runDir + " already exists");
+            }
+            run(run, runDir);
+        }
+        writeReport();
+    }
+
+    private void run(final int run, final File runDir) throws Exception {
+        final RepositoryGenerator generator = new RepositoryGenerator(seed, types, features,
+                updates);
+
+        System.err.println("Run " + run + ": generating repository in " + runDir);
+        final GeoGIT server = newRepository(new File(runDir, "server"));
+        generator.commit(server, commits);
+
+        final Component component = startServer(server);
+        final String url = "http://localhost:" + proxy.getPort();
+        try {
+            final GeoGIT clone1 = newGeoGIT(new File(runDir, "clone1"));
+            final GeoGIT clone2 = newGeoGIT(new File(runDir, "clone2"));
+
+            clone1.command(InitOp.class).call();
+            measure(run, "clone", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return clone1.command(CloneOp.class).setRepositoryURL(url).call();
+                }
+            });
+
+            clone2.command(InitOp.class).call();
+            clone2.command(CloneOp.class).setRepositoryURL(url).call();
+            generator.commit(clone2, pushCommits);
+            measure(run, "push", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return clone2.command(PushOp.class).call();
+                }
+            });
+
+            measure(run, "pull", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return clone1.command(PullOp.class).call();
+                }
+            });
+
+            // the push moved the server's branch but not its working tree and index, which the
+            // new commits are made on
+            ObjectId pushed = server.command(RevParse.class).setRefSpec(Ref.HEAD).call().get();
+            server.command(ResetOp.class).setMode(ResetMode.HARD)
+                    .setCommit(Suppliers.ofInstance(pushed)).call();
+            generator.commit(server, fetchCommits);
+            measure(run, "fetch", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return clone1.command(FetchOp.class).call();
+                }
+            });
+
+            clone1.close();
+            clone2.close();
+        } finally {
+            component.stop();
+            proxy.close();
+            server.close();
+        }
+    }
+
+    private void measure(int run, String operation, Callable<Object> op) throws Exception {
+        System.err.print("Run " + run + ": " + operation + "... ");
+        proxy.reset();
+        requestCounter.reset();
+
+        Stopwatch sw = new Stopwatch().start();
+        op.call();
+        sw.stop();
+
+        ImmutableSortedMap<String, Long> requests = requestCounter.getCounts();
+        long requestCount = 0;
+        for (Long count : requests.values()) {
+            requestCount += count.longValue();
+        }
+        System.err.println(sw);
+
+        rows.add(Joiner.on(',').join(label, run, operation, sw.elapsedMillis(), requestCount,
+                proxy.getConnections(), proxy.getBytesSent(), proxy.getBytesReceived(),
+                Joiner.on(';').withKeyValueSeparator("=").join(requests)));
+    }
+
+    private Component startServer(GeoGIT server) throws Exception {
+        final int port = freePort();
+
+        Context context = new Context();
+        context.getAttributes().put("geogit", server);
+        Application application = new Main();
+        application.setContext(context);
+
+        Component component = new Component();
+        component.getServers().add(Protocol.HTTP, port);
+        requestCounter = new RequestCounter(component.getContext().createChildContext(),
+                application);
+        component.getDefaultHost().attach(requestCounter);
+        component.start();
+
+        proxy = new CountingProxy(port);
+        proxy.start();
+        return component;
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    static GeoGIT newGeoGIT(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IllegalStateException("Can't create directory " + dir);
+        }
+        return new GeoGIT(Guice.createInjector(Modules.override(new GeogitModule()).with(
+                new JEStorageModule())), dir);
+    }
+
+    private static GeoGIT newRepository(File dir) {
+        GeoGIT geogit = newGeoGIT(dir);
+        geogit.getOrCreateRepository();
+        geogit.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setScope(ConfigScope.LOCAL).setName("user.name").setValue("benchmark").call();
+        geogit.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setScope(ConfigScope.LOCAL).setName("user.email")
+                .setValue("benchmark@geogit.org").call();
+        return geogit;
+    }
+
+    private void writeReport() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# commits=").append(commits).append(", features=").append(features)
+                .append(", updates=").append(updates).append(", types=").append(types)
+                .append(", push-commits=").append(pushCommits).append(", fetch-commits=")
+                .append(fetchCommits).append(", seed=").append(seed).append('\n');
+        sb.append("# java=").append(System.getProperty("java.version")).append(", os=")
+                .append(System.getProperty("os.name")).append(' ')
+                .append(System.getProperty("os.arch")).append(", processors=")
+                .append(Runtime.getRuntime().availableProcessors()).append('\n');
+        sb.append("label,run,operation,millis,requests,connections,bytes_sent,bytes_received,"
+                + "requests_by_resource\n");
+        for (String row : rows) {
+            sb.append(row).append('\n');
+        }
+
+        if (output == null) {
+            PrintStream out = System.out;
+            out.print(sb);
+            out.flush();
+        } else {
+            Files.write(sb, output, Charsets.UTF_8);
+            System.err.println("Report written to " + output);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.benchmark;
+
+import java.util.List;
+import java.util.Random;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.porcelain.AddOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.repository.FeatureValues;
+import org.geogit.repository.WorkingTree;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.SchemaException;
+import org.geotools.util.NullProgressListener;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Generates the history of a benchmark repository.
+ * <p>
+ * Each commit adds a number of new point features, spread over a number of feature types, and
+ * modifies a number of the features added by previous commits. Everything, including the commit
+ * authors and timestamps, derives from the random seed, so the same parameters always generate the
+ * same objects, with the same ids, and benchmark runs are comparable.
+ * <p>
+ * The generator remembers the features it created, so it can be used to commit on top of clones of
+ * the repository it generated, as long as they are up to date. The features are inserted by their
+ * attribute values, without building GeoTools features.
+ */
+class RepositoryGenerator {
+
+    private static final String NAMESPACE = "http://geogit.org/benchmark";
+
+    private static final String TYPE_SPEC = "the_geom:Point:srid=4326,name:String,value:Integer";
+
+    private static final long BASE_TIMESTAMP = 1325376000000L; // 2012-01-01
+
+    private final Random random;
+
+    private final int featuresPerCommit;
+
+    private final int updatesPerCommit;
+
+    private final List<RevFeatureType> types;
+
+    private final List<String> featureIds = Lists.newArrayList();
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private int commitCount;
+
+    /**
+     * @param seed the random seed
+     * @param typeCount the number of feature types to spread the features over
+     * @param featuresPerCommit the number of features each commit adds
+     * @param updatesPerCommit the number of existing features each commit modifies
+     */
+    RepositoryGenerator(long seed, int typeCount, int featuresPerCommit, int updatesPerCommit) {
+        Preconditions.checkArgument(typeCount > 0, "typeCount shall be positive");
+        Preconditions.checkArgument(featuresPerCommit >= 0 && updatesPerCommit >= 0);
+        this.random = new Random(seed);
+        this.featuresPerCommit = featuresPerCommit;
+        this.updatesPerCommit = updatesPerCommit;
+        this.types = Lists.newArrayListWithCapacity(typeCount);
+        try {
+            for (int i = 0; i < typeCount; i++) {
+                types.add(RevFeatureType.build(DataUtilities.createType(NAMESPACE, "Layer" + i,
+                        TYPE_SPEC)));
+            }
+        } catch (SchemaException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Makes the given number of commits on the current branch of the repository
+     *
+     * @return the commits made, oldest first
+     */
+    List<RevCommit> commit(GeoGIT geogit, int commits) {
+        List<RevCommit> result = Lists.newArrayListWithCapacity(commits);
+        for (int i = 0; i < commits; i++) {
+            result.add(commit(geogit));
+        }
+        return result;
+    }
+
+    private RevCommit commit(GeoGIT geogit) {
+        final WorkingTree workTree = geogit.getRepository().getWorkingTree();
+
+        List<List<FeatureValues>> byType = Lists.newArrayListWithCapacity(types.size());
+        for (int i = 0; i < types.size(); i++) {
+            byType.add(Lists.<FeatureValues> newArrayList());
+        }
+        final int existing = featureIds.size();
+        for (int i = 0; i < updatesPerCommit && existing > 0; i++) {
+            String id = featureIds.get(random.nextInt(existing));
+            int type = Integer.parseInt(id.substring(0, id.indexOf('.')));
+            byType.get(type).add(feature(types.get(type), id));
+        }
+        for (int i = 0; i < featuresPerCommit; i++) {
+            int type = random.nextInt(types.size());
+            String id = type + "." + featureIds.size();
+            featureIds.add(id);
+            byType.get(type).add(feature(types.get(type), id));
+        }
+
+        for (int i = 0; i < types.size(); i++) {
+            List<FeatureValues> features = byType.get(i);
+            if (!features.isEmpty()) {
+                RevFeatureType type = types.get(i);
+                String treePath = type.getName().getLocalPart();
+                workTree.insertValues(treePath, type, features.iterator(),
+                        new NullProgressListener(), null, features.size());
+            }
+        }
+        geogit.command(AddOp.class).call();
+
+        commitCount++;
+        final long timestamp = BASE_TIMESTAMP + commitCount * 60000L;
+        return geogit.command(CommitOp.class).setAllowEmpty(true)
+                .setAuthor("benchmark", "benchmark@geogit.org")
+                .setCommitter("benchmark", "benchmark@geogit.org").setAuthorTimestamp(timestamp)
+                .setCommitterTimestamp(timestamp).setAuthorTimeZoneOffset(0)
+                .setCommitterTimeZoneOffset(0).setMessage("Commit " + commitCount).call();
+    }
+
+    /**
+     * @return the feature values, sorted as the {@link RevFeatureType#sortedDescriptors() sorted
+     *         descriptors} of the feature type
+     */
+    private FeatureValues feature(RevFeatureType type, String id) {
+        double x = -180 + 360 * random.nextDouble();
+        double y = -90 + 180 * random.nextDouble();
+        Point geom = geometryFactory.createPoint(new Coordinate(x, y));
+        String name = "Feature " + id + " v" + commitCount;
+        Integer value = Integer.valueOf(random.nextInt());
+
+        List<PropertyDescriptor> descriptors = type.sortedDescriptors();
+        Object[] values = new Object[descriptors.size()];
+        for (int i = 0; i < values.length; i++) {
+            String attribute = descriptors.get(i).getName().getLocalPart();
+            if ("the_geom".equals(attribute)) {
+                values[i] = geom;
+            } else if ("name".equals(attribute)) {
+                values[i] = name;
+            } else if ("value".equals(attribute)) {
+                values[i] = value;
+            }
+        }
+        return new FeatureValues(id, values, geom.getEnvelopeInternal());
+    }
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.routing.Filter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Counts the requests the server handles, by resource, that is, by the first two segments of the
+ * request path, like {@code repo/objects}, leaving out the object ids.
+ */
+class RequestCounter extends Filter {
+
+    private final ConcurrentMap<String, AtomicLong> counts = Maps.newConcurrentMap();
+
+    RequestCounter(Context context, Restlet next) {
+        super(context, next);
+    }
+
+    @Override
+    protected int beforeHandle(Request request, Response response) {
+        String path = request.getResourceRef().getPath();
+        List<String> segments = Lists.newArrayList(Iterables.limit(
+                Splitter.on('/').omitEmptyStrings().split(path), 2));
+        String resource = request.getMethod() + " " + Joiner.on('/').join(segments);
+
+        AtomicLong count = counts.get(resource);
+        if (count == null) {
+            AtomicLong existing = counts.putIfAbsent(resource, count = new AtomicLong());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+        return CONTINUE;
+    }
+
+    void reset() {
+        counts.clear();
+    }
+
+    /**
+     * @return the number of requests since the last {@link #reset()}, by resource
+     */
+    ImmutableSortedMap<String, Long> getCounts() {
+        ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, AtomicLong> e : counts.entrySet()) {
+            builder.put(e.getKey(), Long.valueOf(e.getValue().get()));
+        }
+        return builder.build();
+    }
+}
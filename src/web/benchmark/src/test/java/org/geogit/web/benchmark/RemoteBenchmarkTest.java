@@ -0,0 +1,61 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+package org.geogit.web.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.RevTree;
+import org.geogit.repository.Repository;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Runs a single, small iteration of the benchmark
+ */
+public class RemoteBenchmarkTest {
+
+    @Test
+    public void testSmallRun() throws Exception {
+        final File workDir = new File(Files.createTempDir(), "benchmark");
+        final File output = new File(workDir.getParentFile(), "report.csv");
+
+        RemoteBenchmark benchmark = new RemoteBenchmark();
+        benchmark.commits = 2;
+        benchmark.features = 5;
+        benchmark.updates = 1;
+        benchmark.types = 2;
+        benchmark.pushCommits = 1;
+        benchmark.fetchCommits = 1;
+        benchmark.runs = 1;
+        benchmark.workDir = workDir;
+        benchmark.output = output;
+        benchmark.run();
+
+        List<String> report = Files.readLines(output, Charsets.UTF_8);
+        // two comment lines and the header
+        assertEquals(3 + 4, report.size());
+        assertEquals(",1,clone,", report.get(3).substring(0, 9));
+        assertEquals(",1,push,", report.get(4).substring(0, 8));
+        assertEquals(",1,pull,", report.get(5).substring(0, 8));
+        assertEquals(",1,fetch,", report.get(6).substring(0, 9));
+
+        // the commits made on the server after the push keep the pushed features
+        GeoGIT server = RemoteBenchmark.newGeoGIT(new File(workDir, "run1/server"));
+        try {
+            Repository repository = server.getRepository();
+            RevTree head = repository.getOrCreateHeadTree();
+            assertEquals(5 * (2 + 1 + 1), head.size());
+            assertEquals(head.getId(), repository.getWorkingTree().getTree().getId());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -15,9 +15,11 @@ import org.geogit.rest.repository.BeginPush;
 import org.geogit.rest.repository.CommandResource;
 import org.geogit.rest.repository.EndPush;
 import org.geogit.rest.repository.ManifestResource;
+import org.geogit.rest.repository.MissingCommitsResource;
 import org.geogit.rest.repository.ObjectExistsResource;
 import org.geogit.rest.repository.ObjectFinder;
 import org.geogit.rest.repository.RepositoryListResource;
+import org.geogit.rest.repository.RepositoryRegistry;
 import org.geogit.rest.repository.RepositoryResource;
 import org.geogit.rest.repository.SendObjectResource;
 import org.geoserver.catalog.Catalog;
@@ -32,6 +34,7 @@ import org.restlet.Router;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 
@@ -45,7 +48,7 @@ import com.noelios.restlet.ext.servlet.ServletConverter;
  * of {@link RESTMapping} so that our mappings don't get added to the regular geoserver rest
  * dispatcher.
  */
-public class GeogitDispatcher extends AbstractController {
+public class GeogitDispatcher extends AbstractController implements DisposableBean {
     /** HTTP method "PUT" */
     public static final String METHOD_PUT = "PUT";
 
@@ -59,6 +62,11 @@ public class GeogitDispatcher extends AbstractController {
 
     private Catalog catalog;
 
+    /**
+     * the open repositories, shared by all requests
+     */
+    private RepositoryRegistry registry;
+
     /**
      * converter for turning servlet requests into resetlet requests.
      */
@@ -71,6 +79,7 @@ public class GeogitDispatcher extends AbstractController {
 
     public GeogitDispatcher(final Catalog catalog) {
         this.catalog = catalog;
+        this.registry = new RepositoryRegistry(catalog);
         setSupportedMethods(new String[] { METHOD_GET, METHOD_POST, METHOD_PUT, METHOD_DELETE,
                 METHOD_HEAD });
     }
@@ -84,6 +93,18 @@ public class GeogitDispatcher extends AbstractController {
         converter.setTarget(router);
     }
 
+    @Override
+    public void destroy() {
+        registry.dispose();
+    }
+
+    /**
+     * @return the registry of the repositories served by this dispatcher
+     */
+    public RepositoryRegistry getRepositoryRegistry() {
+        return registry;
+    }
+
     public Router createInboundRoot() {
         Router router = createRoot();
         router.attach("", RepositoryListResource.class);
@@ -103,6 +124,7 @@ public class GeogitDispatcher extends AbstractController {
         router.attach("/exists", ObjectExistsResource.class);
         router.attach("/beginpush", BeginPush.class);
         router.attach("/endpush", EndPush.class);
+        router.attach("/missingcommits", MissingCommitsResource.class);
         return router;
     }
 
@@ -110,6 +132,7 @@ public class GeogitDispatcher extends AbstractController {
     public ModelAndView handleRequestInternal(HttpServletRequest req, HttpServletResponse resp)
             throws Exception {
 
+        final long start = System.nanoTime();
         try {
             converter.service(req, resp);
         } catch (Exception e) {
@@ -142,11 +165,39 @@ public class GeogitDispatcher extends AbstractController {
                 }
             }
             resp.getOutputStream().flush();
+        } finally {
+            // failed requests count too
+            String repository = repositoryName(req);
+            if (repository != null) {
+                registry.recordRequest(repository, System.nanoTime() - start);
+            }
         }
 
         return null;
     }
 
+    /**
+     * @return the {@code <workspace>:<datastore>} repository name the request is addressed to, or
+     *         {@code null} if it's not addressed to a repository
+     */
+    private static String repositoryName(HttpServletRequest req) {
+        final String marker = "/geogit/";
+        String uri = req.getRequestURI();
+        int start = uri.indexOf(marker);
+        if (start == -1) {
+            return null;
+        }
+        start += marker.length();
+        int end = uri.indexOf('/', start);
+        if (end == -1) {
+            // the repository resource itself, /geogit/<workspace>:<datastore>[.<extension>]
+            end = uri.lastIndexOf('.');
+            end = end < start ? uri.length() : end;
+        }
+        String name = uri.substring(start, end).replace("%3A", ":").replace("%3a", ":");
+        return name.indexOf(':') > 0 ? name : null;
+    }
+
     public Router createRoot() {
         Router router = new Router() {
 
@@ -157,6 +208,7 @@ public class GeogitDispatcher extends AbstractController {
                     return;
                 }
                 request.getAttributes().put("catalog", catalog);
+                request.getAttributes().put(RepositoryRegistry.KEY, registry);
                 // set the page uri's
 
                 // http://host:port/appName
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
 
+import org.geogit.remote.HttpRemoteRepo;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.Context;
 import org.restlet.data.ClientInfo;
@@ -48,8 +49,10 @@ public class BeginPush extends Resource {
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
             PushManager pushManager = PushManager.get();
-            pushManager.connectionBegin(ipAddress);
-            w.write("Push began for address: " + ipAddress);
+            String sessionId = pushManager.connectionBegin(ipAddress);
+            w.write("Push began for address: " + ipAddress + "\n");
+            w.write(HttpRemoteRepo.PUSH_SESSION + sessionId + "\n");
+            w.write(HttpRemoteRepo.ACCEPTS_COMPRESSED_OBJECTS + "\n");
             w.flush();
         }
     }
@@ -13,8 +13,6 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.codehaus.jettison.mapped.MappedNamespaceConvention;
-import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
 import org.geogit.api.GeoGIT;
 import org.geogit.web.api.CommandBuilder;
 import org.geogit.web.api.CommandContext;
@@ -22,6 +20,7 @@ import org.geogit.web.api.CommandResponse;
 import org.geogit.web.api.CommandSpecException;
 import org.geogit.web.api.ParameterSet;
 import org.geogit.web.api.ResponseWriter;
+import org.geogit.web.api.StreamingJSONWriter;
 import org.geogit.web.api.WebAPICommand;
 import org.geoserver.rest.RestletException;
 import org.geoserver.rest.util.RESTUtils;
@@ -191,7 +190,7 @@ public class CommandResource extends Resource {
                 }
                 callback = null; // this doesn't make sense
             } else if (mediaType == MediaType.APPLICATION_JSON) {
-                xml = new MappedXMLStreamWriter(new MappedNamespaceConvention(), writer);
+                xml = new StreamingJSONWriter(writer);
             } else {
                 throw new RuntimeException("mediatype not handled " + mediaType);
             }
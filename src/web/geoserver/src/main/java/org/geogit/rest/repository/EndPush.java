@@ -14,6 +14,7 @@ import java.util.List;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.plumbing.ConcurrentRefUpdateException;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.Context;
@@ -57,6 +58,8 @@ public class EndPush extends Resource {
             // external network.
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
+            // the push session, or the address for clients that do not send it
+            String session = options.getFirstValue("sessionId", ipAddress);
 
             String refspec = options.getFirstValue("refspec", null);
             ObjectId oid = ObjectId.valueOf(options.getFirstValue("objectId",
@@ -74,8 +77,13 @@ public class EndPush extends Resource {
                 w.flush();
             } else {
                 PushManager pushManager = PushManager.get();
-                pushManager.connectionSucceeded(ggit.get(), ipAddress, refspec, oid);
-                w.write("Push succeeded for address: " + ipAddress);
+                try {
+                    pushManager.connectionSucceeded(ggit.get(), session, refspec, oid);
+                    w.write("Push succeeded for address: " + ipAddress);
+                } catch (ConcurrentRefUpdateException e) {
+                    w.write("Push aborted for address: " + ipAddress
+                            + ". The ref was changed during push.");
+                }
                 w.flush();
             }
         }
@@ -85,11 +85,25 @@ class GeogitResourceUtils {
     }
 
     public static Optional<GeoGitDataStore> findDataStore(Request request, String repositoryName) {
+        RepositoryRegistry registry = (RepositoryRegistry) request.getAttributes().get(
+                RepositoryRegistry.KEY);
+        if (registry != null) {
+            return Optional.of(registry.get(repositoryName));
+        }
+        DataStoreInfo geogitStoreInfo = findStoreInfo(getCatalog(request), repositoryName);
+        return Optional.of(getDataStore(repositoryName, geogitStoreInfo));
+    }
+
+    /**
+     * @param repositoryName the repository name, in {@code <workspace>:<datastore>} form
+     * @return the info of the repository data store
+     * @throws RestletException if there's no such data store, or it's not enabled
+     */
+    static DataStoreInfo findStoreInfo(Catalog catalog, String repositoryName) {
         String[] wsds = repositoryName.split(":");
         String workspace = wsds[0];
         String datastore = wsds[1];
 
-        Catalog catalog = getCatalog(request);
         DataStoreInfo geogitStoreInfo = catalog.getDataStoreByName(workspace, datastore);
         if (null == geogitStoreInfo) {
             throw new RestletException("No such repository: " + repositoryName,
@@ -99,6 +113,15 @@ class GeogitResourceUtils {
             throw new RestletException("Repository is not enabled: " + repositoryName,
                     Status.CLIENT_ERROR_BAD_REQUEST);
         }
+        return geogitStoreInfo;
+    }
+
+    /**
+     * Gets the data store from the catalog resource pool, which creates it anew if it was disposed
+     *
+     * @throws RestletException if it can't be accessed or it's not a geogit data store
+     */
+    static GeoGitDataStore getDataStore(String repositoryName, DataStoreInfo geogitStoreInfo) {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore;
         try {
             dataStore = geogitStoreInfo.getDataStore(null);
@@ -110,8 +133,7 @@ class GeogitResourceUtils {
             throw new RestletException(repositoryName + " is not a Geogit DataStore: "
                     + geogitStoreInfo.getType(), Status.CLIENT_ERROR_BAD_REQUEST);
         }
-        GeoGitDataStore geogitDataStore = (GeoGitDataStore) dataStore;
-        return Optional.of(geogitDataStore);
+        return (GeoGitDataStore) dataStore;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import static org.geogit.rest.repository.GeogitResourceUtils.getGeogit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.FindMissingCommits;
+import org.geoserver.rest.RestletException;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Status;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.restlet.resource.StringRepresentation;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * Negotiates the commits a fetching client is missing.
+ * <p>
+ * The request body lists the commit the client wants as a {@code want <id>} line, the tips of the
+ * client refs as {@code have <id>} lines, and optionally the history depth to limit the answer to
+ * as a {@code depth <n>} line. The response lists the ids of the missing commits, one per line,
+ * each one before its parents.
+ *
+ * @see FindMissingCommits
+ */
+public class MissingCommitsResource extends Resource {
+
+    @Override
+    public boolean allowPost() {
+        return true;
+    }
+
+    @Override
+    public boolean allowGet() {
+        return false;
+    }
+
+    @Override
+    public void post(Representation entity) {
+        final Request request = getRequest();
+        final Optional<GeoGIT> ggit = getGeogit(request);
+        Preconditions.checkState(ggit.isPresent());
+
+        FindMissingCommits command = ggit.get().command(FindMissingCommits.class);
+
+        BufferedReader reader = null;
+        final List<ObjectId> missing;
+        try {
+            reader = new BufferedReader(new InputStreamReader(entity.getStream(), Charsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("want ")) {
+                    command.setWant(ObjectId.valueOf(line.substring(5).trim()));
+                } else if (line.startsWith("have ")) {
+                    command.addHave(ObjectId.valueOf(line.substring(5).trim()));
+                } else if (line.startsWith("depth ")) {
+                    command.setDepth(Integer.valueOf(line.substring(6).trim()));
+                }
+            }
+            missing = command.call();
+        } catch (IOException e) {
+            throw new RestletException(e.getMessage(), Status.SERVER_ERROR_INTERNAL, e);
+        } catch (IllegalStateException e) {
+            // no want line
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        } catch (IllegalArgumentException e) {
+            // malformed line or unknown want; not a 404, which clients take as the negotiation
+            // being unsupported
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+
+        StringBuilder sb = new StringBuilder(missing.size() * 41);
+        for (ObjectId id : missing) {
+            sb.append(id).append('\n');
+        }
+        getResponse().setEntity(new StringRepresentation(sb, MediaType.TEXT_PLAIN));
+    }
+}
@@ -63,8 +63,10 @@ public class ObjectExistsResource extends Resource {
             // external network.
             // e.g.: ext.ern.al.IP.int.ern.al.IP
             String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
+            // the push session, or the address for clients that do not send it
+            String session = options.getFirstValue("sessionId", ipAddress);
             PushManager pushManager = PushManager.get();
-            boolean alreadyPushed = pushManager.alreadyPushed(ipAddress, oid);
+            boolean alreadyPushed = pushManager.alreadyPushed(session, oid);
 
             if (blobExists || alreadyPushed) {
                 w.write("1");
@@ -7,17 +7,23 @@ package org.geogit.rest.repository;
 
 import static org.geogit.rest.repository.GeogitResourceUtils.getGeogit;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
+import org.geogit.remote.HttpRemoteRepo;
 import org.geogit.repository.Repository;
 import org.restlet.Context;
 import org.restlet.Finder;
 import org.restlet.data.MediaType;
+import org.restlet.data.Preference;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
 import org.restlet.resource.OutputRepresentation;
@@ -31,6 +37,9 @@ import com.google.common.base.Preconditions;
  * Expects an {@code id} request attribute containing the string representation of an
  * {@link ObjectId} (40 char hex string) to look up for in the repository database and return it as
  * a plain byte stream.
+ * <p>
+ * If the client {@link HttpRemoteRepo#COMPRESSED_OBJECT_MEDIA_TYPE accepts} it, the object is sent
+ * as stored in the object database, without decompressing it.
  */
 public class ObjectFinder extends Finder {
 
@@ -48,7 +57,8 @@ public class ObjectFinder extends Finder {
             Repository repository = geogit.getRepository();
             boolean blobExists = repository.blobExists(oid);
             if (blobExists) {
-                ObjectResource objectResource = new ObjectResource(oid, geogit);
+                ObjectResource objectResource = new ObjectResource(oid, geogit,
+                        acceptsCompressed(request));
                 objectResource.init(getContext(), request, response);
                 return objectResource;
             }
@@ -57,15 +67,28 @@ public class ObjectFinder extends Finder {
         return super.findTarget(request, response);
     }
 
+    private static boolean acceptsCompressed(Request request) {
+        for (Preference<MediaType> accepted : request.getClientInfo().getAcceptedMediaTypes()) {
+            if (HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE.equals(accepted.getMetadata()
+                    .getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static class ObjectResource extends Resource {
 
         private ObjectId oid;
 
         private GeoGIT geogit;
 
-        public ObjectResource(ObjectId oid, GeoGIT geogit) {
+        private boolean compressed;
+
+        public ObjectResource(ObjectId oid, GeoGIT geogit, boolean compressed) {
             this.oid = oid;
             this.geogit = geogit;
+            this.compressed = compressed;
         }
 
         @Override
@@ -73,7 +96,7 @@ public class ObjectFinder extends Finder {
             super.init(context, request, response);
             List<Variant> variants = getVariants();
 
-            variants.add(new RevObjectBinaryRepresentation(oid, geogit));
+            variants.add(new RevObjectBinaryRepresentation(oid, geogit, compressed));
         }
     }
 
@@ -82,17 +105,34 @@ public class ObjectFinder extends Finder {
 
         private final GeoGIT ggit;
 
-        public RevObjectBinaryRepresentation(ObjectId oid, GeoGIT ggit) {
-            super(MediaType.APPLICATION_OCTET_STREAM);
+        private final boolean compressed;
+
+        public RevObjectBinaryRepresentation(ObjectId oid, GeoGIT ggit, boolean compressed) {
+            super(compressed ? MediaType.valueOf(HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE)
+                    : MediaType.APPLICATION_OCTET_STREAM);
             this.oid = oid;
             this.ggit = ggit;
+            this.compressed = compressed;
         }
 
         @Override
         public void write(OutputStream out) throws IOException {
             Repository repository = ggit.getRepository();
-            InputStream rawObject = repository.getRawObject(oid);
+            InputStream rawObject = compressed ? repository.getCompressedObject(oid) : repository
+                    .getRawObject(oid);
             try {
+                if (rawObject instanceof FileInputStream) {
+                    // let the OS copy the stored object straight to the response
+                    FileChannel channel = ((FileInputStream) rawObject).getChannel();
+                    WritableByteChannel target = Channels.newChannel(out);
+                    long position = 0;
+                    long size = channel.size();
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                    out.flush();
+                    return;
+                }
                 byte[] buff = new byte[8192];
                 int len = 0;
                 while ((len = rawObject.read(buff)) >= 0) {
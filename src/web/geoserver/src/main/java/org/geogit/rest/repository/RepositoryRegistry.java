@@ -0,0 +1,336 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.ForEachRef;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.geotools.data.GeoGitDataStore;
+import org.geogit.repository.Repository;
+import org.geogit.storage.GraphDatabase;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.rest.RestletException;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps the geogit repositories served through the REST API open across requests.
+ * <p>
+ * Resolving a repository out of the catalog involves looking up its {@link DataStoreInfo} by name
+ * and checking it on every request, which adds up for the object transfer end points that are
+ * called once per object. This registry caches the resolved store infos by
+ * {@code <workspace>:<datastore>} name and listens to catalog events to drop the ones whose store
+ * or workspace was changed or removed. The data stores themselves are owned, and disposed when
+ * evicted from its cache, by the catalog resource pool, so they're still got from it on every
+ * request rather than cached here.
+ * <p>
+ * The first time a repository is resolved, the recent history of its branches is read in the
+ * background so the object database and commit graph caches are warm for the requests that follow.
+ * <p>
+ * The registry also keeps track of how many requests each repository gets and how long they take,
+ * as {@link #recordRequest(String, long) reported} by the dispatcher.
+ */
+public class RepositoryRegistry implements CatalogListener {
+
+    /**
+     * Name of the request attribute holding the registry
+     */
+    public static final String KEY = "geogitRepositoryRegistry";
+
+    /**
+     * Default number of commits to read per branch when warming up a repository
+     */
+    public static final int DEFAULT_WARM_UP_COMMITS = 100;
+
+    private static final Logger LOGGER = Logging.getLogger(RepositoryRegistry.class);
+
+    private final Catalog catalog;
+
+    private final ConcurrentMap<String, DataStoreInfo> repositories;
+
+    private final ConcurrentMap<String, RequestStats> requestStats;
+
+    private final ExecutorService warmUpExecutor;
+
+    private volatile int warmUpCommits = DEFAULT_WARM_UP_COMMITS;
+
+    public RepositoryRegistry(final Catalog catalog) {
+        Preconditions.checkNotNull(catalog);
+        this.catalog = catalog;
+        this.repositories = Maps.newConcurrentMap();
+        this.requestStats = Maps.newConcurrentMap();
+        this.warmUpExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("geogit-warm-up-%d").setDaemon(true).build());
+        catalog.addListener(this);
+    }
+
+    /**
+     * @param warmUpCommits how many commits of each branch to read when a repository is first
+     *        resolved, {@code 0} disables the warm up
+     */
+    public void setWarmUpCommits(int warmUpCommits) {
+        Preconditions.checkArgument(warmUpCommits >= 0, "can't be negative: %s", warmUpCommits);
+        this.warmUpCommits = warmUpCommits;
+    }
+
+    /**
+     * Stops listening to catalog events and releases the cached repositories
+     */
+    public void dispose() {
+        catalog.removeListener(this);
+        warmUpExecutor.shutdownNow();
+        repositories.clear();
+    }
+
+    /**
+     * Returns the data store for the given repository, resolving it out of the catalog if it's
+     * not cached.
+     *
+     * @param repositoryName the repository name, in {@code <workspace>:<datastore>} form
+     * @throws RestletException if there's no such repository, or it's not enabled or not a geogit
+     *         data store
+     */
+    public GeoGitDataStore get(final String repositoryName) {
+        DataStoreInfo info = repositories.get(repositoryName);
+        if (info == null) {
+            info = GeogitResourceUtils.findStoreInfo(catalog, repositoryName);
+            GeoGitDataStore dataStore = GeogitResourceUtils.getDataStore(repositoryName, info);
+            DataStoreInfo existing = repositories.putIfAbsent(repositoryName, info);
+            if (existing == null) {
+                scheduleWarmUp(repositoryName, dataStore.getGeogit());
+                return dataStore;
+            }
+            info = existing;
+        }
+        // the resource pool creates the data store anew if it was disposed
+        return GeogitResourceUtils.getDataStore(repositoryName, info);
+    }
+
+    /**
+     * Drops the given repository from the cache, so it's resolved out of the catalog again the
+     * next time it's requested
+     */
+    public void invalidate(final String repositoryName) {
+        if (repositories.remove(repositoryName) != null) {
+            LOGGER.fine("Released repository " + repositoryName);
+        }
+    }
+
+    /**
+     * Drops all repositories from the cache
+     */
+    public void invalidateAll() {
+        repositories.clear();
+    }
+
+    /**
+     * @return the names of the cached repositories
+     */
+    public Set<String> getCachedRepositories() {
+        return Sets.newTreeSet(repositories.keySet());
+    }
+
+    /**
+     * Records a request made to a repository, if it's cached
+     *
+     * @param repositoryName the repository name, in {@code <workspace>:<datastore>} form
+     * @param elapsedNanos how long it took to serve the request
+     */
+    public void recordRequest(final String repositoryName, final long elapsedNanos) {
+        if (!repositories.containsKey(repositoryName)) {
+            // not a valid repository, or released meanwhile
+            return;
+        }
+        RequestStats stats = requestStats.get(repositoryName);
+        if (stats == null) {
+            RequestStats newStats = new RequestStats();
+            stats = requestStats.putIfAbsent(repositoryName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.record(elapsedNanos);
+    }
+
+    /**
+     * @return the request statistics of each repository that got requests, by repository name
+     */
+    public Map<String, RequestStats> getRequestStats() {
+        return ImmutableMap.copyOf(requestStats);
+    }
+
+    private void scheduleWarmUp(final String repositoryName, final GeoGIT geogit) {
+        final int commits = warmUpCommits;
+        if (commits == 0) {
+            return;
+        }
+        warmUpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    warmUp(geogit, commits);
+                    LOGGER.fine("Warmed up repository " + repositoryName + " in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error warming up repository " + repositoryName, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the latest {@code commits} commits of each branch, their parents in the commit graph,
+     * and their root and feature type trees
+     */
+    private static void warmUp(final GeoGIT geogit, final int commits) {
+        final Repository repository = geogit.getRepository();
+        final GraphDatabase graph = repository.getGraphDatabase();
+        final Set<ObjectId> visited = Sets.newHashSet();
+        Set<Ref> branches = geogit.command(ForEachRef.class).setPrefixFilter(Ref.HEADS_PREFIX)
+                .call();
+        for (Ref branch : branches) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Iterator<RevCommit> log = geogit.command(LogOp.class).setUntil(branch.getObjectId())
+                    .setLimit(commits).call();
+            boolean tip = true;
+            while (log.hasNext()) {
+                RevCommit commit = log.next();
+                if (!visited.add(commit.getId())) {
+                    // the rest of the history was read already through another branch
+                    break;
+                }
+                graph.getParents(commit.getId());
+                if (visited.add(commit.getTreeId())) {
+                    RevTree root = repository.getTree(commit.getTreeId());
+                    if (tip) {
+                        warmUpTypeTrees(repository, root, visited);
+                    }
+                }
+                tip = false;
+            }
+        }
+    }
+
+    private static void warmUpTypeTrees(Repository repository, RevTree root,
+            Set<ObjectId> visited) {
+        if (!root.trees().isPresent()) {
+            return;
+        }
+        for (Node node : root.trees().get()) {
+            if (node.getType() == TYPE.TREE && visited.add(node.getObjectId())) {
+                repository.getTree(node.getObjectId());
+            }
+        }
+    }
+
+    private void invalidate(final CatalogInfo info) {
+        if (info instanceof DataStoreInfo) {
+            DataStoreInfo store = (DataStoreInfo) info;
+            if (store.getWorkspace() != null) {
+                invalidate(store.getWorkspace().getName() + ":" + store.getName());
+            }
+        } else if (info instanceof WorkspaceInfo) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // invalidate by the name before the change
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        // and by the name after the change
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    /**
+     * Request count and latency of a single repository
+     */
+    public static class RequestStats {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long elapsedNanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(elapsedNanos);
+            long max;
+            while ((max = maxNanos.get()) < elapsedNanos
+                    && !maxNanos.compareAndSet(max, elapsedNanos)) {
+                // retry
+            }
+        }
+
+        public long getRequestCount() {
+            return count.get();
+        }
+
+        public double getAverageLatencyMillis() {
+            long requests = count.get();
+            return requests == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalNanos.get())
+                    / requests / 1000;
+        }
+
+        public double getMaxLatencyMillis() {
+            return (double) TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) / 1000;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.io.InputStream;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
+import org.geogit.remote.HttpRemoteRepo;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.storage.StagingDatabase;
@@ -51,6 +52,8 @@ public class SendObjectResource extends Resource {
         // external network.
         // e.g.: ext.ern.al.IP.int.ern.al.IP
         String ipAddress = info.getAddress() + "." + options.getFirstValue("internalIp", "");
+        // the push session, or the address for clients that do not send it
+        String session = options.getFirstValue("sessionId", ipAddress);
         byte objectIdBytes[] = new byte[20];
         InputStream input;
         try {
@@ -79,8 +82,15 @@ public class SendObjectResource extends Resource {
                 // put it into the staging database until we have all of the data
                 StagingArea index = repository.getIndex();
                 StagingDatabase stagingDatabase = index.getDatabase();
-                stagingDatabase.put(objectId, input);
-                pushManager.addObject(ipAddress, objectId);
+                if (entity.getMediaType() != null
+                        && HttpRemoteRepo.COMPRESSED_OBJECT_MEDIA_TYPE.equals(entity
+                                .getMediaType().getName())) {
+                    // already compressed, store it as is
+                    stagingDatabase.putCompressed(objectId, input);
+                } else {
+                    stagingDatabase.put(objectId, input);
+                }
+                pushManager.addObject(session, objectId);
                 result = new StringRepresentation("Object added: " + objectId.toString());
             }
 
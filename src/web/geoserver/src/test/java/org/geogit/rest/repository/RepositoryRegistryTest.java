@@ -0,0 +1,128 @@
+/* Copyright (c) 2011 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the LGPL 2.1 license, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.geogit.geotools.data.GeoGitDataStore;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.rest.RestletException;
+import org.geotools.data.DataStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.util.ProgressListener;
+import org.restlet.data.Status;
+
+public class RepositoryRegistryTest {
+
+    private Catalog catalog;
+
+    private DataStoreInfo info;
+
+    private RepositoryRegistry registry;
+
+    @Before
+    public void setUp() {
+        WorkspaceInfo workspace = mock(WorkspaceInfo.class);
+        when(workspace.getName()).thenReturn("ws");
+        info = mock(DataStoreInfo.class);
+        when(info.getName()).thenReturn("repo");
+        when(info.getWorkspace()).thenReturn(workspace);
+        when(info.isEnabled()).thenReturn(true);
+        catalog = mock(Catalog.class);
+        when(catalog.getDataStoreByName("ws", "repo")).thenReturn(info);
+
+        registry = new RepositoryRegistry(catalog);
+        registry.setWarmUpCommits(0);
+    }
+
+    @After
+    public void tearDown() {
+        registry.dispose();
+    }
+
+    @Test
+    public void testResolvedOnce() throws Exception {
+        GeoGitDataStore dataStore = mock(GeoGitDataStore.class);
+        doReturn(dataStore).when(info).getDataStore((ProgressListener) any());
+
+        assertSame(dataStore, registry.get("ws:repo"));
+        assertSame(dataStore, registry.get("ws:repo"));
+        verify(catalog, times(1)).getDataStoreByName("ws", "repo");
+        assertEquals(1, registry.getCachedRepositories().size());
+    }
+
+    /**
+     * The resource pool disposes the data stores it evicts from its cache and creates them anew
+     * the next time they're requested, the registry shall not keep serving the disposed ones
+     */
+    @Test
+    public void testDataStoreRecreatedByResourcePool() throws Exception {
+        GeoGitDataStore disposed = mock(GeoGitDataStore.class);
+        GeoGitDataStore recreated = mock(GeoGitDataStore.class);
+        doReturn(disposed).doReturn(recreated).when(info).getDataStore((ProgressListener) any());
+
+        assertSame(disposed, registry.get("ws:repo"));
+        assertSame(recreated, registry.get("ws:repo"));
+        verify(catalog, times(1)).getDataStoreByName("ws", "repo");
+    }
+
+    @Test
+    public void testInvalidatedOnRemove() throws Exception {
+        GeoGitDataStore dataStore = mock(GeoGitDataStore.class);
+        doReturn(dataStore).when(info).getDataStore((ProgressListener) any());
+        registry.get("ws:repo");
+
+        CatalogRemoveEvent event = mock(CatalogRemoveEvent.class);
+        when(event.getSource()).thenReturn(info);
+        registry.handleRemoveEvent(event);
+        assertTrue(registry.getCachedRepositories().isEmpty());
+
+        when(catalog.getDataStoreByName("ws", "repo")).thenReturn(null);
+        try {
+            registry.get("ws:repo");
+            fail("expected RestletException");
+        } catch (RestletException e) {
+            assertEquals(Status.CLIENT_ERROR_NOT_FOUND, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testNotGeogitDataStore() throws Exception {
+        doReturn(mock(DataStore.class)).when(info).getDataStore((ProgressListener) any());
+        try {
+            registry.get("ws:repo");
+            fail("expected RestletException");
+        } catch (RestletException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+        assertTrue(registry.getCachedRepositories().isEmpty());
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        when(info.isEnabled()).thenReturn(false);
+        try {
+            registry.get("ws:repo");
+            fail("expected RestletException");
+        } catch (RestletException e) {
+            assertEquals(Status.CLIENT_ERROR_BAD_REQUEST, e.getStatus());
+        }
+    }
+}